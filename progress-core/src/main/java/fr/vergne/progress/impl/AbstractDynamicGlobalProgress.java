@@ -0,0 +1,414 @@
+package fr.vergne.progress.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * An {@link AbstractDynamicGlobalProgress} is a {@link GlobalProgress} whose
+ * sub-progresses can be added and removed at any time. It manages the
+ * listening of the sub-progresses, its own {@link ProgressListener}s and its
+ * detaching once closed or collected, such that the extending classes only
+ * compute their values from the updates of the sub-progresses they count.
+ * </p>
+ * <p>
+ * A sub-progress is listened before to read its values, such that no update
+ * is missed. It is then counted through
+ * {@link #count(SubListener, Number, Number)}, and its updates are provided
+ * through {@link #currentUpdate(SubListener, Number)} and
+ * {@link #maxUpdate(SubListener, Number)} until it is removed through
+ * {@link #uncount(SubListener)}. All of them are called while holding the
+ * lock of this {@link AbstractDynamicGlobalProgress}, so they do not need to
+ * synchronize anything else.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ * @param <Sub>
+ *            the {@link SubListener} which stores what is needed for each
+ *            sub-progress
+ */
+abstract class AbstractDynamicGlobalProgress<Value extends Number, Sub extends AbstractDynamicGlobalProgress.SubListener>
+		implements ProgressSnapshot.Composite<Value>, GlobalProgress<Value> {
+
+	private final Map<Progress<?>, Sub> sublisteners = new HashMap<>();
+	private volatile long compositionVersion = 0;
+	private final Collection<ProgressListener<? super Value>> listeners = new HashSet<>();
+	/**
+	 * Created at the first instrumented update, such that a
+	 * {@link AbstractDynamicGlobalProgress} never instrumented does not pay for it.
+	 */
+	private volatile ProgressInstrumentation.Probe probe = null;
+	/**
+	 * Shared by the listeners of the sub-progresses, which should not prevent
+	 * the collection of this {@link AbstractDynamicGlobalProgress}.
+	 */
+	private final WeakReference<AbstractDynamicGlobalProgress<?, ?>> self = new WeakReference<AbstractDynamicGlobalProgress<?, ?>>(
+			this);
+	private final ProgressCleaner.Cleanable cleanable = ProgressCleaner
+			.register(this, new Detacher(sublisteners));
+
+	/**
+	 * Listen to a sub-progress on behalf of an
+	 * {@link AbstractDynamicGlobalProgress}, without preventing its
+	 * collection. The extending classes store there what they need to know
+	 * about the sub-progress.
+	 */
+	static class SubListener implements ProgressListener<Number> {
+		WeakReference<AbstractDynamicGlobalProgress<?, ?>> parent;
+		Progress<?> subprogress;
+		boolean counted = false;
+
+		/**
+		 *
+		 * @return the sub-progress listened
+		 */
+		public Progress<?> getSubProgress() {
+			return subprogress;
+		}
+
+		@Override
+		public void currentUpdate(Number value) {
+			AbstractDynamicGlobalProgress<?, ?> parent = this.parent.get();
+			if (parent == null) {
+				// Collected, it will be detached soon
+			} else {
+				parent.subCurrentUpdate(this, value);
+			}
+		}
+
+		@Override
+		public void maxUpdate(Number maxValue) {
+			AbstractDynamicGlobalProgress<?, ?> parent = this.parent.get();
+			if (parent == null) {
+				// Collected, it will be detached soon
+			} else {
+				parent.subMaxUpdate(this, maxValue);
+			}
+		}
+	}
+
+	/**
+	 * Stop listening to the sub-progresses of an
+	 * {@link AbstractDynamicGlobalProgress}, without referencing it.
+	 */
+	private static class Detacher implements Runnable {
+		private final Map<Progress<?>, ? extends SubListener> sublisteners;
+
+		public Detacher(Map<Progress<?>, ? extends SubListener> sublisteners) {
+			this.sublisteners = sublisteners;
+		}
+
+		@Override
+		public void run() {
+			List<Progress<?>> subprogresses;
+			synchronized (sublisteners) {
+				subprogresses = new ArrayList<>(sublisteners.keySet());
+			}
+			for (Progress<?> subprogress : subprogresses) {
+				SubListener listener;
+				synchronized (sublisteners) {
+					listener = sublisteners.remove(subprogress);
+				}
+				if (listener == null) {
+					// Removed concurrently
+				} else {
+					subprogress.removeProgressListener(listener);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start to listen to a sub-progress and count it.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to add
+	 * @param listener
+	 *            a new {@link SubListener} for this sub-progress
+	 * @throws IllegalArgumentException
+	 *             if the sub-progress has already been added
+	 */
+	protected void addSubProgress(Progress<?> subprogress, Sub listener) {
+		if (subprogress == null) {
+			throw new NullPointerException("Null subprogress provided");
+		} else {
+			listener.parent = self;
+			listener.subprogress = subprogress;
+			synchronized (sublisteners) {
+				if (sublisteners.containsKey(subprogress)) {
+					throw new IllegalArgumentException(
+							"Already added progress: " + subprogress);
+				} else {
+					sublisteners.put(subprogress, listener);
+				}
+			}
+			/*
+			 * Listen before to read the values, such that no update is missed.
+			 * The updates notified before to count them are already in the
+			 * values read.
+			 */
+			subprogress.addProgressListener(listener);
+			synchronized (this) {
+				boolean added;
+				synchronized (sublisteners) {
+					added = sublisteners.get(subprogress) == listener;
+				}
+				if (added) {
+					listener.counted = true;
+					compositionVersion++;
+					count(listener, subprogress.getCurrentValue(),
+							subprogress.getMaxValue());
+				} else {
+					// Removed concurrently
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop to listen to a sub-progress and to count it.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to remove
+	 * @return <code>true</code> if the sub-progress was added,
+	 *         <code>false</code> otherwise
+	 */
+	protected boolean removeSubProgress(Progress<?> subprogress) {
+		Sub listener;
+		synchronized (sublisteners) {
+			listener = sublisteners.remove(subprogress);
+		}
+		if (listener == null) {
+			return false;
+		} else {
+			subprogress.removeProgressListener(listener);
+			synchronized (this) {
+				if (listener.counted) {
+					listener.counted = false;
+					compositionVersion++;
+					uncount(listener);
+				} else {
+					// Removed before to be counted
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 *
+	 * @param subprogress
+	 *            the sub-progress to look for
+	 * @return its {@link SubListener}, <code>null</code> if it has not been
+	 *         added
+	 */
+	protected Sub getSubListener(Progress<?> subprogress) {
+		synchronized (sublisteners) {
+			return sublisteners.get(subprogress);
+		}
+	}
+
+	/**
+	 *
+	 * @param listener
+	 *            the {@link SubListener} of a sub-progress
+	 * @return <code>true</code> if its sub-progress is counted, so between
+	 *         its {@link #count(SubListener, Number, Number)} and its
+	 *         {@link #uncount(SubListener)}
+	 */
+	protected boolean isCounted(Sub listener) {
+		return listener.counted;
+	}
+
+	/**
+	 * Tell that something else than the sub-progresses changed the values of
+	 * this {@link AbstractDynamicGlobalProgress}, like the way to count them.
+	 */
+	protected synchronized void changeComposition() {
+		compositionVersion++;
+	}
+
+	/**
+	 * Start to count a sub-progress.
+	 *
+	 * @param listener
+	 *            the {@link SubListener} of the sub-progress
+	 * @param current
+	 *            its current value
+	 * @param max
+	 *            its max value, possibly <code>null</code>
+	 */
+	protected abstract void count(Sub listener, Number current, Number max);
+
+	/**
+	 * Stop to count a sub-progress.
+	 *
+	 * @param listener
+	 *            the {@link SubListener} of the sub-progress
+	 */
+	protected abstract void uncount(Sub listener);
+
+	/**
+	 * Count a new current value of a sub-progress.
+	 *
+	 * @param listener
+	 *            the {@link SubListener} of the sub-progress
+	 * @param value
+	 *            its new current value
+	 */
+	protected abstract void currentUpdate(Sub listener, Number value);
+
+	/**
+	 * Count a new max value of a sub-progress.
+	 *
+	 * @param listener
+	 *            the {@link SubListener} of the sub-progress
+	 * @param value
+	 *            its new max value, possibly <code>null</code>
+	 */
+	protected abstract void maxUpdate(Sub listener, Number value);
+
+	@SuppressWarnings("unchecked")
+	private synchronized void subCurrentUpdate(SubListener listener,
+			Number value) {
+		if (listener.counted) {
+			currentUpdate((Sub) listener, value);
+		} else {
+			// Not counted yet, or not anymore
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized void subMaxUpdate(SubListener listener, Number value) {
+		if (listener.counted) {
+			maxUpdate((Sub) listener, value);
+		} else {
+			// Not counted yet, or not anymore
+		}
+	}
+
+	/**
+	 *
+	 * @return the {@link ProgressInstrumentation.Probe} of this
+	 *         {@link AbstractDynamicGlobalProgress}, created if needed
+	 */
+	private ProgressInstrumentation.Probe getProbe() {
+		ProgressInstrumentation.Probe probe = this.probe;
+		if (probe == null) {
+			synchronized (this) {
+				probe = this.probe;
+				if (probe == null) {
+					probe = new ProgressInstrumentation.Probe(this);
+					this.probe = probe;
+				} else {
+					// Created concurrently
+				}
+			}
+		} else {
+			// Already created
+		}
+		return probe;
+	}
+
+	/**
+	 * Notify the {@link ProgressListener}s of a new current value. It should
+	 * be called while holding the lock of this
+	 * {@link AbstractDynamicGlobalProgress}.
+	 */
+	protected void notifyCurrentUpdate(Value value) {
+		if (ProgressInstrumentation.isEnabled()) {
+			getProbe().notifyCurrentUpdate(listeners, value);
+		} else {
+			for (ProgressListener<? super Value> listener : listeners) {
+				listener.currentUpdate(value);
+			}
+			ProgressInstrumentation.Probe probe = this.probe;
+			if (probe == null) {
+				// Never instrumented, so no isolated listener
+			} else {
+				probe.notifyIsolatedCurrentUpdate(value);
+			}
+		}
+	}
+
+	/**
+	 * Notify the {@link ProgressListener}s of a new max value. It should be
+	 * called while holding the lock of this
+	 * {@link AbstractDynamicGlobalProgress}.
+	 */
+	protected void notifyMaxUpdate(Value value) {
+		if (ProgressInstrumentation.isEnabled()) {
+			getProbe().notifyMaxUpdate(listeners, value);
+		} else {
+			for (ProgressListener<? super Value> listener : listeners) {
+				listener.maxUpdate(value);
+			}
+			ProgressInstrumentation.Probe probe = this.probe;
+			if (probe == null) {
+				// Never instrumented, so no isolated listener
+			} else {
+				probe.notifyIsolatedMaxUpdate(value);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return a version which changes each time a sub-progress is added or
+	 *         removed, or when the composition is changed otherwise
+	 */
+	@Override
+	public long getCompositionVersion() {
+		return compositionVersion;
+	}
+
+	@Override
+	public Collection<? extends Progress<?>> getSubProgresses() {
+		synchronized (sublisteners) {
+			return new ArrayList<Progress<?>>(sublisteners.keySet());
+		}
+	}
+
+	@Override
+	public void addProgressListener(ProgressListener<? super Value> listener) {
+		synchronized (this) {
+			listeners.add(listener);
+		}
+	}
+
+	@Override
+	public void removeProgressListener(ProgressListener<? super Value> listener) {
+		synchronized (this) {
+			listeners.remove(listener);
+			ProgressInstrumentation.Probe probe = this.probe;
+			if (probe == null) {
+				// Never instrumented, so no isolated listener
+			} else {
+				probe.removeIsolated(listener);
+			}
+		}
+	}
+
+	/**
+	 * Stop listening to all the sub-progresses, which are removed without
+	 * changing the values of this {@link AbstractDynamicGlobalProgress}.
+	 */
+	@Override
+	public void close() {
+		cleanable.clean();
+	}
+
+	@Override
+	public String toString() {
+		return ProgressUtil.DEFAULT_FORMATTER.format(this);
+	}
+}
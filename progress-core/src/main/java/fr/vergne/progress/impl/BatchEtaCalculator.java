@@ -0,0 +1,252 @@
+package fr.vergne.progress.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import fr.vergne.progress.Predictor;
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.impl.PredictorFactory.LinearPredictor;
+import fr.vergne.progress.impl.PredictorFactory.UnableToPredictException;
+
+/**
+ * <p>
+ * A {@link BatchEtaCalculator} computes the termination times of many
+ * {@link Progress} instances at once, like
+ * {@link ProgressUtil#predictTerminationTime(Predictor, Predictor)} would do
+ * for each of them. Each {@link Progress} is represented by the
+ * {@link Predictor}s of its current and max values, registered through
+ * {@link #add(Predictor, Predictor)}.
+ * </p>
+ *
+ * <p>
+ * When both {@link Predictor}s are {@link LinearPredictor}s, like the ones
+ * provided by
+ * {@link PredictorFactory#createLinearPredictor(Progress, PredictorFactory.PredictedValue)}
+ * and
+ * {@link PredictorFactory#createConstantPredictor(Number)}, the termination
+ * time is the crossing of two lines, which is computed directly on
+ * <code>double</code>s without any iterative search nor allocation. Other
+ * {@link Predictor}s fall back to
+ * {@link ProgressUtil#predictTerminationTime(Predictor, Predictor, long)}.
+ * All the termination times are computed in a single pass and stored in a
+ * <code>long[]</code> which can be reused from one computation to the next.
+ * Termination times which cannot be predicted are set to
+ * {@link #UNPREDICTABLE}.
+ * </p>
+ *
+ * <p>
+ * For very large groups, the pass can be split between the threads of a
+ * {@link ForkJoinPool} by using
+ * {@link #BatchEtaCalculator(ForkJoinPool, int)}. A
+ * {@link BatchEtaCalculator} is not thread-safe: {@link Predictor}s should not
+ * be added while computing termination times.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class BatchEtaCalculator {
+
+	/**
+	 * Termination time set when it cannot be predicted, typically because the
+	 * {@link Progress} does not progress or lacks of data.
+	 */
+	public static final long UNPREDICTABLE = Long.MIN_VALUE;
+
+	private final ForkJoinPool pool;
+	private final int parallelThreshold;
+	private Predictor<?>[] currentPredictors = new Predictor<?>[16];
+	private Predictor<?>[] maxPredictors = new Predictor<?>[16];
+	private boolean[] analytic = new boolean[16];
+	private int size = 0;
+
+	/**
+	 * Create a {@link BatchEtaCalculator} which computes all the termination
+	 * times in the calling thread.
+	 */
+	public BatchEtaCalculator() {
+		this(null, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Create a {@link BatchEtaCalculator} which splits the computation between
+	 * the threads of a {@link ForkJoinPool} when there is more
+	 * {@link Predictor}s than a given threshold.
+	 *
+	 * @param pool
+	 *            the {@link ForkJoinPool} to use, typically
+	 *            {@link ForkJoinPool#commonPool()}
+	 * @param parallelThreshold
+	 *            the maximum number of termination times to compute in a
+	 *            single task
+	 */
+	public BatchEtaCalculator(ForkJoinPool pool, int parallelThreshold) {
+		if (parallelThreshold <= 0) {
+			throw new IllegalArgumentException(
+					"The threshold should be strictly positive: "
+							+ parallelThreshold);
+		} else {
+			this.pool = pool;
+			this.parallelThreshold = parallelThreshold;
+		}
+	}
+
+	/**
+	 * Add the {@link Predictor}s of a {@link Progress} to consider.
+	 *
+	 * @param currentPredictor
+	 *            the {@link Predictor} for the current value of the
+	 *            {@link Progress}
+	 * @param maxPredictor
+	 *            the {@link Predictor} for the max value of the
+	 *            {@link Progress}
+	 * @return the index at which the termination time of this
+	 *         {@link Progress} is stored in the computed arrays
+	 */
+	public <Value extends Number> int add(Predictor<Value> currentPredictor,
+			Predictor<Value> maxPredictor) {
+		if (currentPredictor == null) {
+			throw new NullPointerException("No current predictor provided");
+		} else if (maxPredictor == null) {
+			throw new NullPointerException("No max predictor provided");
+		} else {
+			if (size == analytic.length) {
+				int capacity = 2 * size;
+				currentPredictors = Arrays.copyOf(currentPredictors, capacity);
+				maxPredictors = Arrays.copyOf(maxPredictors, capacity);
+				analytic = Arrays.copyOf(analytic, capacity);
+			} else {
+				// Enough space
+			}
+			currentPredictors[size] = currentPredictor;
+			maxPredictors[size] = maxPredictor;
+			analytic[size] = currentPredictor instanceof LinearPredictor
+					&& maxPredictor instanceof LinearPredictor;
+			return size++;
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of {@link Progress} instances considered
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Same than {@link #computeTerminationTimes(long, long[])} from the current
+	 * time and with a new array.
+	 */
+	public long[] computeTerminationTimes() {
+		return computeTerminationTimes(System.currentTimeMillis(), null);
+	}
+
+	/**
+	 * Compute the termination times of all the {@link Progress} instances
+	 * considered. If the array provided is big enough, it is filled and
+	 * returned, otherwise a new one is created.
+	 *
+	 * @param now
+	 *            the timestamp from which to search the termination times
+	 * @param results
+	 *            the array to fill, possibly <code>null</code>
+	 * @return the array containing the termination times, in the order of
+	 *         {@link #add(Predictor, Predictor)}
+	 */
+	public long[] computeTerminationTimes(long now, long[] results) {
+		if (results == null || results.length < size) {
+			results = new long[size];
+		} else {
+			// Reuse it
+		}
+
+		if (pool == null || size <= parallelThreshold) {
+			compute(0, size, now, results);
+		} else {
+			pool.invoke(new ComputeAction(0, size, now, results));
+		}
+		return results;
+	}
+
+	private void compute(int start, int end, long now, long[] results) {
+		for (int i = start; i < end; i++) {
+			if (analytic[i]) {
+				results[i] = computeAnalytically(
+						(LinearPredictor<?>) currentPredictors[i],
+						(LinearPredictor<?>) maxPredictors[i], now);
+			} else {
+				results[i] = computeIteratively(currentPredictors[i],
+						maxPredictors[i], now);
+			}
+		}
+	}
+
+	private long computeAnalytically(LinearPredictor<?> currentPredictor,
+			LinearPredictor<?> maxPredictor, long now) {
+		double currentSlope;
+		double currentIntercept;
+		synchronized (currentPredictor) {
+			currentSlope = currentPredictor.getSlope();
+			currentIntercept = currentPredictor.getIntercept();
+		}
+		double maxSlope;
+		double maxIntercept;
+		synchronized (maxPredictor) {
+			maxSlope = maxPredictor.getSlope();
+			maxIntercept = maxPredictor.getIntercept();
+		}
+
+		double slope = currentSlope - maxSlope;
+		double intercept = currentIntercept - maxIntercept;
+		if (Double.isNaN(slope) || Double.isNaN(intercept)) {
+			return UNPREDICTABLE;
+		} else if (slope * now + intercept >= 0) {
+			return now;
+		} else if (slope <= 0) {
+			return UNPREDICTABLE;
+		} else {
+			// Casting saturates to Long.MAX_VALUE for times too far
+			return Math.max(now, (long) Math.ceil(-intercept / slope));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <Value extends Number> long computeIteratively(
+			Predictor<?> currentPredictor, Predictor<?> maxPredictor, long now) {
+		try {
+			return ProgressUtil.predictTerminationTime(
+					(Predictor<Value>) currentPredictor,
+					(Predictor<Value>) maxPredictor, now);
+		} catch (UnableToPredictException e) {
+			return UNPREDICTABLE;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private class ComputeAction extends RecursiveAction {
+		private final int start;
+		private final int end;
+		private final long now;
+		private final long[] results;
+
+		public ComputeAction(int start, int end, long now, long[] results) {
+			this.start = start;
+			this.end = end;
+			this.now = now;
+			this.results = results;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= parallelThreshold) {
+				BatchEtaCalculator.this.compute(start, end, now, results);
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(new ComputeAction(start, middle, now, results),
+						new ComputeAction(middle, end, now, results));
+			}
+		}
+	}
+}
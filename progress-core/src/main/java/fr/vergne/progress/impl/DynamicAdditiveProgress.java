@@ -0,0 +1,204 @@
+package fr.vergne.progress.impl;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.impl.ProgressUtil.ValueTranslator;
+
+/**
+ * <p>
+ * A {@link DynamicAdditiveProgress} adds the values of its sub-progresses,
+ * like {@link ProgressFactory#createGlobalAdditiveProgress(Collection)}, but
+ * its sub-progresses can be {@link #add(Progress) added} and
+ * {@link #remove(Progress) removed} at any time. This allows to rebalance
+ * shards of work without creating a new global {@link Progress} and
+ * subscribing again to all of them.
+ * </p>
+ * <p>
+ * The sums are not recomputed from all the sub-progresses: each of them
+ * remembers its last contribution, so an update of a sub-progress only adds
+ * its difference to the sums, and adding or removing a sub-progress only adds
+ * or subtracts its own contribution. The max value is <code>null</code> as
+ * long as one of the sub-progresses has no max value.
+ * </p>
+ * <p>
+ * Without sub-progress, the current value is the zero provided at creation
+ * but the max value is <code>null</code>: there is nothing to do yet, but
+ * nothing is done either, so it is not {@link #isFinished() finished}. It
+ * finishes only once all the sub-progresses added are finished.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class DynamicAdditiveProgress<Value extends Number> extends
+		AbstractDynamicGlobalProgress<Value, DynamicAdditiveProgress.SubListener> {
+
+	private final ValueTranslator<Value> translator;
+	private final Value zero;
+	private BigDecimal current = BigDecimal.ZERO;
+	private BigDecimal max = BigDecimal.ZERO;
+	private int unknownMaxCount = 0;
+	private int countedCount = 0;
+	private volatile Value currentValue;
+	private volatile Value maxValue;
+
+	/**
+	 * Remember the contribution of a sub-progress to the sums.
+	 */
+	static class SubListener extends AbstractDynamicGlobalProgress.SubListener {
+		private BigDecimal current;
+		private BigDecimal max;
+	}
+
+	/**
+	 *
+	 * @param zero
+	 *            the current value of this {@link DynamicAdditiveProgress}
+	 *            when it has no sub-progress, which also tells the type of
+	 *            {@link Value} to compute
+	 */
+	public DynamicAdditiveProgress(Value zero) {
+		this.translator = ProgressUtil.createValueTranslator(zero);
+		this.zero = zero;
+		this.currentValue = zero;
+		this.maxValue = null;
+	}
+
+	/**
+	 * Add a sub-progress to this {@link DynamicAdditiveProgress}: its current
+	 * and max values are added to the ones of this
+	 * {@link DynamicAdditiveProgress}, which listens to it until it is
+	 * {@link #remove(Progress) removed}.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to add
+	 * @throws IllegalArgumentException
+	 *             if the sub-progress has already been added
+	 */
+	public void add(Progress<Value> subprogress) {
+		addSubProgress(subprogress, new SubListener());
+	}
+
+	/**
+	 * Remove a sub-progress from this {@link DynamicAdditiveProgress}: its
+	 * current and max values are subtracted from the ones of this
+	 * {@link DynamicAdditiveProgress}, which stops listening to it.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to remove
+	 * @return <code>true</code> if the sub-progress was added,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean remove(Progress<Value> subprogress) {
+		return removeSubProgress(subprogress);
+	}
+
+	@Override
+	protected void count(SubListener listener, Number current, Number max) {
+		listener.current = translator.toDecimal(cast(current));
+		listener.max = max == null ? null : translator.toDecimal(cast(max));
+		this.current = this.current.add(listener.current);
+		countedCount++;
+		if (listener.max == null) {
+			unknownMaxCount++;
+		} else {
+			this.max = this.max.add(listener.max);
+		}
+		refreshMaxValue();
+		refreshCurrentValue();
+	}
+
+	@Override
+	protected void uncount(SubListener listener) {
+		current = current.subtract(listener.current);
+		countedCount--;
+		if (listener.max == null) {
+			unknownMaxCount--;
+		} else {
+			max = max.subtract(listener.max);
+		}
+		refreshCurrentValue();
+		refreshMaxValue();
+	}
+
+	@Override
+	protected void currentUpdate(SubListener listener, Number value) {
+		BigDecimal decimal = translator.toDecimal(cast(value));
+		current = current.add(decimal.subtract(listener.current));
+		listener.current = decimal;
+		refreshCurrentValue();
+	}
+
+	@Override
+	protected void maxUpdate(SubListener listener, Number value) {
+		BigDecimal decimal = value == null ? null : translator
+				.toDecimal(cast(value));
+		if (listener.max == null) {
+			unknownMaxCount--;
+		} else {
+			max = max.subtract(listener.max);
+		}
+		if (decimal == null) {
+			unknownMaxCount++;
+		} else {
+			max = max.add(decimal);
+		}
+		listener.max = decimal;
+		refreshMaxValue();
+	}
+
+	private void refreshCurrentValue() {
+		Value value = translator.toValue(current);
+		currentValue = value;
+		notifyCurrentUpdate(value);
+	}
+
+	private void refreshMaxValue() {
+		Value value = countedCount == 0 || unknownMaxCount > 0 ? null
+				: translator.toValue(max);
+		maxValue = value;
+		notifyMaxUpdate(value);
+	}
+
+	@Override
+	public Value getCurrentValue() {
+		return currentValue;
+	}
+
+	@Override
+	public Value getMaxValue() {
+		return maxValue;
+	}
+
+	@Override
+	public Value computeCurrentValue(List<ProgressSnapshot<?>> subSnapshots) {
+		BigDecimal sum = BigDecimal.ZERO;
+		for (ProgressSnapshot<?> snapshot : subSnapshots) {
+			sum = sum.add(translator.toDecimal(cast(snapshot.getCurrentValue())));
+		}
+		return subSnapshots.isEmpty() ? zero : translator.toValue(sum);
+	}
+
+	@Override
+	public Value computeMaxValue(List<ProgressSnapshot<?>> subSnapshots) {
+		BigDecimal sum = BigDecimal.ZERO;
+		for (ProgressSnapshot<?> snapshot : subSnapshots) {
+			Number subMax = snapshot.getMaxValue();
+			if (subMax == null) {
+				return null;
+			} else {
+				sum = sum.add(translator.toDecimal(cast(subMax)));
+			}
+		}
+		return subSnapshots.isEmpty() ? null : translator.toValue(sum);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Value cast(Number value) {
+		return (Value) value;
+	}
+}
@@ -0,0 +1,90 @@
+package fr.vergne.progress.impl;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * An {@link EtaEstimate} provides the expected termination time of a
+ * {@link Progress} together with the bounds in which this termination time
+ * should be found with a given confidence. All the times are timestamps in
+ * milliseconds, like {@link System#currentTimeMillis()}. When a bound cannot be
+ * established, the lower one is the time of the estimation and the upper one
+ * is {@link Long#MAX_VALUE}.
+ * 
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ * 
+ */
+public class EtaEstimate {
+
+	private final long expectedTime;
+	private final long lowerTime;
+	private final long upperTime;
+	private final double confidence;
+
+	/**
+	 * 
+	 * @param expectedTime
+	 *            the most probable termination time
+	 * @param lowerTime
+	 *            the earliest termination time at the given confidence
+	 * @param upperTime
+	 *            the latest termination time at the given confidence
+	 * @param confidence
+	 *            the confidence level of the bounds, in ]0;1[
+	 */
+	public EtaEstimate(long expectedTime, long lowerTime, long upperTime,
+			double confidence) {
+		if (lowerTime > expectedTime || expectedTime > upperTime) {
+			throw new IllegalArgumentException("Inconsistent times: "
+					+ expectedTime + " not in [" + lowerTime + ";" + upperTime
+					+ "]");
+		} else if (!(confidence > 0 && confidence < 1)) {
+			throw new IllegalArgumentException(
+					"The confidence should be in ]0;1[: " + confidence);
+		} else {
+			this.expectedTime = expectedTime;
+			this.lowerTime = lowerTime;
+			this.upperTime = upperTime;
+			this.confidence = confidence;
+		}
+	}
+
+	/**
+	 * 
+	 * @return the most probable termination time
+	 */
+	public long getExpectedTime() {
+		return expectedTime;
+	}
+
+	/**
+	 * 
+	 * @return the earliest termination time at {@link #getConfidence()}
+	 */
+	public long getLowerTime() {
+		return lowerTime;
+	}
+
+	/**
+	 * 
+	 * @return the latest termination time at {@link #getConfidence()}, which
+	 *         is {@link Long#MAX_VALUE} if we cannot exclude that the
+	 *         {@link Progress} never finishes
+	 */
+	public long getUpperTime() {
+		return upperTime;
+	}
+
+	/**
+	 * 
+	 * @return the confidence level of the bounds, in ]0;1[
+	 */
+	public double getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public String toString() {
+		return expectedTime + " in [" + lowerTime + ";" + upperTime + "] at "
+				+ confidence * 100 + "%";
+	}
+}
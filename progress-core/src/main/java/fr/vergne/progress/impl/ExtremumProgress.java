@@ -0,0 +1,299 @@
+package fr.vergne.progress.impl;
+
+import java.util.Arrays;
+import java.util.List;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * An {@link ExtremumProgress} follows the progress ratio (current value
+ * divided by max value) of the sub-progress which is the least advanced, for
+ * a {@link Kind#MINIMUM}, or the most advanced, for a {@link Kind#MAXIMUM}.
+ * Its max value is 1. A {@link Kind#MINIMUM} suits stages synchronized by a
+ * barrier: the stage ends when its slowest partition ends, so it finishes
+ * only when all its sub-progresses are finished, and
+ * {@link #getDrivingSubProgress()} tells which one is the bottleneck. A
+ * {@link Kind#MAXIMUM} finishes as soon as one of them is finished. A
+ * sub-progress without max value counts as not started, and an
+ * {@link ExtremumProgress} without sub-progress stays at 0.
+ * </p>
+ * <p>
+ * The sub-progresses are ordered by ratio in an indexed binary heap, so
+ * updating, adding or removing one of them costs a logarithmic time instead of
+ * scanning all of them. The listeners are notified only when the extremum
+ * changes, so updating a sub-progress far from it does not notify anything.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ExtremumProgress extends
+		AbstractDynamicGlobalProgress<Double, ExtremumProgress.SubListener> {
+
+	/**
+	 * The extremum followed by an {@link ExtremumProgress}.
+	 */
+	public static enum Kind {
+		MINIMUM, MAXIMUM
+	}
+
+	private static final Double MAX_VALUE = 1.0;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Kind kind;
+	private SubListener[] heap = new SubListener[INITIAL_CAPACITY];
+	private int size = 0;
+	private volatile Double currentValue = 0.0;
+	private volatile Progress<?> drivingSubProgress = null;
+
+	/**
+	 * Remember the ratio of a sub-progress and its place in the heap.
+	 */
+	static class SubListener extends AbstractDynamicGlobalProgress.SubListener {
+		private int index = -1;
+		private double current;
+		private double max;
+		private double ratio;
+	}
+
+	/**
+	 *
+	 * @param kind
+	 *            the extremum to follow
+	 */
+	public ExtremumProgress(Kind kind) {
+		if (kind == null) {
+			throw new NullPointerException("No kind provided");
+		} else {
+			this.kind = kind;
+		}
+	}
+
+	/**
+	 *
+	 * @return the extremum followed by this {@link ExtremumProgress}
+	 */
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Add a sub-progress to this {@link ExtremumProgress}, which listens to it
+	 * until it is {@link #remove(Progress) removed}.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to add
+	 * @throws IllegalArgumentException
+	 *             if the sub-progress has already been added
+	 */
+	public void add(Progress<?> subprogress) {
+		addSubProgress(subprogress, new SubListener());
+	}
+
+	/**
+	 * Remove a sub-progress from this {@link ExtremumProgress}, which stops
+	 * listening to it.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to remove
+	 * @return <code>true</code> if the sub-progress was added,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean remove(Progress<?> subprogress) {
+		return removeSubProgress(subprogress);
+	}
+
+	@Override
+	protected void count(SubListener listener, Number current, Number max) {
+		listener.current = toDouble(current);
+		listener.max = toDouble(max);
+		listener.ratio = ratio(listener.current, listener.max);
+		insert(listener);
+		notifyCurrentUpdateIfChanged();
+	}
+
+	@Override
+	protected void uncount(SubListener listener) {
+		delete(listener);
+		notifyCurrentUpdateIfChanged();
+	}
+
+	/**
+	 *
+	 * @return the sub-progress which provides the current value, so the least
+	 *         advanced one for a {@link Kind#MINIMUM} and the most advanced
+	 *         one for a {@link Kind#MAXIMUM}, <code>null</code> if there is
+	 *         no sub-progress
+	 */
+	public Progress<?> getDrivingSubProgress() {
+		return drivingSubProgress;
+	}
+
+	private static double toDouble(Number value) {
+		return value == null ? Double.NaN : value.doubleValue();
+	}
+
+	/**
+	 *
+	 * @return the ratio of a sub-progress, 0 if it has no current or max
+	 *         value
+	 */
+	private static double ratio(double current, double max) {
+		if (Double.isNaN(current) || Double.isNaN(max)) {
+			return 0;
+		} else if (current >= max) {
+			return 1;
+		} else {
+			return current / max;
+		}
+	}
+
+	@Override
+	protected void currentUpdate(SubListener listener, Number value) {
+		listener.current = toDouble(value);
+		updateRatio(listener);
+	}
+
+	@Override
+	protected void maxUpdate(SubListener listener, Number value) {
+		listener.max = toDouble(value);
+		updateRatio(listener);
+	}
+
+	private void updateRatio(SubListener listener) {
+		double ratio = ratio(listener.current, listener.max);
+		if (ratio == listener.ratio) {
+			// No change
+		} else {
+			listener.ratio = ratio;
+			siftUp(listener.index);
+			siftDown(listener.index);
+			notifyCurrentUpdateIfChanged();
+		}
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if the first ratio should be closer to the
+	 *         root of the heap than the second one
+	 */
+	private boolean precedes(double ratio1, double ratio2) {
+		return kind == Kind.MINIMUM ? ratio1 < ratio2 : ratio1 > ratio2;
+	}
+
+	private void insert(SubListener listener) {
+		if (size == heap.length) {
+			heap = Arrays.copyOf(heap, 2 * heap.length);
+		} else {
+			// Enough space
+		}
+		place(listener, size);
+		size++;
+		siftUp(listener.index);
+	}
+
+	private void delete(SubListener listener) {
+		int index = listener.index;
+		size--;
+		SubListener last = heap[size];
+		heap[size] = null;
+		listener.index = -1;
+		if (last == listener) {
+			// Already the last one, nothing to reorder
+		} else {
+			place(last, index);
+			siftUp(index);
+			siftDown(last.index);
+		}
+	}
+
+	private void place(SubListener listener, int index) {
+		heap[index] = listener;
+		listener.index = index;
+	}
+
+	private void siftUp(int index) {
+		SubListener listener = heap[index];
+		while (index > 0) {
+			int parentIndex = (index - 1) / 2;
+			SubListener parent = heap[parentIndex];
+			if (precedes(listener.ratio, parent.ratio)) {
+				place(parent, index);
+				index = parentIndex;
+			} else {
+				break;
+			}
+		}
+		place(listener, index);
+	}
+
+	private void siftDown(int index) {
+		SubListener listener = heap[index];
+		while (true) {
+			int childIndex = 2 * index + 1;
+			if (childIndex >= size) {
+				break;
+			} else {
+				int rightIndex = childIndex + 1;
+				if (rightIndex < size
+						&& precedes(heap[rightIndex].ratio,
+								heap[childIndex].ratio)) {
+					childIndex = rightIndex;
+				} else {
+					// Left child first
+				}
+				SubListener child = heap[childIndex];
+				if (precedes(child.ratio, listener.ratio)) {
+					place(child, index);
+					index = childIndex;
+				} else {
+					break;
+				}
+			}
+		}
+		place(listener, index);
+	}
+
+	private void notifyCurrentUpdateIfChanged() {
+		SubListener root = size == 0 ? null : heap[0];
+		drivingSubProgress = root == null ? null : root.getSubProgress();
+		Double value = root == null ? 0.0 : root.ratio;
+		if (value.equals(currentValue)) {
+			// Same extremum, nothing to notify
+		} else {
+			currentValue = value;
+			notifyCurrentUpdate(value);
+		}
+	}
+
+	@Override
+	public Double getCurrentValue() {
+		return currentValue;
+	}
+
+	@Override
+	public Double getMaxValue() {
+		return MAX_VALUE;
+	}
+
+	@Override
+	public Double computeCurrentValue(List<ProgressSnapshot<?>> subSnapshots) {
+		Double extremum = null;
+		for (ProgressSnapshot<?> snapshot : subSnapshots) {
+			double ratio = ratio(toDouble(snapshot.getCurrentValue()),
+					toDouble(snapshot.getMaxValue()));
+			if (extremum == null || precedes(ratio, extremum)) {
+				extremum = ratio;
+			} else {
+				// Not a better extremum
+			}
+		}
+		return extremum == null ? 0.0 : extremum;
+	}
+
+	@Override
+	public Double computeMaxValue(List<ProgressSnapshot<?>> subSnapshots) {
+		return MAX_VALUE;
+	}
+}
@@ -0,0 +1,42 @@
+package fr.vergne.progress.impl;
+
+/**
+ * <p>
+ * The {@link Fences} order plain memory accesses which are not covered by the
+ * Java memory model, like the ones of a {@link MappedProgressFile} shared with
+ * other processes.
+ * </p>
+ * <p>
+ * Java 8 provides no explicit memory fence, so this implementation uses
+ * volatile accesses to a static field instead. They only order the accesses
+ * of this JVM to this field, so the other accesses are only ordered in
+ * practice, on hardware with total store order like x86, as long as the JIT
+ * compiler does not reorder them. The library is packaged as a multi-release
+ * JAR which provides, from Java 11, another implementation of this class based
+ * on the fences of <code>java.lang.invoke.VarHandle</code>.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+class Fences {
+
+	private static volatile int fence;
+
+	/**
+	 * Ensure that the loads before this fence are not reordered with the loads
+	 * and stores after it.
+	 */
+	public static void acquire() {
+		// Only read for its ordering
+		int unused = fence;
+	}
+
+	/**
+	 * Ensure that the loads and stores before this fence are not reordered
+	 * with the stores after it.
+	 */
+	public static void release() {
+		fence = 0;
+	}
+}
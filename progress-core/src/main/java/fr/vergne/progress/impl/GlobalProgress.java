@@ -0,0 +1,35 @@
+package fr.vergne.progress.impl;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * A {@link GlobalProgress} is a {@link Progress} computed from sub-progresses,
+ * like a {@link RecursiveProgress} or the global {@link Progress}es of
+ * {@link ProgressFactory}. It listens to its sub-progresses, so
+ * {@link #close()} should be called once it is not needed anymore, to stop
+ * listening to them. This is how long-living sub-progresses are released
+ * deterministically from the {@link GlobalProgress}es which are done with
+ * them.
+ * </p>
+ * <p>
+ * A {@link GlobalProgress} which is not closed still stops listening to its
+ * sub-progresses at some point after it is not reachable anymore, but only
+ * once the garbage collector notices it.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public interface GlobalProgress<Value extends Number> extends Progress<Value>,
+		AutoCloseable {
+
+	/**
+	 * Stop listening to the sub-progresses. The values of this
+	 * {@link GlobalProgress} are not updated anymore, and its listeners are
+	 * not notified anymore. Closing it again has no effect.
+	 */
+	@Override
+	public void close();
+}
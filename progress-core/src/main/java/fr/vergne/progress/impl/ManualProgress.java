@@ -9,18 +9,26 @@ import fr.vergne.progress.impl.ProgressUtil.ValueTranslator;
 
 /**
  * A {@link ManualProgress} aims at providing a simple {@link Progress} that one
- * can manually update.
+ * can manually update. Its current and max values are stored together in an
+ * immutable {@link ProgressSnapshot}, replaced at each update, so
+ * {@link #getSnapshot()} provides both of them without locking.
  * 
  * @author Matthieu Vergne <matthieu.vergne@gmail.com>
  * 
  * @param <Value>
  */
-public class ManualProgress<Value extends Number> implements Progress<Value> {
+public class ManualProgress<Value extends Number> implements
+		ProgressSnapshot.Leaf<Value> {
 
-	private Value currentValue;
-	private Value maxValue;
+	private volatile ProgressSnapshot<Value> snapshot = new ProgressSnapshot<Value>(
+			this, null, null);
 	private final Collection<ProgressListener<? super Value>> listeners = new HashSet<>();
 	private final ValueTranslator<Value> translator;
+	/**
+	 * Created at the first instrumented update, such that a
+	 * {@link ManualProgress} never instrumented does not pay for it.
+	 */
+	private volatile ProgressInstrumentation.Probe probe = null;
 
 	/**
 	 * 
@@ -43,16 +51,27 @@ public class ManualProgress<Value extends Number> implements Progress<Value> {
 		} else if (value.doubleValue() < 0) {
 			throw new IllegalArgumentException(
 					"The current value cannot be negative: " + value);
-		} else if (maxValue != null
-				&& value.doubleValue() > maxValue.doubleValue()) {
+		} else if (getMaxValue() != null
+				&& value.doubleValue() > getMaxValue().doubleValue()) {
 			throw new IllegalArgumentException(
 					"The current value cannot be higher than the max value ("
-							+ maxValue + "): " + value);
+							+ getMaxValue() + "): " + value);
 		} else {
 			synchronized (this) {
-				this.currentValue = value;
-				for (ProgressListener<? super Value> listener : listeners) {
-					listener.currentUpdate(value);
+				snapshot = new ProgressSnapshot<Value>(this, value,
+						snapshot.getMaxValue());
+				if (ProgressInstrumentation.isEnabled()) {
+					getProbe().notifyCurrentUpdate(listeners, value);
+				} else {
+					for (ProgressListener<? super Value> listener : listeners) {
+						listener.currentUpdate(value);
+					}
+					ProgressInstrumentation.Probe probe = this.probe;
+					if (probe == null) {
+						// Never instrumented, so no isolated listener
+					} else {
+						probe.notifyIsolatedCurrentUpdate(value);
+					}
 				}
 			}
 		}
@@ -60,7 +79,7 @@ public class ManualProgress<Value extends Number> implements Progress<Value> {
 
 	@Override
 	public Value getCurrentValue() {
-		return currentValue;
+		return snapshot.getCurrentValue();
 	}
 
 	/**
@@ -71,7 +90,7 @@ public class ManualProgress<Value extends Number> implements Progress<Value> {
 	 *            the {@link Value} to add to the current value
 	 */
 	public void add(Value addedValue) {
-		BigDecimal v1 = translator.toDecimal(currentValue);
+		BigDecimal v1 = translator.toDecimal(getCurrentValue());
 		BigDecimal v2 = translator.toDecimal(addedValue);
 		BigDecimal sum = v1.add(v2);
 
@@ -83,15 +102,26 @@ public class ManualProgress<Value extends Number> implements Progress<Value> {
 			throw new IllegalArgumentException(
 					"The max value cannot be negative: " + value);
 		} else if (value != null
-				&& currentValue.doubleValue() > value.doubleValue()) {
+				&& getCurrentValue().doubleValue() > value.doubleValue()) {
 			throw new IllegalArgumentException(
 					"The max value cannot be lower than the current value ("
-							+ currentValue + "): " + value);
+							+ getCurrentValue() + "): " + value);
 		} else {
 			synchronized (this) {
-				this.maxValue = value;
-				for (ProgressListener<? super Value> listener : listeners) {
-					listener.maxUpdate(value);
+				snapshot = new ProgressSnapshot<Value>(this,
+						snapshot.getCurrentValue(), value);
+				if (ProgressInstrumentation.isEnabled()) {
+					getProbe().notifyMaxUpdate(listeners, value);
+				} else {
+					for (ProgressListener<? super Value> listener : listeners) {
+						listener.maxUpdate(value);
+					}
+					ProgressInstrumentation.Probe probe = this.probe;
+					if (probe == null) {
+						// Never instrumented, so no isolated listener
+					} else {
+						probe.notifyIsolatedMaxUpdate(value);
+					}
 				}
 			}
 		}
@@ -99,17 +129,51 @@ public class ManualProgress<Value extends Number> implements Progress<Value> {
 
 	@Override
 	public Value getMaxValue() {
-		return maxValue;
+		return snapshot.getMaxValue();
+	}
+
+	/**
+	 * 
+	 * @return the current and max values of this {@link ManualProgress}, as
+	 *         set by the last update
+	 */
+	@Override
+	public ProgressSnapshot<Value> getSnapshot() {
+		return snapshot;
 	}
 
 	public void finish() {
-		if (maxValue == null) {
-			setMaxValue(currentValue);
+		ProgressSnapshot<Value> state = snapshot;
+		if (state.getMaxValue() == null) {
+			setMaxValue(state.getCurrentValue());
 		} else {
-			setCurrentValue(maxValue);
+			setCurrentValue(state.getMaxValue());
 		}
 	}
 
+	/**
+	 *
+	 * @return the {@link ProgressInstrumentation.Probe} of this
+	 *         {@link ManualProgress}, created if needed
+	 */
+	private ProgressInstrumentation.Probe getProbe() {
+		ProgressInstrumentation.Probe probe = this.probe;
+		if (probe == null) {
+			synchronized (this) {
+				probe = this.probe;
+				if (probe == null) {
+					probe = new ProgressInstrumentation.Probe(this);
+					this.probe = probe;
+				} else {
+					// Created concurrently
+				}
+			}
+		} else {
+			// Already created
+		}
+		return probe;
+	}
+
 	@Override
 	public void addProgressListener(ProgressListener<? super Value> listener) {
 		synchronized (this) {
@@ -121,13 +185,12 @@ public class ManualProgress<Value extends Number> implements Progress<Value> {
 	public void removeProgressListener(ProgressListener<? super Value> listener) {
 		synchronized (this) {
 			listeners.remove(listener);
-		}
-	}
-
-	@Override
-	protected void finalize() throws Throwable {
-		synchronized (this) {
-			listeners.clear();
+			ProgressInstrumentation.Probe probe = this.probe;
+			if (probe == null) {
+				// Never instrumented, so no isolated listener
+			} else {
+				probe.removeIsolated(listener);
+			}
 		}
 	}
 
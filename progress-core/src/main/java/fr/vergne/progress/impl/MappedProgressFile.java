@@ -0,0 +1,409 @@
+package fr.vergne.progress.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+/**
+ * <p>
+ * A {@link MappedProgressFile} shares the state of several {@link Progress}
+ * instances between processes through a memory-mapped file. The file is
+ * divided into slots, each storing the current value, the max value, the time
+ * of the last update and the {@link State} of one {@link Progress}. Worker
+ * processes update their slots, typically through
+ * {@link #createManualProgress(int, long, Long)} or
+ * {@link #bind(int, Progress)}, while a coordinator process reads all of them
+ * with {@link #read(int, Slot)}. Reads are served directly from the mapped
+ * memory, without copying the file nor calling the system.
+ * </p>
+ *
+ * <p>
+ * Each slot is protected by a sequence number, like a seqlock: the writer makes
+ * it odd before to update the slot and even after, so a reader which sees the
+ * same even sequence before and after reading the slot knows that it read a
+ * consistent state, otherwise it retries. If a writer dies while writing,
+ * its slot remains odd: after {@link #STALE_TIMEOUT} milliseconds of retries,
+ * the slot is read as {@link State#STALE}, until it is written again. The
+ * accesses to the slot are ordered by {@link Fences}, whose guarantees depend
+ * on the Java version. Each slot should have a single writer, but any number
+ * of readers.
+ * </p>
+ *
+ * <p>
+ * Slots are 64 bytes long, so writers of different slots do not share cache
+ * lines. An unknown max value is stored as -1.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class MappedProgressFile implements Closeable {
+
+	private static final int MAGIC = 0x50524753; // "PRGS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_SIZE = 64;
+	private static final int SEQUENCE_OFFSET = 0;
+	private static final int CURRENT_OFFSET = 8;
+	private static final int MAX_OFFSET = 16;
+	private static final int TIMESTAMP_OFFSET = 24;
+	private static final int STATE_OFFSET = 32;
+	private static final long UNKNOWN_MAX = -1;
+	private static final State[] STATES = State.values();
+
+	/**
+	 * Time, in milliseconds, during which a slot can be seen as being written
+	 * before to consider that its writer died while writing it.
+	 */
+	public static final long STALE_TIMEOUT = 10;
+
+	/**
+	 * The state of a {@link Progress} stored in a slot.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static enum State {
+		/**
+		 * The slot has never been written.
+		 */
+		UNUSED,
+		/**
+		 * The {@link Progress} is not finished yet.
+		 */
+		RUNNING,
+		/**
+		 * The {@link Progress} is finished.
+		 */
+		FINISHED,
+		/**
+		 * The slot is being written since more than
+		 * {@link MappedProgressFile#STALE_TIMEOUT} milliseconds, probably by
+		 * a process which died while writing it. This state is never written,
+		 * only returned by {@link MappedProgressFile#read(int, Slot)}, and
+		 * the values read may be inconsistent.
+		 */
+		STALE
+	}
+
+	/**
+	 * A {@link Slot} receives the state of a slot read through
+	 * {@link MappedProgressFile#read(int, Slot)}. It can be reused from one
+	 * read to the next to avoid any allocation.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static class Slot {
+		private long currentValue;
+		private long maxValue;
+		private long timestamp;
+		private State state = State.UNUSED;
+
+		public long getCurrentValue() {
+			return currentValue;
+		}
+
+		/**
+		 *
+		 * @return the max value, or <code>null</code> if it is unknown
+		 */
+		public Long getMaxValue() {
+			return maxValue == UNKNOWN_MAX ? null : maxValue;
+		}
+
+		/**
+		 *
+		 * @return the time of the last update, in milliseconds
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		@Override
+		public String toString() {
+			return state + " " + currentValue + "/"
+					+ (maxValue == UNKNOWN_MAX ? "?" : maxValue) + " at "
+					+ timestamp;
+		}
+	}
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int slotCount;
+
+	private MappedProgressFile(FileChannel channel, MappedByteBuffer buffer,
+			int slotCount) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 * Create a new {@link MappedProgressFile}, replacing any existing file.
+	 * All the slots start {@link State#UNUSED}.
+	 *
+	 * @param path
+	 *            the file to create
+	 * @param slotCount
+	 *            the number of slots to provide
+	 * @return the {@link MappedProgressFile}
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public static MappedProgressFile create(Path path, int slotCount)
+			throws IOException {
+		if (slotCount <= 0) {
+			throw new IllegalArgumentException(
+					"The number of slots should be strictly positive: "
+							+ slotCount);
+		} else {
+			FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			long size = HEADER_SIZE + (long) SLOT_SIZE * slotCount;
+			if (size > Integer.MAX_VALUE) {
+				channel.close();
+				throw new IllegalArgumentException("Too many slots: "
+						+ slotCount);
+			} else {
+				// Small enough to be mapped at once
+			}
+			MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, slotCount);
+			buffer.putInt(12, SLOT_SIZE);
+			return new MappedProgressFile(channel, buffer, slotCount);
+		}
+	}
+
+	/**
+	 * Open an existing {@link MappedProgressFile}, typically created by another
+	 * process through {@link #create(Path, int)}.
+	 *
+	 * @param path
+	 *            the file to open
+	 * @return the {@link MappedProgressFile}
+	 * @throws IOException
+	 *             if the file cannot be opened or is not a
+	 *             {@link MappedProgressFile}
+	 */
+	public static MappedProgressFile open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				throw new IOException("Too small file: " + path);
+			} else if (size > Integer.MAX_VALUE) {
+				throw new IOException("Too big file: " + path);
+			} else {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0,
+						size);
+				buffer.order(ByteOrder.nativeOrder());
+				if (buffer.getInt(0) != MAGIC) {
+					throw new IOException("Not a progress file: " + path);
+				} else if (buffer.getInt(4) != VERSION) {
+					throw new IOException("Unsupported version "
+							+ buffer.getInt(4) + ": " + path);
+				} else if (buffer.getInt(12) != SLOT_SIZE) {
+					throw new IOException("Unsupported slot size "
+							+ buffer.getInt(12) + ": " + path);
+				} else {
+					int slotCount = buffer.getInt(8);
+					if (size < HEADER_SIZE + (long) SLOT_SIZE * slotCount) {
+						throw new IOException("Truncated file: " + path);
+					} else {
+						return new MappedProgressFile(channel, buffer,
+								slotCount);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of slots of this {@link MappedProgressFile}
+	 */
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * Write the state of a {@link Progress} into a slot. The state is
+	 * {@link State#FINISHED} if the current value equals the max value,
+	 * {@link State#RUNNING} otherwise.
+	 *
+	 * @param slot
+	 *            the slot to write
+	 * @param currentValue
+	 *            the current value of the {@link Progress}
+	 * @param maxValue
+	 *            the max value of the {@link Progress}, possibly
+	 *            <code>null</code>
+	 */
+	public void write(int slot, long currentValue, Long maxValue) {
+		int position = position(slot);
+		long max = maxValue == null ? UNKNOWN_MAX : maxValue;
+		State state = currentValue == max ? State.FINISHED : State.RUNNING;
+
+		// Already odd if a previous writer died while writing
+		long sequence = buffer.getLong(position + SEQUENCE_OFFSET) | 1;
+		buffer.putLong(position + SEQUENCE_OFFSET, sequence);
+		Fences.release();
+		buffer.putLong(position + CURRENT_OFFSET, currentValue);
+		buffer.putLong(position + MAX_OFFSET, max);
+		buffer.putLong(position + TIMESTAMP_OFFSET, System.currentTimeMillis());
+		buffer.putInt(position + STATE_OFFSET, state.ordinal());
+		Fences.release();
+		buffer.putLong(position + SEQUENCE_OFFSET, sequence + 1);
+	}
+
+	/**
+	 * Read the state of a slot. If the slot is being written concurrently, the
+	 * read is retried until a consistent state is obtained, or until
+	 * {@link #STALE_TIMEOUT} milliseconds have passed, in which case the slot
+	 * is {@link State#STALE}.
+	 *
+	 * @param slot
+	 *            the slot to read
+	 * @param target
+	 *            the {@link Slot} to fill
+	 * @return the {@link Slot} filled
+	 */
+	public Slot read(int slot, Slot target) {
+		int position = position(slot);
+		long deadline = 0;
+		while (true) {
+			long sequenceBefore = buffer.getLong(position + SEQUENCE_OFFSET);
+			Fences.acquire();
+			target.currentValue = buffer.getLong(position + CURRENT_OFFSET);
+			target.maxValue = buffer.getLong(position + MAX_OFFSET);
+			target.timestamp = buffer.getLong(position + TIMESTAMP_OFFSET);
+			int state = buffer.getInt(position + STATE_OFFSET);
+			Fences.acquire();
+			long sequenceAfter = buffer.getLong(position + SEQUENCE_OFFSET);
+			if ((sequenceBefore & 1) == 0 && sequenceBefore == sequenceAfter) {
+				target.state = STATES[state];
+				return target;
+			} else if (deadline == 0) {
+				// Contended read, start to count the time
+				deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(STALE_TIMEOUT);
+			} else if (System.nanoTime() - deadline >= 0) {
+				target.state = State.STALE;
+				return target;
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
+	/**
+	 * Mirror a {@link Progress} into a slot: the slot is written immediately
+	 * and each time the {@link Progress} is updated.
+	 *
+	 * @param slot
+	 *            the slot to write
+	 * @param progress
+	 *            the {@link Progress} to mirror
+	 * @return the {@link ProgressListener} used to update the slot, which can
+	 *         be removed from the {@link Progress} to stop the mirroring
+	 */
+	public <Value extends Number> ProgressListener<Value> bind(final int slot,
+			final Progress<Value> progress) {
+		position(slot);
+		ProgressListener<Value> listener = new ProgressListener<Value>() {
+
+			@Override
+			public void currentUpdate(Value value) {
+				writeProgress(slot, progress);
+			}
+
+			@Override
+			public void maxUpdate(Value maxValue) {
+				writeProgress(slot, progress);
+			}
+		};
+		progress.addProgressListener(listener);
+		writeProgress(slot, progress);
+		return listener;
+	}
+
+	private <Value extends Number> void writeProgress(int slot,
+			Progress<Value> progress) {
+		synchronized (progress) {
+			Value max = progress.getMaxValue();
+			write(slot, progress.getCurrentValue().longValue(),
+					max == null ? null : max.longValue());
+		}
+	}
+
+	/**
+	 * Create a {@link ManualProgress} mirrored into a slot through
+	 * {@link #bind(int, Progress)}.
+	 *
+	 * @param slot
+	 *            the slot to write
+	 * @param startValue
+	 *            the initial value of the {@link ManualProgress}
+	 * @param maxValue
+	 *            the max value of the {@link ManualProgress}, possibly
+	 *            <code>null</code>
+	 * @return the {@link ManualProgress}
+	 */
+	public ManualProgress<Long> createManualProgress(int slot, long startValue,
+			Long maxValue) {
+		ManualProgress<Long> progress = new ManualProgress<Long>(startValue,
+				maxValue);
+		bind(slot, progress);
+		return progress;
+	}
+
+	/**
+	 * Force the content of the slots to be written to the storage device. This
+	 * is not needed for other processes to see the updates, only to preserve
+	 * them in case of system crash.
+	 */
+	public void force() {
+		buffer.force();
+	}
+
+	/**
+	 * Close the underlying file. The mapping itself remains valid until the
+	 * {@link MappedProgressFile} is garbage collected, but it should not be
+	 * used anymore.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private int position(int slot) {
+		if (slot < 0 || slot >= slotCount) {
+			throw new IndexOutOfBoundsException("Unknown slot: " + slot);
+		} else {
+			return HEADER_SIZE + slot * SLOT_SIZE;
+		}
+	}
+}
@@ -0,0 +1,681 @@
+package fr.vergne.progress.impl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import fr.vergne.progress.Predictor;
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.impl.PredictorFactory.PredictedValue;
+
+/**
+ * <p>
+ * A {@link PredictorBacktest} compares {@link Predictor}s by replaying a
+ * recorded {@link History} of a {@link Progress}. Each {@link Candidate}
+ * builds its {@link Predictor}s on a {@link PredictorFactory} which uses a
+ * virtual clock, so the {@link History} is replayed as fast as it can be
+ * read, and the termination time is predicted at regular times of the
+ * {@link History}. The difference between these predictions and the actual
+ * termination time is provided as a {@link Report}.
+ * </p>
+ *
+ * <p>
+ * The {@link History} is streamed twice: once to find when the
+ * {@link Progress} actually finished, and once to replay it. Thus, the memory
+ * used depends only on the number of evaluations and {@link Candidate}s, not on
+ * the size of the {@link History}. Recorded histories can be read from CSV
+ * files through {@link #csvHistory(Path)} or from {@link ProgressJournal}s
+ * through {@link #journalHistory(Path, String)}.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class PredictorBacktest {
+
+	/**
+	 * A {@link History} streams the successive states of a {@link Progress}.
+	 * {@link #next()} moves to the next state, which is then described by the
+	 * getters.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static interface History extends Closeable {
+		/**
+		 *
+		 * @return <code>true</code> if a new state has been read,
+		 *         <code>false</code> if the end of the {@link History} is
+		 *         reached
+		 */
+		public boolean next() throws IOException;
+
+		/**
+		 *
+		 * @return the time of the current state, in milliseconds
+		 */
+		public long getTimestamp();
+
+		public double getCurrentValue();
+
+		/**
+		 *
+		 * @return the max value of the current state, <code>null</code> if it
+		 *         is unknown
+		 */
+		public Double getMaxValue();
+	}
+
+	/**
+	 * A {@link HistorySource} provides a new {@link History} each time it is
+	 * opened, always starting from the beginning.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static interface HistorySource {
+		public History open() throws IOException;
+	}
+
+	/**
+	 * A {@link Candidate} builds the {@link Predictor}s to evaluate on the
+	 * {@link Progress} replayed.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static interface Candidate {
+		public Predictor<Double> createCurrentPredictor(
+				PredictorFactory factory, Progress<Double> progress);
+
+		public Predictor<Double> createMaxPredictor(PredictorFactory factory,
+				Progress<Double> progress);
+	}
+
+	/**
+	 * {@link Candidate} using
+	 * {@link PredictorFactory#createLinearPredictor(Progress, PredictedValue)}
+	 * for both the current and max values.
+	 */
+	public static final Candidate LINEAR = new Candidate() {
+
+		@Override
+		public Predictor<Double> createCurrentPredictor(
+				PredictorFactory factory, Progress<Double> progress) {
+			return factory.createLinearPredictor(progress,
+					PredictedValue.CURRENT_VALUE);
+		}
+
+		@Override
+		public Predictor<Double> createMaxPredictor(PredictorFactory factory,
+				Progress<Double> progress) {
+			return factory.createLinearPredictor(progress,
+					PredictedValue.MAX_VALUE);
+		}
+	};
+
+	/**
+	 * {@link Candidate} using
+	 * {@link PredictorFactory#createRegimeAwareLinearPredictor(Progress, PredictedValue)}
+	 * for the current value and
+	 * {@link PredictorFactory#createLinearPredictor(Progress, PredictedValue)}
+	 * for the max value.
+	 */
+	public static final Candidate REGIME_AWARE_LINEAR = new Candidate() {
+
+		@Override
+		public Predictor<Double> createCurrentPredictor(
+				PredictorFactory factory, Progress<Double> progress) {
+			return factory.createRegimeAwareLinearPredictor(progress,
+					PredictedValue.CURRENT_VALUE);
+		}
+
+		@Override
+		public Predictor<Double> createMaxPredictor(PredictorFactory factory,
+				Progress<Double> progress) {
+			return factory.createLinearPredictor(progress,
+					PredictedValue.MAX_VALUE);
+		}
+	};
+
+	private final HistorySource source;
+	private final Map<String, Candidate> candidates = new LinkedHashMap<>();
+
+	/**
+	 *
+	 * @param source
+	 *            the {@link HistorySource} of the {@link History} to replay
+	 */
+	public PredictorBacktest(HistorySource source) {
+		if (source == null) {
+			throw new NullPointerException("No source provided");
+		} else {
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Add a {@link Candidate} to evaluate.
+	 *
+	 * @param name
+	 *            the name of the {@link Candidate} in the {@link Report}
+	 * @param candidate
+	 *            the {@link Candidate}
+	 */
+	public void addCandidate(String name, Candidate candidate) {
+		if (candidate == null) {
+			throw new NullPointerException("No candidate provided");
+		} else if (candidates.containsKey(name)) {
+			throw new IllegalArgumentException("Already used name: " + name);
+		} else {
+			candidates.put(name, candidate);
+		}
+	}
+
+	/**
+	 * Replay the {@link History} and evaluate the termination time predicted by
+	 * each {@link Candidate} at regular times, strictly between the start of
+	 * the {@link History} and the actual termination time.
+	 *
+	 * @param evaluations
+	 *            the number of times at which to evaluate the {@link Candidate}
+	 *            s
+	 * @return the {@link Report} of the evaluations
+	 * @throws IOException
+	 *             if the {@link History} cannot be read
+	 * @throws IllegalArgumentException
+	 *             if the {@link History} never finishes
+	 */
+	public Report run(int evaluations) throws IOException {
+		if (evaluations <= 0) {
+			throw new IllegalArgumentException(
+					"The number of evaluations should be strictly positive: "
+							+ evaluations);
+		} else if (candidates.isEmpty()) {
+			throw new IllegalStateException("No candidate to evaluate");
+		} else {
+			long[] bounds = findBounds();
+			long start = bounds[0];
+			long end = bounds[1];
+			long[] times = new long[evaluations];
+			for (int i = 0; i < evaluations; i++) {
+				times[i] = start
+						+ (long) ((double) (end - start) * (i + 1) / (evaluations + 1));
+			}
+
+			final long[] clock = { start };
+			PredictorFactory factory = new PredictorFactory(new LongSupplier() {
+
+				@Override
+				public long getAsLong() {
+					return clock[0];
+				}
+			});
+			ManualProgress<Double> progress = new ManualProgress<Double>(0.0,
+					null);
+			BatchEtaCalculator calculator = new BatchEtaCalculator();
+			for (Candidate candidate : candidates.values()) {
+				calculator.add(
+						candidate.createCurrentPredictor(factory, progress),
+						candidate.createMaxPredictor(factory, progress));
+			}
+
+			double[][] errors = new double[candidates.size()][evaluations];
+			long[] predictions = null;
+			int next = 0;
+			try (History history = source.open()) {
+				while (history.next()) {
+					long timestamp = history.getTimestamp();
+					while (next < evaluations && times[next] < timestamp) {
+						clock[0] = times[next];
+						predictions = calculator.computeTerminationTimes(
+								times[next], predictions);
+						for (int c = 0; c < errors.length; c++) {
+							if (predictions[c] == BatchEtaCalculator.UNPREDICTABLE) {
+								errors[c][next] = Double.NaN;
+							} else {
+								errors[c][next] = (double) predictions[c] - end;
+							}
+						}
+						next++;
+					}
+					clock[0] = timestamp;
+					apply(progress, history.getCurrentValue(),
+							history.getMaxValue());
+				}
+			}
+			return new Report(new ArrayList<>(candidates.keySet()), start,
+					end, times, errors);
+		}
+	}
+
+	/**
+	 * Find the first timestamp and the time at which the {@link Progress}
+	 * became finished for the last time.
+	 */
+	private long[] findBounds() throws IOException {
+		Long start = null;
+		Long end = null;
+		boolean wasFinished = false;
+		try (History history = source.open()) {
+			while (history.next()) {
+				long timestamp = history.getTimestamp();
+				if (start == null) {
+					start = timestamp;
+				} else {
+					// Start already known
+				}
+				Double max = history.getMaxValue();
+				boolean isFinished = max != null
+						&& history.getCurrentValue() == max;
+				if (isFinished && !wasFinished) {
+					end = timestamp;
+				} else {
+					// No new termination
+				}
+				wasFinished = isFinished;
+			}
+		}
+		if (end == null || end <= start) {
+			throw new IllegalArgumentException(
+					"The history never finishes after its start");
+		} else {
+			return new long[] { start, end };
+		}
+	}
+
+	private static void apply(ManualProgress<Double> progress, double current,
+			Double max) {
+		boolean currentChanged = current != progress.getCurrentValue();
+		boolean maxChanged = max == null ? progress.getMaxValue() != null
+				: !max.equals(progress.getMaxValue());
+		if (max != null && max < progress.getCurrentValue()) {
+			// Reduce the current value first to keep the progress valid
+			progress.setCurrentValue(current);
+			progress.setMaxValue(max);
+		} else {
+			if (maxChanged) {
+				progress.setMaxValue(max);
+			} else {
+				// Same max, no update to replay
+			}
+			if (currentChanged) {
+				progress.setCurrentValue(current);
+			} else {
+				// Same current value, no update to replay
+			}
+		}
+	}
+
+	/**
+	 * A {@link Report} provides, for each {@link Candidate}, the error of the
+	 * termination time predicted at each evaluation time, in milliseconds. A
+	 * positive error means a prediction too late, a negative one a prediction
+	 * too early, and {@link Double#NaN} means that no termination time could be
+	 * predicted.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static class Report {
+		private final List<String> names;
+		private final long startTime;
+		private final long endTime;
+		private final long[] times;
+		private final double[][] errors;
+
+		private Report(List<String> names, long startTime, long endTime,
+				long[] times, double[][] errors) {
+			this.names = Collections.unmodifiableList(names);
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.times = times;
+			this.errors = errors;
+		}
+
+		/**
+		 *
+		 * @return the names of the {@link Candidate}s, in the order they were
+		 *         added
+		 */
+		public List<String> getCandidateNames() {
+			return names;
+		}
+
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 *
+		 * @return the time at which the {@link Progress} actually finished
+		 */
+		public long getEndTime() {
+			return endTime;
+		}
+
+		/**
+		 *
+		 * @return the times at which the {@link Candidate}s were evaluated
+		 */
+		public long[] getEvaluationTimes() {
+			return times.clone();
+		}
+
+		/**
+		 *
+		 * @param name
+		 *            the name of a {@link Candidate}
+		 * @return the errors of the {@link Candidate} at each evaluation time
+		 */
+		public double[] getErrors(String name) {
+			return errors[indexOf(name)].clone();
+		}
+
+		/**
+		 *
+		 * @param name
+		 *            the name of a {@link Candidate}
+		 * @return the mean of the absolute errors of the {@link Candidate},
+		 *         ignoring the times at which it could not predict, or
+		 *         {@link Double#NaN} if it never could
+		 */
+		public double getMeanAbsoluteError(String name) {
+			double sum = 0;
+			int count = 0;
+			for (double error : errors[indexOf(name)]) {
+				if (!Double.isNaN(error)) {
+					sum += Math.abs(error);
+					count++;
+				} else {
+					// Not predicted
+				}
+			}
+			return count == 0 ? Double.NaN : sum / count;
+		}
+
+		/**
+		 *
+		 * @param name
+		 *            the name of a {@link Candidate}
+		 * @return the ratio of evaluation times at which the {@link Candidate}
+		 *         could not predict
+		 */
+		public double getUnpredictableRatio(String name) {
+			int count = 0;
+			for (double error : errors[indexOf(name)]) {
+				if (Double.isNaN(error)) {
+					count++;
+				} else {
+					// Predicted
+				}
+			}
+			return (double) count / times.length;
+		}
+
+		private int indexOf(String name) {
+			int index = names.indexOf(name);
+			if (index < 0) {
+				throw new IllegalArgumentException("Unknown candidate: "
+						+ name);
+			} else {
+				return index;
+			}
+		}
+
+		/**
+		 * Write the errors over time as CSV: one line per evaluation time,
+		 * providing the time, the ratio of the run elapsed, and the error of
+		 * each {@link Candidate}. Errors which could not be computed are left
+		 * empty.
+		 *
+		 * @param output
+		 *            where to write
+		 * @throws IOException
+		 *             if the output cannot be written
+		 */
+		public void writeCsv(Appendable output) throws IOException {
+			output.append("time,elapsed");
+			for (String name : names) {
+				output.append(',').append(name);
+			}
+			output.append('\n');
+			for (int i = 0; i < times.length; i++) {
+				output.append(Long.toString(times[i])).append(',');
+				output.append(Double.toString((double) (times[i] - startTime)
+						/ (endTime - startTime)));
+				for (double[] candidateErrors : errors) {
+					output.append(',');
+					if (!Double.isNaN(candidateErrors[i])) {
+						output.append(Long.toString((long) candidateErrors[i]));
+					} else {
+						// Leave empty
+					}
+				}
+				output.append('\n');
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			for (String name : names) {
+				if (builder.length() > 0) {
+					builder.append(", ");
+				} else {
+					// First one
+				}
+				builder.append(name).append(": ")
+						.append((long) getMeanAbsoluteError(name))
+						.append("ms");
+			}
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * Read a {@link History} from a CSV file, streaming it line by line. Each
+	 * line provides a timestamp in milliseconds, the current value, and
+	 * optionally the max value, separated by commas. An empty or missing max
+	 * value means that it is unknown. Lines which do not start with a digit,
+	 * like headers, are ignored.
+	 *
+	 * @param file
+	 *            the CSV file to read
+	 * @return the {@link HistorySource} of the file
+	 */
+	public static HistorySource csvHistory(final Path file) {
+		return new HistorySource() {
+
+			@Override
+			public History open() throws IOException {
+				final BufferedReader reader = Files.newBufferedReader(file,
+						StandardCharsets.UTF_8);
+				return new History() {
+					private long timestamp;
+					private double current;
+					private Double max;
+
+					@Override
+					public boolean next() throws IOException {
+						String line;
+						while ((line = reader.readLine()) != null) {
+							line = line.trim();
+							if (line.isEmpty()
+									|| !Character.isDigit(line.charAt(0))) {
+								// Header or blank line
+							} else {
+								String[] cells = line.split(",", -1);
+								timestamp = Long.parseLong(cells[0].trim());
+								current = Double.parseDouble(cells[1].trim());
+								max = cells.length < 3
+										|| cells[2].trim().isEmpty() ? null
+										: Double.parseDouble(cells[2].trim());
+								return true;
+							}
+						}
+						return false;
+					}
+
+					@Override
+					public long getTimestamp() {
+						return timestamp;
+					}
+
+					@Override
+					public double getCurrentValue() {
+						return current;
+					}
+
+					@Override
+					public Double getMaxValue() {
+						return max;
+					}
+
+					@Override
+					public void close() throws IOException {
+						reader.close();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Read a {@link History} from a {@link ProgressJournal}, streaming its
+	 * events. Only the events of the {@link Progress} tracked under the given
+	 * name are considered, each of them providing a new state.
+	 *
+	 * @param file
+	 *            the journal to read
+	 * @param name
+	 *            the name of the {@link Progress} in the journal
+	 * @return the {@link HistorySource} of the journal
+	 */
+	public static HistorySource journalHistory(final Path file,
+			final String name) {
+		return new HistorySource() {
+
+			@Override
+			public History open() throws IOException {
+				final ProgressJournal.Reader reader = new ProgressJournal.Reader(
+						file);
+				return new History() {
+					private long timestamp;
+					private double current = 0;
+					private Double max = null;
+
+					@Override
+					public boolean next() throws IOException {
+						while (reader.next()) {
+							if (name.equals(reader.getProgressName())) {
+								timestamp = reader.getStartTime()
+										+ reader.getTimestamp() / 1000000;
+								Number value = reader.getValue();
+								if (reader.isMaxUpdate()) {
+									max = value == null ? null : value
+											.doubleValue();
+								} else {
+									current = value.doubleValue();
+								}
+								return true;
+							} else {
+								// Another progress
+							}
+						}
+						return false;
+					}
+
+					@Override
+					public long getTimestamp() {
+						return timestamp;
+					}
+
+					@Override
+					public double getCurrentValue() {
+						return current;
+					}
+
+					@Override
+					public Double getMaxValue() {
+						return max;
+					}
+
+					@Override
+					public void close() throws IOException {
+						reader.close();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Create a {@link HistorySource} over states already in memory, mainly
+	 * for tests and small histories.
+	 *
+	 * @param timestamps
+	 *            the times of the states, in milliseconds
+	 * @param currentValues
+	 *            the current values of the states
+	 * @param maxValues
+	 *            the max values of the states, possibly containing
+	 *            <code>null</code>
+	 * @return the {@link HistorySource} of these states
+	 */
+	public static HistorySource memoryHistory(final long[] timestamps,
+			final double[] currentValues, final Double[] maxValues) {
+		if (timestamps.length != currentValues.length
+				|| timestamps.length != maxValues.length) {
+			throw new IllegalArgumentException("Different lengths: "
+					+ Arrays.asList(timestamps.length, currentValues.length,
+							maxValues.length));
+		} else {
+			return new HistorySource() {
+
+				@Override
+				public History open() {
+					return new History() {
+						private int index = -1;
+
+						@Override
+						public boolean next() {
+							index++;
+							return index < timestamps.length;
+						}
+
+						@Override
+						public long getTimestamp() {
+							return timestamps[index];
+						}
+
+						@Override
+						public double getCurrentValue() {
+							return currentValues[index];
+						}
+
+						@Override
+						public Double getMaxValue() {
+							return maxValues[index];
+						}
+
+						@Override
+						public void close() {
+							// Nothing to release
+						}
+					};
+				}
+			};
+		}
+	}
+}
@@ -2,6 +2,8 @@ package fr.vergne.progress.impl;
 
 import java.math.BigDecimal;
 import java.util.LinkedList;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 
@@ -19,6 +21,32 @@ import fr.vergne.progress.impl.ProgressUtil.ValueTranslator;
  */
 public class PredictorFactory {
 
+	private final LongSupplier clock;
+
+	/**
+	 * Create a {@link PredictorFactory} which timestamps the values with
+	 * {@link System#currentTimeMillis()}.
+	 */
+	public PredictorFactory() {
+		this(System::currentTimeMillis);
+	}
+
+	/**
+	 * Create a {@link PredictorFactory} which timestamps the values with a
+	 * custom clock. This is particularly useful to replay a recorded
+	 * {@link Progress} with a virtual time.
+	 * 
+	 * @param clock
+	 *            the clock providing the current timestamp in milliseconds
+	 */
+	public PredictorFactory(LongSupplier clock) {
+		if (clock == null) {
+			throw new NullPointerException("No clock provided");
+		} else {
+			this.clock = clock;
+		}
+	}
+
 	/**
 	 * While it is common to apply predictions on the current value of a
 	 * {@link Progress}, also the max value can change. Thus, methods in
@@ -50,14 +78,24 @@ public class PredictorFactory {
 	 *            the value the {@link Predictor} should return
 	 * @return the {@link Predictor} instance
 	 */
-	public <Value extends Number> Predictor<Value> createConstantPredictor(
+	public <Value extends Number> LinearPredictor<Value> createConstantPredictor(
 			final Value value) {
-		return new Predictor<Value>() {
+		return new LinearPredictor<Value>() {
 
 			@Override
 			public Value predictValueAt(long timestamp) {
 				return value;
 			}
+
+			@Override
+			public double getSlope() {
+				return 0;
+			}
+
+			@Override
+			public double getIntercept() {
+				return value.doubleValue();
+			}
 		};
 	}
 
@@ -67,7 +105,8 @@ public class PredictorFactory {
 	 * the last values generated and produce its estimation based on them. To be
 	 * smooth, it stores at least 100 values (for long runs) and at least 10s
 	 * worth of values (for frequent updates). We use a least square regression
-	 * method to build the linear model.
+	 * method to build the linear model, which is exposed through the
+	 * {@link RegressionPredictor} interface.
 	 * 
 	 * @param progress
 	 *            the {@link Progress} to listen
@@ -75,48 +114,209 @@ public class PredictorFactory {
 	 *            the {@link PredictedValue}
 	 * @return the {@link Predictor} which will predict the values
 	 */
-	public <Value extends Number> Predictor<Value> createLinearPredictor(
+	public <Value extends Number> RegressionPredictor<Value> createLinearPredictor(
 			Progress<Value> progress, PredictedValue target) {
-		final LinearData<Value> data = new LinearData<Value>();
-		final SimpleRegression regression = new SimpleRegression(true);
+		final LinearRegressionPredictor<Value> predictor = new LinearRegressionPredictor<Value>();
 		listenProgress(progress, target, new ValueListener<Value>() {
 
 			@Override
 			public void valueReceived(Value value) {
-				long time = System.currentTimeMillis();
-				data.times.addLast(time);
-				data.values.addLast(value);
-				regression.addData(time, value.doubleValue());
-				while (data.times.size() > 100
-						&& data.times.getLast() - data.times.getFirst() > 10000) {
-					Long oldTime = data.times.removeFirst();
-					Value oldValue = data.values.removeFirst();
-					regression.removeData(oldTime, oldValue.doubleValue());
-				}
+				predictor.addValue(clock.getAsLong(), value);
+			}
+		});
+		return predictor;
+	}
 
-				if (data.translator == null) {
-					data.translator = ProgressUtil.createValueTranslator(value);
-				} else {
-					// use the same
-				}
+	/**
+	 * This method builds a {@link Predictor} similar to
+	 * {@link #createLinearPredictor(Progress, PredictedValue)}, but which
+	 * detects when the rate of the {@link Progress} changes durably, like when a
+	 * task switches from cache hits to disk reads. When such a regime change
+	 * occurs, the values received before the change are forgotten, so the
+	 * linear model only relies on the current regime instead of mixing it with
+	 * the previous one.<br/>
+	 * <br/>
+	 * The detection uses a two-sided <a
+	 * href="https://en.wikipedia.org/wiki/Page%E2%80%93Hinkley_test"
+	 * >Page-Hinkley test</a> on the instantaneous rate, computed over periods of
+	 * at least 10ms. The deviations tolerated and the alarm threshold are
+	 * relative to the mean rate of the current regime, such that the detection
+	 * does not depend on the scale of the {@link Value}s. Each value is
+	 * processed in constant time.
+	 * 
+	 * @param progress
+	 *            the {@link Progress} to listen
+	 * @param target
+	 *            the {@link PredictedValue}
+	 * @return the {@link Predictor} which will predict the values
+	 */
+	public <Value extends Number> RegressionPredictor<Value> createRegimeAwareLinearPredictor(
+			Progress<Value> progress, PredictedValue target) {
+		final RegimeAwareRegressionPredictor<Value> predictor = new RegimeAwareRegressionPredictor<Value>();
+		listenProgress(progress, target, new ValueListener<Value>() {
+
+			@Override
+			public void valueReceived(Value value) {
+				predictor.addValue(clock.getAsLong(), value);
 			}
 		});
-		return new Predictor<Value>() {
+		return predictor;
+	}
+
+	/**
+	 * This method builds a {@link Predictor} for the max value of a
+	 * {@link Progress} which grows as long as the process runs, like a scan
+	 * which increases its max each time it discovers new items. Each max
+	 * update is considered as a new total discovered so far, and the eventual
+	 * max is estimated from the deceleration of these discoveries: the rate of
+	 * discovery is modeled linearly over time with a least square regression,
+	 * such that the max stops growing when this rate reaches zero. As long as
+	 * no deceleration is observed, the max is assumed to grow at the current
+	 * rate. Predicting at {@link Long#MAX_VALUE} thus provides the eventual
+	 * max, and once the {@link Progress} is finished, its actual max is
+	 * returned.<br/>
+	 * <br/>
+	 * This {@link Predictor} is suited to be used with
+	 * {@link ProgressUtil#predictTerminationTime(Predictor, Predictor)} for
+	 * open-ended processes. The max value of the {@link Progress} should be
+	 * provided at least once, otherwise use
+	 * {@link #createGrowingMaxPredictor(RecursiveProgress)} to estimate it from
+	 * the arrival of sub-progresses.
+	 * 
+	 * @param progress
+	 *            the {@link Progress} to listen
+	 * @return the {@link Predictor} which will predict the max values
+	 */
+	public <Value extends Number> Predictor<Value> createGrowingMaxPredictor(
+			final Progress<Value> progress) {
+		final GrowthPredictor<Value> predictor = new GrowthPredictor<Value>(
+				new Supplier<Value>() {
+
+					@Override
+					public Value get() {
+						return progress.isFinished() ? progress.getMaxValue()
+								: null;
+					}
+				});
+		listenProgress(progress, PredictedValue.MAX_VALUE,
+				new ValueListener<Value>() {
+
+					@Override
+					public void valueReceived(Value value) {
+						predictor.addTotal(clock.getAsLong(), value);
+					}
+				});
+		return predictor;
+	}
+
+	/**
+	 * This method builds a {@link Predictor} for the max value of a
+	 * {@link RecursiveProgress}, which remains unknown as long as
+	 * {@link RecursiveProgress#setMaxSubProgresses(Integer)} has not been
+	 * called. It works like {@link #createGrowingMaxPredictor(Progress)}, but
+	 * the totals considered are the numbers of sub-progresses registered, such
+	 * that the eventual max is estimated from the deceleration of their
+	 * arrival. These numbers are checked each time the
+	 * {@link RecursiveProgress} notifies an update. Once the max of the
+	 * {@link RecursiveProgress} is set, it is returned as is.
+	 * 
+	 * @param progress
+	 *            the {@link RecursiveProgress} to listen
+	 * @return the {@link Predictor} which will predict the max values
+	 */
+	public Predictor<Double> createGrowingMaxPredictor(
+			final RecursiveProgress progress) {
+		final GrowthPredictor<Double> predictor = new GrowthPredictor<Double>(
+				new Supplier<Double>() {
+
+					@Override
+					public Double get() {
+						return progress.getMaxValue();
+					}
+				});
+		progress.addProgressListener(new ProgressListener<Double>() {
 
 			@Override
-			public Value predictValueAt(long timestamp) {
-				if (data.times.isEmpty()) {
-					throw new UnableToPredictException(
-							"Impossible to predict anything without any generated value.");
-				} else if (data.times.size() == 1) {
-					return data.values.getFirst();
-				} else {
-					double prediction = regression.predict(timestamp);
-					return data.translator.toValue(new BigDecimal(""
-							+ prediction));
-				}
+			public void currentUpdate(Double value) {
+				addCount();
 			}
-		};
+
+			@Override
+			public void maxUpdate(Double maxValue) {
+				addCount();
+			}
+
+			private void addCount() {
+				predictor.addTotal(clock.getAsLong(),
+						(double) progress.getSubProgressesCount());
+			}
+		});
+		predictor.addTotal(clock.getAsLong(),
+				(double) progress.getSubProgressesCount());
+		return predictor;
+	}
+
+	/**
+	 * A {@link LinearPredictor} is a {@link Predictor} which relies on a linear
+	 * model <i>f(t)=at+b</i>. Because the model is known analytically, one can
+	 * exploit it directly rather than calling
+	 * {@link #predictValueAt(long)} repeatedly, for instance to compute
+	 * termination times without iterative search.
+	 * 
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 * 
+	 * @param <Value>
+	 */
+	public static interface LinearPredictor<Value extends Number> extends
+			Predictor<Value> {
+		/**
+		 * 
+		 * @return the slope <i>a</i> of the model, in value per millisecond,
+		 *         or {@link Double#NaN} if no model is available yet
+		 */
+		public double getSlope();
+
+		/**
+		 * 
+		 * @return the intercept <i>b</i> of the model, or {@link Double#NaN}
+		 *         if no model is available yet
+		 */
+		public double getIntercept();
+	}
+
+	/**
+	 * A {@link RegressionPredictor} is a {@link LinearPredictor} which builds
+	 * its model through a least square regression. Beside the model itself,
+	 * it provides the statistics needed to assess its reliability, like the
+	 * standard error of the slope. All of them are maintained incrementally,
+	 * so retrieving them does not require to go through the data again.
+	 * 
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 * 
+	 * @param <Value>
+	 */
+	public static interface RegressionPredictor<Value extends Number> extends
+			LinearPredictor<Value> {
+		/**
+		 * 
+		 * @return the number of samples currently used to build the model
+		 */
+		public long getSampleCount();
+
+		/**
+		 * 
+		 * @return the standard error of {@link #getSlope()}, or
+		 *         {@link Double#NaN} if less than 3 samples are available
+		 */
+		public double getSlopeStdErr();
+
+		/**
+		 * 
+		 * @return the mean timestamp of the samples currently used, which is
+		 *         the pivot around which the slope varies, or
+		 *         {@link Double#NaN} if no sample is available
+		 */
+		public double getMeanTimestamp();
 	}
 
 	@SuppressWarnings("serial")
@@ -130,10 +330,335 @@ public class PredictorFactory {
 		}
 	}
 
-	private static class LinearData<Value extends Number> {
-		public final LinkedList<Value> values = new LinkedList<Value>();
-		public final LinkedList<Long> times = new LinkedList<Long>();
-		public ValueTranslator<Value> translator = null;
+	/**
+	 * Least square regression over the last values generated. To be smooth, it
+	 * stores at least 100 values (for long runs) and at least 10s worth of
+	 * values (for frequent updates).
+	 */
+	private static class LinearRegressionPredictor<Value extends Number>
+			implements RegressionPredictor<Value> {
+		private final LinkedList<Value> values = new LinkedList<Value>();
+		private final LinkedList<Long> times = new LinkedList<Long>();
+		private final SimpleRegression regression = new SimpleRegression(true);
+		private Long timeOrigin = null;
+		private long timeOffsetsSum = 0;
+		private long addedCount = 0;
+		private ValueTranslator<Value> translator = null;
+
+		public synchronized void addValue(long time, Value value) {
+			times.addLast(time);
+			values.addLast(value);
+			if (timeOrigin == null) {
+				timeOrigin = time;
+			} else {
+				// keep the first one to avoid overflows
+			}
+			timeOffsetsSum += time - timeOrigin;
+			regression.addData(time, value.doubleValue());
+			addedCount++;
+			while (times.size() > 100
+					&& times.getLast() - times.getFirst() > 10000) {
+				removeFirst();
+			}
+
+			if (translator == null) {
+				translator = ProgressUtil.createValueTranslator(value);
+			} else {
+				// use the same
+			}
+		}
+
+		private void removeFirst() {
+			Long oldTime = times.removeFirst();
+			Value oldValue = values.removeFirst();
+			timeOffsetsSum -= oldTime - timeOrigin;
+			regression.removeData(oldTime, oldValue.doubleValue());
+		}
+
+		/**
+		 * Remove from the model all the values received before the given one.
+		 * 
+		 * @param index
+		 *            the index of the first value to keep, starting from 0 for
+		 *            the first value ever received
+		 */
+		protected synchronized void removeBefore(long index) {
+			while (addedCount - times.size() < index && !times.isEmpty()) {
+				removeFirst();
+			}
+		}
+
+		@Override
+		public synchronized Value predictValueAt(long timestamp) {
+			if (times.isEmpty()) {
+				throw new UnableToPredictException(
+						"Impossible to predict anything without any generated value.");
+			} else if (times.size() == 1) {
+				return values.getFirst();
+			} else {
+				double prediction = regression.predict(timestamp);
+				return translator.toValue(new BigDecimal("" + prediction));
+			}
+		}
+
+		@Override
+		public synchronized double getSlope() {
+			if (times.isEmpty()) {
+				return Double.NaN;
+			} else if (times.size() == 1) {
+				return 0;
+			} else {
+				return regression.getSlope();
+			}
+		}
+
+		@Override
+		public synchronized double getIntercept() {
+			if (times.isEmpty()) {
+				return Double.NaN;
+			} else if (times.size() == 1) {
+				return values.getFirst().doubleValue();
+			} else {
+				return regression.getIntercept();
+			}
+		}
+
+		@Override
+		public synchronized long getSampleCount() {
+			return times.size();
+		}
+
+		@Override
+		public synchronized double getSlopeStdErr() {
+			return regression.getSlopeStdErr();
+		}
+
+		@Override
+		public synchronized double getMeanTimestamp() {
+			return times.isEmpty() ? Double.NaN : timeOrigin
+					+ (double) timeOffsetsSum / times.size();
+		}
+	}
+
+	/**
+	 * Linear regression which forgets the values preceding the last change of
+	 * rate detected by a {@link PageHinkleyDetector}.
+	 */
+	private static class RegimeAwareRegressionPredictor<Value extends Number>
+			extends LinearRegressionPredictor<Value> {
+		private static final long MIN_RATE_PERIOD = 10;
+		private final PageHinkleyDetector detector = new PageHinkleyDetector(
+				0.25, 5, 10);
+		private long index = -1;
+		private long rateTime;
+		private double rateValue;
+
+		@Override
+		public synchronized void addValue(long time, Value value) {
+			super.addValue(time, value);
+			index++;
+			if (index == 0) {
+				rateTime = time;
+				rateValue = value.doubleValue();
+			} else if (time - rateTime < MIN_RATE_PERIOD) {
+				// Wait for a significant period to compute the rate
+			} else {
+				double rate = (value.doubleValue() - rateValue)
+						/ (time - rateTime);
+				long changeIndex = detector.addRate(index, rate);
+				if (changeIndex >= 0) {
+					removeBefore(changeIndex);
+				} else {
+					// Same regime, keep all the values
+				}
+				rateTime = time;
+				rateValue = value.doubleValue();
+			}
+		}
+	}
+
+	/**
+	 * Two-sided <a
+	 * href="https://en.wikipedia.org/wiki/Page%E2%80%93Hinkley_test"
+	 * >Page-Hinkley test</a> detecting changes of the mean of a series of
+	 * rates. The tolerance and the threshold are relative to the mean rate
+	 * computed since the last change.
+	 */
+	private static class PageHinkleyDetector {
+		private final double tolerance;
+		private final double threshold;
+		private final int minRates;
+		private long count;
+		private double mean;
+		private double increaseSum;
+		private double increaseMin;
+		private long increaseMinIndex;
+		private double decreaseSum;
+		private double decreaseMin;
+		private long decreaseMinIndex;
+
+		/**
+		 * 
+		 * @param tolerance
+		 *            the deviation from the mean ignored, relatively to the
+		 *            mean
+		 * @param threshold
+		 *            the cumulated deviation which reveals a change,
+		 *            relatively to the mean
+		 * @param minRates
+		 *            the number of rates to consider before to detect changes
+		 */
+		public PageHinkleyDetector(double tolerance, double threshold,
+				int minRates) {
+			this.tolerance = tolerance;
+			this.threshold = threshold;
+			this.minRates = minRates;
+			reset(-1);
+		}
+
+		/**
+		 * 
+		 * @param endIndex
+		 *            the index of the value ending the period of the rate
+		 * @param rate
+		 *            the rate observed
+		 * @return the index of the value at which the change started, or -1 if
+		 *         no change is detected
+		 */
+		public long addRate(long endIndex, double rate) {
+			count++;
+			mean += (rate - mean) / count;
+			double scale = Math.abs(mean);
+
+			increaseSum += rate - mean - tolerance * scale;
+			if (increaseSum < increaseMin) {
+				increaseMin = increaseSum;
+				increaseMinIndex = endIndex;
+			} else {
+				// Not a new min
+			}
+
+			decreaseSum += mean - rate - tolerance * scale;
+			if (decreaseSum < decreaseMin) {
+				decreaseMin = decreaseSum;
+				decreaseMinIndex = endIndex;
+			} else {
+				// Not a new min
+			}
+
+			if (count < minRates || scale == 0) {
+				return -1;
+			} else if (increaseSum - increaseMin > threshold * scale) {
+				return reset(increaseMinIndex);
+			} else if (decreaseSum - decreaseMin > threshold * scale) {
+				return reset(decreaseMinIndex);
+			} else {
+				return -1;
+			}
+		}
+
+		private long reset(long changeIndex) {
+			count = 0;
+			mean = 0;
+			increaseSum = 0;
+			increaseMin = 0;
+			increaseMinIndex = changeIndex;
+			decreaseSum = 0;
+			decreaseMin = 0;
+			decreaseMinIndex = changeIndex;
+			return changeIndex;
+		}
+	}
+
+	/**
+	 * Estimation of a growing total through the linear regression of its rate
+	 * of growth. The total reaches its eventual value when the rate reaches
+	 * zero. Rates are computed over periods of at least 10ms and the
+	 * regression follows the same window than {@link LinearRegressionPredictor}.
+	 */
+	private static class GrowthPredictor<Value extends Number> implements
+			Predictor<Value> {
+		private static final long MIN_RATE_PERIOD = 10;
+		private final Supplier<Value> finalValue;
+		private final LinkedList<Double> rates = new LinkedList<Double>();
+		private final LinkedList<Long> times = new LinkedList<Long>();
+		private final SimpleRegression regression = new SimpleRegression(true);
+		private Long lastTime = null;
+		private double lastTotal;
+		private long rateTime;
+		private double rateTotal;
+		private ValueTranslator<Value> translator = null;
+
+		/**
+		 * 
+		 * @param finalValue
+		 *            provides the final total, or <code>null</code> while it
+		 *            is unknown
+		 */
+		public GrowthPredictor(Supplier<Value> finalValue) {
+			this.finalValue = finalValue;
+		}
+
+		public synchronized void addTotal(long time, Value total) {
+			if (translator == null) {
+				translator = ProgressUtil.createValueTranslator(total);
+			} else {
+				// use the same
+			}
+
+			if (lastTime == null) {
+				rateTime = time;
+				rateTotal = total.doubleValue();
+			} else if (time - rateTime < MIN_RATE_PERIOD) {
+				// Wait for a significant period to compute the rate
+			} else {
+				double rate = (total.doubleValue() - rateTotal)
+						/ (time - rateTime);
+				// Consider the rate in the middle of its period
+				long middle = (time + rateTime) / 2;
+				times.addLast(middle);
+				rates.addLast(rate);
+				regression.addData(middle, rate);
+				while (times.size() > 100
+						&& times.getLast() - times.getFirst() > 10000) {
+					regression.removeData(times.removeFirst(),
+							rates.removeFirst());
+				}
+				rateTime = time;
+				rateTotal = total.doubleValue();
+			}
+			lastTime = time;
+			lastTotal = total.doubleValue();
+		}
+
+		@Override
+		public synchronized Value predictValueAt(long timestamp) {
+			Value value = finalValue.get();
+			if (value != null) {
+				return value;
+			} else if (lastTime == null) {
+				throw new UnableToPredictException(
+						"Impossible to predict anything without any generated value.");
+			} else if (times.size() < 2) {
+				throw new UnableToPredictException(
+						"Not enough values to estimate the growth.");
+			} else {
+				double delay = Math.max(0, timestamp - lastTime);
+				double rate = Math.max(0, regression.predict(lastTime));
+				double acceleration = regression.getSlope();
+				double growth;
+				if (acceleration >= 0) {
+					// No deceleration, assume a constant rate
+					growth = rate * delay;
+				} else {
+					// Stop growing when the rate reaches zero
+					delay = Math.min(delay, rate / -acceleration);
+					growth = rate * delay + acceleration * delay * delay / 2;
+				}
+				return translator.toValue(new BigDecimal(""
+						+ (lastTotal + growth)));
+			}
+		}
 	}
 
 	private static interface ValueListener<Value extends Number> {
@@ -167,13 +692,22 @@ public class PredictorFactory {
 
 				@Override
 				public void maxUpdate(Value maxValue) {
-					listener.valueReceived(maxValue);
+					notifyIfKnown(maxValue, listener);
 				}
 			});
-			listener.valueReceived(progress.getMaxValue());
+			notifyIfKnown(progress.getMaxValue(), listener);
 		} else {
 			throw new RuntimeException("Unmanaged target: " + target);
 		}
 	}
 
+	private <Value extends Number> void notifyIfKnown(Value value,
+			ValueListener<Value> listener) {
+		if (value == null) {
+			// Unknown value, nothing to learn from it
+		} else {
+			listener.valueReceived(value);
+		}
+	}
+
 }
@@ -0,0 +1,183 @@
+package fr.vergne.progress.impl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * A {@link ProgressAwareRecursiveTask} is a {@link RecursiveTask} which
+ * contributes to a shared {@link ManualProgress} without updating it for each
+ * item processed. The root task is allotted a share of the {@link Progress},
+ * usually its whole max value. When a task splits, each subtask created
+ * through {@link #ProgressAwareRecursiveTask(ProgressAwareRecursiveTask, long)}
+ * takes a part of the share of its parent, and the remaining part is kept by
+ * the parent for its own work.
+ * </p>
+ * <p>
+ * The work done through {@link #worked(long)} is only accumulated in the task
+ * itself. The shared {@link ManualProgress} is updated once when the task
+ * completes, with the whole share it kept, such that a successful run ends
+ * exactly on the total share of the root, whether or not each item has been
+ * reported. If the task fails, only the work reported so far is added. The
+ * shared {@link ManualProgress} is thus written O(number of tasks) times
+ * instead of O(number of items).
+ * </p>
+ *
+ * <pre>
+ * class Sum extends ProgressAwareRecursiveTask&lt;Long&gt; {
+ * 	Sum(ManualProgress&lt;Long&gt; progress, int[] array) {
+ * 		super(progress, array.length);
+ * 		...
+ * 	}
+ *
+ * 	Sum(Sum parent, int[] array, int from, int to) {
+ * 		super(parent, to - from);
+ * 		...
+ * 	}
+ *
+ * 	protected Long computeWithProgress() {
+ * 		if (to - from &lt;= THRESHOLD) {
+ * 			// sum the items, possibly calling worked(1) for each
+ * 		} else {
+ * 			int middle = (from + to) / 2;
+ * 			Sum left = new Sum(this, array, from, middle);
+ * 			Sum right = new Sum(this, array, middle, to);
+ * 			...
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <V>
+ *            the result of the task
+ */
+@SuppressWarnings("serial")
+public abstract class ProgressAwareRecursiveTask<V> extends RecursiveTask<V> {
+
+	private final ManualProgress<Long> progress;
+	/**
+	 * Share of this task which has not been given to subtasks. It is only
+	 * changed by the thread creating the subtasks, which is the one computing
+	 * this task.
+	 */
+	private long keptShare;
+	private long worked = 0;
+
+	/**
+	 * Create a root task, typically submitted to a {@link ForkJoinPool}.
+	 *
+	 * @param progress
+	 *            the {@link ManualProgress} to update
+	 * @param share
+	 *            the amount to add to the {@link ManualProgress} once the task
+	 *            and all its subtasks are done
+	 */
+	protected ProgressAwareRecursiveTask(ManualProgress<Long> progress,
+			long share) {
+		if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (share < 0) {
+			throw new IllegalArgumentException("Negative share: " + share);
+		} else {
+			this.progress = progress;
+			this.keptShare = share;
+		}
+	}
+
+	/**
+	 * Create a subtask, which takes a part of the share kept by its parent. It
+	 * should be created by the parent, during its computation, before to fork
+	 * it.
+	 *
+	 * @param parent
+	 *            the task splitting its work
+	 * @param share
+	 *            the part of the share of the parent given to this subtask
+	 */
+	protected ProgressAwareRecursiveTask(ProgressAwareRecursiveTask<?> parent,
+			long share) {
+		if (parent == null) {
+			throw new NullPointerException("No parent provided");
+		} else if (share < 0) {
+			throw new IllegalArgumentException("Negative share: " + share);
+		} else if (share > parent.keptShare - parent.worked) {
+			throw new IllegalArgumentException("The parent has only "
+					+ (parent.keptShare - parent.worked)
+					+ " left to share: " + share);
+		} else {
+			this.progress = parent.progress;
+			this.keptShare = share;
+			parent.keptShare -= share;
+		}
+	}
+
+	/**
+	 * Report some work done by this task. It is only accumulated locally, the
+	 * {@link ManualProgress} being updated when the task completes.
+	 *
+	 * @param amount
+	 *            the amount of work done, which cannot exceed the share kept
+	 *            by this task
+	 */
+	protected void worked(long amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Negative work: " + amount);
+		} else if (worked + amount > keptShare) {
+			throw new IllegalArgumentException("Only "
+					+ (keptShare - worked) + " left to work: " + amount);
+		} else {
+			worked += amount;
+		}
+	}
+
+	/**
+	 *
+	 * @return the share this task still has to work on, which excludes the
+	 *         parts given to its subtasks and the work already reported
+	 */
+	protected long getRemainingShare() {
+		return keptShare - worked;
+	}
+
+	/**
+	 *
+	 * @return the shared {@link ManualProgress} updated by the tasks
+	 */
+	public ManualProgress<Long> getProgress() {
+		return progress;
+	}
+
+	/**
+	 * The main computation of the task, equivalent to
+	 * {@link RecursiveTask#compute()}.
+	 *
+	 * @return the result of the task
+	 */
+	protected abstract V computeWithProgress();
+
+	@Override
+	protected final V compute() {
+		boolean succeeded = false;
+		try {
+			V result = computeWithProgress();
+			succeeded = true;
+			return result;
+		} finally {
+			report(succeeded ? keptShare : worked);
+		}
+	}
+
+	private void report(long amount) {
+		if (amount > 0) {
+			synchronized (progress) {
+				progress.setCurrentValue(progress.getCurrentValue() + amount);
+			}
+		} else {
+			// Nothing to report
+		}
+	}
+}
@@ -0,0 +1,656 @@
+package fr.vergne.progress.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+/**
+ * <p>
+ * A {@link ProgressCheckpointer} records the state of {@link Progress}
+ * instances on the disk, such that they can be restored after a crash instead
+ * of restarting from scratch. Each {@link Progress} is tracked under a unique
+ * name through {@link #track(String, Progress, String)}, optionally with the
+ * name of a parent to rebuild trees of {@link RecursiveProgress}es.
+ * </p>
+ *
+ * <p>
+ * Updates are not written by the updating threads: they only store the new
+ * values and mark the {@link Progress} as modified, which costs a constant
+ * time. A background thread appends the modified states to a log file once per
+ * period, or earlier when enough {@link Progress}es have been modified, and
+ * optionally forces them to the storage device. Several updates of the same
+ * {@link Progress} between two writes are merged, so the pending work is
+ * bounded by the number of {@link Progress}es tracked. When the log becomes
+ * too big, it is compacted into a snapshot file.
+ * </p>
+ *
+ * <p>
+ * When a {@link ProgressCheckpointer} is created on a directory which already
+ * contains checkpoints, they are restored and can be retrieved through
+ * {@link #getCheckpoints()} or rebuilt through {@link #restoreProgresses()}.
+ * Values are stored as <code>double</code>s, so restored {@link Progress}es use
+ * {@link Double} values.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressCheckpointer implements Closeable {
+
+	private static final String LOG_FILE = "progress.log";
+	private static final String SNAPSHOT_FILE = "progress.snapshot";
+	private static final String SNAPSHOT_TEMP_FILE = "progress.snapshot.tmp";
+	private static final byte DEFINITION_RECORD = 1;
+	private static final byte UPDATE_RECORD = 2;
+
+	/**
+	 * A {@link Checkpoint} is the last known state of a {@link Progress}
+	 * tracked by a {@link ProgressCheckpointer}.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static class Checkpoint {
+		private final String name;
+		private final String parentName;
+		private final double currentValue;
+		private final double maxValue;
+
+		private Checkpoint(String name, String parentName, double currentValue,
+				double maxValue) {
+			this.name = name;
+			this.parentName = parentName;
+			this.currentValue = currentValue;
+			this.maxValue = maxValue;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 *
+		 * @return the name of the parent {@link Progress}, or
+		 *         <code>null</code> if it has no parent
+		 */
+		public String getParentName() {
+			return parentName;
+		}
+
+		public double getCurrentValue() {
+			return currentValue;
+		}
+
+		/**
+		 *
+		 * @return the max value, or <code>null</code> if it is unknown
+		 */
+		public Double getMaxValue() {
+			return Double.isNaN(maxValue) ? null : maxValue;
+		}
+
+		@Override
+		public String toString() {
+			return name + "=" + currentValue + "/"
+					+ (Double.isNaN(maxValue) ? "?" : maxValue);
+		}
+	}
+
+	private static class Tracked {
+		private final int key;
+		private final String name;
+		private final String parentName;
+		private final AtomicBoolean modified = new AtomicBoolean();
+		/**
+		 * Replaced at each update, such that the current and max values are
+		 * always written together.
+		 */
+		private volatile Checkpoint values;
+		/**
+		 * The last values written to the log, <code>null</code> if none, which
+		 * are the only ones written to the snapshot.
+		 */
+		private Checkpoint written = null;
+		private boolean defined = false;
+		private Progress<?> progress;
+		private ProgressListener<?> listener;
+
+		public Tracked(int key, String name, String parentName,
+				double currentValue, double maxValue) {
+			this.key = key;
+			this.name = name;
+			this.parentName = parentName;
+			this.values = new Checkpoint(name, parentName, currentValue,
+					maxValue);
+		}
+	}
+
+	private final Path directory;
+	private final FileChannel log;
+	private final long flushPeriod;
+	private final int flushSize;
+	private final boolean fsync;
+	private final long compactionSize;
+	private final Map<String, Checkpoint> restored;
+	private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<Tracked> modified = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger modifiedCount = new AtomicInteger();
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+	private final Thread writer;
+	private volatile boolean closed = false;
+	private IOException writeFailure = null;
+	private int nextKey = 0;
+
+	/**
+	 * Create a {@link ProgressCheckpointer} which writes once per second or
+	 * every 1000 modified {@link Progress}es, forces each write to the
+	 * storage device, and compacts its log when it reaches 1MB.
+	 *
+	 * @param directory
+	 *            the directory where to store the checkpoints
+	 * @throws IOException
+	 *             if the checkpoints cannot be restored or written
+	 */
+	public ProgressCheckpointer(Path directory) throws IOException {
+		this(directory, 1000, 1000, true, 1 << 20);
+	}
+
+	/**
+	 *
+	 * @param directory
+	 *            the directory where to store the checkpoints
+	 * @param flushPeriod
+	 *            the maximum time in milliseconds between an update and its
+	 *            writing
+	 * @param flushSize
+	 *            the number of modified {@link Progress}es which triggers a
+	 *            write before the end of the period
+	 * @param fsync
+	 *            <code>true</code> to force each write to the storage device,
+	 *            <code>false</code> to let the system decide
+	 * @param compactionSize
+	 *            the size in bytes of the log which triggers its compaction
+	 *            into a snapshot
+	 * @throws IOException
+	 *             if the checkpoints cannot be restored or written
+	 */
+	public ProgressCheckpointer(Path directory, long flushPeriod,
+			int flushSize, boolean fsync, long compactionSize)
+			throws IOException {
+		if (flushPeriod <= 0) {
+			throw new IllegalArgumentException(
+					"The period should be strictly positive: " + flushPeriod);
+		} else if (flushSize <= 0) {
+			throw new IllegalArgumentException(
+					"The size should be strictly positive: " + flushSize);
+		} else {
+			this.directory = directory;
+			this.flushPeriod = flushPeriod;
+			this.flushSize = flushSize;
+			this.fsync = fsync;
+			this.compactionSize = compactionSize;
+
+			Files.createDirectories(directory);
+			Map<String, Checkpoint> checkpoints = new LinkedHashMap<>();
+			Map<Integer, String> names = new HashMap<>();
+			read(directory.resolve(SNAPSHOT_FILE), names, checkpoints);
+			read(directory.resolve(LOG_FILE), names, checkpoints);
+			this.restored = Collections.unmodifiableMap(checkpoints);
+			/*
+			 * Keep the keys of the files, such that the log can be replayed
+			 * over the new snapshot if a crash occurs before to truncate it.
+			 */
+			for (Map.Entry<Integer, String> entry : names.entrySet()) {
+				Checkpoint checkpoint = checkpoints.get(entry.getValue());
+				Tracked state = new Tracked(entry.getKey(), checkpoint.name,
+						checkpoint.parentName, checkpoint.currentValue,
+						checkpoint.maxValue);
+				state.written = state.values;
+				tracked.put(checkpoint.name, state);
+				nextKey = Math.max(nextKey, entry.getKey() + 1);
+			}
+
+			// Start from a clean snapshot and an empty log
+			writeSnapshot();
+			this.log = FileChannel.open(directory.resolve(LOG_FILE),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+
+			writer = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					runWriter();
+				}
+			}, "progress-checkpointer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Same than {@link #track(String, Progress, String)} without parent.
+	 */
+	public <Value extends Number> void track(String name,
+			Progress<Value> progress) {
+		track(name, progress, null);
+	}
+
+	/**
+	 * Start to record the state of a {@link Progress} under a given name. If a
+	 * {@link Progress} was already tracked under this name, it is replaced.
+	 *
+	 * @param name
+	 *            the name of the {@link Progress}
+	 * @param progress
+	 *            the {@link Progress} to track
+	 * @param parentName
+	 *            the name of the parent {@link Progress}, or <code>null</code>
+	 *            if it has no parent
+	 */
+	public synchronized <Value extends Number> void track(String name,
+			final Progress<Value> progress, String parentName) {
+		if (closed) {
+			throw new IllegalStateException("Checkpointer closed");
+		} else if (name == null) {
+			throw new NullPointerException("No name provided");
+		} else {
+			untrack(name);
+			Tracked previous = tracked.get(name);
+			int key = previous == null ? nextKey++ : previous.key;
+			final Tracked state = new Tracked(key, name, parentName, 0,
+					Double.NaN);
+			// Still in the log until the new values are written
+			state.written = previous == null ? null : previous.written;
+			ProgressListener<Value> listener = new ProgressListener<Value>() {
+
+				@Override
+				public void currentUpdate(Value value) {
+					update(state, progress);
+				}
+
+				@Override
+				public void maxUpdate(Value maxValue) {
+					update(state, progress);
+				}
+			};
+			state.progress = progress;
+			state.listener = listener;
+			tracked.put(name, state);
+			progress.addProgressListener(listener);
+			update(state, progress);
+		}
+	}
+
+	/**
+	 * Stop to record the state of a {@link Progress}. Its last state remains
+	 * in the checkpoints.
+	 *
+	 * @param name
+	 *            the name of the {@link Progress}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public synchronized void untrack(String name) {
+		Tracked state = tracked.get(name);
+		if (state == null || state.progress == null) {
+			// Not tracked
+		} else {
+			state.progress.removeProgressListener((ProgressListener) state.listener);
+			state.progress = null;
+			state.listener = null;
+		}
+	}
+
+	private void update(Tracked state, Progress<?> progress) {
+		if (progress instanceof ProgressSnapshot.Leaf) {
+			// Both values of the same update
+			progress = ((ProgressSnapshot.Leaf<?>) progress).getSnapshot();
+		} else {
+			// Values possibly from different updates, clamped below
+		}
+		Number current = progress.getCurrentValue();
+		Number max = progress.getMaxValue();
+		double currentValue = current == null ? 0 : current.doubleValue();
+		double maxValue = max == null ? Double.NaN : max.doubleValue();
+		state.values = new Checkpoint(state.name, state.parentName,
+				clamp(currentValue, maxValue), maxValue);
+		if (state.modified.compareAndSet(false, true)) {
+			modified.add(state);
+			if (modifiedCount.incrementAndGet() >= flushSize) {
+				LockSupport.unpark(writer);
+			} else {
+				// Wait for the end of the period
+			}
+		} else {
+			// Already waiting to be written
+		}
+	}
+
+	/**
+	 *
+	 * @return the checkpoints restored when this {@link ProgressCheckpointer}
+	 *         was created, indexed by name
+	 */
+	public Map<String, Checkpoint> getCheckpoints() {
+		return restored;
+	}
+
+	/**
+	 * Rebuild the {@link Progress}es restored when this
+	 * {@link ProgressCheckpointer} was created. The checkpoints which are
+	 * parents of others are rebuilt as {@link RecursiveProgress}es over their
+	 * children, the others as {@link ManualProgress}es. The rebuilt
+	 * {@link Progress}es are not tracked, so one should call
+	 * {@link #track(String, Progress, String)} on the ones to keep recording.
+	 *
+	 * @return the rebuilt {@link Progress}es, indexed by name
+	 */
+	public Map<String, Progress<Double>> restoreProgresses() {
+		Map<String, Progress<Double>> progresses = new LinkedHashMap<>();
+		for (Checkpoint checkpoint : restored.values()) {
+			restoreProgress(checkpoint, progresses);
+		}
+		return progresses;
+	}
+
+	private Progress<Double> restoreProgress(Checkpoint checkpoint,
+			Map<String, Progress<Double>> progresses) {
+		Progress<Double> progress = progresses.get(checkpoint.name);
+		if (progress != null) {
+			return progress;
+		} else {
+			boolean isParent = false;
+			for (Checkpoint other : restored.values()) {
+				isParent |= checkpoint.name.equals(other.parentName);
+			}
+
+			if (isParent) {
+				RecursiveProgress recursive = new RecursiveProgress();
+				progresses.put(checkpoint.name, recursive);
+				for (Checkpoint child : restored.values()) {
+					if (checkpoint.name.equals(child.parentName)) {
+						recursive.registerSubProgress(restoreProgress(child,
+								progresses));
+					} else {
+						// Not a child
+					}
+				}
+				Double max = checkpoint.getMaxValue();
+				if (max != null
+						&& max.intValue() >= recursive.getSubProgressesCount()) {
+					recursive.setMaxSubProgresses(max.intValue());
+				} else {
+					// Unknown or inconsistent max
+				}
+				return recursive;
+			} else {
+				double max = checkpoint.maxValue;
+				ManualProgress<Double> manual = new ManualProgress<Double>(
+						clamp(checkpoint.currentValue, max),
+						Double.isNaN(max) ? null : max);
+				progresses.put(checkpoint.name, manual);
+				return manual;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the current value, lowered to the max value if it is higher
+	 */
+	private static double clamp(double current, double max) {
+		return current > max ? max : current;
+	}
+
+	/**
+	 * Write immediately all the pending updates.
+	 *
+	 * @throws IOException
+	 *             if the updates cannot be written
+	 */
+	public synchronized void flush() throws IOException {
+		if (writeFailure != null) {
+			throw writeFailure;
+		} else {
+			writeModified();
+		}
+	}
+
+	/**
+	 * Stop the background writing after having written all the pending
+	 * updates. The {@link Progress}es tracked are not listened anymore.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			} else {
+				closed = true;
+				for (String name : tracked.keySet()) {
+					untrack(name);
+				}
+			}
+		}
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				if (writeFailure != null) {
+					throw writeFailure;
+				} else {
+					writeModified();
+				}
+			} finally {
+				log.close();
+			}
+		}
+	}
+
+	private void runWriter() {
+		while (!closed) {
+			LockSupport.parkNanos(this, flushPeriod * 1000000);
+			synchronized (this) {
+				if (writeFailure != null || closed) {
+					// Stop or let close() write the last updates
+				} else {
+					try {
+						writeModified();
+					} catch (IOException e) {
+						writeFailure = e;
+					}
+				}
+			}
+		}
+	}
+
+	private void writeModified() throws IOException {
+		Tracked state;
+		boolean written = false;
+		while ((state = modified.poll()) != null) {
+			modifiedCount.decrementAndGet();
+			state.modified.set(false);
+			Checkpoint values = state.values;
+			writeRecords(state, values, log);
+			state.written = values;
+			written = true;
+		}
+		if (written) {
+			flushBuffer(log);
+			if (fsync) {
+				log.force(false);
+			} else {
+				// Let the system decide
+			}
+			if (log.size() >= compactionSize) {
+				writeSnapshot();
+				log.truncate(0);
+			} else {
+				// Keep appending
+			}
+		} else {
+			// Nothing to write
+		}
+	}
+
+	/**
+	 * Append the records of a {@link Tracked} to the buffer, preceded by its
+	 * definition if it has not been written yet. The buffer is flushed into the
+	 * {@link FileChannel} provided when it has not enough space left.
+	 */
+	private void writeRecords(Tracked state, Checkpoint values,
+			FileChannel channel) throws IOException {
+		byte[] name = state.name.getBytes(StandardCharsets.UTF_8);
+		byte[] parent = state.parentName == null ? null : state.parentName
+				.getBytes(StandardCharsets.UTF_8);
+		int definitionSize = state.defined ? 0 : 1 + 4 + 4 + name.length + 4
+				+ (parent == null ? 0 : parent.length);
+		int size = definitionSize + 1 + 4 + 8 + 8;
+		if (buffer.remaining() < size) {
+			flushBuffer(channel);
+		} else {
+			// Enough space
+		}
+		if (buffer.remaining() < size) {
+			throw new IOException("Too big record: " + size + " bytes");
+		} else {
+			// Enough space
+		}
+
+		if (!state.defined) {
+			buffer.put(DEFINITION_RECORD);
+			buffer.putInt(state.key);
+			buffer.putInt(name.length);
+			buffer.put(name);
+			if (parent == null) {
+				buffer.putInt(-1);
+			} else {
+				buffer.putInt(parent.length);
+				buffer.put(parent);
+			}
+			state.defined = true;
+		} else {
+			// Already defined
+		}
+		buffer.put(UPDATE_RECORD);
+		buffer.putInt(state.key);
+		buffer.putDouble(values.currentValue);
+		buffer.putDouble(values.maxValue);
+	}
+
+	private void flushBuffer(FileChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Write the state of all the {@link Tracked}s into a new snapshot, which
+	 * replaces the previous one atomically. Only the values already written to
+	 * the log are used, not the ones updated since then, such that the
+	 * snapshot contains the state obtained by replaying the log. The log can
+	 * thus be truncated once it is done: if a crash occurs before, replaying
+	 * the log over the new snapshot only rewrites the same values.
+	 */
+	private void writeSnapshot() throws IOException {
+		Path temp = directory.resolve(SNAPSHOT_TEMP_FILE);
+		try (FileChannel snapshot = FileChannel.open(temp,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Tracked state : tracked.values()) {
+				state.defined = false;
+				if (state.written == null) {
+					// Not written yet, so not in the log either
+				} else {
+					writeRecords(state, state.written, snapshot);
+				}
+			}
+			flushBuffer(snapshot);
+			snapshot.force(true);
+		}
+		Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read the records of a file. The reading stops at the first incomplete
+	 * or invalid record, which is what remains of a write interrupted by a
+	 * crash.
+	 */
+	private static void read(Path file, Map<Integer, String> names,
+			Map<String, Checkpoint> checkpoints) throws IOException {
+		if (!Files.exists(file)) {
+			return;
+		} else {
+			ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file));
+			try {
+				while (content.hasRemaining()) {
+					byte type = content.get();
+					int key = content.getInt();
+					if (type == DEFINITION_RECORD) {
+						String name = readString(content);
+						String parentName = readString(content);
+						names.put(key, name);
+						Checkpoint previous = checkpoints.get(name);
+						checkpoints.put(name, new Checkpoint(name, parentName,
+								previous == null ? 0 : previous.currentValue,
+								previous == null ? Double.NaN
+										: previous.maxValue));
+					} else if (type == UPDATE_RECORD) {
+						double current = content.getDouble();
+						double max = content.getDouble();
+						String name = names.get(key);
+						if (name == null) {
+							break;
+						} else {
+							Checkpoint previous = checkpoints.get(name);
+							checkpoints.put(name, new Checkpoint(name,
+									previous.parentName, current, max));
+						}
+					} else {
+						break;
+					}
+				}
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				// Incomplete record, ignore it
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer content) {
+		int length = content.getInt();
+		if (length < 0) {
+			return null;
+		} else {
+			byte[] bytes = new byte[length];
+			content.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
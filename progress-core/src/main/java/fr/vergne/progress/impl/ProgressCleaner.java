@@ -0,0 +1,96 @@
+package fr.vergne.progress.impl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * The {@link ProgressCleaner} runs a cleaning action once an object is not
+ * reachable anymore, like the <code>java.lang.ref.Cleaner</code> introduced in
+ * Java 9. It replaces the finalizers of the {@link GlobalProgress}es, which
+ * delay the collection of each instance and slow down their allocation,
+ * whether or not they are closed.
+ * </p>
+ * <p>
+ * The action should not reference the object to clean, otherwise it is never
+ * unreachable. It is run at most once, either by
+ * {@link Cleanable#clean()} or by a daemon thread once the object is
+ * collected.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+class ProgressCleaner {
+
+	private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+	/**
+	 * The pending {@link Cleanable}s, which must remain reachable to be
+	 * enqueued.
+	 */
+	private static final Set<Cleanable> CLEANABLES = Collections
+			.newSetFromMap(new ConcurrentHashMap<Cleanable, Boolean>());
+
+	static {
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						((Cleanable) QUEUE.remove()).clean();
+					} catch (InterruptedException e) {
+						// Keep cleaning
+					} catch (RuntimeException e) {
+						// Failing action, cannot do more for it
+					}
+				}
+			}
+		}, "Progress cleaner");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * A {@link Cleanable} is the registration of an object to clean.
+	 */
+	static class Cleanable extends PhantomReference<Object> {
+		private final Runnable action;
+
+		private Cleanable(Object object, Runnable action) {
+			super(object, QUEUE);
+			this.action = action;
+		}
+
+		/**
+		 * Run the cleaning action now, if it has not been run yet, and
+		 * unregister the object.
+		 */
+		public void clean() {
+			if (CLEANABLES.remove(this)) {
+				clear();
+				action.run();
+			} else {
+				// Already cleaned
+			}
+		}
+	}
+
+	/**
+	 * Register an object to clean once it is unreachable.
+	 *
+	 * @param object
+	 *            the object to monitor
+	 * @param action
+	 *            the action to run, which does not reference the object
+	 * @return the {@link Cleanable} to run the action earlier
+	 */
+	public static Cleanable register(Object object, Runnable action) {
+		Cleanable cleanable = new Cleanable(object, action);
+		CLEANABLES.add(cleanable);
+		return cleanable;
+	}
+}
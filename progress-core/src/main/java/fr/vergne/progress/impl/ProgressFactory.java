@@ -10,6 +10,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import fr.vergne.progress.Progress;
 import fr.vergne.progress.Progress.ProgressListener;
@@ -100,7 +101,7 @@ public class ProgressFactory {
 		};
 		setter.addProgressListener(listener);
 
-		return new Progress<Value>() {
+		Progress<Value> progress = new Progress<Value>() {
 
 			@Override
 			public Value getCurrentValue() {
@@ -124,16 +125,19 @@ public class ProgressFactory {
 				listeners.remove(listener);
 			}
 
-			@Override
-			protected void finalize() throws Throwable {
-				setter.removeProgressListener(listener);
-			}
-
 			@Override
 			public String toString() {
 				return ProgressUtil.DEFAULT_FORMATTER.format(this);
 			}
 		};
+		ProgressCleaner.register(progress, new Runnable() {
+
+			@Override
+			public void run() {
+				setter.removeProgressListener(listener);
+			}
+		});
+		return progress;
 	}
 
 	/**
@@ -197,9 +201,9 @@ public class ProgressFactory {
 	 * 
 	 * @param subProgresses
 	 *            all the {@link Progress} instances to cover
-	 * @return the global {@link Progress}
+	 * @return the global {@link Progress}, to close once not needed anymore
 	 */
-	public <Value extends Number> Progress<Value> createGlobalAdditiveProgress(
+	public <Value extends Number> GlobalProgress<Value> createGlobalAdditiveProgress(
 			final Collection<? extends Progress<Value>> subProgresses) {
 		if (subProgresses == null || subProgresses.isEmpty()) {
 			throw new IllegalArgumentException("No sub-progresses provided: "
@@ -214,14 +218,22 @@ public class ProgressFactory {
 
 			final Collection<ProgressListener<? super Value>> listeners = new HashSet<>();
 
+			final ProgressInstrumentation.Probe probe = new ProgressInstrumentation.Probe(
+					null);
 			final ProgressListener<Value> globalListener = new ProgressListener<Value>() {
 
 				@Override
 				public void currentUpdate(Value value) {
 					Value globalValue = computeAdditiveCurrentValue(fixedProgresses);
 					values.set(0, globalValue);
-					for (ProgressListener<? super Value> listener : listeners) {
-						listener.currentUpdate(globalValue);
+					if (ProgressInstrumentation.isEnabled()) {
+						probe.countRecomputation();
+						probe.notifyCurrentUpdate(listeners, globalValue);
+					} else {
+						for (ProgressListener<? super Value> listener : listeners) {
+							listener.currentUpdate(globalValue);
+						}
+						probe.notifyIsolatedCurrentUpdate(globalValue);
 					}
 				}
 
@@ -229,17 +241,29 @@ public class ProgressFactory {
 				public void maxUpdate(Value maxValue) {
 					Value globalValue = computeAdditiveMaxValue(fixedProgresses);
 					values.set(1, globalValue);
-					for (ProgressListener<? super Value> listener : listeners) {
-						listener.maxUpdate(globalValue);
+					if (ProgressInstrumentation.isEnabled()) {
+						probe.countRecomputation();
+						probe.notifyMaxUpdate(listeners, globalValue);
+					} else {
+						for (ProgressListener<? super Value> listener : listeners) {
+							listener.maxUpdate(globalValue);
+						}
+						probe.notifyIsolatedMaxUpdate(globalValue);
 					}
 				}
 			};
 
-			for (Progress<Value> subprogress : fixedProgresses) {
-				subprogress.addProgressListener(globalListener);
-			}
+			Runnable detach = new Runnable() {
 
-			return new Progress<Value>() {
+				@Override
+				public void run() {
+					for (Progress<Value> subprogress : fixedProgresses) {
+						subprogress.removeProgressListener(globalListener);
+					}
+				}
+			};
+			GlobalProgress<Value> global = new AbstractGlobalProgress<Value>(
+					detach) {
 
 				@Override
 				public Value getCurrentValue() {
@@ -251,6 +275,31 @@ public class ProgressFactory {
 					return values.get(1);
 				}
 
+				@Override
+				public long getCompositionVersion() {
+					// Fixed sub-progresses
+					return 0;
+				}
+
+				@Override
+				public Collection<? extends Progress<?>> getSubProgresses() {
+					return fixedProgresses;
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public Value computeCurrentValue(
+						List<ProgressSnapshot<?>> subSnapshots) {
+					return computeAdditiveCurrentValue((List<ProgressSnapshot<Value>>) (List<?>) subSnapshots);
+				}
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public Value computeMaxValue(
+						List<ProgressSnapshot<?>> subSnapshots) {
+					return computeAdditiveMaxValue((List<ProgressSnapshot<Value>>) (List<?>) subSnapshots);
+				}
+
 				@Override
 				public void addProgressListener(
 						ProgressListener<? super Value> listener) {
@@ -261,15 +310,15 @@ public class ProgressFactory {
 				public void removeProgressListener(
 						ProgressListener<? super Value> listener) {
 					listeners.remove(listener);
-				}
-
-				@Override
-				protected void finalize() throws Throwable {
-					for (Progress<Value> subprogress : fixedProgresses) {
-						subprogress.removeProgressListener(globalListener);
-					}
+					probe.removeIsolated(listener);
 				}
 			};
+			probe.setOwner(global);
+
+			for (Progress<Value> subprogress : fixedProgresses) {
+				subprogress.addProgressListener(globalListener);
+			}
+			return global;
 		}
 	}
 
@@ -285,9 +334,9 @@ public class ProgressFactory {
 	 * 
 	 * @param subProgresses
 	 *            all the {@link Progress} instances to cover
-	 * @return the global {@link Progress}
+	 * @return the global {@link Progress}, to close once not needed anymore
 	 */
-	public Progress<Double> createGlobalCountingProgress(
+	public GlobalProgress<Double> createGlobalCountingProgress(
 			Collection<? extends Progress<? extends Number>> subProgresses) {
 		if (subProgresses == null || subProgresses.isEmpty()) {
 			throw new IllegalArgumentException("No sub-progresses provided: "
@@ -302,14 +351,22 @@ public class ProgressFactory {
 
 			final Collection<ProgressListener<? super Double>> listeners = new HashSet<>();
 
+			final ProgressInstrumentation.Probe probe = new ProgressInstrumentation.Probe(
+					null);
 			final ProgressListener<Number> globalListener = new ProgressListener<Number>() {
 
 				@Override
 				public void currentUpdate(Number value) {
 					double globalValue = computeCountingCurrentValue(fixedProgresses);
 					values.set(0, globalValue);
-					for (ProgressListener<? super Double> listener : listeners) {
-						listener.currentUpdate(globalValue);
+					if (ProgressInstrumentation.isEnabled()) {
+						probe.countRecomputation();
+						probe.notifyCurrentUpdate(listeners, globalValue);
+					} else {
+						for (ProgressListener<? super Double> listener : listeners) {
+							listener.currentUpdate(globalValue);
+						}
+						probe.notifyIsolatedCurrentUpdate(globalValue);
 					}
 				}
 
@@ -323,11 +380,17 @@ public class ProgressFactory {
 			};
 
 			final ProgressListenerMap listenerMap = new ProgressListenerMap();
-			for (Progress<? extends Number> subprogress : fixedProgresses) {
-				listen(subprogress, globalListener, listenerMap);
-			}
+			Runnable detach = new Runnable() {
 
-			return new Progress<Double>() {
+				@Override
+				public void run() {
+					for (Progress<? extends Number> subprogress : fixedProgresses) {
+						unlisten(subprogress, listenerMap);
+					}
+				}
+			};
+			GlobalProgress<Double> global = new AbstractGlobalProgress<Double>(
+					detach) {
 
 				@Override
 				public Double getCurrentValue() {
@@ -339,6 +402,29 @@ public class ProgressFactory {
 					return values.get(1);
 				}
 
+				@Override
+				public long getCompositionVersion() {
+					// Fixed sub-progresses
+					return 0;
+				}
+
+				@Override
+				public Collection<? extends Progress<?>> getSubProgresses() {
+					return fixedProgresses;
+				}
+
+				@Override
+				public Double computeCurrentValue(
+						List<ProgressSnapshot<?>> subSnapshots) {
+					return computeCountingCurrentValue(subSnapshots);
+				}
+
+				@Override
+				public Double computeMaxValue(
+						List<ProgressSnapshot<?>> subSnapshots) {
+					return (double) subSnapshots.size();
+				}
+
 				@Override
 				public void addProgressListener(
 						ProgressListener<? super Double> listener) {
@@ -349,15 +435,126 @@ public class ProgressFactory {
 				public void removeProgressListener(
 						ProgressListener<? super Double> listener) {
 					listeners.remove(listener);
-				}
-
-				@Override
-				protected void finalize() throws Throwable {
-					for (Progress<? extends Number> subprogress : fixedProgresses) {
-						unlisten(subprogress, listenerMap);
-					}
+					probe.removeIsolated(listener);
 				}
 			};
+			probe.setOwner(global);
+
+			for (Progress<? extends Number> subprogress : fixedProgresses) {
+				listen(subprogress, globalListener, listenerMap);
+			}
+			return global;
+		}
+	}
+
+	/**
+	 * This method aims at providing a global {@link Progress} which adds its
+	 * sub-{@link Progress} instances, like
+	 * {@link #createGlobalAdditiveProgress(Collection)}, but to which
+	 * sub-{@link Progress} instances can be added or removed at any time. See
+	 * the Javadoc of {@link DynamicAdditiveProgress} for further details.
+	 * 
+	 * @param zero
+	 *            the current {@link Value} of the global {@link Progress}
+	 *            when it has no sub-{@link Progress}, its max {@link Value}
+	 *            being <code>null</code>
+	 * @param subProgresses
+	 *            the {@link Progress} instances to cover initially, possibly
+	 *            none
+	 * @return the global {@link Progress}, to close once not needed anymore
+	 */
+	public <Value extends Number> DynamicAdditiveProgress<Value> createDynamicGlobalAdditiveProgress(
+			Value zero, Collection<? extends Progress<Value>> subProgresses) {
+		DynamicAdditiveProgress<Value> global = new DynamicAdditiveProgress<Value>(
+				zero);
+		for (Progress<Value> subprogress : subProgresses) {
+			global.add(subprogress);
+		}
+		return global;
+	}
+
+	/**
+	 * This method aims at providing a global {@link Progress} over a collection
+	 * of more specific {@link Progress} instances by counting them like
+	 * {@link #createGlobalCountingProgress(Collection)}, but with a different
+	 * weight for each of them: the current {@link Value} of the global
+	 * {@link Progress} sums the progress ratio of each sub-{@link Progress}
+	 * multiplied by its weight, and its max {@link Value} sums the weights. The
+	 * weights can be changed later, as well as the sub-{@link Progress}
+	 * instances. See the Javadoc of {@link WeightedProgress} for further
+	 * details.
+	 * 
+	 * @param weights
+	 *            the {@link Progress} instances to cover, with their weights
+	 * @return the global {@link Progress}, to close once not needed anymore
+	 */
+	public WeightedProgress createGlobalWeightedProgress(
+			Map<? extends Progress<? extends Number>, Double> weights) {
+		if (weights == null || weights.isEmpty()) {
+			throw new IllegalArgumentException("No sub-progresses provided: "
+					+ weights);
+		} else {
+			WeightedProgress global = new WeightedProgress();
+			for (Entry<? extends Progress<? extends Number>, Double> entry : weights
+					.entrySet()) {
+				global.add(entry.getKey(), entry.getValue());
+			}
+			return global;
+		}
+	}
+
+	/**
+	 * This method aims at providing a global {@link Progress} over a collection
+	 * of more specific {@link Progress} instances which follows the least
+	 * advanced of them: the current {@link Value} of the global
+	 * {@link Progress} is the lowest progress ratio of the sub-{@link Progress}
+	 * instances, and its max {@link Value} is 1. Consequently, it finishes only
+	 * when they are all finished, and the sub-{@link Progress} which currently
+	 * slows it down is available through
+	 * {@link ExtremumProgress#getDrivingSubProgress()}. See the Javadoc of
+	 * {@link ExtremumProgress} for further details.
+	 * 
+	 * @param subProgresses
+	 *            all the {@link Progress} instances to cover
+	 * @return the global {@link Progress}, to close once not needed anymore
+	 */
+	public ExtremumProgress createGlobalMinimumProgress(
+			Collection<? extends Progress<? extends Number>> subProgresses) {
+		return createGlobalExtremumProgress(ExtremumProgress.Kind.MINIMUM,
+				subProgresses);
+	}
+
+	/**
+	 * This method aims at providing a global {@link Progress} over a collection
+	 * of more specific {@link Progress} instances which follows the most
+	 * advanced of them: the current {@link Value} of the global
+	 * {@link Progress} is the highest progress ratio of the
+	 * sub-{@link Progress} instances, and its max {@link Value} is 1.
+	 * Consequently, it finishes as soon as one of them is finished. See the
+	 * Javadoc of {@link ExtremumProgress} for further details.
+	 * 
+	 * @param subProgresses
+	 *            all the {@link Progress} instances to cover
+	 * @return the global {@link Progress}, to close once not needed anymore
+	 */
+	public ExtremumProgress createGlobalMaximumProgress(
+			Collection<? extends Progress<? extends Number>> subProgresses) {
+		return createGlobalExtremumProgress(ExtremumProgress.Kind.MAXIMUM,
+				subProgresses);
+	}
+
+	private ExtremumProgress createGlobalExtremumProgress(
+			ExtremumProgress.Kind kind,
+			Collection<? extends Progress<? extends Number>> subProgresses) {
+		if (subProgresses == null || subProgresses.isEmpty()) {
+			throw new IllegalArgumentException("No sub-progresses provided: "
+					+ subProgresses);
+		} else {
+			ExtremumProgress global = new ExtremumProgress(kind);
+			for (Progress<? extends Number> subprogress : subProgresses) {
+				global.add(subprogress);
+			}
+			return global;
 		}
 	}
 
@@ -440,6 +637,26 @@ public class ProgressFactory {
 		return translator.toValue(value);
 	}
 
+	/**
+	 * Base of the global {@link Progress}es, which stop listening to their
+	 * sub-progresses when closed or collected. The action doing so should not
+	 * reference the global {@link Progress}, and neither should the listeners
+	 * of the sub-progresses.
+	 */
+	private static abstract class AbstractGlobalProgress<Value extends Number>
+			implements ProgressSnapshot.Composite<Value>, GlobalProgress<Value> {
+		private final ProgressCleaner.Cleanable cleanable;
+
+		public AbstractGlobalProgress(Runnable detach) {
+			this.cleanable = ProgressCleaner.register(this, detach);
+		}
+
+		@Override
+		public void close() {
+			cleanable.clean();
+		}
+	}
+
 	class ProgressListenerMap {
 		private Map<Progress<? extends Number>, ProgressListener<? extends Number>> map = new HashMap<Progress<? extends Number>, Progress.ProgressListener<? extends Number>>();
 
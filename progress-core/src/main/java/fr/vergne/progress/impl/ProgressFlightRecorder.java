@@ -0,0 +1,116 @@
+package fr.vergne.progress.impl;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+/**
+ * <p>
+ * This class records the activity of {@link Progress}es as Java Flight
+ * Recorder events, such that progress milestones appear in the same recordings
+ * than the rest of the application:
+ * </p>
+ * <ul>
+ * <li><code>fr.vergne.progress.Started</code> when a {@link Progress} is
+ * {@link #record(String, Progress) recorded},</li>
+ * <li><code>fr.vergne.progress.Finished</code> when it finishes,</li>
+ * <li><code>fr.vergne.progress.MaxChanged</code> when its max value changes,</li>
+ * <li><code>fr.vergne.progress.ValueSample</code> for its current value, at
+ * most once per sampling period,</li>
+ * <li><code>fr.vergne.progress.SlowListener</code> for each listener call
+ * longer than {@link #getSlowListenerThreshold()}, measured while the
+ * {@link ProgressInstrumentation} is enabled.</li>
+ * </ul>
+ * <p>
+ * Java Flight Recorder is not available in Java 8, so this implementation does
+ * nothing. The library is packaged as a multi-release JAR which provides,
+ * from Java 11, another implementation of this class which emits the events.
+ * Each event is only created if it is enabled in the current recording, so
+ * the disabled ones do not cost anything more than this check.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressFlightRecorder {
+
+	/**
+	 * Period, in milliseconds, used by default between two samples of the
+	 * current value of a {@link Progress}.
+	 */
+	public static final long DEFAULT_SAMPLING_PERIOD = 100;
+
+	private static volatile long slowListenerThreshold = 1000000;
+
+	/**
+	 *
+	 * @return <code>true</code> if the events are actually emitted,
+	 *         <code>false</code> if this Java version does not support them
+	 */
+	public static boolean isAvailable() {
+		return false;
+	}
+
+	/**
+	 * Same than {@link #record(String, Progress, long)} with a sample every
+	 * {@link #DEFAULT_SAMPLING_PERIOD} milliseconds.
+	 */
+	public static <Value extends Number> void record(String name,
+			Progress<Value> progress) {
+		record(name, progress, DEFAULT_SAMPLING_PERIOD);
+	}
+
+	/**
+	 * Record the activity of a {@link Progress}, by emitting a
+	 * <code>Started</code> event immediately and by listening to it for the
+	 * other events.
+	 *
+	 * @param name
+	 *            the name of the {@link Progress} in the events
+	 * @param progress
+	 *            the {@link Progress} to record
+	 * @param samplingPeriod
+	 *            the minimum time, in milliseconds, between two samples of the
+	 *            current value
+	 */
+	public static <Value extends Number> void record(String name,
+			Progress<Value> progress, long samplingPeriod) {
+		if (name == null) {
+			throw new NullPointerException("No name provided");
+		} else if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (samplingPeriod < 0) {
+			throw new IllegalArgumentException(
+					"The sampling period cannot be negative: " + samplingPeriod);
+		} else {
+			// No flight recorder, nothing to record
+		}
+	}
+
+	/**
+	 *
+	 * @param threshold
+	 *            the minimum time, in nanoseconds, of a listener call to emit
+	 *            a <code>SlowListener</code> event
+	 */
+	public static void setSlowListenerThreshold(long threshold) {
+		slowListenerThreshold = threshold;
+	}
+
+	/**
+	 *
+	 * @return the minimum time, in nanoseconds, of a listener call to emit a
+	 *         <code>SlowListener</code> event
+	 */
+	public static long getSlowListenerThreshold() {
+		return slowListenerThreshold;
+	}
+
+	/**
+	 * Called by the {@link ProgressInstrumentation} for each listener call
+	 * longer than {@link #getSlowListenerThreshold()}.
+	 */
+	static void slowListener(Progress<?> progress,
+			ProgressListener<?> listener, long duration) {
+		// No flight recorder, nothing to record
+	}
+}
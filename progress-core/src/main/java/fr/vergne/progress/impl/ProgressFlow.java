@@ -0,0 +1,83 @@
+package fr.vergne.progress.impl;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * This class gathers the interfaces used to consume the states of a
+ * {@link Progress} as a reactive stream, like
+ * {@link ProgressUtil#toPublisher(Progress)} does. They have the same methods
+ * and contracts than the ones of <code>java.util.concurrent.Flow</code>, which
+ * is not available in Java 8. They are distinct types though, so bridging them
+ * to <code>java.util.concurrent.Flow</code> or to another implementation of <a
+ * href="http://www.reactive-streams.org/">Reactive Streams</a> requires a
+ * wrapper for each interface, which delegates each method to the same method
+ * of the wrapped instance.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public final class ProgressFlow {
+
+	private ProgressFlow() {
+		// Only interfaces
+	}
+
+	/**
+	 * A {@link Publisher} provides items to the {@link Subscriber}s which
+	 * subscribe to it, according to their demand.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <T>
+	 *            the type of items published
+	 */
+	@FunctionalInterface
+	public static interface Publisher<T> {
+		public void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A {@link Subscriber} receives the items of a {@link Publisher}. Its
+	 * methods are called sequentially: first
+	 * {@link #onSubscribe(Subscription)}, then {@link #onNext(Object)} once per
+	 * item requested through the {@link Subscription}, and eventually either
+	 * {@link #onComplete()} or {@link #onError(Throwable)}.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <T>
+	 *            the type of items received
+	 */
+	public static interface Subscriber<T> {
+		public void onSubscribe(Subscription subscription);
+
+		public void onNext(T item);
+
+		public void onError(Throwable throwable);
+
+		public void onComplete();
+	}
+
+	/**
+	 * A {@link Subscription} links a {@link Subscriber} to a {@link Publisher},
+	 * allowing the {@link Subscriber} to request items or to stop receiving
+	 * them.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static interface Subscription {
+		/**
+		 * Request more items. {@link Long#MAX_VALUE} means an unbounded demand.
+		 *
+		 * @param n
+		 *            the number of items to add to the demand, strictly
+		 *            positive
+		 */
+		public void request(long n);
+
+		public void cancel();
+	}
+}
@@ -0,0 +1,368 @@
+package fr.vergne.progress.impl;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * This class provides wrappers of I/O streams and channels which count the
+ * bytes they transfer in a {@link ManualProgress}. The {@link ManualProgress}
+ * is updated once per read or write call, not once per byte, and when the
+ * size of the source is known, typically for a file, the max value of the
+ * {@link ManualProgress} is increased accordingly, such that several sources
+ * can be tracked by the same {@link ManualProgress}. If more bytes than
+ * expected are transferred, for instance because a file grows while being
+ * read, the max value is raised to the bytes counted: the I/O calls never
+ * fail because of the {@link ManualProgress}.
+ * </p>
+ * <p>
+ * Because a {@link FileChannel} is both readable and writable, the channels
+ * are wrapped through distinct methods depending on the bytes to count.
+ * Wrapping a channel hides its concrete type, which prevents the JDK from
+ * using zero-copy transfers. To track such transfers,
+ * {@link #transferTo(FileChannel, WritableByteChannel, ManualProgress)} calls
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} chunk by
+ * chunk on the original channels and updates the {@link ManualProgress} after
+ * each of them.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressIO {
+
+	/**
+	 * Number of bytes transferred by
+	 * {@link #transferTo(FileChannel, WritableByteChannel, ManualProgress)}
+	 * between two updates of the {@link ManualProgress}.
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Open a file and track its reading. The max value of the
+	 * {@link ManualProgress} is increased by the size of the file.
+	 *
+	 * @param path
+	 *            the file to read
+	 * @param progress
+	 *            the {@link ManualProgress} counting the bytes read
+	 * @return the tracked {@link InputStream}
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public static InputStream newInputStream(Path path,
+			ManualProgress<Long> progress) throws IOException {
+		return track(Files.newInputStream(path), progress, Files.size(path));
+	}
+
+	/**
+	 * Open a file and track its reading. The max value of the
+	 * {@link ManualProgress} is increased by the size of the file.
+	 *
+	 * @param path
+	 *            the file to read
+	 * @param progress
+	 *            the {@link ManualProgress} counting the bytes read
+	 * @return the tracked {@link ReadableByteChannel}
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	public static ReadableByteChannel newReadableChannel(Path path,
+			ManualProgress<Long> progress) throws IOException {
+		return trackReads(FileChannel.open(path, StandardOpenOption.READ),
+				progress);
+	}
+
+	/**
+	 * Track the bytes read from an {@link InputStream}. If it is a
+	 * {@link FileInputStream}, the max value of the {@link ManualProgress} is
+	 * increased by the bytes remaining in the file. Marks are not supported,
+	 * so the bytes read are never counted twice.
+	 *
+	 * @param stream
+	 *            the {@link InputStream} to track
+	 * @param progress
+	 *            the {@link ManualProgress} counting the bytes read
+	 * @return the tracked {@link InputStream}
+	 * @throws IOException
+	 *             if the size of the file cannot be retrieved
+	 */
+	public static InputStream track(InputStream stream,
+			ManualProgress<Long> progress) throws IOException {
+		if (stream instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream) stream).getChannel();
+			return track(stream, progress,
+					channel.size() - channel.position());
+		} else {
+			return track(stream, progress, null);
+		}
+	}
+
+	private static InputStream track(InputStream stream,
+			final ManualProgress<Long> progress, Long size) {
+		checkProgress(progress);
+		increaseMax(progress, size);
+		return new FilterInputStream(stream) {
+
+			@Override
+			public int read() throws IOException {
+				int read = super.read();
+				if (read >= 0) {
+					add(progress, 1);
+				} else {
+					// End of stream
+				}
+				return read;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				add(progress, read);
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(n);
+				add(progress, skipped);
+				return skipped;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+			@Override
+			public synchronized void mark(int readlimit) {
+				// Not supported
+			}
+
+			@Override
+			public synchronized void reset() throws IOException {
+				throw new IOException("Mark not supported");
+			}
+		};
+	}
+
+	/**
+	 * Track the bytes read from a {@link ReadableByteChannel}. If it is a
+	 * {@link SeekableByteChannel}, like a {@link FileChannel}, the max value of
+	 * the {@link ManualProgress} is increased by the bytes remaining in the
+	 * channel.
+	 *
+	 * @param channel
+	 *            the {@link ReadableByteChannel} to track
+	 * @param progress
+	 *            the {@link ManualProgress} counting the bytes read
+	 * @return the tracked {@link ReadableByteChannel}
+	 * @throws IOException
+	 *             if the size of the channel cannot be retrieved
+	 */
+	public static ReadableByteChannel trackReads(
+			final ReadableByteChannel channel,
+			final ManualProgress<Long> progress) throws IOException {
+		checkProgress(progress);
+		if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekable = (SeekableByteChannel) channel;
+			increaseMax(progress, seekable.size() - seekable.position());
+		} else {
+			// Unknown size
+		}
+		return new ReadableByteChannel() {
+
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				int read = channel.read(dst);
+				add(progress, read);
+				return read;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return channel.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+
+	/**
+	 * Track the bytes written to a {@link WritableByteChannel}. The max value
+	 * of the {@link ManualProgress} is left unchanged.
+	 *
+	 * @param channel
+	 *            the {@link WritableByteChannel} to track
+	 * @param progress
+	 *            the {@link ManualProgress} counting the bytes written
+	 * @return the tracked {@link WritableByteChannel}
+	 */
+	public static WritableByteChannel trackWrites(
+			final WritableByteChannel channel,
+			final ManualProgress<Long> progress) {
+		checkProgress(progress);
+		return new WritableByteChannel() {
+
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				int written = channel.write(src);
+				add(progress, written);
+				return written;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return channel.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+		};
+	}
+
+	/**
+	 * Same than
+	 * {@link #transferTo(FileChannel, WritableByteChannel, ManualProgress, long)}
+	 * with chunks of {@link #DEFAULT_CHUNK_SIZE} bytes.
+	 */
+	public static long transferTo(FileChannel source,
+			WritableByteChannel target, ManualProgress<Long> progress)
+			throws IOException {
+		return transferTo(source, target, progress, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Transfer the remaining bytes of a {@link FileChannel}, from its current
+	 * position, to a {@link WritableByteChannel}. The transfer is made through
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+	 * can avoid copying the bytes in memory, one chunk at a time such that the
+	 * {@link ManualProgress} is updated after each chunk. The max value of the
+	 * {@link ManualProgress} is increased by the bytes to transfer. Like
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, the
+	 * transfer ends early if the target does not accept more bytes, like a
+	 * non-blocking channel with a full buffer, or if the source is truncated
+	 * meanwhile: the max value is then decreased by the bytes not
+	 * transferred, such that calling this method again once the target is
+	 * ready continues the transfer without counting them twice. At the end,
+	 * the position of the source is moved after the bytes transferred.
+	 *
+	 * @param source
+	 *            the {@link FileChannel} to read
+	 * @param target
+	 *            the {@link WritableByteChannel} to write
+	 * @param progress
+	 *            the {@link ManualProgress} counting the bytes transferred
+	 * @param chunkSize
+	 *            the maximum number of bytes transferred between two updates
+	 *            of the {@link ManualProgress}
+	 * @return the number of bytes transferred
+	 * @throws IOException
+	 *             if the transfer fails
+	 */
+	public static long transferTo(FileChannel source,
+			WritableByteChannel target, ManualProgress<Long> progress,
+			long chunkSize) throws IOException {
+		checkProgress(progress);
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(
+					"The chunk size should be strictly positive: " + chunkSize);
+		} else {
+			long start = source.position();
+			long size = source.size() - start;
+			increaseMax(progress, size);
+			long transferred = 0;
+			try {
+				while (transferred < size) {
+					long count = source.transferTo(start + transferred,
+							Math.min(chunkSize, size - transferred), target);
+					if (count > 0) {
+						transferred += count;
+						add(progress, count);
+					} else {
+						// Target not ready or source truncated meanwhile
+						break;
+					}
+				}
+			} finally {
+				source.position(start + transferred);
+				decreaseMax(progress, size - transferred);
+			}
+			return transferred;
+		}
+	}
+
+	private static void checkProgress(ManualProgress<Long> progress) {
+		if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else {
+			// Progress available
+		}
+	}
+
+	private static void increaseMax(ManualProgress<Long> progress, Long size) {
+		if (size == null) {
+			// Unknown size, keep the current max
+		} else {
+			synchronized (progress) {
+				Long max = progress.getMaxValue();
+				if (max == null) {
+					progress.setMaxValue(progress.getCurrentValue() + size);
+				} else {
+					progress.setMaxValue(max + size);
+				}
+			}
+		}
+	}
+
+	private static void decreaseMax(ManualProgress<Long> progress, long size) {
+		if (size > 0) {
+			synchronized (progress) {
+				Long max = progress.getMaxValue();
+				if (max == null) {
+					// Unknown max, nothing to decrease
+				} else {
+					progress.setMaxValue(Math.max(progress.getCurrentValue(),
+							max - size));
+				}
+			}
+		} else {
+			// Everything transferred
+		}
+	}
+
+	private static void add(ManualProgress<Long> progress, long bytes) {
+		if (bytes > 0) {
+			synchronized (progress) {
+				long value = progress.getCurrentValue() + bytes;
+				Long max = progress.getMaxValue();
+				if (max != null && value > max) {
+					// More bytes than expected, like a growing file
+					progress.setMaxValue(value);
+				} else {
+					// Still within the max
+				}
+				progress.setCurrentValue(value);
+			}
+		} else {
+			// Nothing transferred
+		}
+	}
+}
@@ -0,0 +1,547 @@
+package fr.vergne.progress.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+/**
+ * <p>
+ * This class provides an opt-in instrumentation of the {@link Progress}
+ * implementations of this library: {@link ManualProgress},
+ * {@link RecursiveProgress} and the global {@link Progress}es of
+ * {@link ProgressFactory}. Once {@link #setEnabled(boolean) enabled}, each of
+ * them counts its updates, the listeners notified for each of them and the
+ * time spent in these listeners, as well as the recomputations of the
+ * aggregated values for global {@link Progress}es. These {@link Statistics}
+ * can be retrieved through {@link #getStatistics(Progress)}.
+ * </p>
+ * <p>
+ * The counters are striped ({@link LongAdder} and {@link LongAccumulator}), so
+ * concurrent updates do not contend on them, and they do not allocate once the
+ * {@link Statistics} of a {@link Progress} are created, at its first
+ * instrumented update. When the instrumentation is disabled, which is the
+ * default, a {@link Progress} only reads a volatile flag before to notify its
+ * listeners as usual. The listener calls longer than
+ * {@link ProgressFlightRecorder#getSlowListenerThreshold()} are also reported
+ * to the {@link ProgressFlightRecorder}.
+ * </p>
+ * <p>
+ * A {@link #setListenerBudget(long) listener budget} can also be set, such
+ * that a listener which takes longer than it is isolated: it is removed from
+ * the listeners notified synchronously and notified by a background thread
+ * instead. The updates are coalesced, so an isolated listener only receives
+ * the last values when it is ready for them, and the threads updating the
+ * {@link Progress} only pay for the fast listeners. The background threads are
+ * pooled but not shared between running listeners, so an isolated listener
+ * which blocks only delays its own notifications, at the cost of a thread. Its
+ * calls are measured like the synchronous ones, so a listener still exceeding
+ * the budget once isolated is reported to the {@link ProgressFlightRecorder}
+ * and in the {@link Statistics}. Once isolated, a listener remains so until it
+ * is removed from its {@link Progress}, even if the instrumentation is
+ * disabled.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressInstrumentation {
+
+	private static volatile boolean enabled = false;
+	private static volatile long listenerBudget = 0;
+	private static final Map<Progress<?>, Statistics> STATISTICS = Collections
+			.synchronizedMap(new WeakHashMap<Progress<?>, Statistics>());
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+
+		@Override
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	/**
+	 * Enable or disable the instrumentation. The {@link Statistics} already
+	 * collected are kept when it is disabled.
+	 *
+	 * @param enabled
+	 *            <code>true</code> to collect {@link Statistics},
+	 *            <code>false</code> to stop
+	 */
+	public static void setEnabled(boolean enabled) {
+		ProgressInstrumentation.enabled = enabled;
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if the {@link Statistics} are collected,
+	 *         <code>false</code> otherwise
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Set the maximum time a listener call can take before the listener is
+	 * isolated. The listener calls are measured only while the
+	 * instrumentation is {@link #setEnabled(boolean) enabled}.
+	 *
+	 * @param budget
+	 *            the maximum time, in nanoseconds, of a listener call, or 0 to
+	 *            never isolate a listener
+	 */
+	public static void setListenerBudget(long budget) {
+		if (budget < 0) {
+			throw new IllegalArgumentException(
+					"The listener budget cannot be negative: " + budget);
+		} else {
+			listenerBudget = budget;
+		}
+	}
+
+	/**
+	 *
+	 * @return the maximum time, in nanoseconds, of a listener call before the
+	 *         listener is isolated, 0 if they are never isolated
+	 */
+	public static long getListenerBudget() {
+		return listenerBudget;
+	}
+
+	/**
+	 *
+	 * @param progress
+	 *            the {@link Progress} to look at
+	 * @return the {@link Statistics} of the {@link Progress},
+	 *         <code>null</code> if it has not been updated while the
+	 *         instrumentation was enabled
+	 */
+	public static Statistics getStatistics(Progress<?> progress) {
+		return STATISTICS.get(progress);
+	}
+
+	/**
+	 * The {@link Statistics} of a single {@link Progress}. Each getter reads
+	 * its counter independently, so they are not consistent with each other
+	 * while the {@link Progress} is updated.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static class Statistics {
+		private final long start = System.nanoTime();
+		private final LongAdder updates = new LongAdder();
+		private final LongAdder notifications = new LongAdder();
+		private final LongAdder listenerTime = new LongAdder();
+		private final LongAccumulator maxListenerTime = new LongAccumulator(
+				MAX, 0);
+		private final LongAdder recomputations = new LongAdder();
+		private final LongAdder isolations = new LongAdder();
+
+		/**
+		 *
+		 * @return the number of updates of the current or max value
+		 */
+		public long getUpdateCount() {
+			return updates.sum();
+		}
+
+		/**
+		 *
+		 * @return the mean number of updates per second since these
+		 *         {@link Statistics} have been created
+		 */
+		public double getUpdateRate() {
+			long elapsed = System.nanoTime() - start;
+			return elapsed == 0 ? 0 : updates.sum()
+					/ (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+		}
+
+		/**
+		 *
+		 * @return the number of listener calls
+		 */
+		public long getNotificationCount() {
+			return notifications.sum();
+		}
+
+		/**
+		 *
+		 * @return the mean number of listeners notified per update
+		 */
+		public double getMeanFanOut() {
+			long updates = this.updates.sum();
+			return updates == 0 ? 0 : notifications.sum() / (double) updates;
+		}
+
+		/**
+		 *
+		 * @return the total time spent in listeners, in nanoseconds
+		 */
+		public long getListenerTime() {
+			return listenerTime.sum();
+		}
+
+		/**
+		 *
+		 * @return the longest time spent in a single listener call, in
+		 *         nanoseconds
+		 */
+		public long getMaxListenerTime() {
+			return maxListenerTime.get();
+		}
+
+		/**
+		 *
+		 * @return the number of times the aggregated value of a global
+		 *         {@link Progress} has been computed from its sub-progresses
+		 */
+		public long getRecomputationCount() {
+			return recomputations.sum();
+		}
+
+		/**
+		 *
+		 * @return the number of listeners isolated for exceeding the
+		 *         {@link ProgressInstrumentation#getListenerBudget() listener
+		 *         budget}
+		 */
+		public long getIsolatedListenerCount() {
+			return isolations.sum();
+		}
+
+		@Override
+		public String toString() {
+			return getUpdateCount() + " updates, " + getNotificationCount()
+					+ " notifications, " + getListenerTime()
+					+ "ns in listeners (max " + getMaxListenerTime() + "ns), "
+					+ getRecomputationCount() + " recomputations, "
+					+ getIsolatedListenerCount() + " isolated listeners";
+		}
+	}
+
+	/**
+	 * The threads notifying the isolated listeners, created at the first
+	 * isolation. A thread is created only if all the others are busy, so
+	 * there are at most as many threads as isolated listeners notified at the
+	 * same time, and the idle ones stop after a while.
+	 */
+	private static class Dispatcher {
+		private static final ExecutorService EXECUTOR = Executors
+				.newCachedThreadPool(new ThreadFactory() {
+
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"Progress listeners dispatcher");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * A listener notified by the {@link Dispatcher}. Only the last values are
+	 * kept between two notifications, and a single notification task is
+	 * pending or running at a time, so a slow listener cannot make the updates
+	 * pile up, nor be called concurrently, and it uses at most one thread.
+	 */
+	private static class IsolatedListener implements Runnable {
+		private final Probe probe;
+		private final Statistics statistics;
+		private final ProgressListener<?> listener;
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private volatile Number current;
+		private volatile boolean currentUpdated = false;
+		private volatile Number max;
+		private volatile boolean maxUpdated = false;
+
+		public IsolatedListener(Probe probe, Statistics statistics,
+				ProgressListener<?> listener) {
+			this.probe = probe;
+			this.statistics = statistics;
+			this.listener = listener;
+		}
+
+		public void currentUpdate(Number value) {
+			current = value;
+			currentUpdated = true;
+			schedule();
+		}
+
+		public void maxUpdate(Number value) {
+			max = value;
+			maxUpdated = true;
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				Dispatcher.EXECUTOR.execute(this);
+			} else {
+				// Already pending, it will read the last values
+			}
+		}
+
+		/**
+		 * Notify the last values until there is no new one. The task remains
+		 * scheduled while it runs, such that the updates received meanwhile
+		 * are notified by this same task instead of a concurrent one.
+		 */
+		@Override
+		public void run() {
+			do {
+				try {
+					notifyLastValues();
+				} finally {
+					// Even if the listener fails, to notify it again later
+					scheduled.set(false);
+				}
+			} while ((maxUpdated || currentUpdated)
+					&& scheduled.compareAndSet(false, true));
+		}
+
+		/**
+		 * Notify the max value first, such that the current value does not
+		 * appear higher than it.
+		 */
+		@SuppressWarnings("unchecked")
+		private void notifyLastValues() {
+			ProgressListener<Number> listener = (ProgressListener<Number>) this.listener;
+			if (maxUpdated) {
+				maxUpdated = false;
+				long start = System.nanoTime();
+				listener.maxUpdate(max);
+				measure(System.nanoTime() - start);
+			} else {
+				// No max update since the last run
+			}
+			if (currentUpdated) {
+				currentUpdated = false;
+				long start = System.nanoTime();
+				listener.currentUpdate(current);
+				measure(System.nanoTime() - start);
+			} else {
+				// No current update since the last run
+			}
+		}
+
+		private void measure(long time) {
+			if (ProgressInstrumentation.isEnabled()) {
+				probe.record(statistics, listener, time);
+			} else {
+				// Not instrumented
+			}
+		}
+	}
+
+	/**
+	 * A {@link Probe} is owned by an instrumented {@link Progress}, which
+	 * calls its notification methods only when
+	 * {@link ProgressInstrumentation#isEnabled()}, and the ones of the
+	 * isolated listeners otherwise. It creates the {@link Statistics} of its
+	 * owner at the first call. The owner is weakly referenced, so a
+	 * {@link Probe} used by the listeners of the sub-progresses of a global
+	 * {@link Progress} does not prevent its collection.
+	 */
+	static class Probe {
+		private WeakReference<Progress<?>> owner;
+		private volatile Statistics statistics;
+		private volatile List<IsolatedListener> isolated;
+
+		public Probe(Progress<?> owner) {
+			setOwner(owner);
+		}
+
+		/**
+		 * Set the owner of this {@link Probe}, for the {@link Progress}es which
+		 * cannot be provided at creation. It should be set before the first
+		 * call to this {@link Probe}.
+		 */
+		public void setOwner(Progress<?> owner) {
+			this.owner = owner == null ? null : new WeakReference<Progress<?>>(
+					owner);
+		}
+
+		private Progress<?> getOwner() {
+			return owner == null ? null : owner.get();
+		}
+
+		private Statistics getStatistics() {
+			Statistics statistics = this.statistics;
+			if (statistics == null) {
+				synchronized (this) {
+					statistics = this.statistics;
+					if (statistics == null) {
+						statistics = new Statistics();
+						Progress<?> owner = getOwner();
+						if (owner == null) {
+							// Not retrievable, but still counted
+						} else {
+							STATISTICS.put(owner, statistics);
+						}
+						this.statistics = statistics;
+					} else {
+						// Created concurrently
+					}
+				}
+			} else {
+				// Already created
+			}
+			return statistics;
+		}
+
+		/**
+		 * Count an update of the current value and notify the listeners. The
+		 * listeners exceeding the {@link #getListenerBudget() listener budget}
+		 * are removed from the {@link Collection} and isolated.
+		 */
+		public <Value extends Number> void notifyCurrentUpdate(
+				Collection<? extends ProgressListener<? super Value>> listeners,
+				Value value) {
+			Statistics statistics = getStatistics();
+			statistics.updates.increment();
+			statistics.notifications.add(listeners.size());
+			notifyIsolatedCurrentUpdate(value);
+			long budget = listenerBudget;
+			for (Iterator<? extends ProgressListener<? super Value>> iterator = listeners
+					.iterator(); iterator.hasNext();) {
+				ProgressListener<? super Value> listener = iterator.next();
+				long start = System.nanoTime();
+				listener.currentUpdate(value);
+				long time = System.nanoTime() - start;
+				record(statistics, listener, time);
+				if (budget > 0 && time > budget) {
+					iterator.remove();
+					isolate(statistics, listener);
+				} else {
+					// Within the budget
+				}
+			}
+		}
+
+		/**
+		 * Count an update of the max value and notify the listeners. The
+		 * listeners exceeding the {@link #getListenerBudget() listener budget}
+		 * are removed from the {@link Collection} and isolated.
+		 */
+		public <Value extends Number> void notifyMaxUpdate(
+				Collection<? extends ProgressListener<? super Value>> listeners,
+				Value value) {
+			Statistics statistics = getStatistics();
+			statistics.updates.increment();
+			statistics.notifications.add(listeners.size());
+			notifyIsolatedMaxUpdate(value);
+			long budget = listenerBudget;
+			for (Iterator<? extends ProgressListener<? super Value>> iterator = listeners
+					.iterator(); iterator.hasNext();) {
+				ProgressListener<? super Value> listener = iterator.next();
+				long start = System.nanoTime();
+				listener.maxUpdate(value);
+				long time = System.nanoTime() - start;
+				record(statistics, listener, time);
+				if (budget > 0 && time > budget) {
+					iterator.remove();
+					isolate(statistics, listener);
+				} else {
+					// Within the budget
+				}
+			}
+		}
+
+		/**
+		 * Notify the isolated listeners of an update of the current value.
+		 * Called by the owner when it notifies its listeners without
+		 * {@link #notifyCurrentUpdate(Collection, Number)}.
+		 */
+		public void notifyIsolatedCurrentUpdate(Number value) {
+			List<IsolatedListener> isolated = this.isolated;
+			if (isolated == null) {
+				// No isolated listener
+			} else {
+				for (IsolatedListener listener : isolated) {
+					listener.currentUpdate(value);
+				}
+			}
+		}
+
+		/**
+		 * Notify the isolated listeners of an update of the max value. Called
+		 * by the owner when it notifies its listeners without
+		 * {@link #notifyMaxUpdate(Collection, Number)}.
+		 */
+		public void notifyIsolatedMaxUpdate(Number value) {
+			List<IsolatedListener> isolated = this.isolated;
+			if (isolated == null) {
+				// No isolated listener
+			} else {
+				for (IsolatedListener listener : isolated) {
+					listener.maxUpdate(value);
+				}
+			}
+		}
+
+		/**
+		 * Stop notifying a listener if it is isolated. Called by the owner
+		 * when the listener is removed.
+		 */
+		public void removeIsolated(ProgressListener<?> listener) {
+			List<IsolatedListener> isolated = this.isolated;
+			if (isolated == null) {
+				// No isolated listener
+			} else {
+				for (IsolatedListener candidate : isolated) {
+					if (candidate.listener.equals(listener)) {
+						isolated.remove(candidate);
+					} else {
+						// Another listener
+					}
+				}
+			}
+		}
+
+		private synchronized void isolate(Statistics statistics,
+				ProgressListener<?> listener) {
+			if (isolated == null) {
+				isolated = new CopyOnWriteArrayList<>();
+			} else {
+				// Already created
+			}
+			isolated.add(new IsolatedListener(this, statistics, listener));
+			statistics.isolations.increment();
+		}
+
+		private void record(Statistics statistics,
+				ProgressListener<?> listener, long time) {
+			statistics.listenerTime.add(time);
+			statistics.maxListenerTime.accumulate(time);
+			if (time >= ProgressFlightRecorder.getSlowListenerThreshold()) {
+				ProgressFlightRecorder.slowListener(getOwner(), listener,
+						time);
+			} else {
+				// Fast enough
+			}
+		}
+
+		/**
+		 * Count a computation of an aggregated value.
+		 */
+		public void countRecomputation() {
+			getStatistics().recomputations.increment();
+		}
+	}
+}
@@ -0,0 +1,859 @@
+package fr.vergne.progress.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+/**
+ * <p>
+ * A {@link ProgressJournal} records all the updates of some {@link Progress}
+ * instances into a compact binary file, for offline analysis. Each
+ * {@link Progress} is tracked under a name through
+ * {@link #track(String, Progress)}, and each of its updates produces an event
+ * storing its identifier, the time elapsed since the previous event of the
+ * same thread in nanoseconds, and the new value. All the numbers are encoded
+ * as variable length integers, such that a typical event holds in a few
+ * bytes. Integral values are stored exactly, other values as
+ * <code>double</code>s.
+ * </p>
+ *
+ * <p>
+ * Each updating thread encodes its events into its own direct
+ * {@link ByteBuffer}, so recording an event takes no lock and does not
+ * contend with the other threads: it only costs a few byte writes and an
+ * ordered store to publish them. The time is not read for each event either:
+ * a background thread refreshes a shared clock every millisecond, which is
+ * thus the precision of the timestamps. When the buffer of a thread is full,
+ * or at least once per flush period, a background thread writes its events to
+ * the file, and the thread continues in a spare buffer. If the background
+ * thread is still writing the spare buffer when the next one is full, the
+ * updating thread waits for it, so the memory used remains bounded. Events
+ * notified after {@link #close()} are ignored.
+ * </p>
+ *
+ * <p>
+ * A journal can be read with {@link Reader}, which streams the events without
+ * loading the whole file. The events of a thread are written in blocks, so the
+ * events of a same thread are read in order, but the ones of different threads
+ * are read block by block: their timestamps tell their actual order.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressJournal implements Closeable {
+
+	private static final int MAGIC = 0x50524a4e; // "PRJN"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 24;
+	private static final int MAX_EVENT_SIZE = 1 + 5 + 10 + 10;
+	private static final int MAX_BLOCK_HEADER_SIZE = 5 + 5;
+	/**
+	 * Maximum size in bytes of a name, such that its definition always fits
+	 * in the buffer of a {@link Reader}.
+	 */
+	private static final int MAX_NAME_SIZE = 1 << 12;
+	private static final int MAX_RECORD_SIZE = MAX_BLOCK_HEADER_SIZE
+			+ Math.max(MAX_EVENT_SIZE, 1 + 5 + 5 + MAX_NAME_SIZE);
+	private static final long CLOCK_PERIOD = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int DEFINITIONS_LANE = 0;
+	private static final byte DEFINITION = 0;
+	private static final byte CURRENT_LONG = 1;
+	private static final byte CURRENT_DOUBLE = 2;
+	private static final byte MAX_LONG = 3;
+	private static final byte MAX_DOUBLE = 4;
+	private static final byte MAX_UNKNOWN = 5;
+
+	private final FileChannel channel;
+	private final int bufferSize;
+	private final long flushPeriod;
+	private final long startTime = System.nanoTime();
+	private final Thread writer;
+	private final Thread clock;
+	private final ThreadLocal<Lane> currentLane = new ThreadLocal<Lane>() {
+
+		@Override
+		protected Lane initialValue() {
+			return createLane();
+		}
+	};
+	private final List<Runnable> untrackers = new ArrayList<>();
+	private final List<Lane> lanes = new ArrayList<>();
+	private final List<byte[]> definitions = new ArrayList<>();
+	/**
+	 * Time elapsed since the creation of this {@link ProgressJournal}, in
+	 * nanoseconds, refreshed every {@link #CLOCK_PERIOD}.
+	 */
+	private volatile long now = 0;
+	private volatile boolean closed = false;
+	private int nextId = 0;
+	private int nextLaneId = DEFINITIONS_LANE + 1;
+	private boolean flushRequested = false;
+	private IOException writeFailure = null;
+
+	/**
+	 * The buffers in which a single thread records its events. The thread
+	 * writes its events in the active buffer without lock, and publishes them
+	 * through {@link #committed}. The buffers are exchanged while holding the
+	 * lock of the {@link Lane}, which the background thread also holds to
+	 * know what to write.
+	 */
+	private static class Lane {
+		private final int id;
+		private final Thread owner;
+		private final AtomicInteger committed = new AtomicInteger(0);
+		private ByteBuffer active;
+		private long lastTimestamp = 0;
+		private ByteBuffer spare;
+		private int flushed = 0;
+		private ByteBuffer retired = null;
+		private int retiredFlushed;
+		private int retiredEnd;
+		// Captured by the background thread, written outside the lock
+		private ByteBuffer writtenRetired;
+		private int writtenRetiredFrom;
+		private int writtenRetiredTo;
+		private ByteBuffer writtenActive;
+		private int writtenActiveFrom;
+		private int writtenActiveTo;
+
+		public Lane(int id, Thread owner, int bufferSize) {
+			this.id = id;
+			this.owner = owner;
+			this.active = ByteBuffer.allocateDirect(bufferSize);
+			this.spare = ByteBuffer.allocateDirect(bufferSize);
+		}
+
+		/**
+		 * Capture the events to write, from the retired buffer first, then
+		 * from the active one.
+		 */
+		public synchronized void capture() {
+			writtenRetired = retired;
+			writtenRetiredFrom = retiredFlushed;
+			writtenRetiredTo = retiredEnd;
+			writtenActive = active;
+			writtenActiveFrom = flushed;
+			writtenActiveTo = committed.get();
+		}
+
+		/**
+		 * Tell that the captured events have been written, which makes the
+		 * retired buffer available again.
+		 */
+		public synchronized void release() {
+			if (writtenRetired == null) {
+				// No retired buffer to recycle
+			} else {
+				writtenRetired.clear();
+				spare = writtenRetired;
+				retired = null;
+				writtenRetired = null;
+				notifyAll();
+			}
+			if (active == writtenActive) {
+				flushed = writtenActiveTo;
+			} else {
+				// Retired while writing, the rest remains to write
+				retiredFlushed = writtenActiveTo;
+			}
+			writtenActive = null;
+		}
+
+		/**
+		 *
+		 * @return <code>true</code> if the thread is dead and all its events
+		 *         are written, such that this {@link Lane} can be forgotten
+		 */
+		public synchronized boolean isDrained() {
+			return !owner.isAlive() && retired == null
+					&& flushed == committed.get();
+		}
+	}
+
+	/**
+	 * Create a {@link ProgressJournal} with buffers of 64KB per updating
+	 * thread, written at least once per second.
+	 *
+	 * @param file
+	 *            the file to write, replaced if it already exists
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public ProgressJournal(Path file) throws IOException {
+		this(file, 1 << 16, 1000);
+	}
+
+	/**
+	 *
+	 * @param file
+	 *            the file to write, replaced if it already exists
+	 * @param bufferSize
+	 *            the size in bytes of each of the two buffers of each
+	 *            updating thread
+	 * @param flushPeriod
+	 *            the maximum time in milliseconds between the recording of an
+	 *            event and its writing to the file
+	 * @throws IOException
+	 *             if the file cannot be created
+	 */
+	public ProgressJournal(Path file, int bufferSize, long flushPeriod)
+			throws IOException {
+		if (bufferSize < MAX_EVENT_SIZE) {
+			throw new IllegalArgumentException("Too small buffer: "
+					+ bufferSize);
+		} else if (flushPeriod <= 0) {
+			throw new IllegalArgumentException(
+					"The period should be strictly positive: " + flushPeriod);
+		} else {
+			this.bufferSize = bufferSize;
+			this.flushPeriod = flushPeriod;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC);
+				header.putInt(VERSION);
+				header.putLong(System.currentTimeMillis());
+				header.putLong(0); // Reserved
+				header.flip();
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+
+			clock = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					while (!closed) {
+						now = System.nanoTime() - startTime;
+						LockSupport.parkNanos(CLOCK_PERIOD);
+					}
+				}
+			}, "progress-journal-clock");
+			clock.setDaemon(true);
+			clock.start();
+
+			writer = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					runWriter();
+				}
+			}, "progress-journal");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Start to record the updates of a {@link Progress}. Its current state is
+	 * recorded immediately.
+	 *
+	 * @param name
+	 *            the name of the {@link Progress} in the journal
+	 * @param progress
+	 *            the {@link Progress} to record
+	 * @return the identifier of the {@link Progress} in the journal
+	 * @throws IllegalArgumentException
+	 *             if the name takes more than 4096 bytes in UTF-8
+	 */
+	public <Value extends Number> int track(String name,
+			final Progress<Value> progress) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_NAME_SIZE) {
+			throw new IllegalArgumentException("Too long name: " + name);
+		} else {
+			final int id;
+			synchronized (this) {
+				if (closed) {
+					throw new IllegalStateException("Journal closed");
+				} else {
+					id = nextId++;
+					ByteBuffer definition = ByteBuffer
+							.allocate(1 + 5 + 5 + bytes.length);
+					definition.put(DEFINITION);
+					putVarint(definition, id);
+					putVarint(definition, bytes.length);
+					definition.put(bytes);
+					definitions.add(Arrays.copyOf(definition.array(),
+							definition.position()));
+				}
+			}
+
+			final ProgressListener<Value> listener = new ProgressListener<Value>() {
+
+				@Override
+				public void currentUpdate(Value value) {
+					record(id, false, value);
+				}
+
+				@Override
+				public void maxUpdate(Value maxValue) {
+					record(id, true, maxValue);
+				}
+			};
+			synchronized (progress) {
+				progress.addProgressListener(listener);
+				record(id, false, progress.getCurrentValue());
+				record(id, true, progress.getMaxValue());
+			}
+			synchronized (this) {
+				untrackers.add(new Runnable() {
+
+					@Override
+					public void run() {
+						progress.removeProgressListener(listener);
+					}
+				});
+			}
+			return id;
+		}
+	}
+
+	private synchronized Lane createLane() {
+		Lane lane = new Lane(nextLaneId++, Thread.currentThread(), bufferSize);
+		lanes.add(lane);
+		return lane;
+	}
+
+	/**
+	 * Record an update of a {@link Progress} in the {@link Lane} of the
+	 * current thread.
+	 *
+	 * @param id
+	 *            the identifier of the {@link Progress}
+	 * @param isMax
+	 *            <code>true</code> for an update of the max value,
+	 *            <code>false</code> for an update of the current value
+	 * @param value
+	 *            the new value
+	 */
+	private void record(int id, boolean isMax, Number value) {
+		if (closed) {
+			return;
+		} else {
+			Lane lane = currentLane.get();
+			ByteBuffer buffer = lane.active;
+			if (buffer.remaining() < MAX_EVENT_SIZE) {
+				buffer = exchange(lane);
+				if (buffer == null) {
+					return;
+				} else {
+					// Continue in the spare buffer
+				}
+			} else {
+				// Enough space
+			}
+			long now = this.now;
+			long delta = now - lane.lastTimestamp;
+			lane.lastTimestamp = now;
+
+			if (value == null) {
+				buffer.put(isMax ? MAX_UNKNOWN : CURRENT_LONG);
+				putVarint(buffer, id);
+				putVarint(buffer, delta);
+				if (!isMax) {
+					// A current value is never null, but stay readable
+					putVarint(buffer, 0);
+				} else {
+					// No value to store
+				}
+			} else if (isIntegral(value)) {
+				buffer.put(isMax ? MAX_LONG : CURRENT_LONG);
+				putVarint(buffer, id);
+				putVarint(buffer, delta);
+				long v = value.longValue();
+				putVarint(buffer, (v << 1) ^ (v >> 63));
+			} else {
+				buffer.put(isMax ? MAX_DOUBLE : CURRENT_DOUBLE);
+				putVarint(buffer, id);
+				putVarint(buffer, delta);
+				buffer.putDouble(value.doubleValue());
+			}
+			// Ordered store, enough for the background thread to read it
+			lane.committed.lazySet(buffer.position());
+		}
+	}
+
+	private static boolean isIntegral(Number value) {
+		if (value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte) {
+			return true;
+		} else if (value instanceof BigInteger) {
+			return ((BigInteger) value).bitLength() < 64;
+		} else {
+			return false;
+		}
+	}
+
+	private static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * Hand the full active buffer of a {@link Lane} to the background thread
+	 * and continue in the spare one, waiting for it if needed.
+	 *
+	 * @return the new active buffer, <code>null</code> if the journal has
+	 *         been closed while waiting
+	 */
+	private ByteBuffer exchange(Lane lane) {
+		synchronized (lane) {
+			boolean interrupted = false;
+			while (lane.spare == null && !closed) {
+				try {
+					lane.wait(flushPeriod);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			} else {
+				// Nothing to restore
+			}
+
+			if (lane.spare == null) {
+				// Closed, nothing will be written anymore
+				return null;
+			} else {
+				lane.retired = lane.active;
+				lane.retiredFlushed = lane.flushed;
+				lane.retiredEnd = lane.active.position();
+				lane.active = lane.spare;
+				lane.spare = null;
+				lane.flushed = 0;
+				lane.committed.set(0);
+			}
+		}
+		synchronized (this) {
+			flushRequested = true;
+			notifyAll();
+		}
+		return lane.active;
+	}
+
+	private void runWriter() {
+		boolean last = false;
+		while (!last) {
+			synchronized (this) {
+				long deadline = System.currentTimeMillis() + flushPeriod;
+				long remaining = flushPeriod;
+				while (!flushRequested && !closed && remaining > 0) {
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						// Check again
+					}
+					remaining = deadline - System.currentTimeMillis();
+				}
+				flushRequested = false;
+				last = closed;
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * Write the events recorded so far. The {@link Lane}s are captured before
+	 * to take the definitions, such that a definition is always written before
+	 * the events of its {@link Progress}.
+	 */
+	private void flush() {
+		List<Lane> lanes;
+		synchronized (this) {
+			lanes = new ArrayList<>(this.lanes);
+		}
+		for (Lane lane : lanes) {
+			lane.capture();
+		}
+		ByteBuffer definitions;
+		synchronized (this) {
+			int size = 0;
+			for (byte[] definition : this.definitions) {
+				size += definition.length;
+			}
+			definitions = ByteBuffer.allocate(size);
+			for (byte[] definition : this.definitions) {
+				definitions.put(definition);
+			}
+			this.definitions.clear();
+		}
+		definitions.flip();
+		writeBlock(DEFINITIONS_LANE, definitions);
+
+		for (Lane lane : lanes) {
+			if (lane.writtenRetired == null) {
+				// No retired buffer
+			} else {
+				writeBlock(lane.id, slice(lane.writtenRetired,
+						lane.writtenRetiredFrom, lane.writtenRetiredTo));
+			}
+			writeBlock(lane.id, slice(lane.writtenActive,
+					lane.writtenActiveFrom, lane.writtenActiveTo));
+			lane.release();
+		}
+
+		synchronized (this) {
+			for (Lane lane : lanes) {
+				if (lane.isDrained()) {
+					this.lanes.remove(lane);
+				} else {
+					// Still used or not fully written
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int from, int to) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(to);
+		slice.position(from);
+		return slice;
+	}
+
+	/**
+	 * Write the events of a {@link Lane}, preceded by its identifier and
+	 * their size. Once a write failed, nothing is written anymore.
+	 */
+	private void writeBlock(int laneId, ByteBuffer events) {
+		if (!events.hasRemaining()) {
+			// Nothing to write
+		} else if (getWriteFailure() != null) {
+			// Nothing will be written anymore
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(MAX_BLOCK_HEADER_SIZE);
+			putVarint(header, laneId);
+			putVarint(header, events.remaining());
+			header.flip();
+			ByteBuffer[] block = { header, events };
+			try {
+				while (events.hasRemaining()) {
+					channel.write(block);
+				}
+			} catch (IOException e) {
+				synchronized (this) {
+					writeFailure = e;
+				}
+			}
+		}
+	}
+
+	private synchronized IOException getWriteFailure() {
+		return writeFailure;
+	}
+
+	/**
+	 * Stop recording, write the remaining events, and close the file.
+	 *
+	 * @throws IOException
+	 *             if the events cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		List<Runnable> toRun;
+		synchronized (this) {
+			if (closed) {
+				return;
+			} else {
+				closed = true;
+				toRun = new ArrayList<>(untrackers);
+				untrackers.clear();
+				notifyAll();
+			}
+		}
+		for (Runnable untracker : toRun) {
+			untracker.run();
+		}
+		try {
+			writer.join();
+			clock.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			IOException failure = getWriteFailure();
+			if (failure != null) {
+				throw failure;
+			} else {
+				// Everything written
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * A {@link Reader} streams the events of a file written by a
+	 * {@link ProgressJournal}. {@link #next()} moves to the next event, which
+	 * is then described by the getters. The events are read in the order of
+	 * the file, so the events of different threads are not ordered by
+	 * timestamp.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 */
+	public static class Reader implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		private final long startTime;
+		private final Map<Integer, String> names = new HashMap<>();
+		private final Map<Integer, Long> laneTimestamps = new HashMap<>();
+		private int lane;
+		private int blockRemaining = 0;
+		private long timestamp = 0;
+		private int progressId;
+		private boolean isMaxUpdate;
+		private Number value;
+		private boolean endReached = false;
+
+		/**
+		 *
+		 * @param file
+		 *            the journal to read
+		 * @throws IOException
+		 *             if the file cannot be read or is not a journal
+		 */
+		public Reader(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				buffer.limit(0);
+				if (!fill(HEADER_SIZE)) {
+					throw new IOException("Too small file: " + file);
+				} else if (buffer.getInt() != MAGIC) {
+					throw new IOException("Not a journal: " + file);
+				} else {
+					int version = buffer.getInt();
+					if (version != VERSION) {
+						throw new IOException("Unsupported version " + version
+								+ ": " + file);
+					} else {
+						startTime = buffer.getLong();
+						buffer.getLong(); // Reserved
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Ensure that the buffer contains at least the given number of bytes,
+		 * unless the end of the file is reached.
+		 *
+		 * @throws IOException
+		 *             if the buffer cannot contain so many bytes, which
+		 *             happens only with a corrupted file
+		 */
+		private boolean fill(int size) throws IOException {
+			if (buffer.remaining() >= size) {
+				return true;
+			} else if (size > buffer.capacity()) {
+				throw new IOException("Too large record: " + size + " bytes");
+			} else {
+				buffer.compact();
+				while (buffer.position() < size) {
+					if (channel.read(buffer) < 0) {
+						break;
+					} else {
+						// Keep reading
+					}
+				}
+				buffer.flip();
+				return buffer.remaining() >= size;
+			}
+		}
+
+		/**
+		 * Move to the next event. Definitions of {@link Progress}es are
+		 * consumed on the way and made available through
+		 * {@link #getProgressNames()}. An incomplete event at the end of the
+		 * file, which happens when the writing was interrupted, is ignored.
+		 *
+		 * @return <code>true</code> if an event has been read,
+		 *         <code>false</code> if the end of the journal is reached
+		 * @throws IOException
+		 *             if the file cannot be read
+		 */
+		public boolean next() throws IOException {
+			while (!endReached) {
+				if (!fill(MAX_RECORD_SIZE) && !buffer.hasRemaining()) {
+					endReached = true;
+				} else {
+					try {
+						if (blockRemaining == 0) {
+							lane = (int) getVarint();
+							blockRemaining = (int) getVarint();
+						} else {
+							// Still in the current block
+						}
+						int start = buffer.position();
+						boolean event = readEvent();
+						blockRemaining -= buffer.position() - start;
+						if (blockRemaining < 0) {
+							throw new IOException("Event across blocks");
+						} else if (event) {
+							return true;
+						} else {
+							// Definition, read the next event
+						}
+					} catch (BufferUnderflowException e) {
+						// Incomplete event at the end of the file
+						endReached = true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 *
+		 * @return <code>true</code> if an event has been read,
+		 *         <code>false</code> if it was a definition
+		 */
+		private boolean readEvent() throws IOException {
+			byte type = buffer.get();
+			int id = (int) getVarint();
+			if (type == DEFINITION) {
+				int length = (int) getVarint();
+				if (length < 0 || length > MAX_NAME_SIZE) {
+					throw new IOException("Invalid name length: " + length);
+				} else {
+					byte[] bytes = new byte[length];
+					buffer.get(bytes);
+					names.put(id, new String(bytes, StandardCharsets.UTF_8));
+					return false;
+				}
+			} else {
+				long delta = getVarint();
+				Number value;
+				if (type == CURRENT_LONG || type == MAX_LONG) {
+					long v = getVarint();
+					value = (v >>> 1) ^ -(v & 1);
+				} else if (type == CURRENT_DOUBLE || type == MAX_DOUBLE) {
+					value = buffer.getDouble();
+				} else if (type == MAX_UNKNOWN) {
+					value = null;
+				} else {
+					throw new IOException("Unknown event type: " + type);
+				}
+				Long laneTimestamp = laneTimestamps.get(lane);
+				this.timestamp = (laneTimestamp == null ? 0 : laneTimestamp)
+						+ delta;
+				laneTimestamps.put(lane, timestamp);
+				this.progressId = id;
+				this.isMaxUpdate = type >= MAX_LONG;
+				this.value = value;
+				return true;
+			}
+		}
+
+		private long getVarint() {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get();
+				value |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		/**
+		 *
+		 * @return the time at which the journal has been created, in
+		 *         milliseconds since the epoch
+		 */
+		public long getStartTime() {
+			return startTime;
+		}
+
+		/**
+		 *
+		 * @return the time of the current event, in nanoseconds since the
+		 *         creation of the journal
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 *
+		 * @return the identifier of the {@link Progress} of the current event
+		 */
+		public int getProgressId() {
+			return progressId;
+		}
+
+		/**
+		 *
+		 * @return the name of the {@link Progress} of the current event
+		 */
+		public String getProgressName() {
+			return names.get(progressId);
+		}
+
+		/**
+		 *
+		 * @return the names of the {@link Progress}es defined so far, indexed
+		 *         by identifier
+		 */
+		public Map<Integer, String> getProgressNames() {
+			return new LinkedHashMap<>(names);
+		}
+
+		/**
+		 *
+		 * @return <code>true</code> if the current event updates the max
+		 *         value, <code>false</code> if it updates the current value
+		 */
+		public boolean isMaxUpdate() {
+			return isMaxUpdate;
+		}
+
+		/**
+		 *
+		 * @return the value of the current event, as a {@link Long} for
+		 *         integral values and a {@link Double} otherwise,
+		 *         <code>null</code> for an unknown max value
+		 */
+		public Number getValue() {
+			return value;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,347 @@
+package fr.vergne.progress.impl;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * A {@link ProgressMBeanExporter} exposes {@link Progress}es as JMX MBeans,
+ * such that tools like JConsole or monitoring agents can read them without
+ * code changes. Each {@link Progress} is registered under the domain
+ * {@value #DOMAIN} with a name and an optional group, and provides the
+ * attributes of {@link ProgressMXBean}.
+ * </p>
+ * <p>
+ * The attributes are not read from the {@link Progress}es on each request: a
+ * background thread captures a {@link ProgressSnapshot} of each of them
+ * periodically, and the MBeans only return the last one. Scraping thousands of
+ * MBeans thus never locks a {@link ManualProgress} nor recomputes a
+ * {@link RecursiveProgress}, the cost of the exposure being bounded by the
+ * refresh period whatever the number of reads.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressMBeanExporter implements Closeable {
+
+	/**
+	 * The domain of the {@link ObjectName}s of the {@link Progress}es.
+	 */
+	public static final String DOMAIN = "fr.vergne.progress";
+	/**
+	 * Period, in milliseconds, used by default to refresh the attributes.
+	 */
+	public static final long DEFAULT_REFRESH_PERIOD = 1000;
+	/**
+	 * Weight of the last refresh in the smoothed update rate.
+	 */
+	private static final double RATE_SMOOTHING = 0.3;
+	/**
+	 * Attempts to capture a consistent {@link ProgressSnapshot}, kept low to
+	 * bound the cost of a refresh.
+	 */
+	private static final int CAPTURE_ATTEMPTS = 3;
+
+	private final MBeanServer server;
+	private final Map<ObjectName, ExportedProgress<?>> exported = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService refresher;
+
+	/**
+	 * Create a {@link ProgressMBeanExporter} on the platform
+	 * {@link MBeanServer}, with a refresh every
+	 * {@value #DEFAULT_REFRESH_PERIOD} milliseconds.
+	 */
+	public ProgressMBeanExporter() {
+		this(ManagementFactory.getPlatformMBeanServer(),
+				DEFAULT_REFRESH_PERIOD);
+	}
+
+	/**
+	 *
+	 * @param server
+	 *            the {@link MBeanServer} to register the MBeans to
+	 * @param refreshPeriod
+	 *            the period, in milliseconds, between two refreshes of the
+	 *            attributes, or 0 to refresh only through {@link #refresh()}
+	 */
+	public ProgressMBeanExporter(MBeanServer server, long refreshPeriod) {
+		if (server == null) {
+			throw new NullPointerException("No MBean server provided");
+		} else if (refreshPeriod < 0) {
+			throw new IllegalArgumentException(
+					"The refresh period cannot be negative: " + refreshPeriod);
+		} else {
+			this.server = server;
+			if (refreshPeriod == 0) {
+				refresher = null;
+			} else {
+				refresher = Executors
+						.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+							@Override
+							public Thread newThread(Runnable runnable) {
+								Thread thread = new Thread(runnable,
+										"Progress MBeans refresher");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+				refresher.scheduleWithFixedDelay(new Runnable() {
+
+					@Override
+					public void run() {
+						refresh();
+					}
+				}, refreshPeriod, refreshPeriod, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Same than {@link #register(String, String, Progress)} without group.
+	 */
+	public ObjectName register(String name, Progress<?> progress)
+			throws JMException {
+		return register(null, name, progress);
+	}
+
+	/**
+	 * Expose a {@link Progress} as an MBean. Its attributes are captured
+	 * immediately, then at each refresh.
+	 *
+	 * @param group
+	 *            the group of the {@link Progress}, possibly <code>null</code>
+	 * @param name
+	 *            the name of the {@link Progress}
+	 * @param progress
+	 *            the {@link Progress} to expose
+	 * @return the {@link ObjectName} of the MBean
+	 * @throws JMException
+	 *             if the MBean cannot be registered, like when the name is
+	 *             already used
+	 */
+	public ObjectName register(String group, String name, Progress<?> progress)
+			throws JMException {
+		if (name == null) {
+			throw new NullPointerException("No name provided");
+		} else if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else {
+			ObjectName objectName = createObjectName(group, name);
+			ExportedProgress<?> mbean = createExportedProgress(name, progress);
+			mbean.refresh();
+			server.registerMBean(mbean, objectName);
+			exported.put(objectName, mbean);
+			return objectName;
+		}
+	}
+
+	private <Value extends Number> ExportedProgress<Value> createExportedProgress(
+			String name, Progress<Value> progress) {
+		return new ExportedProgress<Value>(name, progress);
+	}
+
+	/**
+	 *
+	 * @param group
+	 *            the group of the {@link Progress}, possibly <code>null</code>
+	 * @param name
+	 *            the name of the {@link Progress}
+	 * @return the {@link ObjectName} used to register the {@link Progress}
+	 * @throws MalformedObjectNameException
+	 *             if the {@link ObjectName} cannot be created
+	 */
+	public static ObjectName createObjectName(String group, String name)
+			throws MalformedObjectNameException {
+		String groupProperty = group == null ? "" : ",group="
+				+ ObjectName.quote(group);
+		return new ObjectName(DOMAIN + ":type=Progress" + groupProperty
+				+ ",name=" + ObjectName.quote(name));
+	}
+
+	/**
+	 * Remove a {@link Progress} previously exposed by
+	 * {@link #register(String, String, Progress)}.
+	 *
+	 * @param objectName
+	 *            the {@link ObjectName} of the MBean
+	 */
+	public void unregister(ObjectName objectName) throws JMException {
+		if (exported.remove(objectName) == null) {
+			throw new InstanceNotFoundException("Not exported: " + objectName);
+		} else {
+			server.unregisterMBean(objectName);
+		}
+	}
+
+	/**
+	 * Capture the current state of all the exposed {@link Progress}es. It is
+	 * called periodically, but can also be called to refresh them on demand.
+	 * A {@link Progress} which fails to be captured, like when it throws an
+	 * exception or its composition keeps changing, keeps its last state until
+	 * a refresh succeeds, without preventing the others to be refreshed.
+	 */
+	public void refresh() {
+		for (ExportedProgress<?> mbean : exported.values()) {
+			try {
+				mbean.refresh();
+			} catch (RuntimeException e) {
+				// Failing progress, keep its last state until the next refresh
+			}
+		}
+	}
+
+	/**
+	 * Stop the refreshes and unregister all the MBeans.
+	 */
+	@Override
+	public void close() {
+		if (refresher == null) {
+			// No refresh thread
+		} else {
+			refresher.shutdownNow();
+		}
+		for (ObjectName objectName : exported.keySet()) {
+			exported.remove(objectName);
+			try {
+				server.unregisterMBean(objectName);
+			} catch (InstanceNotFoundException e) {
+				// Already unregistered by someone else
+			} catch (MBeanRegistrationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * The last state captured for a {@link Progress}.
+	 */
+	private static class Sample {
+		private final Double current;
+		private final Double max;
+		private final long time;
+		private final double rate;
+
+		public Sample(Double current, Double max, long time, double rate) {
+			this.current = current;
+			this.max = max;
+			this.time = time;
+			this.rate = rate;
+		}
+	}
+
+	private static class ExportedProgress<Value extends Number> implements
+			ProgressMXBean {
+		private final String name;
+		private final Progress<Value> progress;
+		private volatile Sample sample;
+
+		public ExportedProgress(String name, Progress<Value> progress) {
+			this.name = name;
+			this.progress = progress;
+		}
+
+		/**
+		 * Synchronized because the refresher and {@link #refresh()} may run
+		 * concurrently, and the rate depends on the previous {@link Sample}.
+		 */
+		public synchronized void refresh() {
+			ProgressSnapshot<Value> snapshot = ProgressSnapshot.capture(
+					progress, CAPTURE_ATTEMPTS);
+			long time = System.currentTimeMillis();
+			Double current = toDouble(snapshot.getCurrentValue());
+			Double max = toDouble(snapshot.getMaxValue());
+
+			Sample previous = sample;
+			double rate;
+			if (previous == null || previous.current == null
+					|| current == null || time <= previous.time) {
+				rate = previous == null ? 0 : previous.rate;
+			} else {
+				double instantRate = Math.max(0, current - previous.current)
+						* 1000 / (time - previous.time);
+				rate = previous.rate == 0 ? instantRate : RATE_SMOOTHING
+						* instantRate + (1 - RATE_SMOOTHING) * previous.rate;
+			}
+			sample = new Sample(current, max, time, rate);
+		}
+
+		private static Double toDouble(Number value) {
+			return value == null ? null : value.doubleValue();
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Double getCurrentValue() {
+			return sample.current;
+		}
+
+		@Override
+		public Double getMaxValue() {
+			return sample.max;
+		}
+
+		@Override
+		public Double getNormalizedValue() {
+			Sample sample = this.sample;
+			if (sample.current == null || sample.max == null) {
+				return null;
+			} else if (sample.current.equals(sample.max)) {
+				return 1.0;
+			} else {
+				return sample.current / sample.max;
+			}
+		}
+
+		@Override
+		public boolean isFinished() {
+			Sample sample = this.sample;
+			return sample.current != null && sample.current.equals(sample.max);
+		}
+
+		@Override
+		public double getUpdateRate() {
+			return sample.rate;
+		}
+
+		@Override
+		public long getEstimatedTerminationTime() {
+			Sample sample = this.sample;
+			if (sample.current == null || sample.max == null) {
+				return -1;
+			} else if (sample.current >= sample.max) {
+				return sample.time;
+			} else if (sample.rate <= 0) {
+				return -1;
+			} else {
+				double remaining = sample.max - sample.current;
+				return sample.time + (long) (remaining * 1000 / sample.rate);
+			}
+		}
+
+		@Override
+		public long getSnapshotTime() {
+			return sample.time;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package fr.vergne.progress.impl;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * The management interface of a {@link Progress} exported through a
+ * {@link ProgressMBeanExporter}. All the attributes come from the last
+ * {@link ProgressSnapshot} captured by the {@link ProgressMBeanExporter}, so
+ * reading them never accesses the {@link Progress} itself.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public interface ProgressMXBean {
+
+	public String getName();
+
+	public Double getCurrentValue();
+
+	/**
+	 *
+	 * @return the max value of the {@link Progress}, <code>null</code> if it
+	 *         is unknown
+	 */
+	public Double getMaxValue();
+
+	/**
+	 *
+	 * @return the current value divided by the max value, <code>null</code> if
+	 *         it cannot be computed
+	 */
+	public Double getNormalizedValue();
+
+	public boolean isFinished();
+
+	/**
+	 *
+	 * @return the number of units done per second, smoothed over the last
+	 *         refreshes
+	 */
+	public double getUpdateRate();
+
+	/**
+	 *
+	 * @return the time at which the {@link Progress} should finish, in
+	 *         milliseconds since epoch, or -1 if it cannot be estimated
+	 */
+	public long getEstimatedTerminationTime();
+
+	/**
+	 *
+	 * @return the time at which the attributes have been refreshed, in
+	 *         milliseconds since epoch
+	 */
+	public long getSnapshotTime();
+}
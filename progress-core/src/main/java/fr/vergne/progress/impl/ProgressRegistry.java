@@ -0,0 +1,588 @@
+package fr.vergne.progress.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+/**
+ * <p>
+ * A {@link ProgressRegistry} stores a huge amount of {@link Progress}es, like
+ * one per file of a large file system, without creating a {@link Progress}
+ * instance for each of them. Each {@link Progress} is identified by an
+ * <code>int</code> handle provided upon registration, and its current and max
+ * values are stored in <code>long[]</code> columns indexed by this handle, such
+ * that each of them costs only 16 bytes. The values can be read and updated
+ * one by one or in bulk, and the totals over all the {@link Progress}es are
+ * maintained incrementally, so they can be read in constant time.
+ * </p>
+ *
+ * <p>
+ * For the code which needs actual {@link Progress} instances, lightweight views
+ * can be created on demand through {@link #getProgress(int)}, and
+ * {@link #getGlobalProgress()} provides a {@link Progress} summing all of them.
+ * Listeners are stored only for the {@link Progress}es actually listened, so
+ * updates remain cheap as long as no listener is registered.
+ * </p>
+ *
+ * <p>
+ * Like in {@link ManualProgress}, the values cannot be negative and the current
+ * value cannot be higher than the max value. An unknown max value is stored as
+ * {@link #UNKNOWN_MAX}. All the methods are thread-safe.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressRegistry {
+
+	/**
+	 * Max value stored for the {@link Progress}es which does not know their
+	 * max value yet. Their views return <code>null</code> instead.
+	 */
+	public static final long UNKNOWN_MAX = -1;
+
+	private long[] currentValues;
+	private long[] maxValues;
+	private int size = 0;
+	private long totalCurrentValue = 0;
+	private long totalMaxValue = 0;
+	private int unknownMaxCount = 0;
+	private int finishedCount = 0;
+	private final Map<Integer, Collection<ProgressListener<? super Long>>> listeners = new HashMap<>();
+	private final Collection<ProgressListener<? super Long>> globalListeners = new HashSet<>();
+
+	/**
+	 * Create an empty {@link ProgressRegistry}.
+	 */
+	public ProgressRegistry() {
+		this(16);
+	}
+
+	/**
+	 * Create an empty {@link ProgressRegistry} prepared for a given amount of
+	 * {@link Progress}es, so its columns do not need to grow before.
+	 *
+	 * @param initialCapacity
+	 *            the amount of {@link Progress}es to prepare for
+	 */
+	public ProgressRegistry(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException(
+					"The capacity cannot be negative: " + initialCapacity);
+		} else {
+			currentValues = new long[initialCapacity];
+			maxValues = new long[initialCapacity];
+		}
+	}
+
+	/**
+	 * Register a new {@link Progress} in this {@link ProgressRegistry}.
+	 *
+	 * @param startValue
+	 *            the initial value of the {@link Progress}
+	 * @param maxValue
+	 *            the max value of the {@link Progress}, possibly
+	 *            {@link #UNKNOWN_MAX}
+	 * @return the handle of the {@link Progress}
+	 */
+	public synchronized int register(long startValue, long maxValue) {
+		return registerAll(1, startValue, maxValue);
+	}
+
+	/**
+	 * Register several {@link Progress}es at once. They all start with the same
+	 * values and receive consecutive handles.
+	 *
+	 * @param count
+	 *            the number of {@link Progress}es to register
+	 * @param startValue
+	 *            the initial value of each {@link Progress}
+	 * @param maxValue
+	 *            the max value of each {@link Progress}, possibly
+	 *            {@link #UNKNOWN_MAX}
+	 * @return the handle of the first {@link Progress}, the others following
+	 */
+	public synchronized int registerAll(int count, long startValue,
+			long maxValue) {
+		checkValues(startValue, maxValue);
+		if (count < 0) {
+			throw new IllegalArgumentException("The count cannot be negative: "
+					+ count);
+		} else {
+			int first = size;
+			ensureCapacity(size + count);
+			Arrays.fill(currentValues, first, first + count, startValue);
+			Arrays.fill(maxValues, first, first + count, maxValue);
+			size += count;
+
+			totalCurrentValue += count * startValue;
+			if (maxValue == UNKNOWN_MAX) {
+				unknownMaxCount += count;
+			} else {
+				totalMaxValue += count * maxValue;
+			}
+			if (startValue == maxValue) {
+				finishedCount += count;
+			} else {
+				// Not finished
+			}
+			notifyGlobalCurrent();
+			notifyGlobalMax();
+			return first;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > currentValues.length) {
+			int newCapacity = Math.max(capacity, 2 * currentValues.length);
+			currentValues = Arrays.copyOf(currentValues, newCapacity);
+			maxValues = Arrays.copyOf(maxValues, newCapacity);
+		} else {
+			// Enough space
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of {@link Progress}es registered
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized long getCurrentValue(int handle) {
+		checkHandle(handle);
+		return currentValues[handle];
+	}
+
+	/**
+	 *
+	 * @return the max value of the {@link Progress}, or {@link #UNKNOWN_MAX}
+	 */
+	public synchronized long getMaxValue(int handle) {
+		checkHandle(handle);
+		return maxValues[handle];
+	}
+
+	public synchronized boolean isFinished(int handle) {
+		checkHandle(handle);
+		return currentValues[handle] == maxValues[handle];
+	}
+
+	public synchronized void setCurrentValue(int handle, long value) {
+		checkHandle(handle);
+		checkValues(value, maxValues[handle]);
+		updateCurrentValue(handle, value);
+		notifyGlobalCurrent();
+	}
+
+	/**
+	 * Add a value to the current value of a {@link Progress}, like
+	 * {@link ManualProgress#add(Number)}.
+	 */
+	public synchronized void add(int handle, long addedValue) {
+		checkHandle(handle);
+		setCurrentValue(handle, currentValues[handle] + addedValue);
+	}
+
+	/**
+	 *
+	 * @param value
+	 *            the new max value, possibly {@link #UNKNOWN_MAX}
+	 */
+	public synchronized void setMaxValue(int handle, long value) {
+		checkHandle(handle);
+		checkValues(currentValues[handle], value);
+		updateMaxValue(handle, value);
+		notifyGlobalMax();
+	}
+
+	/**
+	 * Finish a {@link Progress}, like {@link ManualProgress#finish()}.
+	 */
+	public synchronized void finish(int handle) {
+		checkHandle(handle);
+		if (maxValues[handle] == UNKNOWN_MAX) {
+			setMaxValue(handle, currentValues[handle]);
+		} else {
+			setCurrentValue(handle, maxValues[handle]);
+		}
+	}
+
+	/**
+	 * Add values to the current values of several {@link Progress}es at once.
+	 * The updates are applied in order, and the global {@link Progress} is
+	 * notified only once at the end. If one of the updates is invalid, an
+	 * exception is thrown and the remaining updates are not applied.
+	 *
+	 * @param handles
+	 *            the handles of the {@link Progress}es to update
+	 * @param addedValues
+	 *            the values to add, in the same order than the handles
+	 * @param length
+	 *            the number of updates to apply, from the start of the arrays
+	 */
+	public synchronized void addAll(int[] handles, long[] addedValues,
+			int length) {
+		try {
+			for (int i = 0; i < length; i++) {
+				int handle = handles[i];
+				checkHandle(handle);
+				long value = currentValues[handle] + addedValues[i];
+				checkValues(value, maxValues[handle]);
+				updateCurrentValue(handle, value);
+			}
+		} finally {
+			notifyGlobalCurrent();
+		}
+	}
+
+	/**
+	 * Set the current values of consecutive {@link Progress}es at once. If one
+	 * of the updates is invalid, an exception is thrown before to apply any of
+	 * them.
+	 *
+	 * @param firstHandle
+	 *            the handle of the first {@link Progress} to update
+	 * @param values
+	 *            the array containing the new values
+	 * @param offset
+	 *            the index of the first value to use in the array
+	 * @param length
+	 *            the number of {@link Progress}es to update
+	 */
+	public synchronized void setCurrentValues(int firstHandle, long[] values,
+			int offset, int length) {
+		checkRange(firstHandle, length);
+		for (int i = 0; i < length; i++) {
+			checkValues(values[offset + i], maxValues[firstHandle + i]);
+		}
+		for (int i = 0; i < length; i++) {
+			updateCurrentValue(firstHandle + i, values[offset + i]);
+		}
+		notifyGlobalCurrent();
+	}
+
+	/**
+	 * Read the current values of consecutive {@link Progress}es at once.
+	 *
+	 * @param firstHandle
+	 *            the handle of the first {@link Progress} to read
+	 * @param target
+	 *            the array to fill
+	 * @param offset
+	 *            the index of the first value to fill in the array
+	 * @param length
+	 *            the number of {@link Progress}es to read
+	 */
+	public synchronized void getCurrentValues(int firstHandle, long[] target,
+			int offset, int length) {
+		checkRange(firstHandle, length);
+		System.arraycopy(currentValues, firstHandle, target, offset, length);
+	}
+
+	/**
+	 * Read the max values of consecutive {@link Progress}es at once. Unknown
+	 * max values are provided as {@link #UNKNOWN_MAX}.
+	 *
+	 * @param firstHandle
+	 *            the handle of the first {@link Progress} to read
+	 * @param target
+	 *            the array to fill
+	 * @param offset
+	 *            the index of the first value to fill in the array
+	 * @param length
+	 *            the number of {@link Progress}es to read
+	 */
+	public synchronized void getMaxValues(int firstHandle, long[] target,
+			int offset, int length) {
+		checkRange(firstHandle, length);
+		System.arraycopy(maxValues, firstHandle, target, offset, length);
+	}
+
+	/**
+	 *
+	 * @return the sum of the current values of all the {@link Progress}es
+	 */
+	public synchronized long getTotalCurrentValue() {
+		return totalCurrentValue;
+	}
+
+	/**
+	 *
+	 * @return the sum of the max values of all the {@link Progress}es, or
+	 *         {@link #UNKNOWN_MAX} if one of them is unknown
+	 */
+	public synchronized long getTotalMaxValue() {
+		return unknownMaxCount > 0 ? UNKNOWN_MAX : totalMaxValue;
+	}
+
+	/**
+	 *
+	 * @return the number of {@link Progress}es which are finished
+	 */
+	public synchronized int getFinishedCount() {
+		return finishedCount;
+	}
+
+	/**
+	 *
+	 * @param fromHandle
+	 *            the first handle to consider, inclusive
+	 * @param toHandle
+	 *            the last handle to consider, exclusive
+	 * @return the sum of the current values of the {@link Progress}es in this
+	 *         range
+	 */
+	public synchronized long sumCurrentValues(int fromHandle, int toHandle) {
+		checkRange(fromHandle, toHandle - fromHandle);
+		long sum = 0;
+		for (int handle = fromHandle; handle < toHandle; handle++) {
+			sum += currentValues[handle];
+		}
+		return sum;
+	}
+
+	/**
+	 * Create a {@link Progress} view on a registered {@link Progress}. The view
+	 * does not store anything, so several views can be created for the same
+	 * handle and they all share the same listeners.
+	 *
+	 * @param handle
+	 *            the handle of the {@link Progress}
+	 * @return the {@link Progress} view
+	 */
+	public synchronized Progress<Long> getProgress(final int handle) {
+		checkHandle(handle);
+		return new Progress<Long>() {
+
+			@Override
+			public Long getCurrentValue() {
+				return ProgressRegistry.this.getCurrentValue(handle);
+			}
+
+			@Override
+			public Long getMaxValue() {
+				long max = ProgressRegistry.this.getMaxValue(handle);
+				return max == UNKNOWN_MAX ? null : max;
+			}
+
+			@Override
+			public boolean isFinished() {
+				return ProgressRegistry.this.isFinished(handle);
+			}
+
+			@Override
+			public void addProgressListener(
+					ProgressListener<? super Long> listener) {
+				synchronized (ProgressRegistry.this) {
+					Collection<ProgressListener<? super Long>> handleListeners = listeners
+							.get(handle);
+					if (handleListeners == null) {
+						handleListeners = new HashSet<>();
+						listeners.put(handle, handleListeners);
+					} else {
+						// Reuse it
+					}
+					handleListeners.add(listener);
+				}
+			}
+
+			@Override
+			public void removeProgressListener(
+					ProgressListener<? super Long> listener) {
+				synchronized (ProgressRegistry.this) {
+					Collection<ProgressListener<? super Long>> handleListeners = listeners
+							.get(handle);
+					if (handleListeners == null) {
+						// Nothing to remove
+					} else {
+						handleListeners.remove(listener);
+						if (handleListeners.isEmpty()) {
+							listeners.remove(handle);
+						} else {
+							// Still listened
+						}
+					}
+				}
+			}
+
+			@Override
+			public String toString() {
+				return ProgressUtil.DEFAULT_FORMATTER.format(this);
+			}
+		};
+	}
+
+	/**
+	 * Create a {@link Progress} view which sums all the registered
+	 * {@link Progress}es, like
+	 * {@link ProgressFactory#createGlobalAdditiveProgress(Collection)}. Its
+	 * values are maintained incrementally, so reading them does not require to
+	 * go through the {@link Progress}es.
+	 *
+	 * @return the global {@link Progress} view
+	 */
+	public Progress<Long> getGlobalProgress() {
+		return new Progress<Long>() {
+
+			@Override
+			public Long getCurrentValue() {
+				return getTotalCurrentValue();
+			}
+
+			@Override
+			public Long getMaxValue() {
+				long max = getTotalMaxValue();
+				return max == UNKNOWN_MAX ? null : max;
+			}
+
+			@Override
+			public void addProgressListener(
+					ProgressListener<? super Long> listener) {
+				synchronized (ProgressRegistry.this) {
+					globalListeners.add(listener);
+				}
+			}
+
+			@Override
+			public void removeProgressListener(
+					ProgressListener<? super Long> listener) {
+				synchronized (ProgressRegistry.this) {
+					globalListeners.remove(listener);
+				}
+			}
+
+			@Override
+			public String toString() {
+				return ProgressUtil.DEFAULT_FORMATTER.format(this);
+			}
+		};
+	}
+
+	private void updateCurrentValue(int handle, long value) {
+		long oldValue = currentValues[handle];
+		long max = maxValues[handle];
+		currentValues[handle] = value;
+		totalCurrentValue += value - oldValue;
+		updateFinishedCount(oldValue == max, value == max);
+		if (!listeners.isEmpty()) {
+			Collection<ProgressListener<? super Long>> handleListeners = listeners
+					.get(handle);
+			if (handleListeners != null) {
+				for (ProgressListener<? super Long> listener : handleListeners) {
+					listener.currentUpdate(value);
+				}
+			} else {
+				// Not listened
+			}
+		} else {
+			// Not listened
+		}
+	}
+
+	private void updateMaxValue(int handle, long value) {
+		long oldValue = maxValues[handle];
+		long current = currentValues[handle];
+		maxValues[handle] = value;
+		if (oldValue == UNKNOWN_MAX) {
+			unknownMaxCount--;
+		} else {
+			totalMaxValue -= oldValue;
+		}
+		if (value == UNKNOWN_MAX) {
+			unknownMaxCount++;
+		} else {
+			totalMaxValue += value;
+		}
+		updateFinishedCount(oldValue == current, value == current);
+		if (!listeners.isEmpty()) {
+			Collection<ProgressListener<? super Long>> handleListeners = listeners
+					.get(handle);
+			if (handleListeners != null) {
+				Long max = value == UNKNOWN_MAX ? null : value;
+				for (ProgressListener<? super Long> listener : handleListeners) {
+					listener.maxUpdate(max);
+				}
+			} else {
+				// Not listened
+			}
+		} else {
+			// Not listened
+		}
+	}
+
+	private void updateFinishedCount(boolean wasFinished, boolean isFinished) {
+		if (wasFinished && !isFinished) {
+			finishedCount--;
+		} else if (!wasFinished && isFinished) {
+			finishedCount++;
+		} else {
+			// No change
+		}
+	}
+
+	private void notifyGlobalCurrent() {
+		if (!globalListeners.isEmpty()) {
+			Long total = totalCurrentValue;
+			for (ProgressListener<? super Long> listener : globalListeners) {
+				listener.currentUpdate(total);
+			}
+		} else {
+			// Not listened
+		}
+	}
+
+	private void notifyGlobalMax() {
+		if (!globalListeners.isEmpty()) {
+			long total = getTotalMaxValue();
+			Long max = total == UNKNOWN_MAX ? null : total;
+			for (ProgressListener<? super Long> listener : globalListeners) {
+				listener.maxUpdate(max);
+			}
+		} else {
+			// Not listened
+		}
+	}
+
+	private void checkHandle(int handle) {
+		if (handle < 0 || handle >= size) {
+			throw new IndexOutOfBoundsException("Unknown handle: " + handle);
+		} else {
+			// Valid handle
+		}
+	}
+
+	private void checkRange(int firstHandle, int length) {
+		if (length < 0) {
+			throw new IllegalArgumentException(
+					"The length cannot be negative: " + length);
+		} else if (length > 0) {
+			checkHandle(firstHandle);
+			checkHandle(firstHandle + length - 1);
+		} else {
+			// Empty range
+		}
+	}
+
+	private void checkValues(long currentValue, long maxValue) {
+		if (currentValue < 0) {
+			throw new IllegalArgumentException(
+					"The current value cannot be negative: " + currentValue);
+		} else if (maxValue < 0 && maxValue != UNKNOWN_MAX) {
+			throw new IllegalArgumentException(
+					"The max value cannot be negative: " + maxValue);
+		} else if (maxValue != UNKNOWN_MAX && currentValue > maxValue) {
+			throw new IllegalArgumentException(
+					"The current value cannot be higher than the max value ("
+							+ maxValue + "): " + currentValue);
+		} else {
+			// Valid values
+		}
+	}
+}
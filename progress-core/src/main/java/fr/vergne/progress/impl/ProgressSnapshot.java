@@ -0,0 +1,263 @@
+package fr.vergne.progress.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * A {@link ProgressSnapshot} is an immutable copy of the state of a
+ * {@link Progress} at a given time. When the {@link Progress} combines other
+ * {@link Progress}es, like a {@link RecursiveProgress} or a global
+ * {@link Progress} from {@link ProgressFactory}, the snapshot contains the
+ * snapshots of its sub-progresses, available through
+ * {@link #getSubSnapshots()}, and its own values are computed from them. Thus,
+ * the values of a parent always match the values of its children, contrary to
+ * reading the {@link Progress}es directly while they are updated.
+ * </p>
+ *
+ * <p>
+ * {@link #capture(Progress)} does not lock any {@link Progress}, so it does
+ * not stall the threads updating them. Instead, each {@link ManualProgress}
+ * stores its current and max values together in an immutable
+ * {@link ProgressSnapshot} replaced at each update, and each composite
+ * {@link Progress} maintains a version of its composition. The whole tree is
+ * read twice: if no version changed between the two reads, no update occurred
+ * between them, so the first read provides the state of the tree at a single
+ * point in time. Otherwise, the tree is read again, until a maximum number of
+ * attempts is reached. In this case, the tree is read once more, and this last
+ * read is returned with {@link #isConsistent()} returning <code>false</code>.
+ * If the composition keeps changing while it is read, this last read is also
+ * retried up to the same number of attempts before to fail. Other
+ * {@link Progress} implementations are compared on their values, so an update
+ * which is cancelled by another one between the two reads may be missed.
+ * </p>
+ *
+ * <p>
+ * As a {@link ProgressSnapshot} never changes, it does not notify any
+ * listener.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ * @param <Value>
+ */
+public class ProgressSnapshot<Value extends Number> implements Progress<Value> {
+
+	/**
+	 * Number of attempts made by {@link #capture(Progress)} to obtain a
+	 * consistent {@link ProgressSnapshot}.
+	 */
+	public static final int DEFAULT_ATTEMPTS = 100;
+
+	/**
+	 * A {@link Leaf} provides its whole state as a single
+	 * {@link ProgressSnapshot}, which is replaced at each update.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <Value>
+	 */
+	static interface Leaf<Value extends Number> extends Progress<Value> {
+		public ProgressSnapshot<Value> getSnapshot();
+	}
+
+	/**
+	 * A {@link Composite} computes its values from sub-progresses. Its version
+	 * should change each time something else than its sub-progresses changes
+	 * its values, like the sub-progresses considered.
+	 *
+	 * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+	 *
+	 * @param <Value>
+	 */
+	static interface Composite<Value extends Number> extends Progress<Value> {
+		public long getCompositionVersion();
+
+		public Collection<? extends Progress<?>> getSubProgresses();
+
+		public Value computeCurrentValue(List<ProgressSnapshot<?>> subSnapshots);
+
+		public Value computeMaxValue(List<ProgressSnapshot<?>> subSnapshots);
+	}
+
+	private final Progress<Value> progress;
+	private final Value currentValue;
+	private final Value maxValue;
+	private final List<ProgressSnapshot<?>> subSnapshots;
+	private final boolean consistent;
+
+	ProgressSnapshot(Progress<Value> progress, Value currentValue,
+			Value maxValue) {
+		this(progress, currentValue, maxValue, Collections
+				.<ProgressSnapshot<?>> emptyList(), true);
+	}
+
+	private ProgressSnapshot(Progress<Value> progress, Value currentValue,
+			Value maxValue, List<ProgressSnapshot<?>> subSnapshots,
+			boolean consistent) {
+		this.progress = progress;
+		this.currentValue = currentValue;
+		this.maxValue = maxValue;
+		this.subSnapshots = subSnapshots;
+		this.consistent = consistent;
+	}
+
+	/**
+	 * Same than {@link #capture(Progress, int)} with
+	 * {@link #DEFAULT_ATTEMPTS}.
+	 */
+	public static <Value extends Number> ProgressSnapshot<Value> capture(
+			Progress<Value> progress) {
+		return capture(progress, DEFAULT_ATTEMPTS);
+	}
+
+	/**
+	 * Capture the state of a {@link Progress} and of all its sub-progresses.
+	 *
+	 * @param progress
+	 *            the {@link Progress} to capture
+	 * @param attempts
+	 *            the maximum number of times the tree is read to obtain a
+	 *            consistent state
+	 * @return the {@link ProgressSnapshot} of the {@link Progress}
+	 * @throws ConcurrentModificationException
+	 *             if the composition of the tree changed during each of the
+	 *             attempts to read it
+	 */
+	public static <Value extends Number> ProgressSnapshot<Value> capture(
+			Progress<Value> progress, int attempts) {
+		if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (attempts <= 0) {
+			throw new IllegalArgumentException(
+					"The number of attempts should be strictly positive: "
+							+ attempts);
+		} else {
+			List<Object> previousVersions = null;
+			ProgressSnapshot<Value> previousSnapshot = null;
+			for (int attempt = 0; attempt <= attempts; attempt++) {
+				List<Object> versions = new ArrayList<>();
+				ProgressSnapshot<Value> snapshot;
+				try {
+					snapshot = collect(progress, versions, true);
+				} catch (ConcurrentModificationException e) {
+					// Composition changed while reading it
+					previousVersions = null;
+					continue;
+				}
+				if (versions.equals(previousVersions)) {
+					/*
+					 * Nothing changed since the versions read before the
+					 * previous snapshot, so all its values were valid at the
+					 * end of its reading.
+					 */
+					return previousSnapshot;
+				} else {
+					previousVersions = versions;
+					previousSnapshot = snapshot;
+				}
+			}
+
+			ConcurrentModificationException failure = null;
+			for (int attempt = 0; attempt < attempts; attempt++) {
+				try {
+					return collect(progress, new ArrayList<>(), false);
+				} catch (ConcurrentModificationException e) {
+					// Composition changed while reading it
+					failure = e;
+				}
+			}
+			throw new ConcurrentModificationException(
+					"The composition changed during each of the " + attempts
+							+ " attempts to read it", failure);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <Value extends Number> ProgressSnapshot<Value> collect(
+			Progress<Value> progress, List<Object> versions, boolean consistent) {
+		if (progress instanceof Leaf) {
+			ProgressSnapshot<Value> snapshot = ((Leaf<Value>) progress)
+					.getSnapshot();
+			// Replaced at each update, so compared by identity
+			versions.add(snapshot);
+			return snapshot;
+		} else if (progress instanceof Composite) {
+			Composite<Value> composite = (Composite<Value>) progress;
+			versions.add(composite.getCompositionVersion());
+			List<ProgressSnapshot<?>> subSnapshots = new ArrayList<>();
+			for (Progress<?> subprogress : new ArrayList<>(
+					composite.getSubProgresses())) {
+				subSnapshots.add(collect(subprogress, versions, consistent));
+			}
+			return new ProgressSnapshot<Value>(progress,
+					composite.computeCurrentValue(subSnapshots),
+					composite.computeMaxValue(subSnapshots),
+					Collections.unmodifiableList(subSnapshots), consistent);
+		} else {
+			Value current = progress.getCurrentValue();
+			Value max = progress.getMaxValue();
+			versions.add(Arrays.asList(current, max));
+			return new ProgressSnapshot<Value>(progress, current, max,
+					Collections.<ProgressSnapshot<?>> emptyList(), consistent);
+		}
+	}
+
+	/**
+	 *
+	 * @return the {@link Progress} captured
+	 */
+	public Progress<Value> getProgress() {
+		return progress;
+	}
+
+	@Override
+	public Value getCurrentValue() {
+		return currentValue;
+	}
+
+	@Override
+	public Value getMaxValue() {
+		return maxValue;
+	}
+
+	/**
+	 *
+	 * @return the snapshots of the sub-progresses, from which the values of
+	 *         this {@link ProgressSnapshot} are computed
+	 */
+	public List<ProgressSnapshot<?>> getSubSnapshots() {
+		return subSnapshots;
+	}
+
+	/**
+	 *
+	 * @return <code>true</code> if this {@link ProgressSnapshot} represents its
+	 *         whole tree at a single point in time, <code>false</code> if
+	 *         updates occurred while capturing it
+	 */
+	public boolean isConsistent() {
+		return consistent;
+	}
+
+	@Override
+	public void addProgressListener(ProgressListener<? super Value> listener) {
+		// Immutable, so nothing to notify
+	}
+
+	@Override
+	public void removeProgressListener(ProgressListener<? super Value> listener) {
+		// Immutable, so nothing to notify
+	}
+
+	@Override
+	public String toString() {
+		return ProgressUtil.DEFAULT_FORMATTER.format(this);
+	}
+}
@@ -0,0 +1,353 @@
+package fr.vergne.progress.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * A {@link ProgressTrackingExecutorService} decorates an
+ * {@link ExecutorService} to provide the {@link Progress} of the tasks
+ * submitted to it. Like a {@link RecursiveProgress}, it aggregates a
+ * {@link Progress} per task, which is {@link TaskState#QUEUED} when submitted,
+ * {@link TaskState#RUNNING} when executed, and terminated once
+ * {@link TaskState#DONE}, whether it succeeded or failed. Its current value is
+ * the number of tasks done and its max value the number of tasks submitted, so
+ * it is only finished once the {@link ExecutorService} is shut down and all the
+ * submitted tasks are done.
+ * </p>
+ * <p>
+ * The bookkeeping of a task only relies on atomic counters and a concurrent
+ * set of the tasks not done yet, such that submitting and completing a task
+ * do not take any lock. The {@link ProgressListener}s, if any, are notified by
+ * the thread which submits or completes a task, or which shuts down the
+ * {@link ExecutorService}.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressTrackingExecutorService extends AbstractExecutorService
+		implements Progress<Long> {
+
+	/**
+	 * The states of a task submitted to a
+	 * {@link ProgressTrackingExecutorService}.
+	 */
+	public static enum TaskState {
+		QUEUED, RUNNING, DONE
+	}
+
+	private final ExecutorService delegate;
+	private final AtomicLong submitted = new AtomicLong(0);
+	private final AtomicLong running = new AtomicLong(0);
+	private final AtomicLong succeeded = new AtomicLong(0);
+	private final AtomicLong failed = new AtomicLong(0);
+	private final Set<TaskProgress> activeTasks = Collections
+			.newSetFromMap(new ConcurrentHashMap<TaskProgress, Boolean>());
+	private final Collection<ProgressListener<? super Long>> listeners = new CopyOnWriteArraySet<>();
+
+	public ProgressTrackingExecutorService(ExecutorService delegate) {
+		if (delegate == null) {
+			throw new NullPointerException("No executor service provided");
+		} else {
+			this.delegate = delegate;
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException("No task provided");
+		} else {
+			TaskProgress task = new TaskProgress(command);
+			activeTasks.add(task);
+			submitted.incrementAndGet();
+			try {
+				delegate.execute(task);
+			} catch (RejectedExecutionException e) {
+				activeTasks.remove(task);
+				submitted.decrementAndGet();
+				throw e;
+			}
+			notifyMax();
+		}
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new FailureAwareTask<T>(callable);
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new FailureAwareTask<T>(Executors.callable(runnable, value));
+	}
+
+	/**
+	 * A {@link FutureTask} which remembers whether its computation threw an
+	 * exception, because {@link FutureTask#run()} catches it. A cancelled task
+	 * is also considered as failed.
+	 */
+	private static class FailureAwareTask<T> extends FutureTask<T> {
+		private volatile boolean failed = false;
+
+		public FailureAwareTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		protected void setException(Throwable throwable) {
+			failed = true;
+			super.setException(throwable);
+		}
+
+		public boolean isFailed() {
+			return failed || isCancelled();
+		}
+	}
+
+	/**
+	 * The {@link Progress} of a single task, which goes from 0 to 1 once the
+	 * task is done. Its state is only changed by the thread which executes it,
+	 * so no {@link ProgressListener} is managed.
+	 */
+	public class TaskProgress implements Progress<Integer>, Runnable {
+		private final Runnable command;
+		private volatile TaskState state = TaskState.QUEUED;
+		private volatile boolean failed = false;
+
+		private TaskProgress(Runnable command) {
+			this.command = command;
+		}
+
+		@Override
+		public void run() {
+			state = TaskState.RUNNING;
+			running.incrementAndGet();
+			boolean thrown = true;
+			try {
+				command.run();
+				thrown = false;
+			} finally {
+				failed = thrown
+						|| command instanceof FailureAwareTask
+						&& ((FailureAwareTask<?>) command).isFailed();
+				running.decrementAndGet();
+				terminate(this, failed);
+			}
+		}
+
+		/**
+		 *
+		 * @return the current state of the task
+		 */
+		public TaskState getState() {
+			return state;
+		}
+
+		/**
+		 *
+		 * @return <code>true</code> if the task is done and threw an exception,
+		 *         <code>false</code> otherwise
+		 */
+		public boolean isFailed() {
+			return failed;
+		}
+
+		@Override
+		public Integer getCurrentValue() {
+			return state == TaskState.DONE ? 1 : 0;
+		}
+
+		@Override
+		public Integer getMaxValue() {
+			return 1;
+		}
+
+		@Override
+		public void addProgressListener(
+				ProgressListener<? super Integer> listener) {
+			// No listener management
+		}
+
+		@Override
+		public void removeProgressListener(
+				ProgressListener<? super Integer> listener) {
+			// No listener management
+		}
+	}
+
+	private void terminate(TaskProgress task, boolean isFailure) {
+		task.state = TaskState.DONE;
+		activeTasks.remove(task);
+		if (isFailure) {
+			failed.incrementAndGet();
+		} else {
+			succeeded.incrementAndGet();
+		}
+		notifyCurrent();
+	}
+
+	private void notifyCurrent() {
+		if (listeners.isEmpty()) {
+			// Nobody to notify
+		} else {
+			Long value = getCurrentValue();
+			for (ProgressListener<? super Long> listener : listeners) {
+				listener.currentUpdate(value);
+			}
+		}
+	}
+
+	private void notifyMax() {
+		if (listeners.isEmpty()) {
+			// Nobody to notify
+		} else {
+			Long value = getMaxValue();
+			for (ProgressListener<? super Long> listener : listeners) {
+				listener.maxUpdate(value);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the {@link TaskProgress}es of the tasks submitted but not done
+	 *         yet
+	 */
+	public Collection<TaskProgress> getActiveTasks() {
+		return Collections.unmodifiableSet(activeTasks);
+	}
+
+	/**
+	 *
+	 * @return the number of tasks submitted but not started yet
+	 */
+	public long getQueuedCount() {
+		return Math.max(0, submitted.get() - running.get() - getDoneCount());
+	}
+
+	/**
+	 *
+	 * @return the number of tasks currently executed
+	 */
+	public long getRunningCount() {
+		return running.get();
+	}
+
+	/**
+	 *
+	 * @return the number of tasks done, whether they succeeded or failed
+	 */
+	public long getDoneCount() {
+		return succeeded.get() + failed.get();
+	}
+
+	/**
+	 *
+	 * @return the number of tasks which threw an exception
+	 */
+	public long getFailedCount() {
+		return failed.get();
+	}
+
+	@Override
+	public Long getCurrentValue() {
+		return getDoneCount();
+	}
+
+	@Override
+	public Long getMaxValue() {
+		return submitted.get();
+	}
+
+	@Override
+	public boolean isFinished() {
+		return isShutdown() && getDoneCount() == submitted.get();
+	}
+
+	@Override
+	public void addProgressListener(ProgressListener<? super Long> listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeProgressListener(ProgressListener<? super Long> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Same than {@link ExecutorService#shutdown()}, but the
+	 * {@link ProgressListener}s are notified, because this {@link Progress}
+	 * is finished if all the tasks submitted are already done.
+	 */
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+		notifyMax();
+		notifyCurrent();
+	}
+
+	/**
+	 * Same than {@link ExecutorService#shutdownNow()}, but the tasks which
+	 * were still queued are terminated as failures, such that this
+	 * {@link Progress} can finish. The {@link ProgressListener}s are notified
+	 * even if no task was queued anymore.
+	 */
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> remaining = new ArrayList<>();
+		for (Runnable runnable : delegate.shutdownNow()) {
+			if (runnable instanceof TaskProgress) {
+				TaskProgress task = (TaskProgress) runnable;
+				task.failed = true;
+				terminate(task, true);
+				remaining.add(task.command);
+			} else {
+				remaining.add(runnable);
+			}
+		}
+		notifyMax();
+		notifyCurrent();
+		return remaining;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[" + getQueuedCount()
+				+ " queued, " + getRunningCount() + " running, "
+				+ getDoneCount() + "/" + getMaxValue() + " done]";
+	}
+}
@@ -3,17 +3,46 @@ package fr.vergne.progress.impl;
 import java.awt.GridLayout;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.swing.JDialog;
 import javax.swing.JProgressBar;
 
+import org.apache.commons.math3.distribution.TDistribution;
+
 import fr.vergne.progress.Predictor;
 import fr.vergne.progress.Progress;
 import fr.vergne.progress.Progress.ProgressListener;
+import fr.vergne.progress.impl.PredictorFactory.RegressionPredictor;
 import fr.vergne.progress.impl.PredictorFactory.UnableToPredictException;
+import fr.vergne.progress.impl.ProgressFlow.Publisher;
+import fr.vergne.progress.impl.ProgressFlow.Subscriber;
+import fr.vergne.progress.impl.ProgressFlow.Subscription;
 
 /**
  * This utility class provides different services to simplify the management of
@@ -157,53 +186,34 @@ public class ProgressUtil {
 		} else if (period <= 0) {
 			throw new NullPointerException("The period should be strictly positive");
 		} else {
-			final ProgressListener<Value> listener = new ProgressListener<Value>() {
-
-				@Override
-				public void currentUpdate(Value value) {
-					notifyUponTermination();
-				}
-
-				@Override
-				public void maxUpdate(Value maxValue) {
-					notifyUponTermination();
-				}
-
-				private void notifyUponTermination() {
-					synchronized (progress) {
-						if (progress.isFinished()) {
-							progress.notifyAll();
-						} else {
-							// let the waiting run
-						}
-					}
-				}
-
-			};
-			progress.addProgressListener(listener);
-
+			final CompletableFuture<Value> termination = onFinished(progress);
 			Thread thread = new Thread(new Runnable() {
 
 				@Override
 				public void run() {
 					synchronized (progress) {
 						launchDisplayer.display(progress);
+					}
 
-						do {
-							try {
-								progress.wait(period);
-							} catch (InterruptedException e) {
-								e.printStackTrace();
-							}
+					boolean isFinished;
+					do {
+						try {
+							termination.get(period, TimeUnit.MILLISECONDS);
+						} catch (TimeoutException e) {
+							// Regular display
+						} catch (InterruptedException | ExecutionException e) {
+							e.printStackTrace();
+						}
 
-							if (!progress.isFinished()) {
+						synchronized (progress) {
+							isFinished = progress.isFinished();
+							if (!isFinished) {
 								regulardisplayer.display(progress);
 							} else {
 								terminationDisplayer.display(progress);
 							}
-						} while (!progress.isFinished());
-						progress.removeProgressListener(listener);
-					}
+						}
+					} while (!isFinished);
 				}
 			});
 			thread.setDaemon(true);
@@ -704,10 +714,31 @@ public class ProgressUtil {
 	 */
 	public static <Value extends Number> long predictTerminationTime(Predictor<Value> currentPredictor,
 			Predictor<Value> maxPredictor) {
-		Value referenceValue = currentPredictor.predictValueAt(System.currentTimeMillis());
+		return predictTerminationTime(currentPredictor, maxPredictor, System.currentTimeMillis());
+	}
+
+	/**
+	 * Same than {@link #predictTerminationTime(Predictor, Predictor)} but
+	 * searches the termination time from a given time rather than from the
+	 * current one. This is useful when the {@link Predictor}s do not rely on
+	 * {@link System#currentTimeMillis()}, like when replaying a recorded
+	 * {@link Progress}.
+	 * 
+	 * @param currentPredictor
+	 *            the {@link Predictor} for the current value of the
+	 *            {@link Progress}
+	 * @param maxPredictor
+	 *            the {@link Predictor} for the max value of the {@link Progress}
+	 * @param now
+	 *            the timestamp from which to search the termination time
+	 * @return the timestamp at which we expect the progress to finish
+	 */
+	public static <Value extends Number> long predictTerminationTime(Predictor<Value> currentPredictor,
+			Predictor<Value> maxPredictor, long now) {
+		Value referenceValue = currentPredictor.predictValueAt(now);
 		ValueTranslator<Value> translator = createValueTranslator(referenceValue);
 
-		long t1 = System.currentTimeMillis();
+		long t1 = now;
 		BigDecimal diff1 = computeDiff(currentPredictor, maxPredictor, translator, t1);
 
 		long t2 = t1 + 1;
@@ -744,6 +775,847 @@ public class ProgressUtil {
 		return diff;
 	}
 
+	/**
+	 * This method estimates the termination time of a {@link Progress} like
+	 * {@link #predictTerminationTime(Predictor, Predictor)}, but it also provides
+	 * the range in which this termination time should be found with a given
+	 * confidence. Rather than searching iteratively, it exploits the linear model
+	 * of the {@link RegressionPredictor}: a regression line always passes through
+	 * the mean point of its samples, so varying its slope within its confidence
+	 * interval makes it pivot around this point, and the crossings with the max
+	 * value provide the bounds of the termination time. Only the statistics
+	 * maintained by the {@link RegressionPredictor} are used, so the cost of this
+	 * method does not depend on the number of samples.<br/>
+	 * <br/>
+	 * The max value is assumed to remain constant, so the {@link Predictor} of the
+	 * max value is evaluated only once, at the current time.
+	 * 
+	 * @param currentPredictor
+	 *            the {@link RegressionPredictor} for the current value of the
+	 *            {@link Progress}
+	 * @param maxPredictor
+	 *            the {@link Predictor} for the max value of the {@link Progress}
+	 * @param confidence
+	 *            the confidence level of the bounds, in ]0;1[
+	 * @return the {@link EtaEstimate} of the {@link Progress}
+	 * @throws UnableToPredictException
+	 *             if no progression can be observed yet
+	 */
+	public static <Value extends Number> EtaEstimate estimateTerminationTime(
+			RegressionPredictor<Value> currentPredictor, Predictor<Value> maxPredictor, double confidence) {
+		return estimateTerminationTime(currentPredictor, maxPredictor, confidence, System.currentTimeMillis());
+	}
+
+	/**
+	 * Same than
+	 * {@link #estimateTerminationTime(RegressionPredictor, Predictor, double)}
+	 * but estimates the termination time from a given time rather than from the
+	 * current one. This is useful when the {@link Predictor}s do not rely on
+	 * {@link System#currentTimeMillis()}, like when replaying a recorded
+	 * {@link Progress}.
+	 * 
+	 * @param currentPredictor
+	 *            the {@link RegressionPredictor} for the current value of the
+	 *            {@link Progress}
+	 * @param maxPredictor
+	 *            the {@link Predictor} for the max value of the {@link Progress}
+	 * @param confidence
+	 *            the confidence level of the bounds, in ]0;1[
+	 * @param now
+	 *            the timestamp from which to estimate the termination time
+	 * @return the {@link EtaEstimate} of the {@link Progress}
+	 * @throws UnableToPredictException
+	 *             if no progression can be observed yet
+	 */
+	public static <Value extends Number> EtaEstimate estimateTerminationTime(
+			RegressionPredictor<Value> currentPredictor, Predictor<Value> maxPredictor, double confidence,
+			long now) {
+		if (!(confidence > 0 && confidence < 1)) {
+			throw new IllegalArgumentException("The confidence should be in ]0;1[: " + confidence);
+		} else {
+			double max = maxPredictor.predictValueAt(now).doubleValue();
+
+			double slope;
+			double intercept;
+			long count;
+			double slopeError;
+			double meanTime;
+			synchronized (currentPredictor) {
+				slope = currentPredictor.getSlope();
+				intercept = currentPredictor.getIntercept();
+				count = currentPredictor.getSampleCount();
+				slopeError = currentPredictor.getSlopeStdErr();
+				meanTime = currentPredictor.getMeanTimestamp();
+			}
+
+			if (Double.isNaN(slope)) {
+				throw new UnableToPredictException("Impossible to predict anything without any generated value.");
+			} else if (intercept + slope * now >= max) {
+				return new EtaEstimate(now, now, now, confidence);
+			} else if (slope <= 0) {
+				throw new UnableToPredictException("No progression observed, the termination cannot be predicted.");
+			} else {
+				long expected = toFutureTime((max - intercept) / slope, now);
+				if (count < 3 || Double.isNaN(slopeError)) {
+					return new EtaEstimate(expected, now, Long.MAX_VALUE, confidence);
+				} else {
+					double quantile = new TDistribution(null, count - 2)
+							.inverseCumulativeProbability(1 - (1 - confidence) / 2);
+					double margin = quantile * slopeError;
+					double remaining = max - (intercept + slope * meanTime);
+
+					long fastTime = toFutureTime(meanTime + remaining / (slope + margin), now);
+					long slowTime = slope - margin > 0 ? toFutureTime(meanTime + remaining / (slope - margin), now)
+							: Long.MAX_VALUE;
+					long lower = Math.min(expected, Math.min(fastTime, slowTime));
+					long upper = Math.max(expected, Math.max(fastTime, slowTime));
+					return new EtaEstimate(expected, lower, upper, confidence);
+				}
+			}
+		}
+	}
+
+	private static long toFutureTime(double time, long now) {
+		// Casting saturates to Long.MAX_VALUE for times too far
+		return Math.max(now, (long) Math.ceil(time));
+	}
+
+	/**
+	 * Same than {@link #toPublisher(Progress, Executor)} with the
+	 * {@link ForkJoinPool#commonPool()}.
+	 */
+	public static <Value extends Number> Publisher<ProgressSnapshot<Value>> toPublisher(Progress<Value> progress) {
+		return toPublisher(progress, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * This method provides the states of a {@link Progress} as a reactive stream.
+	 * Each {@link Subscriber} receives the state of the {@link Progress} when it
+	 * subscribes and after each update, as {@link ProgressSnapshot}s, and
+	 * completes once it receives a finished state. The demand of each
+	 * {@link Subscriber} is honored without buffering: while it has not requested
+	 * more items, only the latest state is kept, replacing the previous ones, so
+	 * a slow {@link Subscriber} receives fewer, more recent states.<br/>
+	 * <br/>
+	 * The updating threads only store the latest state and schedule its delivery
+	 * on the {@link Executor}, so they never wait for the {@link Subscriber}s. The
+	 * {@link Subscriber}s are called sequentially from the {@link Executor}.
+	 * 
+	 * @param progress
+	 *            the {@link Progress} to publish
+	 * @param executor
+	 *            the {@link Executor} calling the {@link Subscriber}s
+	 * @return the {@link Publisher} of the states of the {@link Progress}
+	 */
+	public static <Value extends Number> Publisher<ProgressSnapshot<Value>> toPublisher(
+			final Progress<Value> progress, final Executor executor) {
+		if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (executor == null) {
+			throw new NullPointerException("No executor provided");
+		} else {
+			return new Publisher<ProgressSnapshot<Value>>() {
+
+				@Override
+				public void subscribe(Subscriber<? super ProgressSnapshot<Value>> subscriber) {
+					if (subscriber == null) {
+						throw new NullPointerException("No subscriber provided");
+					} else {
+						new ProgressSubscription<Value>(progress, executor, subscriber).start();
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * The {@link Subscription} of a single {@link Subscriber} to the
+	 * {@link Publisher} of {@link #toPublisher(Progress, Executor)}. All the calls
+	 * to the {@link Subscriber} are made by {@link #drain()}, which is never run by
+	 * two threads at the same time thanks to {@link #pendingDrains}.
+	 */
+	private static class ProgressSubscription<Value extends Number> implements Subscription, Runnable {
+		private final Progress<Value> progress;
+		private final Executor executor;
+		private final Subscriber<? super ProgressSnapshot<Value>> subscriber;
+		private final AtomicReference<ProgressSnapshot<Value>> latest = new AtomicReference<>();
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger pendingDrains = new AtomicInteger();
+		private final ProgressListener<Value> listener;
+		private volatile Throwable failure = null;
+		private volatile boolean cancelled = false;
+		private boolean subscribed = false;
+
+		public ProgressSubscription(final Progress<Value> progress, Executor executor,
+				Subscriber<? super ProgressSnapshot<Value>> subscriber) {
+			this.progress = progress;
+			this.executor = executor;
+			this.subscriber = subscriber;
+			this.listener = new ProgressListener<Value>() {
+
+				@Override
+				public void currentUpdate(Value value) {
+					publish();
+				}
+
+				@Override
+				public void maxUpdate(Value maxValue) {
+					publish();
+				}
+			};
+		}
+
+		public void start() {
+			synchronized (progress) {
+				progress.addProgressListener(listener);
+				publish();
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void publish() {
+			ProgressSnapshot<Value> snapshot;
+			if (progress instanceof ProgressSnapshot.Leaf) {
+				snapshot = ((ProgressSnapshot.Leaf<Value>) progress).getSnapshot();
+			} else {
+				snapshot = new ProgressSnapshot<Value>(progress, progress.getCurrentValue(), progress.getMaxValue());
+			}
+			latest.set(snapshot);
+			scheduleDrain();
+		}
+
+		private void scheduleDrain() {
+			if (pendingDrains.getAndIncrement() == 0) {
+				executor.execute(this);
+			} else {
+				// The running drain will consider it
+			}
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				failure = new IllegalArgumentException("The request should be strictly positive: " + n);
+			} else {
+				long current;
+				long next;
+				do {
+					current = demand.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!demand.compareAndSet(current, next));
+			}
+			scheduleDrain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			progress.removeProgressListener(listener);
+		}
+
+		@Override
+		public void run() {
+			drain();
+		}
+
+		private void drain() {
+			int missed = 1;
+			do {
+				if (!subscribed) {
+					subscribed = true;
+					try {
+						subscriber.onSubscribe(this);
+					} catch (RuntimeException e) {
+						fail(e);
+					}
+				} else {
+					// Already subscribed
+				}
+
+				while (!cancelled) {
+					if (failure != null) {
+						fail(failure);
+					} else if (demand.get() == 0) {
+						break;
+					} else {
+						ProgressSnapshot<Value> snapshot = latest.getAndSet(null);
+						if (snapshot == null) {
+							break;
+						} else {
+							if (demand.get() != Long.MAX_VALUE) {
+								demand.decrementAndGet();
+							} else {
+								// Unbounded demand
+							}
+							try {
+								subscriber.onNext(snapshot);
+							} catch (RuntimeException e) {
+								// Broken subscriber, stop feeding it
+								fail(e);
+							}
+							if (snapshot.isFinished() && !cancelled) {
+								cancel();
+								try {
+									subscriber.onComplete();
+								} catch (RuntimeException e) {
+									// Broken subscriber, but nothing more to send
+								}
+							} else {
+								// Wait for the next states
+							}
+						}
+					}
+				}
+
+				missed = pendingDrains.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		/**
+		 * Cancel this {@link Subscription} and tell the {@link Subscriber} why.
+		 * Nothing is thrown, such that {@link #drain()} always releases
+		 * {@link #pendingDrains}.
+		 */
+		private void fail(Throwable throwable) {
+			cancel();
+			try {
+				subscriber.onError(throwable);
+			} catch (RuntimeException e) {
+				// Broken subscriber, nothing more to tell it
+			}
+		}
+	}
+
+	/**
+	 * This method provides a {@link CompletableFuture} which completes with the
+	 * final value of a {@link Progress} once it is finished, or immediately if it
+	 * is already finished. The {@link Progress} is checked after each update
+	 * through a single listener shared by all the {@link CompletableFuture}s of
+	 * this {@link Progress}, whatever their number. Dependent actions which are
+	 * not asynchronous are run by the thread which finishes the {@link Progress}.
+	 * 
+	 * @param progress
+	 *            the {@link Progress} to wait for
+	 * @return the {@link CompletableFuture} of the final value
+	 */
+	public static <Value extends Number> CompletableFuture<Value> onFinished(Progress<Value> progress) {
+		if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else {
+			CompletableFuture<Value> future;
+			do {
+				future = getWaiters(progress).addFinishWaiter();
+			} while (future == null);
+			return future;
+		}
+	}
+
+	/**
+	 * This method provides a {@link CompletableFuture} which completes with the
+	 * current value of a {@link Progress} once it reaches a given threshold, or
+	 * immediately if it already reached it. All the thresholds awaited on a
+	 * {@link Progress} are sorted in a single priority queue, such that an update
+	 * only checks the smallest one, and goes further only if it is reached.
+	 * Dependent actions which are not asynchronous are run by the thread which
+	 * updates the {@link Progress}.
+	 * 
+	 * @param progress
+	 *            the {@link Progress} to wait for
+	 * @param threshold
+	 *            the current value to reach
+	 * @return the {@link CompletableFuture} of the first current value which
+	 *         reaches the threshold
+	 */
+	public static <Value extends Number> CompletableFuture<Value> onReached(Progress<Value> progress,
+			Value threshold) {
+		if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (threshold == null) {
+			throw new NullPointerException("No threshold provided");
+		} else {
+			CompletableFuture<Value> future;
+			do {
+				future = getWaiters(progress).addThresholdWaiter(threshold.doubleValue());
+			} while (future == null);
+			return future;
+		}
+	}
+
+	private static final Map<Progress<?>, ProgressWaiters<?>> WAITERS = new WeakHashMap<>();
+
+	/**
+	 * The listener is registered outside of the lock of {@link #WAITERS}, such
+	 * that a {@link Progress} notifying its listeners while holding its own lock
+	 * cannot deadlock with a thread waiting for it.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <Value extends Number> ProgressWaiters<Value> getWaiters(Progress<Value> progress) {
+		ProgressWaiters<Value> waiters;
+		boolean created;
+		synchronized (WAITERS) {
+			waiters = (ProgressWaiters<Value>) WAITERS.get(progress);
+			if (waiters == null || waiters.closed) {
+				waiters = new ProgressWaiters<Value>(progress);
+				WAITERS.put(progress, waiters);
+				created = true;
+			} else {
+				// Reuse the same listener
+				created = false;
+			}
+		}
+		if (created) {
+			waiters.listen(progress);
+		} else {
+			// Listened by the thread which created it
+		}
+		return waiters;
+	}
+
+	/**
+	 * The {@link CompletableFuture}s of {@link #onFinished(Progress)} and
+	 * {@link #onReached(Progress, Number)} for a single {@link Progress}. It only
+	 * keeps a weak reference on the {@link Progress}, which can thus be garbage
+	 * collected with it. Once all its {@link CompletableFuture}s are completed, it
+	 * is closed and stops listening to the {@link Progress}, and the next
+	 * {@link CompletableFuture}s are managed by a new {@link ProgressWaiters}.
+	 */
+	private static class ProgressWaiters<Value extends Number> implements ProgressListener<Value> {
+		private final WeakReference<Progress<Value>> progress;
+		private final PriorityQueue<ThresholdWaiter<Value>> thresholdWaiters = new PriorityQueue<>();
+		private final Collection<CompletableFuture<Value>> finishWaiters = new LinkedList<>();
+		private volatile boolean closed = false;
+
+		public ProgressWaiters(Progress<Value> progress) {
+			this.progress = new WeakReference<Progress<Value>>(progress);
+		}
+
+		/**
+		 * Start to listen to the {@link Progress}, then check the waiters added
+		 * by other threads meanwhile, since they could have missed updates.
+		 */
+		public void listen(Progress<Value> progress) {
+			progress.addProgressListener(this);
+			if (closed) {
+				// Closed before to be listening, so not removed yet
+				progress.removeProgressListener(this);
+			} else {
+				check();
+			}
+		}
+
+		/**
+		 * 
+		 * @return the {@link CompletableFuture} of the final value,
+		 *         <code>null</code> if this {@link ProgressWaiters} is closed
+		 */
+		public CompletableFuture<Value> addFinishWaiter() {
+			final CompletableFuture<Value> future = new CompletableFuture<>();
+			synchronized (this) {
+				if (closed) {
+					return null;
+				} else {
+					finishWaiters.add(future);
+				}
+			}
+			future.whenComplete(new BiConsumer<Value, Throwable>() {
+
+				@Override
+				public void accept(Value value, Throwable throwable) {
+					synchronized (ProgressWaiters.this) {
+						finishWaiters.remove(future);
+						closeIfUnused();
+					}
+				}
+			});
+			// Check after registering to not miss a concurrent update
+			maxUpdate(null);
+			return future;
+		}
+
+		/**
+		 * 
+		 * @return the {@link CompletableFuture} of the current value reaching
+		 *         the threshold, <code>null</code> if this
+		 *         {@link ProgressWaiters} is closed
+		 */
+		public CompletableFuture<Value> addThresholdWaiter(double threshold) {
+			final ThresholdWaiter<Value> waiter = new ThresholdWaiter<Value>(threshold);
+			synchronized (this) {
+				if (closed) {
+					return null;
+				} else {
+					thresholdWaiters.add(waiter);
+				}
+			}
+			waiter.future.whenComplete(new BiConsumer<Value, Throwable>() {
+
+				@Override
+				public void accept(Value value, Throwable throwable) {
+					if (throwable != null) {
+						synchronized (ProgressWaiters.this) {
+							thresholdWaiters.remove(waiter);
+							closeIfUnused();
+						}
+					} else {
+						// Already removed from the queue
+					}
+				}
+			});
+			// Check after registering to not miss a concurrent update
+			check();
+			return waiter.future;
+		}
+
+		private void check() {
+			Progress<Value> progress = this.progress.get();
+			Value current = progress == null ? null : progress.getCurrentValue();
+			if (current != null) {
+				currentUpdate(current);
+			} else {
+				checkFinished();
+			}
+		}
+
+		@Override
+		public void currentUpdate(Value value) {
+			List<ThresholdWaiter<Value>> reached = null;
+			synchronized (this) {
+				double current = value.doubleValue();
+				while (!thresholdWaiters.isEmpty() && thresholdWaiters.peek().threshold <= current) {
+					if (reached == null) {
+						reached = new LinkedList<>();
+					} else {
+						// Already created
+					}
+					reached.add(thresholdWaiters.poll());
+				}
+				if (reached != null) {
+					closeIfUnused();
+				} else {
+					// Nothing removed
+				}
+			}
+			if (reached != null) {
+				for (ThresholdWaiter<Value> waiter : reached) {
+					waiter.future.complete(value);
+				}
+			} else {
+				// No threshold reached
+			}
+			checkFinished();
+		}
+
+		@Override
+		public void maxUpdate(Value maxValue) {
+			checkFinished();
+		}
+
+		private void checkFinished() {
+			List<CompletableFuture<Value>> finished;
+			Value value;
+			synchronized (this) {
+				Progress<Value> progress = this.progress.get();
+				if (finishWaiters.isEmpty() || progress == null || !progress.isFinished()) {
+					return;
+				} else {
+					value = progress.getCurrentValue();
+					finished = new LinkedList<>(finishWaiters);
+					finishWaiters.clear();
+					closeIfUnused();
+				}
+			}
+			for (CompletableFuture<Value> future : finished) {
+				future.complete(value);
+			}
+		}
+
+		/**
+		 * Close this {@link ProgressWaiters} if it has no waiter anymore. The
+		 * listener is removed asynchronously, because this method is typically
+		 * called while the {@link Progress} notifies its listeners, so removing
+		 * it immediately could break their iteration. It should be called while
+		 * holding the lock of this {@link ProgressWaiters}.
+		 */
+		private void closeIfUnused() {
+			if (closed || !finishWaiters.isEmpty() || !thresholdWaiters.isEmpty()) {
+				// Still used, or already closed
+			} else {
+				closed = true;
+				ForkJoinPool.commonPool().execute(new Runnable() {
+
+					@Override
+					public void run() {
+						Progress<Value> progress = ProgressWaiters.this.progress.get();
+						if (progress == null) {
+							// Collected, nothing to remove from
+						} else {
+							synchronized (WAITERS) {
+								if (WAITERS.get(progress) == ProgressWaiters.this) {
+									WAITERS.remove(progress);
+								} else {
+									// Already replaced
+								}
+							}
+							progress.removeProgressListener(ProgressWaiters.this);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	private static class ThresholdWaiter<Value extends Number> implements Comparable<ThresholdWaiter<Value>> {
+		private final double threshold;
+		private final CompletableFuture<Value> future = new CompletableFuture<>();
+
+		public ThresholdWaiter(double threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		public int compareTo(ThresholdWaiter<Value> other) {
+			return Double.compare(threshold, other.threshold);
+		}
+	}
+
+	/**
+	 * Number of elements consumed by a {@link Spliterator} returned by
+	 * {@link #track(Spliterator, ManualProgress)} before to update the
+	 * {@link ManualProgress}.
+	 */
+	public static final int DEFAULT_TRACKING_BATCH = 1024;
+
+	/**
+	 * Same than {@link #track(Spliterator, ManualProgress, int)} with a batch of
+	 * {@link #DEFAULT_TRACKING_BATCH} elements.
+	 */
+	public static <T> Spliterator<T> track(Spliterator<T> spliterator, ManualProgress<Long> progress) {
+		return track(spliterator, progress, DEFAULT_TRACKING_BATCH);
+	}
+
+	/**
+	 * This method wraps a {@link Spliterator} such that the elements it provides
+	 * are counted in a {@link ManualProgress}, typically to track a parallel
+	 * {@link Stream} built through {@link StreamSupport#stream(Spliterator,
+	 * boolean)}. Each chunk obtained by {@link Spliterator#trySplit()} counts its
+	 * elements locally and adds them to the {@link ManualProgress} once per
+	 * batch, as well as when it is exhausted, so the {@link ManualProgress} is
+	 * only updated once per batch whatever the number of threads. If the
+	 * {@link Spliterator} is {@link Spliterator#SIZED}, the max value of the
+	 * {@link ManualProgress} is set to its current value plus the
+	 * {@link Spliterator#estimateSize()}.
+	 * <p>
+	 * The elements consumed before an exception are reported, but a traversal
+	 * stopped early, like by a short-circuiting operation of a {@link Stream}
+	 * ({@link Stream#findFirst()}, {@link Stream#anyMatch(java.util.function.Predicate)},
+	 * {@link Stream#limit(long)}, etc.), does not tell it to the
+	 * {@link Spliterator}, which then does not report the elements of its
+	 * incomplete batch. Use {@link #track(Stream, ManualProgress, int)} to report
+	 * them when the {@link Stream} is closed.
+	 * 
+	 * @param spliterator
+	 *            the {@link Spliterator} to track
+	 * @param progress
+	 *            the {@link ManualProgress} counting the elements consumed
+	 * @param batchSize
+	 *            the number of elements to consume before to update the
+	 *            {@link ManualProgress}
+	 * @return the tracking {@link Spliterator}
+	 * @throws IllegalArgumentException
+	 *             if the {@link ManualProgress} has no current value
+	 */
+	public static <T> Spliterator<T> track(Spliterator<T> spliterator, ManualProgress<Long> progress,
+			int batchSize) {
+		return createTrackingSpliterator(spliterator, progress, batchSize);
+	}
+
+	/**
+	 * Same than {@link #track(Stream, ManualProgress, int)} with a batch of
+	 * {@link #DEFAULT_TRACKING_BATCH} elements.
+	 */
+	public static <T> Stream<T> track(Stream<T> stream, ManualProgress<Long> progress) {
+		return track(stream, progress, DEFAULT_TRACKING_BATCH);
+	}
+
+	/**
+	 * This method wraps a {@link Stream} such that the elements it provides are
+	 * counted in a {@link ManualProgress}, like with
+	 * {@link #track(Spliterator, ManualProgress, int)} on its
+	 * {@link Stream#spliterator()}. The returned {@link Stream} is parallel if the
+	 * original one is. Closing it also reports the elements which remain in
+	 * incomplete batches, which happens when a short-circuiting operation stops
+	 * before the end, and closes the original {@link Stream}.
+	 * 
+	 * @param stream
+	 *            the {@link Stream} to track
+	 * @param progress
+	 *            the {@link ManualProgress} counting the elements consumed
+	 * @param batchSize
+	 *            the number of elements to consume before to update the
+	 *            {@link ManualProgress}
+	 * @return the tracking {@link Stream}, to close once consumed
+	 * @throws IllegalArgumentException
+	 *             if the {@link ManualProgress} has no current value
+	 */
+	public static <T> Stream<T> track(final Stream<T> stream, ManualProgress<Long> progress, int batchSize) {
+		if (stream == null) {
+			throw new NullPointerException("No stream provided");
+		} else {
+			final TrackingSpliterator<T> spliterator = createTrackingSpliterator(stream.spliterator(), progress,
+					batchSize);
+			return StreamSupport.stream(spliterator, stream.isParallel()).onClose(new Runnable() {
+
+				@Override
+				public void run() {
+					spliterator.reportAll();
+				}
+			}).onClose(new Runnable() {
+
+				@Override
+				public void run() {
+					stream.close();
+				}
+			});
+		}
+	}
+
+	private static <T> TrackingSpliterator<T> createTrackingSpliterator(Spliterator<T> spliterator,
+			ManualProgress<Long> progress, int batchSize) {
+		if (spliterator == null) {
+			throw new NullPointerException("No spliterator provided");
+		} else if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (progress.getCurrentValue() == null) {
+			throw new IllegalArgumentException("The progress has no current value");
+		} else if (batchSize <= 0) {
+			throw new IllegalArgumentException("The batch size should be strictly positive: " + batchSize);
+		} else {
+			if (spliterator.hasCharacteristics(Spliterator.SIZED)) {
+				synchronized (progress) {
+					progress.setMaxValue(progress.getCurrentValue() + spliterator.estimateSize());
+				}
+			} else {
+				// Unknown size, keep the current max
+			}
+			return new TrackingSpliterator<T>(spliterator, progress, batchSize,
+					Collections.synchronizedList(new LinkedList<TrackingSpliterator<T>>()));
+		}
+	}
+
+	private static class TrackingSpliterator<T> implements Spliterator<T> {
+		private final Spliterator<T> source;
+		private final ManualProgress<Long> progress;
+		private final int batchSize;
+		/**
+		 * All the {@link TrackingSpliterator}s split from the same one, to report
+		 * their incomplete batches once the traversal is over.
+		 */
+		private final List<TrackingSpliterator<T>> family;
+		private int consumed = 0;
+
+		public TrackingSpliterator(Spliterator<T> source, ManualProgress<Long> progress, int batchSize,
+				List<TrackingSpliterator<T>> family) {
+			this.source = source;
+			this.progress = progress;
+			this.batchSize = batchSize;
+			this.family = family;
+			family.add(this);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			boolean advanced;
+			try {
+				advanced = source.tryAdvance(action);
+			} catch (RuntimeException | Error e) {
+				// Report the elements consumed before the failing one
+				report();
+				throw e;
+			}
+			if (advanced) {
+				if (++consumed == batchSize) {
+					report();
+				} else {
+					// Wait for the batch to be complete
+				}
+				return true;
+			} else {
+				report();
+				return false;
+			}
+		}
+
+		@Override
+		public void forEachRemaining(final Consumer<? super T> action) {
+			try {
+				source.forEachRemaining(new Consumer<T>() {
+
+					@Override
+					public void accept(T element) {
+						action.accept(element);
+						if (++consumed == batchSize) {
+							report();
+						} else {
+							// Wait for the batch to be complete
+						}
+					}
+				});
+			} finally {
+				// Even if an element fails, for the ones consumed before
+				report();
+			}
+		}
+
+		/**
+		 * Report the incomplete batches of all the {@link TrackingSpliterator}s of
+		 * the same family. It should be called only once the traversal is over,
+		 * since it reads their counts from the current thread.
+		 */
+		public void reportAll() {
+			synchronized (family) {
+				for (TrackingSpliterator<T> spliterator : family) {
+					spliterator.report();
+				}
+			}
+		}
+
+		private void report() {
+			if (consumed > 0) {
+				synchronized (progress) {
+					progress.setCurrentValue(progress.getCurrentValue() + consumed);
+				}
+				consumed = 0;
+			} else {
+				// Nothing to report
+			}
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			Spliterator<T> split = source.trySplit();
+			if (split == null) {
+				return null;
+			} else {
+				return new TrackingSpliterator<T>(split, progress, batchSize, family);
+			}
+		}
+
+		@Override
+		public long estimateSize() {
+			return source.estimateSize();
+		}
+
+		@Override
+		public int characteristics() {
+			return source.characteristics();
+		}
+
+		@Override
+		public Comparator<? super T> getComparator() {
+			return source.getComparator();
+		}
+	}
+
 	/**
 	 * Create a {@link Displayer} on a given {@link OutputStream}. The
 	 * {@link Formatter} is used to create the {@link String} representation of the
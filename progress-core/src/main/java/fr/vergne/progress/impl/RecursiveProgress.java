@@ -1,8 +1,11 @@
 package fr.vergne.progress.impl;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -31,16 +34,39 @@ import fr.vergne.progress.Progress;
  * far.
  * </p>
  * 
+ * <p>
+ * A {@link RecursiveProgress} listens to its sub-progresses until they are
+ * terminated, so it should be {@link #close() closed} once not needed anymore
+ * if some of them live longer. Once closed, it does not accept new
+ * sub-progresses.
+ * </p>
+ * 
  * @author Matthieu Vergne <matthieu.vergne@gmail.com>
  *
  */
-public class RecursiveProgress implements Progress<Double> {
+public class RecursiveProgress implements ProgressSnapshot.Composite<Double>,
+		GlobalProgress<Double> {
 
-	private Integer max = null;
+	private volatile Integer max = null;
+	private volatile long compositionVersion = 0;
 	private final Map<ID, Progress<?>> subprogresses = new HashMap<>();
 	private final Map<ID, ProgressListener<Number>> sublisteners = new HashMap<>();
 	private final Map<ID, Boolean> autoTerminate = new HashMap<>();
 	private final Collection<ProgressListener<? super Double>> listeners = new HashSet<>();
+	/**
+	 * Created at the first instrumented update, such that a
+	 * {@link RecursiveProgress} never instrumented does not pay for it.
+	 */
+	private volatile ProgressInstrumentation.Probe probe = null;
+	/**
+	 * Shared by the listeners of the sub-progresses, which should not prevent
+	 * the collection of this {@link RecursiveProgress}.
+	 */
+	private final WeakReference<RecursiveProgress> self = new WeakReference<>(
+			this);
+	private final Detacher detacher = new Detacher(subprogresses, sublisteners);
+	private final ProgressCleaner.Cleanable cleanable = ProgressCleaner
+			.register(this, detacher);
 	private static final Progress<Integer> TERMINATED_PROGRESS = new Progress<Integer>() {
 
 		@Override
@@ -76,12 +102,84 @@ public class RecursiveProgress implements Progress<Double> {
 		}
 	}
 
-	public class ID {
+	public static class ID {
 		private ID() {
 			// Private constructor
 		}
 	}
 
+	/**
+	 * Listen to a sub-progress on behalf of a {@link RecursiveProgress}.
+	 */
+	private static class SubListener implements ProgressListener<Number> {
+		private final WeakReference<RecursiveProgress> parent;
+		private final Progress<?> subprogress;
+		private final ID id;
+
+		public SubListener(WeakReference<RecursiveProgress> parent,
+				Progress<?> subprogress, ID id) {
+			this.parent = parent;
+			this.subprogress = subprogress;
+			this.id = id;
+		}
+
+		@Override
+		public void currentUpdate(Number value) {
+			RecursiveProgress parent = this.parent.get();
+			if (parent == null) {
+				// Collected, it will be detached soon
+			} else {
+				parent.fireCurrentValueNotificationIfRequired(subprogress);
+				parent.terminateIfFinished(id);
+			}
+		}
+
+		@Override
+		public void maxUpdate(Number maxValue) {
+			currentUpdate(null);
+		}
+	}
+
+	/**
+	 * Stop listening to the sub-progresses of a {@link RecursiveProgress},
+	 * without referencing it. The registrations synchronize on the map of
+	 * sub-progresses, which is locked too to know which ones to detach, such
+	 * that none is missed.
+	 */
+	private static class Detacher implements Runnable {
+		private final Map<ID, Progress<?>> subprogresses;
+		private final Map<ID, ProgressListener<Number>> sublisteners;
+		private boolean detached = false;
+
+		public Detacher(Map<ID, Progress<?>> subprogresses,
+				Map<ID, ProgressListener<Number>> sublisteners) {
+			this.subprogresses = subprogresses;
+			this.sublisteners = sublisteners;
+		}
+
+		@Override
+		public void run() {
+			Map<Progress<?>, ProgressListener<Number>> listened = new HashMap<>();
+			synchronized (subprogresses) {
+				detached = true;
+				for (Entry<ID, Progress<?>> entry : subprogresses.entrySet()) {
+					listened.put(entry.getValue(),
+							sublisteners.get(entry.getKey()));
+				}
+			}
+			for (Entry<Progress<?>, ProgressListener<Number>> entry : listened
+					.entrySet()) {
+				entry.getKey().removeProgressListener(entry.getValue());
+			}
+		}
+
+		public boolean isDetached() {
+			synchronized (subprogresses) {
+				return detached;
+			}
+		}
+	}
+
 	/**
 	 * Registers a new sub-progress to this {@link RecursiveProgress}. If the
 	 * sub-progress has already been registered, an exception is thrown. The
@@ -100,6 +198,8 @@ public class RecursiveProgress implements Progress<Double> {
 	 *             register
 	 * @throws IllegalArgumentException
 	 *             if the sub-progress has already been registered
+	 * @throws IllegalStateException
+	 *             if this {@link RecursiveProgress} is {@link #close() closed}
 	 * @see RecursiveProgress#setMaxSubProgresses(Integer)
 	 * @see RecursiveProgress#setMaxSubProgressesToCurrent()
 	 */
@@ -107,31 +207,34 @@ public class RecursiveProgress implements Progress<Double> {
 			boolean autoTerminate) throws MaxSubProgressesReachedException {
 		if (subprogress == null) {
 			throw new NullPointerException("Null subprogress provided");
-		} else if (max != null && subprogresses.size() == max) {
-			throw new MaxSubProgressesReachedException(max.intValue());
-		} else if (subprogresses.containsValue(subprogress)) {
-			throw new IllegalArgumentException("Already registered progress: "
-					+ subprogress);
 		} else {
-			final ID id = new ID();
-			ProgressListener<Number> listener = new ProgressListener<Number>() {
-
-				@Override
-				public void currentUpdate(Number value) {
-					fireCurrentValueNotificationIfRequired(subprogress);
-					terminateIfFinished(id);
+			ID id = new ID();
+			ProgressListener<Number> listener = new SubListener(self,
+					subprogress, id);
+			synchronized (subprogresses) {
+				Integer max = this.max;
+				if (detacher.detached) {
+					throw new IllegalStateException(
+							"Closed progress, no more subprogress can be added");
+				} else if (max != null && subprogresses.size() == max) {
+					throw new MaxSubProgressesReachedException(max.intValue());
+				} else if (subprogresses.containsValue(subprogress)) {
+					throw new IllegalArgumentException(
+							"Already registered progress: " + subprogress);
+				} else {
+					this.subprogresses.put(id, subprogress);
+					this.sublisteners.put(id, listener);
+					this.autoTerminate.put(id, autoTerminate);
+					compositionVersion++;
 				}
-
-				@Override
-				public void maxUpdate(Number maxValue) {
-					fireCurrentValueNotificationIfRequired(subprogress);
-					terminateIfFinished(id);
-				}
-			};
-			this.subprogresses.put(id, subprogress);
-			this.sublisteners.put(id, listener);
-			this.autoTerminate.put(id, autoTerminate);
+			}
 			subprogress.addProgressListener(listener);
+			if (detacher.isDetached()) {
+				// Closed meanwhile, maybe before the listener was added
+				subprogress.removeProgressListener(listener);
+			} else {
+				// Still open, the closing will remove the listener
+			}
 			fireCurrentValueNotificationIfRequired(subprogress);
 			return id;
 		}
@@ -166,11 +269,19 @@ public class RecursiveProgress implements Progress<Double> {
 	 * @see #setAutoTerminate(boolean)
 	 */
 	public void terminateSubProgress(ID id) {
-		if (subprogresses.containsKey(id)) {
-			Progress<?> removed = subprogresses.put(id, TERMINATED_PROGRESS);
-			removed.removeProgressListener(sublisteners.get(id));
-		} else {
+		Progress<?> removed;
+		synchronized (subprogresses) {
+			if (subprogresses.containsKey(id)) {
+				removed = subprogresses.put(id, TERMINATED_PROGRESS);
+				compositionVersion++;
+			} else {
+				removed = null;
+			}
+		}
+		if (removed == null) {
 			// Not managed ID
+		} else {
+			removed.removeProgressListener(sublisteners.get(id));
 		}
 	}
 
@@ -181,8 +292,18 @@ public class RecursiveProgress implements Progress<Double> {
 			// Not counted, so current value does not change
 		} else {
 			Double current = getCurrentValue();
-			for (ProgressListener<? super Double> listener : listeners) {
-				listener.currentUpdate(current);
+			if (ProgressInstrumentation.isEnabled()) {
+				getProbe().notifyCurrentUpdate(listeners, current);
+			} else {
+				for (ProgressListener<? super Double> listener : listeners) {
+					listener.currentUpdate(current);
+				}
+				ProgressInstrumentation.Probe probe = this.probe;
+				if (probe == null) {
+					// Never instrumented, so no isolated listener
+				} else {
+					probe.notifyIsolatedCurrentUpdate(current);
+				}
 			}
 		}
 	}
@@ -197,8 +318,20 @@ public class RecursiveProgress implements Progress<Double> {
 	 */
 	public void setMaxSubProgresses(Integer max) {
 		this.max = max;
-		for (ProgressListener<? super Double> listener : listeners) {
-			listener.maxUpdate(getMaxValue());
+		compositionVersion++;
+		Double maxValue = getMaxValue();
+		if (ProgressInstrumentation.isEnabled()) {
+			getProbe().notifyMaxUpdate(listeners, maxValue);
+		} else {
+			for (ProgressListener<? super Double> listener : listeners) {
+				listener.maxUpdate(maxValue);
+			}
+			ProgressInstrumentation.Probe probe = this.probe;
+			if (probe == null) {
+				// Never instrumented, so no isolated listener
+			} else {
+				probe.notifyIsolatedMaxUpdate(maxValue);
+			}
 		}
 	}
 
@@ -218,10 +351,29 @@ public class RecursiveProgress implements Progress<Double> {
 		setMaxSubProgresses(subprogresses.size());
 	}
 
+	/**
+	 * 
+	 * @return the number of sub-progresses registered so far, including the
+	 *         terminated ones
+	 */
+	public int getSubProgressesCount() {
+		return subprogresses.size();
+	}
+
 	@Override
 	public Double getCurrentValue() {
+		if (ProgressInstrumentation.isEnabled()) {
+			getProbe().countRecomputation();
+		} else {
+			// Not instrumented
+		}
+		return sumNormalizedValues(subprogresses.values());
+	}
+
+	private static Double sumNormalizedValues(
+			Collection<? extends Progress<?>> subprogresses) {
 		Double value = 0.0;
-		for (Progress<?> subprogress : subprogresses.values()) {
+		for (Progress<?> subprogress : subprogresses) {
 			Double subValue = subprogress.getCurrentNormalizedValue();
 			if (subValue == null) {
 				// Don't know what to add, assume zero
@@ -239,9 +391,65 @@ public class RecursiveProgress implements Progress<Double> {
 	 */
 	@Override
 	public Double getMaxValue() {
+		Integer max = this.max;
 		return max == null ? null : max.doubleValue();
 	}
 
+	/**
+	 * 
+	 * @return a version which changes each time a sub-progress is registered or
+	 *         terminated, or the max is changed
+	 */
+	@Override
+	public long getCompositionVersion() {
+		return compositionVersion;
+	}
+
+	/**
+	 * 
+	 * @return the sub-progresses registered so far, the terminated ones being
+	 *         replaced by a finished {@link Progress}
+	 */
+	@Override
+	public Collection<? extends Progress<?>> getSubProgresses() {
+		synchronized (subprogresses) {
+			return new ArrayList<Progress<?>>(subprogresses.values());
+		}
+	}
+
+	@Override
+	public Double computeCurrentValue(List<ProgressSnapshot<?>> subSnapshots) {
+		return sumNormalizedValues(subSnapshots);
+	}
+
+	@Override
+	public Double computeMaxValue(List<ProgressSnapshot<?>> subSnapshots) {
+		return getMaxValue();
+	}
+
+	/**
+	 *
+	 * @return the {@link ProgressInstrumentation.Probe} of this
+	 *         {@link RecursiveProgress}, created if needed
+	 */
+	private ProgressInstrumentation.Probe getProbe() {
+		ProgressInstrumentation.Probe probe = this.probe;
+		if (probe == null) {
+			synchronized (this) {
+				probe = this.probe;
+				if (probe == null) {
+					probe = new ProgressInstrumentation.Probe(this);
+					this.probe = probe;
+				} else {
+					// Created concurrently
+				}
+			}
+		} else {
+			// Already created
+		}
+		return probe;
+	}
+
 	@Override
 	public void addProgressListener(ProgressListener<? super Double> listener) {
 		listeners.add(listener);
@@ -250,15 +458,20 @@ public class RecursiveProgress implements Progress<Double> {
 	@Override
 	public void removeProgressListener(ProgressListener<? super Double> listener) {
 		listeners.remove(listener);
+		ProgressInstrumentation.Probe probe = this.probe;
+		if (probe == null) {
+			// Never instrumented, so no isolated listener
+		} else {
+			probe.removeIsolated(listener);
+		}
 	}
 
+	/**
+	 * Stop listening to the sub-progresses which are not terminated yet. No
+	 * sub-progress can be registered anymore, such that none remains listened.
+	 */
 	@Override
-	protected void finalize() throws Throwable {
-		for (Entry<ID, Progress<?>> entry : subprogresses.entrySet()) {
-			ID id = entry.getKey();
-			Progress<?> subprogress = entry.getValue();
-			subprogress.removeProgressListener(sublisteners.get(id));
-		}
-		super.finalize();
+	public void close() {
+		cleanable.clean();
 	}
 }
@@ -0,0 +1,300 @@
+package fr.vergne.progress.impl;
+
+import java.util.Collection;
+import java.util.List;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * A {@link WeightedProgress} counts its sub-progresses like
+ * {@link ProgressFactory#createGlobalCountingProgress(Collection)}, but each
+ * of them weighs differently: its current value is the sum of the progress
+ * ratio (current value divided by max value) of each sub-progress multiplied
+ * by its weight, and its max value is the sum of the weights. Thus, a
+ * sub-progress which represents a huge task moves it much more than a tiny
+ * one. A sub-progress without max value counts as not started, and the
+ * {@link WeightedProgress} is finished when all its sub-progresses are
+ * finished.
+ * </p>
+ * <p>
+ * The sums are not recomputed from all the sub-progresses: each of them
+ * remembers its last ratio, so an update only adds the weighted difference to
+ * the sums, whatever the number of sub-progresses. The sub-progresses can be
+ * {@link #add(Progress, double) added}, {@link #remove(Progress) removed} and
+ * {@link #setWeight(Progress, double) reweighted} at any time, at the same
+ * cost. The sums are compensated to avoid accumulating rounding errors over
+ * many updates.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class WeightedProgress extends
+		AbstractDynamicGlobalProgress<Double, WeightedProgress.SubListener> {
+
+	private final CompensatedSum current = new CompensatedSum();
+	private final CompensatedSum max = new CompensatedSum();
+	private int countedCount = 0;
+	private int finishedCount = 0;
+	private volatile Double currentValue = 0.0;
+	private volatile Double maxValue = 0.0;
+
+	/**
+	 * A sum of doubles which keeps track of the low-order bits lost by each
+	 * addition (Neumaier summation).
+	 */
+	private static class CompensatedSum {
+		private double sum = 0;
+		private double compensation = 0;
+
+		public void add(double value) {
+			double total = sum + value;
+			if (Math.abs(sum) >= Math.abs(value)) {
+				compensation += (sum - total) + value;
+			} else {
+				compensation += (value - total) + sum;
+			}
+			sum = total;
+		}
+
+		public double get() {
+			return sum + compensation;
+		}
+
+		public void reset() {
+			sum = 0;
+			compensation = 0;
+		}
+	}
+
+	/**
+	 * Remember the weight of a sub-progress and its contribution to the sums.
+	 */
+	static class SubListener extends AbstractDynamicGlobalProgress.SubListener {
+		private volatile double weight;
+		private double current;
+		private double max;
+		private double ratio;
+
+		public SubListener(double weight) {
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Add a sub-progress to this {@link WeightedProgress}, which listens to it
+	 * until it is {@link #remove(Progress) removed}.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to add
+	 * @param weight
+	 *            the weight of the sub-progress
+	 * @throws IllegalArgumentException
+	 *             if the sub-progress has already been added or if the weight
+	 *             is negative
+	 */
+	public void add(Progress<?> subprogress, double weight) {
+		checkWeight(weight);
+		addSubProgress(subprogress, new SubListener(weight));
+	}
+
+	/**
+	 * Remove a sub-progress from this {@link WeightedProgress}, which stops
+	 * listening to it.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to remove
+	 * @return <code>true</code> if the sub-progress was added,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean remove(Progress<?> subprogress) {
+		return removeSubProgress(subprogress);
+	}
+
+	@Override
+	protected void count(SubListener listener, Number current, Number max) {
+		listener.current = toDouble(current);
+		listener.max = toDouble(max);
+		listener.ratio = ratio(listener.current, listener.max);
+		countedCount++;
+		finishedCount += listener.ratio == 1 ? 1 : 0;
+		this.current.add(listener.weight * listener.ratio);
+		this.max.add(listener.weight);
+		refreshMaxValue();
+		refreshCurrentValue();
+	}
+
+	@Override
+	protected void uncount(SubListener listener) {
+		countedCount--;
+		finishedCount -= listener.ratio == 1 ? 1 : 0;
+		if (countedCount == 0) {
+			// Start again from exact sums
+			current.reset();
+			max.reset();
+		} else {
+			current.add(-listener.weight * listener.ratio);
+			max.add(-listener.weight);
+		}
+		refreshMaxValue();
+		refreshCurrentValue();
+	}
+
+	/**
+	 * Change the weight of a sub-progress.
+	 *
+	 * @param subprogress
+	 *            the sub-progress to reweight
+	 * @param weight
+	 *            its new weight
+	 * @throws IllegalArgumentException
+	 *             if the sub-progress has not been added or if the weight is
+	 *             negative
+	 */
+	public void setWeight(Progress<?> subprogress, double weight) {
+		checkWeight(weight);
+		SubListener listener = getSubListener(subprogress);
+		if (listener == null) {
+			throw new IllegalArgumentException("Not added progress: "
+					+ subprogress);
+		} else {
+			synchronized (this) {
+				if (isCounted(listener)) {
+					current.add((weight - listener.weight) * listener.ratio);
+					max.add(weight - listener.weight);
+					listener.weight = weight;
+					changeComposition();
+					refreshMaxValue();
+					refreshCurrentValue();
+				} else {
+					listener.weight = weight;
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param subprogress
+	 *            the sub-progress to look at
+	 * @return its weight, <code>null</code> if it has not been added
+	 */
+	public Double getWeight(Progress<?> subprogress) {
+		SubListener listener = getSubListener(subprogress);
+		return listener == null ? null : listener.weight;
+	}
+
+	private static void checkWeight(double weight) {
+		if (!(weight >= 0) || Double.isInfinite(weight)) {
+			throw new IllegalArgumentException(
+					"The weight should be positive and finite: " + weight);
+		} else {
+			// Valid weight
+		}
+	}
+
+	private static double toDouble(Number value) {
+		return value == null ? Double.NaN : value.doubleValue();
+	}
+
+	/**
+	 *
+	 * @return the ratio of a sub-progress, 0 if it has no current or max
+	 *         value
+	 */
+	private static double ratio(double current, double max) {
+		if (Double.isNaN(current) || Double.isNaN(max)) {
+			return 0;
+		} else if (current >= max) {
+			return 1;
+		} else {
+			return current / max;
+		}
+	}
+
+	@Override
+	protected void currentUpdate(SubListener listener, Number value) {
+		listener.current = toDouble(value);
+		updateRatio(listener);
+	}
+
+	@Override
+	protected void maxUpdate(SubListener listener, Number value) {
+		listener.max = toDouble(value);
+		updateRatio(listener);
+	}
+
+	private void updateRatio(SubListener listener) {
+		double ratio = ratio(listener.current, listener.max);
+		if (ratio == listener.ratio) {
+			// No change
+		} else {
+			finishedCount += (ratio == 1 ? 1 : 0)
+					- (listener.ratio == 1 ? 1 : 0);
+			this.current.add(listener.weight * (ratio - listener.ratio));
+			listener.ratio = ratio;
+			refreshCurrentValue();
+		}
+	}
+
+	private void refreshCurrentValue() {
+		Double value;
+		if (countedCount == 0) {
+			value = 0.0;
+		} else if (finishedCount == countedCount) {
+			// Exactly finished, whatever the rounding errors
+			value = maxValue;
+		} else {
+			value = Math.max(0, Math.min(current.get(), maxValue));
+		}
+		currentValue = value;
+		notifyCurrentUpdate(value);
+	}
+
+	private void refreshMaxValue() {
+		Double value = Math.max(0, max.get());
+		maxValue = value;
+		notifyMaxUpdate(value);
+	}
+
+	@Override
+	public Double getCurrentValue() {
+		return currentValue;
+	}
+
+	@Override
+	public Double getMaxValue() {
+		return maxValue;
+	}
+
+	@Override
+	public Double computeCurrentValue(List<ProgressSnapshot<?>> subSnapshots) {
+		double current = 0;
+		double max = 0;
+		boolean finished = true;
+		for (ProgressSnapshot<?> snapshot : subSnapshots) {
+			double weight = getSnapshotWeight(snapshot);
+			double ratio = ratio(toDouble(snapshot.getCurrentValue()),
+					toDouble(snapshot.getMaxValue()));
+			current += weight * ratio;
+			max += weight;
+			finished &= ratio == 1;
+		}
+		return finished ? max : Math.min(current, max);
+	}
+
+	@Override
+	public Double computeMaxValue(List<ProgressSnapshot<?>> subSnapshots) {
+		double max = 0;
+		for (ProgressSnapshot<?> snapshot : subSnapshots) {
+			max += getSnapshotWeight(snapshot);
+		}
+		return max;
+	}
+
+	private double getSnapshotWeight(ProgressSnapshot<?> snapshot) {
+		Double weight = getWeight(snapshot.getProgress());
+		return weight == null ? 0 : weight;
+	}
+}
@@ -0,0 +1,38 @@
+package fr.vergne.progress.impl;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * <p>
+ * The {@link Fences} order plain memory accesses which are not covered by the
+ * Java memory model, like the ones of a {@link MappedProgressFile} shared with
+ * other processes.
+ * </p>
+ * <p>
+ * This is the implementation used from Java 11, through the multi-release JAR.
+ * It relies on the fences of {@link VarHandle}, which the JIT compiler turns
+ * into the barriers of the hardware, so they also order the accesses to
+ * memory shared with other processes.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+class Fences {
+
+	/**
+	 * Ensure that the loads before this fence are not reordered with the loads
+	 * and stores after it.
+	 */
+	public static void acquire() {
+		VarHandle.acquireFence();
+	}
+
+	/**
+	 * Ensure that the loads and stores before this fence are not reordered
+	 * with the stores after it.
+	 */
+	public static void release() {
+		VarHandle.releaseFence();
+	}
+}
@@ -0,0 +1,270 @@
+package fr.vergne.progress.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+/**
+ * <p>
+ * This class records the activity of {@link Progress}es as Java Flight
+ * Recorder events, such that progress milestones appear in the same recordings
+ * than the rest of the application:
+ * </p>
+ * <ul>
+ * <li><code>fr.vergne.progress.Started</code> when a {@link Progress} is
+ * {@link #record(String, Progress) recorded},</li>
+ * <li><code>fr.vergne.progress.Finished</code> when it finishes,</li>
+ * <li><code>fr.vergne.progress.MaxChanged</code> when its max value changes,</li>
+ * <li><code>fr.vergne.progress.ValueSample</code> for its current value, at
+ * most once per sampling period,</li>
+ * <li><code>fr.vergne.progress.SlowListener</code> for each listener call
+ * longer than {@link #getSlowListenerThreshold()}, measured while the
+ * {@link ProgressInstrumentation} is enabled.</li>
+ * </ul>
+ * <p>
+ * This is the implementation used from Java 11, through the multi-release JAR.
+ * Each event is only created if its {@link EventType} is enabled in the
+ * current recording, so the disabled ones do not cost anything more than this
+ * check.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressFlightRecorder {
+
+	/**
+	 * Period, in milliseconds, used by default between two samples of the
+	 * current value of a {@link Progress}.
+	 */
+	public static final long DEFAULT_SAMPLING_PERIOD = 100;
+
+	private static volatile long slowListenerThreshold = 1000000;
+
+	@Name("fr.vergne.progress.Started")
+	@Label("Progress Started")
+	@Category("Progress")
+	static class StartedEvent extends Event {
+		@Label("Name")
+		String name;
+		@Label("Current Value")
+		double currentValue;
+		@Label("Max Value")
+		@Description("NaN if unknown")
+		double maxValue;
+	}
+
+	@Name("fr.vergne.progress.Finished")
+	@Label("Progress Finished")
+	@Category("Progress")
+	static class FinishedEvent extends Event {
+		@Label("Name")
+		String name;
+		@Label("Final Value")
+		double finalValue;
+	}
+
+	@Name("fr.vergne.progress.MaxChanged")
+	@Label("Progress Max Changed")
+	@Category("Progress")
+	static class MaxChangedEvent extends Event {
+		@Label("Name")
+		String name;
+		@Label("Max Value")
+		@Description("NaN if unknown")
+		double maxValue;
+	}
+
+	@Name("fr.vergne.progress.ValueSample")
+	@Label("Progress Value Sample")
+	@Category("Progress")
+	static class ValueSampleEvent extends Event {
+		@Label("Name")
+		String name;
+		@Label("Current Value")
+		double currentValue;
+		@Label("Max Value")
+		@Description("NaN if unknown")
+		double maxValue;
+	}
+
+	@Name("fr.vergne.progress.SlowListener")
+	@Label("Slow Progress Listener")
+	@Category("Progress")
+	static class SlowListenerEvent extends Event {
+		@Label("Progress Class")
+		Class<?> progressClass;
+		@Label("Listener Class")
+		Class<?> listenerClass;
+		@Label("Listener Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long listenerDuration;
+	}
+
+	private static final EventType STARTED = EventType
+			.getEventType(StartedEvent.class);
+	private static final EventType FINISHED = EventType
+			.getEventType(FinishedEvent.class);
+	private static final EventType MAX_CHANGED = EventType
+			.getEventType(MaxChangedEvent.class);
+	private static final EventType VALUE_SAMPLE = EventType
+			.getEventType(ValueSampleEvent.class);
+	private static final EventType SLOW_LISTENER = EventType
+			.getEventType(SlowListenerEvent.class);
+
+	/**
+	 *
+	 * @return <code>true</code> if the events are actually emitted,
+	 *         <code>false</code> if this Java version does not support them
+	 */
+	public static boolean isAvailable() {
+		return true;
+	}
+
+	/**
+	 * Same than {@link #record(String, Progress, long)} with a sample every
+	 * {@link #DEFAULT_SAMPLING_PERIOD} milliseconds.
+	 */
+	public static <Value extends Number> void record(String name,
+			Progress<Value> progress) {
+		record(name, progress, DEFAULT_SAMPLING_PERIOD);
+	}
+
+	/**
+	 * Record the activity of a {@link Progress}, by emitting a
+	 * <code>Started</code> event immediately and by listening to it for the
+	 * other events.
+	 *
+	 * @param name
+	 *            the name of the {@link Progress} in the events
+	 * @param progress
+	 *            the {@link Progress} to record
+	 * @param samplingPeriod
+	 *            the minimum time, in milliseconds, between two samples of the
+	 *            current value
+	 */
+	public static <Value extends Number> void record(final String name,
+			final Progress<Value> progress, long samplingPeriod) {
+		if (name == null) {
+			throw new NullPointerException("No name provided");
+		} else if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (samplingPeriod < 0) {
+			throw new IllegalArgumentException(
+					"The sampling period cannot be negative: " + samplingPeriod);
+		} else {
+			if (STARTED.isEnabled()) {
+				StartedEvent event = new StartedEvent();
+				event.name = name;
+				event.currentValue = toDouble(progress.getCurrentValue());
+				event.maxValue = toDouble(progress.getMaxValue());
+				event.commit();
+			} else {
+				// Not recorded
+			}
+
+			final long samplingNanos = TimeUnit.MILLISECONDS
+					.toNanos(samplingPeriod);
+			progress.addProgressListener(new ProgressListener<Value>() {
+
+				private long lastSample = System.nanoTime() - samplingNanos;
+				private boolean finished = false;
+
+				@Override
+				public void currentUpdate(Value value) {
+					if (VALUE_SAMPLE.isEnabled()) {
+						long now = System.nanoTime();
+						if (now - lastSample >= samplingNanos) {
+							lastSample = now;
+							ValueSampleEvent event = new ValueSampleEvent();
+							event.name = name;
+							event.currentValue = toDouble(value);
+							event.maxValue = toDouble(progress.getMaxValue());
+							event.commit();
+						} else {
+							// Throttled
+						}
+					} else {
+						// Not recorded
+					}
+					checkFinished();
+				}
+
+				@Override
+				public void maxUpdate(Value maxValue) {
+					if (MAX_CHANGED.isEnabled()) {
+						MaxChangedEvent event = new MaxChangedEvent();
+						event.name = name;
+						event.maxValue = toDouble(maxValue);
+						event.commit();
+					} else {
+						// Not recorded
+					}
+					checkFinished();
+				}
+
+				private void checkFinished() {
+					if (!finished && FINISHED.isEnabled()
+							&& progress.isFinished()) {
+						finished = true;
+						FinishedEvent event = new FinishedEvent();
+						event.name = name;
+						event.finalValue = toDouble(progress.getCurrentValue());
+						event.commit();
+					} else {
+						// Not finished or not recorded
+					}
+				}
+			});
+		}
+	}
+
+	private static double toDouble(Number value) {
+		return value == null ? Double.NaN : value.doubleValue();
+	}
+
+	/**
+	 *
+	 * @param threshold
+	 *            the minimum time, in nanoseconds, of a listener call to emit
+	 *            a <code>SlowListener</code> event
+	 */
+	public static void setSlowListenerThreshold(long threshold) {
+		slowListenerThreshold = threshold;
+	}
+
+	/**
+	 *
+	 * @return the minimum time, in nanoseconds, of a listener call to emit a
+	 *         <code>SlowListener</code> event
+	 */
+	public static long getSlowListenerThreshold() {
+		return slowListenerThreshold;
+	}
+
+	/**
+	 * Called by the {@link ProgressInstrumentation} for each listener call
+	 * longer than {@link #getSlowListenerThreshold()}.
+	 */
+	static void slowListener(Progress<?> progress,
+			ProgressListener<?> listener, long duration) {
+		if (SLOW_LISTENER.isEnabled()) {
+			SlowListenerEvent event = new SlowListenerEvent();
+			event.progressClass = progress == null ? null : progress
+					.getClass();
+			event.listenerClass = listener.getClass();
+			event.listenerDuration = duration;
+			event.commit();
+		} else {
+			// Not recorded
+		}
+	}
+}
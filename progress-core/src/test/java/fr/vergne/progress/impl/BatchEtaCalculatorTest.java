@@ -0,0 +1,141 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Predictor;
+import fr.vergne.progress.impl.PredictorFactory.PredictedValue;
+
+public class BatchEtaCalculatorTest {
+
+	@Test
+	public void testAnalyticTerminationTimesAreCrossingTimes() {
+		final long[] clock = { 1000000L };
+		PredictorFactory factory = new PredictorFactory(() -> clock[0]);
+		BatchEtaCalculator calculator = new BatchEtaCalculator();
+
+		Random rand = new Random(0);
+		int count = 50;
+		List<Predictor<Double>> currentPredictors = new ArrayList<>(count);
+		List<Predictor<Double>> maxPredictors = new ArrayList<>(count);
+		List<ManualProgress<Double>> progresses = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			progresses.add(new ManualProgress<Double>(0.0, 100000.0));
+			currentPredictors.add(factory.createLinearPredictor(
+					progresses.get(i), PredictedValue.CURRENT_VALUE));
+			maxPredictors.add(factory.createConstantPredictor(100000.0));
+			assertEquals(i, calculator.add(currentPredictors.get(i),
+					maxPredictors.get(i)));
+		}
+		for (int step = 0; step < 100; step++) {
+			clock[0] += 10;
+			for (int i = 0; i < count; i++) {
+				progresses.get(i).add(rand.nextDouble() * (i + 1));
+			}
+		}
+
+		long[] results = calculator.computeTerminationTimes(clock[0], null);
+		assertEquals(count, results.length);
+		for (int i = 0; i < count; i++) {
+			long time = results[i];
+			double max = maxPredictors.get(i).predictValueAt(time);
+			double before = currentPredictors.get(i).predictValueAt(time - 1);
+			double after = currentPredictors.get(i).predictValueAt(time);
+			assertTrue("ETA " + i + ": " + before + " not below " + max,
+					before < max);
+			assertTrue("ETA " + i + ": " + after + " not reaching " + max,
+					after >= max - 1e-6);
+		}
+	}
+
+	@Test
+	public void testNonAnalyticPredictorsFallBackOnIterativeComputation() {
+		BatchEtaCalculator calculator = new BatchEtaCalculator();
+		Predictor<Long> currentPredictor = new Predictor<Long>() {
+
+			@Override
+			public Long predictValueAt(long timestamp) {
+				return timestamp / 2;
+			}
+		};
+		Predictor<Long> maxPredictor = new Predictor<Long>() {
+
+			@Override
+			public Long predictValueAt(long timestamp) {
+				return 1000L;
+			}
+		};
+		calculator.add(currentPredictor, maxPredictor);
+
+		long[] results = calculator.computeTerminationTimes(0, null);
+
+		assertEquals(ProgressUtil.predictTerminationTime(currentPredictor,
+				maxPredictor, 0), results[0]);
+	}
+
+	@Test
+	public void testStalledProgressIsUnpredictable() {
+		PredictorFactory factory = new PredictorFactory();
+		BatchEtaCalculator calculator = new BatchEtaCalculator();
+		calculator.add(factory.createConstantPredictor(5),
+				factory.createConstantPredictor(10));
+		calculator.add(factory.createConstantPredictor(10),
+				factory.createConstantPredictor(10));
+
+		long[] results = calculator.computeTerminationTimes(1000, null);
+
+		assertEquals(BatchEtaCalculator.UNPREDICTABLE, results[0]);
+		assertEquals(1000, results[1]);
+	}
+
+	@Test
+	public void testResultsArrayReusedWhenBigEnough() {
+		PredictorFactory factory = new PredictorFactory();
+		BatchEtaCalculator calculator = new BatchEtaCalculator();
+		calculator.add(factory.createConstantPredictor(10),
+				factory.createConstantPredictor(10));
+
+		long[] results = new long[3];
+		assertSame(results, calculator.computeTerminationTimes(0, results));
+		assertNotSame(results,
+				calculator.computeTerminationTimes(0, new long[0]));
+	}
+
+	@Test
+	public void testParallelComputationEqualsSequentialOne() {
+		final long[] clock = { 1000000L };
+		PredictorFactory factory = new PredictorFactory(() -> clock[0]);
+		BatchEtaCalculator sequential = new BatchEtaCalculator();
+		BatchEtaCalculator parallel = new BatchEtaCalculator(
+				ForkJoinPool.commonPool(), 100);
+
+		Random rand = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			Predictor<Double> currentPredictor = factory
+					.createConstantPredictor(rand.nextDouble() * 10);
+			Predictor<Double> maxPredictor = factory
+					.createConstantPredictor(10.0);
+			sequential.add(currentPredictor, maxPredictor);
+			parallel.add(currentPredictor, maxPredictor);
+		}
+		ManualProgress<Double> progress = new ManualProgress<Double>(0.0, 10.0);
+		Predictor<Double> currentPredictor = factory.createLinearPredictor(
+				progress, PredictedValue.CURRENT_VALUE);
+		Predictor<Double> maxPredictor = factory.createConstantPredictor(10.0);
+		sequential.add(currentPredictor, maxPredictor);
+		parallel.add(currentPredictor, maxPredictor);
+		for (int i = 0; i < 5; i++) {
+			clock[0] += 100;
+			progress.add(1.0);
+		}
+
+		assertArrayEquals(sequential.computeTerminationTimes(clock[0], null),
+				parallel.computeTerminationTimes(clock[0], null));
+	}
+}
@@ -0,0 +1,191 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+public class DynamicAdditiveProgressTest {
+
+	private final ProgressFactory factory = new ProgressFactory();
+
+	@Test
+	public void testEmptyProgressNotFinished() {
+		DynamicAdditiveProgress<Integer> progress = new DynamicAdditiveProgress<Integer>(
+				0);
+
+		assertEquals((Integer) 0, progress.getCurrentValue());
+		assertNull(progress.getMaxValue());
+		assertFalse(progress.isFinished());
+
+		ProgressSnapshot<Integer> snapshot = ProgressSnapshot.capture(progress);
+		assertEquals((Integer) 0, snapshot.getCurrentValue());
+		assertNull(snapshot.getMaxValue());
+	}
+
+	@Test
+	public void testNotFinishedAnymoreOnceAllSubProgressesRemoved() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(10, 10);
+		DynamicAdditiveProgress<Integer> progress = factory
+				.createDynamicGlobalAdditiveProgress(0,
+						Arrays.<Progress<Integer>> asList(p1));
+		assertTrue(progress.isFinished());
+
+		progress.remove(p1);
+		assertEquals((Integer) 0, progress.getCurrentValue());
+		assertNull(progress.getMaxValue());
+		assertFalse(progress.isFinished());
+	}
+
+	@Test
+	public void testValuesAddedWithSubProgresses() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(1, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(2, 5);
+		DynamicAdditiveProgress<Integer> progress = factory
+				.createDynamicGlobalAdditiveProgress(0, Arrays.asList(p1));
+		assertEquals((Integer) 1, progress.getCurrentValue());
+		assertEquals((Integer) 10, progress.getMaxValue());
+
+		progress.add(p2);
+		assertEquals((Integer) 3, progress.getCurrentValue());
+		assertEquals((Integer) 15, progress.getMaxValue());
+
+		p1.setCurrentValue(4);
+		p2.setMaxValue(8);
+		assertEquals((Integer) 6, progress.getCurrentValue());
+		assertEquals((Integer) 18, progress.getMaxValue());
+	}
+
+	@Test
+	public void testValuesSubtractedWithRemovedSubProgresses() {
+		ManualProgress<Long> p1 = new ManualProgress<Long>(1L, 10L);
+		ManualProgress<Long> p2 = new ManualProgress<Long>(2L, 5L);
+		DynamicAdditiveProgress<Long> progress = factory
+				.createDynamicGlobalAdditiveProgress(0L, Arrays.asList(p1, p2));
+
+		assertTrue(progress.remove(p1));
+		assertFalse(progress.remove(p1));
+		assertEquals((Long) 2L, progress.getCurrentValue());
+		assertEquals((Long) 5L, progress.getMaxValue());
+
+		p1.setCurrentValue(8L);
+		assertEquals((Long) 2L, progress.getCurrentValue());
+		assertEquals(Collections.singletonList(p2),
+				progress.getSubProgresses());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSubProgressAddedTwiceRejected() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(1, 10);
+		DynamicAdditiveProgress<Integer> progress = new DynamicAdditiveProgress<Integer>(
+				0);
+		progress.add(p1);
+		progress.add(p1);
+	}
+
+	@Test
+	public void testUnknownMaxWhileOneSubProgressHasNoMax() {
+		ManualProgress<Double> p1 = new ManualProgress<Double>(1.0, 10.0);
+		ManualProgress<Double> p2 = new ManualProgress<Double>(2.0, null);
+		DynamicAdditiveProgress<Double> progress = factory
+				.createDynamicGlobalAdditiveProgress(0.0, Arrays.asList(p1, p2));
+		assertNull(progress.getMaxValue());
+
+		p2.setMaxValue(5.0);
+		assertEquals((Double) 15.0, progress.getMaxValue());
+		p2.setMaxValue(null);
+		assertNull(progress.getMaxValue());
+		progress.remove(p2);
+		assertEquals((Double) 10.0, progress.getMaxValue());
+	}
+
+	@Test
+	public void testListenersNotifiedOfChanges() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(1, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(2, 5);
+		DynamicAdditiveProgress<Integer> progress = factory
+				.createDynamicGlobalAdditiveProgress(0, Arrays.asList(p1));
+		final List<Integer> currents = new LinkedList<Integer>();
+		final List<Integer> maxes = new LinkedList<Integer>();
+		progress.addProgressListener(new ProgressListener<Integer>() {
+
+			@Override
+			public void currentUpdate(Integer value) {
+				currents.add(value);
+			}
+
+			@Override
+			public void maxUpdate(Integer maxValue) {
+				maxes.add(maxValue);
+			}
+		});
+
+		progress.add(p2);
+		p1.setCurrentValue(5);
+		progress.remove(p1);
+		assertEquals(Arrays.asList(3, 7, 2), currents);
+		assertEquals(Arrays.asList(15, 5), maxes);
+	}
+
+	@Test
+	public void testSnapshotConsistentWithValues() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(1, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(2, 5);
+		DynamicAdditiveProgress<Integer> progress = factory
+				.createDynamicGlobalAdditiveProgress(0, Arrays.asList(p1, p2));
+
+		ProgressSnapshot<Integer> snapshot = ProgressSnapshot.capture(progress);
+		assertEquals((Integer) 3, snapshot.getCurrentValue());
+		assertEquals((Integer) 15, snapshot.getMaxValue());
+	}
+
+	@Test
+	public void testSubProgressesNotListenedOnceClosed() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(1, 10);
+		DynamicAdditiveProgress<Integer> progress = factory
+				.createDynamicGlobalAdditiveProgress(0,
+						Arrays.<Progress<Integer>> asList(p1));
+
+		progress.close();
+		p1.setCurrentValue(5);
+		assertEquals((Integer) 1, progress.getCurrentValue());
+		assertTrue(progress.getSubProgresses().isEmpty());
+	}
+
+	@Test
+	public void testConcurrentUpdatesAllCounted() throws InterruptedException {
+		final DynamicAdditiveProgress<Integer> progress = new DynamicAdditiveProgress<Integer>(
+				0);
+		List<Thread> threads = new LinkedList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			final ManualProgress<Integer> subprogress = new ManualProgress<Integer>(
+					0, 1000);
+			progress.add(subprogress);
+			threads.add(new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (int j = 0; j < 1000; j++) {
+						subprogress.add(1);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals((Integer) 4000, progress.getCurrentValue());
+		assertTrue(progress.isFinished());
+	}
+}
@@ -0,0 +1,181 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress.ProgressListener;
+
+public class ExtremumProgressTest {
+
+	private final ProgressFactory factory = new ProgressFactory();
+
+	@Test
+	public void testMinimumFollowsLeastAdvancedSubProgress() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(1, 4);
+		ManualProgress<Integer> p3 = new ManualProgress<Integer>(3, 3);
+		ExtremumProgress progress = factory.createGlobalMinimumProgress(Arrays
+				.asList(p1, p2, p3));
+		assertEquals(0.25, progress.getCurrentValue(), 0);
+		assertEquals(1.0, progress.getMaxValue(), 0);
+		assertSame(p2, progress.getDrivingSubProgress());
+
+		p2.setCurrentValue(4);
+		assertEquals(0.5, progress.getCurrentValue(), 0);
+		assertSame(p1, progress.getDrivingSubProgress());
+
+		p1.finish();
+		assertTrue(progress.isFinished());
+	}
+
+	@Test
+	public void testMaximumFollowsMostAdvancedSubProgress() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(1, 4);
+		ExtremumProgress progress = factory.createGlobalMaximumProgress(Arrays
+				.asList(p1, p2));
+		assertEquals(0.5, progress.getCurrentValue(), 0);
+		assertSame(p1, progress.getDrivingSubProgress());
+
+		p2.setCurrentValue(3);
+		assertEquals(0.75, progress.getCurrentValue(), 0);
+		assertSame(p2, progress.getDrivingSubProgress());
+
+		p1.finish();
+		assertTrue(progress.isFinished());
+	}
+
+	@Test
+	public void testSubProgressWithoutMaxNotStarted() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(3, null);
+		ExtremumProgress progress = factory.createGlobalMinimumProgress(Arrays
+				.asList(p1, p2));
+		assertEquals(0.0, progress.getCurrentValue(), 0);
+		assertSame(p2, progress.getDrivingSubProgress());
+
+		p2.setMaxValue(4);
+		assertEquals(0.5, progress.getCurrentValue(), 0);
+	}
+
+	@Test
+	public void testSubProgressesAddedAndRemoved() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(1, 10);
+		ExtremumProgress progress = new ExtremumProgress(
+				ExtremumProgress.Kind.MINIMUM);
+		assertEquals(0.0, progress.getCurrentValue(), 0);
+		assertNull(progress.getDrivingSubProgress());
+
+		progress.add(p1);
+		assertEquals(0.5, progress.getCurrentValue(), 0);
+		progress.add(p2);
+		assertEquals(0.1, progress.getCurrentValue(), 0);
+		assertTrue(progress.remove(p2));
+		assertFalse(progress.remove(p2));
+		assertEquals(0.5, progress.getCurrentValue(), 0);
+		assertSame(p1, progress.getDrivingSubProgress());
+
+		p2.setCurrentValue(0);
+		assertEquals(0.5, progress.getCurrentValue(), 0);
+	}
+
+	@Test
+	public void testListenersNotifiedOnlyWhenExtremumChanges() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(1, 10);
+		ExtremumProgress progress = factory.createGlobalMinimumProgress(Arrays
+				.asList(p1, p2));
+		final List<Double> values = new LinkedList<Double>();
+		progress.addProgressListener(new ProgressListener<Double>() {
+
+			@Override
+			public void currentUpdate(Double value) {
+				values.add(value);
+			}
+
+			@Override
+			public void maxUpdate(Double maxValue) {
+				// Not tested
+			}
+		});
+
+		p1.setCurrentValue(6);
+		p1.setCurrentValue(7);
+		p2.setCurrentValue(2);
+		p2.setCurrentValue(9);
+		assertEquals(Arrays.asList(0.2, 0.7), values);
+	}
+
+	@Test
+	public void testSnapshotConsistentWithValues() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(1, 4);
+		ExtremumProgress progress = factory.createGlobalMaximumProgress(Arrays
+				.asList(p1, p2));
+
+		ProgressSnapshot<Double> snapshot = ProgressSnapshot.capture(progress);
+		assertEquals(0.5, snapshot.getCurrentValue(), 0);
+		assertEquals(1.0, snapshot.getMaxValue(), 0);
+	}
+
+	@Test
+	public void testSubProgressesNotListenedOnceClosed() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ExtremumProgress progress = factory.createGlobalMinimumProgress(Arrays
+				.asList(p1));
+
+		progress.close();
+		p1.setCurrentValue(8);
+		assertEquals(0.5, progress.getCurrentValue(), 0);
+	}
+
+	@Test
+	public void testHeapConsistentThroughRandomUpdates() {
+		Random random = new Random(0);
+		List<ManualProgress<Integer>> subprogresses = new ArrayList<>();
+		ExtremumProgress minimum = new ExtremumProgress(
+				ExtremumProgress.Kind.MINIMUM);
+		ExtremumProgress maximum = new ExtremumProgress(
+				ExtremumProgress.Kind.MAXIMUM);
+		for (int i = 0; i < 1000; i++) {
+			ManualProgress<Integer> subprogress = new ManualProgress<Integer>(
+					random.nextInt(1000), 1000);
+			subprogresses.add(subprogress);
+			minimum.add(subprogress);
+			maximum.add(subprogress);
+		}
+
+		for (int i = 0; i < 10000; i++) {
+			ManualProgress<Integer> subprogress = subprogresses.get(random
+					.nextInt(subprogresses.size()));
+			if (i % 100 == 0) {
+				minimum.remove(subprogress);
+				maximum.remove(subprogress);
+				subprogresses.remove(subprogress);
+			} else {
+				subprogress.setCurrentValue(random.nextInt(1000));
+			}
+
+			int lowest = Integer.MAX_VALUE;
+			int highest = Integer.MIN_VALUE;
+			for (ManualProgress<Integer> candidate : subprogresses) {
+				lowest = Math.min(lowest, candidate.getCurrentValue());
+				highest = Math.max(highest, candidate.getCurrentValue());
+			}
+			assertEquals(lowest / 1000.0, minimum.getCurrentValue(), 0);
+			assertEquals(highest / 1000.0, maximum.getCurrentValue(), 0);
+			assertEquals(lowest, minimum.getDrivingSubProgress()
+					.getCurrentValue());
+			assertEquals(highest, maximum.getDrivingSubProgress()
+					.getCurrentValue());
+		}
+	}
+}
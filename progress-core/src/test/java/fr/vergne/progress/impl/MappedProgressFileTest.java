@@ -0,0 +1,134 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+import fr.vergne.progress.impl.MappedProgressFile.Slot;
+import fr.vergne.progress.impl.MappedProgressFile.State;
+
+public class MappedProgressFileTest {
+
+	private Path createTempPath() throws IOException {
+		File file = File.createTempFile("progress", ".map");
+		file.deleteOnExit();
+		return file.toPath();
+	}
+
+	@Test
+	public void testSlotsStartUnused() throws IOException {
+		try (MappedProgressFile file = MappedProgressFile.create(
+				createTempPath(), 3)) {
+			assertEquals(3, file.getSlotCount());
+			for (int i = 0; i < 3; i++) {
+				assertEquals(State.UNUSED, file.read(i, new Slot()).getState());
+			}
+		}
+	}
+
+	@Test
+	public void testUpdatesVisibleFromAnotherMapping() throws IOException {
+		Path path = createTempPath();
+		try (MappedProgressFile worker = MappedProgressFile.create(path, 2);
+				MappedProgressFile coordinator = MappedProgressFile.open(path)) {
+			ManualProgress<Long> progress = worker.createManualProgress(1, 0,
+					null);
+			Slot slot = new Slot();
+
+			coordinator.read(1, slot);
+			assertEquals(State.RUNNING, slot.getState());
+			assertEquals(0, slot.getCurrentValue());
+			assertNull(slot.getMaxValue());
+
+			progress.setMaxValue(10L);
+			progress.add(3L);
+			coordinator.read(1, slot);
+			assertEquals(3, slot.getCurrentValue());
+			assertEquals((Long) 10L, slot.getMaxValue());
+			assertTrue(slot.getTimestamp() > 0);
+
+			progress.finish();
+			coordinator.read(1, slot);
+			assertEquals(State.FINISHED, slot.getState());
+			assertEquals(10, slot.getCurrentValue());
+
+			assertEquals(State.UNUSED, coordinator.read(0, slot).getState());
+		}
+	}
+
+	@Test
+	public void testReadsConsistentWhileWriting() throws Exception {
+		Path path = createTempPath();
+		try (final MappedProgressFile worker = MappedProgressFile.create(path,
+				1); MappedProgressFile coordinator = MappedProgressFile
+				.open(path)) {
+			final int updates = 1000000;
+			Thread writer = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					for (long i = 0; i < updates; i++) {
+						worker.write(0, i, i + 1);
+					}
+				}
+			});
+			writer.start();
+
+			Slot slot = new Slot();
+			while (writer.isAlive()) {
+				coordinator.read(0, slot);
+				if (slot.getState() == State.UNUSED) {
+					// Not written yet
+				} else if (slot.getState() == State.STALE) {
+					// Writer preempted for too long
+				} else {
+					assertEquals((Long) (slot.getCurrentValue() + 1),
+							slot.getMaxValue());
+				}
+			}
+			writer.join();
+			assertEquals(updates - 1, coordinator.read(0, slot)
+					.getCurrentValue());
+		}
+	}
+
+	@Test
+	public void testSlotStaleUntilWrittenAgain() throws IOException {
+		Path path = createTempPath();
+		try (MappedProgressFile file = MappedProgressFile.create(path, 1)) {
+			file.write(0, 3, 10L);
+
+			// Simulate a writer which died while writing
+			try (FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0,
+						channel.size());
+				buffer.order(ByteOrder.nativeOrder());
+				buffer.putLong(64, buffer.getLong(64) + 1);
+			}
+			Slot slot = new Slot();
+			assertEquals(State.STALE, file.read(0, slot).getState());
+
+			file.write(0, 4, 10L);
+			assertEquals(State.RUNNING, file.read(0, slot).getState());
+			assertEquals(4, slot.getCurrentValue());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpenRejectsOtherFiles() throws IOException {
+		Path path = createTempPath();
+		Files.write(path, new byte[100]);
+		MappedProgressFile.open(path);
+	}
+}
@@ -0,0 +1,181 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import fr.vergne.progress.impl.PredictorBacktest.HistorySource;
+import fr.vergne.progress.impl.PredictorBacktest.Report;
+
+public class PredictorBacktestTest {
+
+	private Path createTempPath(String suffix) throws IOException {
+		File file = File.createTempFile("history", suffix);
+		file.deleteOnExit();
+		return file.toPath();
+	}
+
+	/**
+	 * Linear history of 100s with an update every 100ms.
+	 */
+	private HistorySource createLinearHistory() {
+		int count = 1001;
+		long[] times = new long[count];
+		double[] currents = new double[count];
+		Double[] maxes = new Double[count];
+		for (int i = 0; i < count; i++) {
+			times[i] = 1000000 + i * 100;
+			currents[i] = i;
+			maxes[i] = 1000.0;
+		}
+		return PredictorBacktest.memoryHistory(times, currents, maxes);
+	}
+
+	@Test
+	public void testLinearHistoryAccuratelyPredicted() throws IOException {
+		PredictorBacktest backtest = new PredictorBacktest(
+				createLinearHistory());
+		backtest.addCandidate("linear", PredictorBacktest.LINEAR);
+		Report report = backtest.run(10);
+
+		assertEquals(1000000, report.getStartTime());
+		assertEquals(1100000, report.getEndTime());
+		assertEquals(10, report.getEvaluationTimes().length);
+		assertEquals(0.0, report.getUnpredictableRatio("linear"), 0);
+		for (double error : report.getErrors("linear")) {
+			assertEquals(0, error, 200);
+		}
+	}
+
+	@Test
+	public void testEvaluationTimesStrictlyInsideTheRun() throws IOException {
+		PredictorBacktest backtest = new PredictorBacktest(
+				createLinearHistory());
+		backtest.addCandidate("linear", PredictorBacktest.LINEAR);
+		Report report = backtest.run(4);
+
+		assertArrayEquals(new long[] { 1020000, 1040000, 1060000, 1080000 },
+				report.getEvaluationTimes());
+	}
+
+	@Test
+	public void testRegimeAwareBetterAfterRegimeChange() throws IOException {
+		// 1 unit per 100ms during 100s, then 10 units per 100ms
+		int count = 1101;
+		long[] times = new long[count];
+		double[] currents = new double[count];
+		Double[] maxes = new Double[count];
+		for (int i = 0; i < count; i++) {
+			times[i] = i * 100;
+			currents[i] = i <= 1000 ? i : 1000 + (i - 1000) * 10;
+			maxes[i] = 2000.0;
+		}
+
+		PredictorBacktest backtest = new PredictorBacktest(
+				PredictorBacktest.memoryHistory(times, currents, maxes));
+		backtest.addCandidate("linear", PredictorBacktest.LINEAR);
+		backtest.addCandidate("regime", PredictorBacktest.REGIME_AWARE_LINEAR);
+		Report report = backtest.run(100);
+
+		assertEquals(Arrays.asList("linear", "regime"),
+				report.getCandidateNames());
+		double[] linear = report.getErrors("linear");
+		double[] regime = report.getErrors("regime");
+		// Compare at the last evaluation, well after the change
+		assertTrue(Math.abs(regime[99]) < Math.abs(linear[99]));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnfinishedHistoryRejected() throws IOException {
+		PredictorBacktest backtest = new PredictorBacktest(
+				PredictorBacktest.memoryHistory(new long[] { 0, 100 },
+						new double[] { 0, 5 }, new Double[] { 10.0, 10.0 }));
+		backtest.addCandidate("linear", PredictorBacktest.LINEAR);
+		backtest.run(10);
+	}
+
+	@Test
+	public void testUnpredictableEvaluationsReported() throws IOException {
+		// Nothing progresses until the very end
+		PredictorBacktest backtest = new PredictorBacktest(
+				PredictorBacktest.memoryHistory(new long[] { 0, 1000 },
+						new double[] { 0, 10 }, new Double[] { 10.0, 10.0 }));
+		backtest.addCandidate("linear", PredictorBacktest.LINEAR);
+		Report report = backtest.run(5);
+
+		assertEquals(1.0, report.getUnpredictableRatio("linear"), 0);
+		assertTrue(Double.isNaN(report.getMeanAbsoluteError("linear")));
+	}
+
+	@Test
+	public void testCsvHistory() throws IOException {
+		Path path = createTempPath(".csv");
+		StringBuilder csv = new StringBuilder("timestamp,current,max\n");
+		for (int i = 0; i <= 100; i++) {
+			csv.append(i * 1000).append(',').append(i).append(',');
+			if (i >= 20) {
+				csv.append(100);
+			} else {
+				// Unknown max
+			}
+			csv.append('\n');
+		}
+		Files.write(path, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+		PredictorBacktest backtest = new PredictorBacktest(
+				PredictorBacktest.csvHistory(path));
+		backtest.addCandidate("linear", PredictorBacktest.LINEAR);
+		Report report = backtest.run(9);
+
+		assertEquals(100000, report.getEndTime());
+		assertTrue(Double.isNaN(report.getErrors("linear")[0]));
+		assertEquals(0, report.getErrors("linear")[8], 1000);
+	}
+
+	@Test
+	public void testJournalHistory() throws IOException, InterruptedException {
+		Path path = createTempPath(".journal");
+		try (ProgressJournal journal = new ProgressJournal(path)) {
+			ManualProgress<Integer> other = new ManualProgress<Integer>(0, 5);
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					20);
+			journal.track("other", other);
+			journal.track("task", progress);
+			for (int i = 1; i <= 20; i++) {
+				Thread.sleep(2);
+				progress.setCurrentValue(i);
+				other.setCurrentValue(i % 5);
+			}
+		}
+
+		PredictorBacktest backtest = new PredictorBacktest(
+				PredictorBacktest.journalHistory(path, "task"));
+		backtest.addCandidate("linear", PredictorBacktest.LINEAR);
+		Report report = backtest.run(5);
+		assertTrue(report.getEndTime() > report.getStartTime());
+	}
+
+	@Test
+	public void testCsvReport() throws IOException {
+		PredictorBacktest backtest = new PredictorBacktest(
+				createLinearHistory());
+		backtest.addCandidate("a", PredictorBacktest.LINEAR);
+		backtest.addCandidate("b", PredictorBacktest.REGIME_AWARE_LINEAR);
+		Report report = backtest.run(3);
+
+		StringBuilder csv = new StringBuilder();
+		report.writeCsv(csv);
+		String[] lines = csv.toString().split("\n");
+		assertEquals(4, lines.length);
+		assertEquals("time,elapsed,a,b", lines[0]);
+		assertTrue(lines[2].startsWith("1050000,0.5,"));
+		assertEquals(4, lines[2].split(",").length);
+	}
+}
@@ -8,7 +8,9 @@ import org.junit.Test;
 
 import fr.vergne.progress.Predictor;
 import fr.vergne.progress.Progress;
+import fr.vergne.progress.impl.PredictorFactory.LinearPredictor;
 import fr.vergne.progress.impl.PredictorFactory.PredictedValue;
+import fr.vergne.progress.impl.PredictorFactory.RegressionPredictor;
 
 public class PredictorFactoryTest {
 
@@ -206,4 +208,170 @@ public class PredictorFactoryTest {
 		}
 	}
 
+	@Test
+	public void testRegimeAwarePredictorImprovesTerminationAfterRegimeChange() {
+		final long[] clock = { 1000000L };
+		PredictorFactory factory = new PredictorFactory(() -> clock[0]);
+		ManualProgress<Double> progress = new ManualProgress<Double>(0.0, null);
+		RegressionPredictor<Double> linear = factory.createLinearPredictor(
+				progress, PredictedValue.CURRENT_VALUE);
+		RegressionPredictor<Double> regimeAware = factory
+				.createRegimeAwareLinearPredictor(progress,
+						PredictedValue.CURRENT_VALUE);
+
+		// Replayable run: fast phase for 20s, then slow phase for 5s
+		Random rand = new Random(0);
+		double fastRate = 1.0;
+		double slowRate = 0.2;
+		long changeTime = clock[0] + 20000;
+		long endTime = changeTime + 5000;
+		while (clock[0] < endTime) {
+			long delta = 5 + rand.nextInt(10);
+			double rate = clock[0] < changeTime ? fastRate : slowRate;
+			double noise = 0.8 + 0.4 * rand.nextDouble();
+			clock[0] += delta;
+			progress.add(rate * delta * noise);
+		}
+
+		// The remaining work needs 20s more at the slow rate
+		double max = progress.getCurrentValue() + slowRate * 20000;
+		long expected = clock[0] + 20000;
+		long linearError = Math.abs(computeTermination(linear, max)
+				- expected);
+		long regimeAwareError = Math.abs(computeTermination(regimeAware, max)
+				- expected);
+
+		assertTrue(regimeAwareError + " not better than " + linearError,
+				4 * regimeAwareError < linearError);
+		assertTrue(regimeAwareError + " not within 5% of 20s",
+				regimeAwareError < 1000);
+	}
+
+	@Test
+	public void testRegimeAwarePredictorEquivalentToLinearPredictorOnStableRegime() {
+		final long[] clock = { 1000000L };
+		PredictorFactory factory = new PredictorFactory(() -> clock[0]);
+		ManualProgress<Double> progress = new ManualProgress<Double>(0.0, null);
+		RegressionPredictor<Double> linear = factory.createLinearPredictor(
+				progress, PredictedValue.CURRENT_VALUE);
+		RegressionPredictor<Double> regimeAware = factory
+				.createRegimeAwareLinearPredictor(progress,
+						PredictedValue.CURRENT_VALUE);
+
+		Random rand = new Random(0);
+		long endTime = clock[0] + 20000;
+		while (clock[0] < endTime) {
+			long delta = 5 + rand.nextInt(10);
+			double noise = 0.8 + 0.4 * rand.nextDouble();
+			clock[0] += delta;
+			progress.add(delta * noise);
+		}
+
+		double max = progress.getCurrentValue() + 20000;
+		long expected = clock[0] + 20000;
+		long linearError = Math.abs(computeTermination(linear, max)
+				- expected);
+		long regimeAwareError = Math.abs(computeTermination(regimeAware, max)
+				- expected);
+
+		assertTrue(linearError + " not within 5% of 20s", linearError < 1000);
+		assertTrue(regimeAwareError + " not within 5% of 20s",
+				regimeAwareError < 1000);
+	}
+
+	private long computeTermination(LinearPredictor<?> predictor, double max) {
+		return (long) ((max - predictor.getIntercept()) / predictor.getSlope());
+	}
+
+	@Test
+	public void testGrowingMaxPredictorEstimatesEventualSubProgressesCount() {
+		final long[] clock = { 1000000L };
+		PredictorFactory factory = new PredictorFactory(() -> clock[0]);
+		RecursiveProgress progress = new RecursiveProgress();
+		Predictor<Double> predictor = factory
+				.createGrowingMaxPredictor(progress);
+
+		/*
+		 * Sub-progresses arrive at a rate decreasing linearly from 0.05/ms to
+		 * zero in 20s, so 500 of them are expected overall. We observe only the
+		 * first 10s.
+		 */
+		double initialRate = 0.05;
+		long saturation = 20000;
+		long start = clock[0];
+		double expectedArrivals = 0;
+		while (clock[0] - start < saturation / 2) {
+			clock[0] += 10;
+			double elapsed = clock[0] - start;
+			expectedArrivals = initialRate * elapsed * (1 - elapsed / 2
+					/ saturation);
+			while (progress.getSubProgressesCount() < (int) expectedArrivals) {
+				progress.registerSubProgress(new ManualProgress<Integer>(0, 1));
+			}
+		}
+
+		double estimate = predictor.predictValueAt(Long.MAX_VALUE);
+		assertTrue(estimate + " not in [450;550]", estimate > 450
+				&& estimate < 550);
+
+		double halfway = predictor.predictValueAt(clock[0] + saturation / 4);
+		assertTrue(halfway + " not in [" + progress.getSubProgressesCount()
+				+ ";" + estimate + "]",
+				halfway > progress.getSubProgressesCount()
+						&& halfway < estimate);
+	}
+
+	@Test
+	public void testGrowingMaxPredictorReturnsMaxOnceKnown() {
+		final long[] clock = { 1000000L };
+		PredictorFactory factory = new PredictorFactory(() -> clock[0]);
+		RecursiveProgress progress = new RecursiveProgress();
+		Predictor<Double> predictor = factory
+				.createGrowingMaxPredictor(progress);
+
+		for (int i = 0; i < 10; i++) {
+			clock[0] += 100;
+			progress.registerSubProgress(new ManualProgress<Integer>(0, 1));
+		}
+		progress.setMaxSubProgresses(20);
+
+		assertEquals(20.0, predictor.predictValueAt(Long.MAX_VALUE), 0);
+	}
+
+	@Test
+	public void testGrowingMaxPredictorEstimatesEventualMaxFromMaxUpdates() {
+		final long[] clock = { 1000000L };
+		PredictorFactory factory = new PredictorFactory(() -> clock[0]);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, 0L);
+		Predictor<Long> predictor = factory.createGrowingMaxPredictor(progress);
+
+		// The max grows at a rate decreasing linearly from 1/ms to 0 in 10s
+		long start = clock[0];
+		while (clock[0] - start < 5000) {
+			clock[0] += 10;
+			double elapsed = clock[0] - start;
+			progress.setMaxValue((long) (elapsed * (1 - elapsed / 2 / 10000)));
+		}
+
+		long estimate = predictor.predictValueAt(Long.MAX_VALUE);
+		assertTrue(estimate + " not in [4500;5500]", estimate > 4500
+				&& estimate < 5500);
+
+		progress.finish();
+		assertEquals(progress.getMaxValue(),
+				predictor.predictValueAt(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testLinearPredictorOnUnknownMaxValueIgnoresIt() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, null);
+		Predictor<Integer> predictor = new PredictorFactory()
+				.createLinearPredictor(progress, PredictedValue.MAX_VALUE);
+
+		progress.setMaxValue(10);
+
+		assertEquals((Integer) 10,
+				predictor.predictValueAt(System.currentTimeMillis()));
+	}
+
 }
@@ -0,0 +1,171 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress.ProgressListener;
+
+public class ProgressAwareRecursiveTaskTest {
+
+	@SuppressWarnings("serial")
+	private static class Sum extends ProgressAwareRecursiveTask<Long> {
+		private final int[] array;
+		private final int from;
+		private final int to;
+		private final boolean reportItems;
+
+		public Sum(ManualProgress<Long> progress, int[] array,
+				boolean reportItems) {
+			super(progress, array.length);
+			this.array = array;
+			this.from = 0;
+			this.to = array.length;
+			this.reportItems = reportItems;
+		}
+
+		private Sum(Sum parent, int from, int to) {
+			super(parent, to - from);
+			this.array = parent.array;
+			this.from = from;
+			this.to = to;
+			this.reportItems = parent.reportItems;
+		}
+
+		@Override
+		protected Long computeWithProgress() {
+			if (to - from <= 1000) {
+				long sum = 0;
+				for (int i = from; i < to; i++) {
+					sum += array[i];
+					if (reportItems) {
+						worked(1);
+					} else {
+						// Rely on the completion
+					}
+				}
+				return sum;
+			} else {
+				int middle = (from + to) / 2;
+				Sum left = new Sum(this, from, middle);
+				Sum right = new Sum(this, middle, to);
+				left.fork();
+				return right.compute() + left.join();
+			}
+		}
+	}
+
+	private int[] createArray(int size) {
+		int[] array = new int[size];
+		for (int i = 0; i < size; i++) {
+			array[i] = i;
+		}
+		return array;
+	}
+
+	private AtomicInteger countUpdates(ManualProgress<Long> progress) {
+		final AtomicInteger updates = new AtomicInteger();
+		progress.addProgressListener(new ProgressListener<Long>() {
+
+			@Override
+			public void currentUpdate(Long value) {
+				updates.incrementAndGet();
+			}
+
+			@Override
+			public void maxUpdate(Long maxValue) {
+				// Not counted
+			}
+		});
+		return updates;
+	}
+
+	@Test
+	public void testProgressExactAfterParallelRun() {
+		int size = 1000000;
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L,
+				(long) size);
+		AtomicInteger updates = countUpdates(progress);
+
+		long sum = new ForkJoinPool(4).invoke(new Sum(progress,
+				createArray(size), true));
+
+		assertEquals((long) size * (size - 1) / 2, sum);
+		assertEquals((Long) (long) size, progress.getCurrentValue());
+		assertTrue(progress.isFinished());
+		// At most one update per task
+		assertTrue(updates.get() < 2048);
+	}
+
+	@Test
+	public void testProgressExactWithoutItemReports() {
+		int size = 100000;
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L,
+				(long) size);
+
+		new ForkJoinPool(4).invoke(new Sum(progress, createArray(size), false));
+
+		assertEquals((Long) (long) size, progress.getCurrentValue());
+	}
+
+	@SuppressWarnings("serial")
+	@Test
+	public void testOnlyWorkedReportedOnFailure() {
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, 10L);
+		ProgressAwareRecursiveTask<Void> task = new ProgressAwareRecursiveTask<Void>(
+				progress, 10) {
+
+			@Override
+			protected Void computeWithProgress() {
+				worked(3);
+				throw new IllegalStateException("failure");
+			}
+		};
+
+		try {
+			ForkJoinPool.commonPool().invoke(task);
+			fail("No exception thrown");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals((Long) 3L, progress.getCurrentValue());
+	}
+
+	@SuppressWarnings("serial")
+	@Test
+	public void testSharesCannotExceedParentShare() {
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, 10L);
+		final AtomicInteger rejected = new AtomicInteger();
+		ForkJoinPool.commonPool().invoke(
+				new ProgressAwareRecursiveTask<Void>(progress, 10) {
+
+					@Override
+					protected Void computeWithProgress() {
+						worked(4);
+						assertEquals(6, getRemainingShare());
+						try {
+							new ProgressAwareRecursiveTask<Void>(this, 7) {
+
+								@Override
+								protected Void computeWithProgress() {
+									return null;
+								}
+							};
+						} catch (IllegalArgumentException e) {
+							rejected.incrementAndGet();
+						}
+						try {
+							worked(7);
+						} catch (IllegalArgumentException e) {
+							rejected.incrementAndGet();
+						}
+						return null;
+					}
+				});
+		assertEquals(2, rejected.get());
+		assertEquals((Long) 10L, progress.getCurrentValue());
+	}
+}
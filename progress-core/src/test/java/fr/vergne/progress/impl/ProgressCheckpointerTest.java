@@ -0,0 +1,292 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.impl.ProgressCheckpointer.Checkpoint;
+
+public class ProgressCheckpointerTest {
+
+	private Path createTempDirectory() throws IOException {
+		Path directory = Files.createTempDirectory("checkpoints");
+		directory.toFile().deleteOnExit();
+		return directory;
+	}
+
+	@Test
+	public void testNoCheckpointInNewDirectory() throws IOException {
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				createTempDirectory())) {
+			assertTrue(checkpointer.getCheckpoints().isEmpty());
+			assertTrue(checkpointer.restoreProgresses().isEmpty());
+		}
+	}
+
+	@Test
+	public void testLastStatesRestoredAfterClose() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					null);
+			checkpointer.track("a", progress);
+			progress.setCurrentValue(3);
+			progress.setMaxValue(10);
+			progress.setCurrentValue(7);
+		}
+
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			Checkpoint checkpoint = checkpointer.getCheckpoints().get("a");
+			assertEquals(7.0, checkpoint.getCurrentValue(), 0);
+			assertEquals(10.0, checkpoint.getMaxValue(), 0);
+			assertNull(checkpoint.getParentName());
+		}
+	}
+
+	@Test
+	public void testUnknownMaxRestoredAsNull() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			checkpointer.track("a", new ManualProgress<Integer>(5, null));
+		}
+
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			assertNull(checkpointer.getCheckpoints().get("a").getMaxValue());
+		}
+	}
+
+	@Test
+	public void testUpdatesWrittenWithoutClosing() throws IOException,
+			InterruptedException {
+		Path directory = createTempDirectory();
+		ProgressCheckpointer checkpointer = new ProgressCheckpointer(directory,
+				10, 1000, false, 1 << 20);
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		checkpointer.track("a", progress);
+		progress.setCurrentValue(4);
+		Thread.sleep(200);
+
+		// Read the files like after a crash
+		try (ProgressCheckpointer restorer = new ProgressCheckpointer(
+				createCopy(directory))) {
+			assertEquals(4.0, restorer.getCheckpoints().get("a")
+					.getCurrentValue(), 0);
+		}
+		checkpointer.close();
+	}
+
+	@Test
+	public void testFlushWritesPendingUpdates() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory, 1000000, 1000000, false, 1 << 20)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					10);
+			checkpointer.track("a", progress);
+			progress.setCurrentValue(6);
+			checkpointer.flush();
+
+			try (ProgressCheckpointer restorer = new ProgressCheckpointer(
+					createCopy(directory))) {
+				assertEquals(6.0, restorer.getCheckpoints().get("a")
+						.getCurrentValue(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testCompactionPreservesStates() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory, 1000000, 1000000, false, 100)) {
+			ManualProgress<Integer> a = new ManualProgress<Integer>(0, 1000);
+			ManualProgress<Integer> b = new ManualProgress<Integer>(0, 1000);
+			checkpointer.track("a", a);
+			checkpointer.track("b", b);
+			for (int i = 1; i <= 50; i++) {
+				a.setCurrentValue(i);
+				checkpointer.flush();
+				assertTrue(Files.size(directory.resolve("progress.log")) < 200);
+			}
+			b.setCurrentValue(20);
+		}
+
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			Map<String, Checkpoint> checkpoints = checkpointer
+					.getCheckpoints();
+			assertEquals(50.0, checkpoints.get("a").getCurrentValue(), 0);
+			assertEquals(20.0, checkpoints.get("b").getCurrentValue(), 0);
+		}
+	}
+
+	@Test
+	public void testLogReplayedOverSnapshotOfNextStart() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory, 1000000, 1000000, false, 500)) {
+			List<ManualProgress<Integer>> progresses = new ArrayList<>();
+			// Not in the order of the snapshot, sorted by hash
+			for (int i = 19; i >= 0; i--) {
+				ManualProgress<Integer> progress = new ManualProgress<Integer>(
+						0, 100);
+				checkpointer.track("p" + i, progress);
+				progresses.add(0, progress);
+			}
+			// Compacted, so the next records are not preceded by definitions
+			checkpointer.flush();
+			for (int i = 0; i < 20; i++) {
+				progresses.get(i).setCurrentValue(i);
+			}
+		}
+		byte[] log = Files.readAllBytes(directory.resolve("progress.log"));
+		assertTrue(log.length > 0);
+
+		// Crash after the new snapshot, before to truncate the log
+		new ProgressCheckpointer(directory).close();
+		Files.write(directory.resolve("progress.log"), log);
+
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			Map<String, Checkpoint> checkpoints = checkpointer
+					.getCheckpoints();
+			for (int i = 0; i < 20; i++) {
+				assertEquals(i, checkpoints.get("p" + i).getCurrentValue(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testCurrentValueClampedOnRestore() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory, 1000000, 1000000, false, 1 << 20)) {
+			checkpointer.track("a", new ManualProgress<Integer>(2, 10));
+		}
+		// Current value higher than the max value, like read by two updates
+		try (FileChannel channel = FileChannel.open(
+				directory.resolve("progress.log"), StandardOpenOption.WRITE)) {
+			ByteBuffer values = ByteBuffer.allocate(16);
+			values.putDouble(12).putDouble(10).flip();
+			channel.write(values, channel.size() - 16);
+		}
+
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			Progress<Double> restored = checkpointer.restoreProgresses().get(
+					"a");
+			assertEquals(10.0, restored.getCurrentValue(), 0);
+			assertTrue(restored.isFinished());
+		}
+	}
+
+	@Test
+	public void testIncompleteRecordIgnored() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory, 1000000, 1000000, false, 1 << 20)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					10);
+			checkpointer.track("a", progress);
+			progress.setCurrentValue(2);
+			checkpointer.flush();
+
+			// Simulate a write interrupted by a crash
+			Path copy = createCopy(directory);
+			try (FileChannel log = FileChannel.open(
+					copy.resolve("progress.log"), StandardOpenOption.APPEND)) {
+				log.write(ByteBuffer.wrap(new byte[] { 2, 0, 0, 0, 0, 1, 2 }));
+			}
+
+			try (ProgressCheckpointer restorer = new ProgressCheckpointer(copy)) {
+				assertEquals(2.0, restorer.getCheckpoints().get("a")
+						.getCurrentValue(), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testUntrackedProgressNotWrittenAnymore() throws IOException {
+		Path directory = createTempDirectory();
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			checkpointer.track("a", progress);
+			progress.setCurrentValue(3);
+			checkpointer.untrack("a");
+			progress.setCurrentValue(5);
+		}
+
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			assertEquals(3.0, checkpointer.getCheckpoints().get("a")
+					.getCurrentValue(), 0);
+		}
+	}
+
+	@Test
+	public void testRestoredTree() throws IOException {
+		Path directory = createTempDirectory();
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			ManualProgress<Integer> child1 = new ManualProgress<Integer>(10, 10);
+			ManualProgress<Integer> child2 = new ManualProgress<Integer>(5, 20);
+			RecursiveProgress root = new RecursiveProgress();
+			root.setMaxSubProgresses(3);
+			root.registerSubProgress(child1);
+			root.registerSubProgress(child2);
+			checkpointer.track("root", root);
+			checkpointer.track("child1", child1, "root");
+			checkpointer.track("child2", child2, "root");
+		}
+
+		try (ProgressCheckpointer checkpointer = new ProgressCheckpointer(
+				directory)) {
+			Map<String, Progress<Double>> progresses = checkpointer
+					.restoreProgresses();
+			assertEquals(3, progresses.size());
+
+			Progress<Double> child1 = progresses.get("child1");
+			assertTrue(child1 instanceof ManualProgress);
+			assertTrue(child1.isFinished());
+
+			Progress<Double> child2 = progresses.get("child2");
+			assertEquals(5.0, child2.getCurrentValue(), 0);
+			assertEquals(20.0, child2.getMaxValue(), 0);
+
+			RecursiveProgress root = (RecursiveProgress) progresses
+					.get("root");
+			assertEquals(2, root.getSubProgressesCount());
+			assertEquals(3.0, root.getMaxValue(), 0);
+			assertFalse(root.isFinished());
+		}
+	}
+
+	private Path createCopy(Path directory) throws IOException {
+		Path copy = createTempDirectory();
+		for (String name : new String[] { "progress.snapshot", "progress.log" }) {
+			Path file = directory.resolve(name);
+			if (Files.exists(file)) {
+				Files.copy(file, copy.resolve(name));
+			} else {
+				// Nothing to copy
+			}
+		}
+		return copy;
+	}
+}
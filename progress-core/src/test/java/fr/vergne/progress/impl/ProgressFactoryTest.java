@@ -6,6 +6,9 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -18,6 +21,28 @@ public class ProgressFactoryTest {
 
 	private final ProgressFactory factory = new ProgressFactory();
 
+	private static class ListenedProgress extends ManualProgress<Integer> {
+		private final Collection<ProgressListener<? super Integer>> listeners = Collections
+				.synchronizedSet(new HashSet<ProgressListener<? super Integer>>());
+
+		public ListenedProgress() {
+			super(0, 10);
+		}
+
+		@Override
+		public void addProgressListener(ProgressListener<? super Integer> listener) {
+			super.addProgressListener(listener);
+			listeners.add(listener);
+		}
+
+		@Override
+		public void removeProgressListener(
+				ProgressListener<? super Integer> listener) {
+			super.removeProgressListener(listener);
+			listeners.remove(listener);
+		}
+	}
+
 	@Test
 	public void testManualProgressCorretlyInitialized() {
 		ManualProgress<Integer> progress = factory.createManualProgress(5, 10);
@@ -479,4 +504,52 @@ public class ProgressFactoryTest {
 		assertEquals(currentReference, progress.getCurrentValue());
 		assertEquals(maxReference, progress.getMaxValue());
 	}
+
+	@Test
+	public void testGlobalAdditiveProgressStopsListeningWhenClosed() {
+		ListenedProgress p1 = new ListenedProgress();
+		ListenedProgress p2 = new ListenedProgress();
+		GlobalProgress<Integer> progress = factory
+				.createGlobalAdditiveProgress(Arrays.asList(p1, p2));
+		assertEquals(1, p1.listeners.size());
+		assertEquals(1, p2.listeners.size());
+
+		progress.close();
+		assertTrue(p1.listeners.isEmpty());
+		assertTrue(p2.listeners.isEmpty());
+		p1.setCurrentValue(5);
+		assertEquals((Integer) 0, progress.getCurrentValue());
+		progress.close();
+	}
+
+	@Test
+	public void testGlobalCountingProgressStopsListeningWhenClosed() {
+		ListenedProgress p1 = new ListenedProgress();
+		ListenedProgress p2 = new ListenedProgress();
+		GlobalProgress<Double> progress = factory
+				.createGlobalCountingProgress(Arrays.asList(p1, p2));
+		assertEquals(1, p1.listeners.size());
+		assertEquals(1, p2.listeners.size());
+
+		progress.close();
+		assertTrue(p1.listeners.isEmpty());
+		assertTrue(p2.listeners.isEmpty());
+		p1.setCurrentValue(5);
+		assertEquals((Double) 0.0, progress.getCurrentValue());
+	}
+
+	@Test
+	public void testGlobalProgressStopsListeningWhenCollected()
+			throws InterruptedException {
+		ListenedProgress subProgress = new ListenedProgress();
+		factory.createGlobalAdditiveProgress(Arrays.asList(subProgress));
+		factory.createGlobalCountingProgress(Arrays.asList(subProgress));
+		assertEquals(2, subProgress.listeners.size());
+
+		for (int i = 0; i < 100 && !subProgress.listeners.isEmpty(); i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertTrue(subProgress.listeners.isEmpty());
+	}
 }
@@ -0,0 +1,39 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ProgressFlightRecorderTest {
+
+	@Test
+	public void testRecordedProgressStillUpdatable() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, null);
+		ProgressFlightRecorder.record("task", progress);
+		progress.setMaxValue(10);
+		progress.setCurrentValue(10);
+		assertTrue(progress.isFinished());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testNameRequired() {
+		ProgressFlightRecorder.record(null, new ManualProgress<Integer>(0, 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeSamplingPeriodRejected() {
+		ProgressFlightRecorder.record("task", new ManualProgress<Integer>(0, 1),
+				-1);
+	}
+
+	@Test
+	public void testSlowListenerThreshold() {
+		long threshold = ProgressFlightRecorder.getSlowListenerThreshold();
+		try {
+			ProgressFlightRecorder.setSlowListenerThreshold(5);
+			assertEquals(5, ProgressFlightRecorder.getSlowListenerThreshold());
+		} finally {
+			ProgressFlightRecorder.setSlowListenerThreshold(threshold);
+		}
+	}
+}
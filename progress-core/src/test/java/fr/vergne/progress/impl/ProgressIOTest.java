@@ -0,0 +1,223 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress.ProgressListener;
+
+public class ProgressIOTest {
+
+	private Path createFile(int size) throws IOException {
+		File file = File.createTempFile("progress", ".bin");
+		file.deleteOnExit();
+		byte[] content = new byte[size];
+		for (int i = 0; i < size; i++) {
+			content[i] = (byte) i;
+		}
+		Files.write(file.toPath(), content);
+		return file.toPath();
+	}
+
+	private AtomicInteger countUpdates(ManualProgress<Long> progress) {
+		final AtomicInteger updates = new AtomicInteger();
+		progress.addProgressListener(new ProgressListener<Long>() {
+
+			@Override
+			public void currentUpdate(Long value) {
+				updates.incrementAndGet();
+			}
+
+			@Override
+			public void maxUpdate(Long maxValue) {
+				// Not counted
+			}
+		});
+		return updates;
+	}
+
+	@Test
+	public void testInputStreamOnFile() throws IOException {
+		Path path = createFile(100000);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		AtomicInteger updates = countUpdates(progress);
+		try (InputStream stream = ProgressIO.newInputStream(path, progress)) {
+			assertEquals((Long) 100000L, progress.getMaxValue());
+			byte[] buffer = new byte[10000];
+			while (stream.read(buffer) >= 0) {
+				// Consume
+			}
+		}
+		assertTrue(progress.isFinished());
+		assertEquals(10, updates.get());
+	}
+
+	@Test
+	public void testInputStreamSingleBytesAndSkip() throws IOException {
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		InputStream stream = ProgressIO.track(new ByteArrayInputStream(
+				new byte[10]), progress);
+		assertNull(progress.getMaxValue());
+		stream.read();
+		assertEquals((Long) 1L, progress.getCurrentValue());
+		stream.skip(4);
+		assertEquals((Long) 5L, progress.getCurrentValue());
+		assertFalse(stream.markSupported());
+		while (stream.read() >= 0) {
+			// Consume
+		}
+		assertEquals((Long) 10L, progress.getCurrentValue());
+	}
+
+	@Test
+	public void testInputStreamsOnSharedProgress() throws IOException {
+		Path path1 = createFile(100);
+		Path path2 = createFile(100);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		try (InputStream stream1 = ProgressIO.newInputStream(path1, progress);
+				InputStream stream2 = ProgressIO.newInputStream(path2,
+						progress)) {
+			assertEquals((Long) 200L, progress.getMaxValue());
+			while (stream1.read() >= 0) {
+				// Consume
+			}
+			while (stream2.read() >= 0) {
+				// Consume
+			}
+		}
+		assertEquals((Long) 200L, progress.getCurrentValue());
+		assertTrue(progress.isFinished());
+	}
+
+	@Test
+	public void testInputStreamOnGrowingFile() throws IOException {
+		Path path = createFile(100);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		try (InputStream stream = ProgressIO.newInputStream(path, progress)) {
+			Files.write(path, new byte[50], StandardOpenOption.APPEND);
+			while (stream.read() >= 0) {
+				// Consume
+			}
+		}
+		assertEquals((Long) 150L, progress.getCurrentValue());
+		assertEquals((Long) 150L, progress.getMaxValue());
+	}
+
+	@Test
+	public void testReadableChannelOnFile() throws IOException {
+		Path path = createFile(5000);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		try (ReadableByteChannel channel = ProgressIO.newReadableChannel(path,
+				progress)) {
+			assertEquals((Long) 5000L, progress.getMaxValue());
+			ByteBuffer buffer = ByteBuffer.allocate(1000);
+			while (channel.read(buffer) >= 0) {
+				buffer.clear();
+			}
+		}
+		assertTrue(progress.isFinished());
+	}
+
+	@Test
+	public void testWritableChannel() throws IOException {
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		WritableByteChannel channel = ProgressIO.trackWrites(
+				Channels.newChannel(output), progress);
+		channel.write(ByteBuffer.wrap(new byte[300]));
+		channel.write(ByteBuffer.wrap(new byte[200]));
+		assertEquals((Long) 500L, progress.getCurrentValue());
+		assertNull(progress.getMaxValue());
+		assertEquals(500, output.size());
+	}
+
+	@Test
+	public void testTransferToByChunks() throws IOException {
+		Path source = createFile(100000);
+		Path target = createFile(0);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		AtomicInteger updates = countUpdates(progress);
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(target,
+						StandardOpenOption.WRITE)) {
+			in.position(20000);
+			long transferred = ProgressIO.transferTo(in, out, progress, 16384);
+			assertEquals(80000, transferred);
+			assertEquals(100000, in.position());
+		}
+		assertEquals((Long) 80000L, progress.getMaxValue());
+		assertTrue(progress.isFinished());
+		assertTrue(updates.get() >= 5);
+		byte[] expected = Files.readAllBytes(source);
+		assertArrayEquals(Arrays.copyOfRange(expected, 20000, 100000),
+				Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testTransferToStopsWhenTargetNotReady() throws IOException {
+		Path source = createFile(1000);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		WritableByteChannel target = new WritableByteChannel() {
+			private boolean ready = false;
+
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				ready = !ready;
+				if (ready) {
+					int count = Math.min(100, src.remaining());
+					byte[] bytes = new byte[count];
+					src.get(bytes);
+					output.write(bytes);
+					return count;
+				} else {
+					return 0;
+				}
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+				// Nothing to close
+			}
+		};
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+			long transferred = ProgressIO.transferTo(in, target, progress);
+			assertTrue(transferred < 1000);
+			assertEquals(transferred, in.position());
+			assertEquals((Long) transferred, progress.getCurrentValue());
+			assertEquals((Long) transferred, progress.getMaxValue());
+
+			int calls = 1;
+			while (in.position() < in.size()) {
+				transferred += ProgressIO.transferTo(in, target, progress);
+				calls++;
+				assertTrue(calls <= 1000);
+			}
+			assertEquals(1000, transferred);
+		}
+		assertEquals((Long) 1000L, progress.getMaxValue());
+		assertTrue(progress.isFinished());
+		assertArrayEquals(Files.readAllBytes(source), output.toByteArray());
+	}
+}
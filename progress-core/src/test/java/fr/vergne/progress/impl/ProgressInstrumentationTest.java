@@ -0,0 +1,392 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntBinaryOperator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+import fr.vergne.progress.impl.ProgressInstrumentation.Statistics;
+
+public class ProgressInstrumentationTest {
+
+	private static class SlowListener implements ProgressListener<Number> {
+		private final long sleep;
+
+		public SlowListener(long sleep) {
+			this.sleep = sleep;
+		}
+
+		@Override
+		public void currentUpdate(Number value) {
+			try {
+				Thread.sleep(sleep);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void maxUpdate(Number maxValue) {
+			currentUpdate(maxValue);
+		}
+	}
+
+	private static class RecordingListener extends SlowListener {
+		private final BlockingQueue<Number> values = new LinkedBlockingQueue<>();
+
+		public RecordingListener(long sleep) {
+			super(sleep);
+		}
+
+		@Override
+		public void currentUpdate(Number value) {
+			super.currentUpdate(value);
+			values.add(value);
+		}
+	}
+
+	@After
+	public void disable() {
+		ProgressInstrumentation.setEnabled(false);
+		ProgressInstrumentation.setListenerBudget(0);
+	}
+
+	@Test
+	public void testDisabledByDefault() {
+		assertFalse(ProgressInstrumentation.isEnabled());
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		progress.setCurrentValue(5);
+		assertNull(ProgressInstrumentation.getStatistics(progress));
+	}
+
+	@Test
+	public void testManualProgressUpdatesCounted() {
+		ProgressInstrumentation.setEnabled(true);
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		progress.addProgressListener(new SlowListener(0));
+		progress.addProgressListener(new SlowListener(20));
+		progress.setCurrentValue(1);
+		progress.setCurrentValue(2);
+		progress.setMaxValue(20);
+
+		Statistics statistics = ProgressInstrumentation
+				.getStatistics(progress);
+		// 2 updates at creation, without listeners
+		assertEquals(5, statistics.getUpdateCount());
+		assertEquals(6, statistics.getNotificationCount());
+		assertEquals(6.0 / 5, statistics.getMeanFanOut(), 1e-10);
+		assertTrue(statistics.getMaxListenerTime() >= 20000000);
+		assertTrue(statistics.getListenerTime() >= 3 * 20000000);
+		assertTrue(statistics.getUpdateRate() > 0);
+		assertEquals(0, statistics.getRecomputationCount());
+	}
+
+	@Test
+	public void testNothingCountedWhenDisabled() {
+		ProgressInstrumentation.setEnabled(true);
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		ProgressInstrumentation.setEnabled(false);
+		progress.setCurrentValue(5);
+
+		Statistics statistics = ProgressInstrumentation
+				.getStatistics(progress);
+		assertEquals(2, statistics.getUpdateCount());
+	}
+
+	@Test
+	public void testInstrumentedOnceEnabledAfterCreation() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		progress.setCurrentValue(1);
+		assertNull(ProgressInstrumentation.getStatistics(progress));
+
+		ProgressInstrumentation.setEnabled(true);
+		progress.setCurrentValue(2);
+		assertEquals(1, ProgressInstrumentation.getStatistics(progress)
+				.getUpdateCount());
+	}
+
+	@Test
+	public void testDynamicGlobalProgressIsolatesOnceEnabled()
+			throws InterruptedException {
+		WeightedProgress progress = new WeightedProgress();
+		ManualProgress<Integer> sub = new ManualProgress<Integer>(0, 10);
+		progress.add(sub, 1);
+		RecordingListener slow = new RecordingListener(50);
+		progress.addProgressListener(slow);
+		sub.setCurrentValue(1);
+		assertNull(ProgressInstrumentation.getStatistics(progress));
+		slow.values.clear();
+
+		ProgressInstrumentation.setEnabled(true);
+		ProgressInstrumentation.setListenerBudget(TimeUnit.MILLISECONDS
+				.toNanos(10));
+		sub.setCurrentValue(2);
+		assertEquals(1, ProgressInstrumentation.getStatistics(progress)
+				.getIsolatedListenerCount());
+		assertEquals(0.2, slow.values.poll());
+
+		ProgressInstrumentation.setEnabled(false);
+		sub.setCurrentValue(3);
+		assertEquals(0.3, slow.values.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRecursiveProgressRecomputationsCounted() throws Exception {
+		ProgressInstrumentation.setEnabled(true);
+		RecursiveProgress progress = new RecursiveProgress();
+		ManualProgress<Integer> sub = new ManualProgress<Integer>(0, 10);
+		progress.registerSubProgress(sub);
+		progress.addProgressListener(new SlowListener(0));
+		long before = ProgressInstrumentation.getStatistics(progress)
+				.getRecomputationCount();
+		sub.setCurrentValue(3);
+		progress.getCurrentValue();
+
+		Statistics statistics = ProgressInstrumentation
+				.getStatistics(progress);
+		assertEquals(before + 2, statistics.getRecomputationCount());
+		assertEquals(1, statistics.getNotificationCount());
+	}
+
+	@Test
+	public void testGlobalProgressesInstrumented() {
+		ProgressInstrumentation.setEnabled(true);
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(0, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(0, 10);
+		ProgressFactory factory = new ProgressFactory();
+		Progress<Integer> additive = factory
+				.createGlobalAdditiveProgress(Arrays.asList(p1, p2));
+		Progress<Double> counting = factory.createGlobalCountingProgress(Arrays
+				.asList(p1, p2));
+		additive.addProgressListener(new SlowListener(0));
+		p1.setCurrentValue(5);
+		p2.setMaxValue(20);
+
+		Statistics additiveStatistics = ProgressInstrumentation
+				.getStatistics(additive);
+		assertEquals(2, additiveStatistics.getRecomputationCount());
+		assertEquals(2, additiveStatistics.getUpdateCount());
+		assertEquals(2, additiveStatistics.getNotificationCount());
+		Statistics countingStatistics = ProgressInstrumentation
+				.getStatistics(counting);
+		assertEquals(2, countingStatistics.getRecomputationCount());
+		assertEquals(0, countingStatistics.getNotificationCount());
+	}
+
+	@Test
+	public void testSlowListenerIsolated() throws InterruptedException {
+		ProgressInstrumentation.setEnabled(true);
+		ProgressInstrumentation.setListenerBudget(TimeUnit.MILLISECONDS
+				.toNanos(10));
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingListener fast = new RecordingListener(0);
+		RecordingListener slow = new RecordingListener(50);
+		progress.addProgressListener(fast);
+		progress.addProgressListener(slow);
+
+		progress.setCurrentValue(1);
+		assertEquals(1, fast.values.poll());
+		assertEquals(1, slow.values.poll());
+		assertEquals(1, ProgressInstrumentation.getStatistics(progress)
+				.getIsolatedListenerCount());
+
+		long start = System.nanoTime();
+		progress.setCurrentValue(2);
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS
+				.toNanos(50));
+		assertEquals(2, fast.values.poll());
+		assertEquals(2, slow.values.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testIsolatedListenerReceivesLastValue()
+			throws InterruptedException {
+		ProgressInstrumentation.setEnabled(true);
+		ProgressInstrumentation.setListenerBudget(TimeUnit.MILLISECONDS
+				.toNanos(10));
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingListener slow = new RecordingListener(50);
+		progress.addProgressListener(slow);
+		progress.setCurrentValue(1);
+		slow.values.clear();
+
+		ProgressInstrumentation.setEnabled(false);
+		for (int i = 2; i <= 10; i++) {
+			progress.setCurrentValue(i);
+		}
+
+		Number last = null;
+		while (last == null || last.intValue() < 10) {
+			last = slow.values.poll(1, TimeUnit.SECONDS);
+			assertNotNull(last);
+		}
+		assertTrue(slow.values.isEmpty());
+	}
+
+	@Test
+	public void testBlockedIsolatedListenerDoesNotStarveOthers()
+			throws InterruptedException {
+		ProgressInstrumentation.setEnabled(true);
+		ProgressInstrumentation.setListenerBudget(TimeUnit.MILLISECONDS
+				.toNanos(10));
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		RecordingListener blocking = new RecordingListener(20) {
+
+			@Override
+			public void currentUpdate(Number value) {
+				if (value.intValue() == 2) {
+					blocked.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				} else {
+					// Do not block
+				}
+				super.currentUpdate(value);
+			}
+		};
+		RecordingListener slow = new RecordingListener(20);
+		progress.addProgressListener(blocking);
+		progress.addProgressListener(slow);
+		progress.setCurrentValue(1);
+		assertEquals(2, ProgressInstrumentation.getStatistics(progress)
+				.getIsolatedListenerCount());
+		slow.values.clear();
+
+		try {
+			progress.setCurrentValue(2);
+			assertTrue(blocked.await(1, TimeUnit.SECONDS));
+			assertEquals(2, slow.values.poll(1, TimeUnit.SECONDS));
+			progress.setCurrentValue(3);
+			assertEquals(3, slow.values.poll(1, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	private static int countDispatcherThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("Progress listeners dispatcher")) {
+				count++;
+			} else {
+				// Other thread
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testBlockedIsolatedListenerNotifiedSerially()
+			throws InterruptedException {
+		ProgressInstrumentation.setEnabled(true);
+		ProgressInstrumentation.setListenerBudget(TimeUnit.MILLISECONDS
+				.toNanos(10));
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+				1000);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final AtomicInteger running = new AtomicInteger(0);
+		final AtomicInteger maxRunning = new AtomicInteger(0);
+		RecordingListener blocking = new RecordingListener(20) {
+
+			@Override
+			public void currentUpdate(Number value) {
+				int count = running.incrementAndGet();
+				maxRunning.accumulateAndGet(count, new IntBinaryOperator() {
+
+					@Override
+					public int applyAsInt(int left, int right) {
+						return Math.max(left, right);
+					}
+				});
+				try {
+					if (value.intValue() == 2) {
+						blocked.countDown();
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					} else {
+						// Do not block
+					}
+					super.currentUpdate(value);
+				} finally {
+					running.decrementAndGet();
+				}
+			}
+		};
+		progress.addProgressListener(blocking);
+		progress.setCurrentValue(1);
+		assertEquals(1, ProgressInstrumentation.getStatistics(progress)
+				.getIsolatedListenerCount());
+		blocking.values.clear();
+
+		int threads;
+		try {
+			progress.setCurrentValue(2);
+			assertTrue(blocked.await(1, TimeUnit.SECONDS));
+			int threadsBefore = countDispatcherThreads();
+			for (int value = 3; value <= 200; value++) {
+				progress.setCurrentValue(value);
+			}
+			threads = countDispatcherThreads() - threadsBefore;
+		} finally {
+			release.countDown();
+		}
+
+		Number last = null;
+		while (last == null || last.intValue() < 200) {
+			last = blocking.values.poll(1, TimeUnit.SECONDS);
+			assertNotNull(last);
+		}
+		assertEquals(1, maxRunning.get());
+		assertTrue("Threads created: " + threads, threads <= 0);
+	}
+
+	@Test
+	public void testRemovedIsolatedListenerNotNotified()
+			throws InterruptedException {
+		ProgressInstrumentation.setEnabled(true);
+		ProgressInstrumentation.setListenerBudget(TimeUnit.MILLISECONDS
+				.toNanos(10));
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingListener slow = new RecordingListener(20);
+		progress.addProgressListener(slow);
+		progress.setCurrentValue(1);
+		slow.values.clear();
+
+		progress.removeProgressListener(slow);
+		progress.setCurrentValue(2);
+		assertNull(slow.values.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testNoIsolationWithoutBudget() {
+		ProgressInstrumentation.setEnabled(true);
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingListener slow = new RecordingListener(20);
+		progress.addProgressListener(slow);
+		progress.setCurrentValue(1);
+		progress.setCurrentValue(2);
+
+		assertEquals(Arrays.asList(1, 2), Arrays.asList(slow.values.toArray()));
+		assertEquals(0, ProgressInstrumentation.getStatistics(progress)
+				.getIsolatedListenerCount());
+	}
+}
@@ -0,0 +1,87 @@
+package fr.vergne.progress.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measure the cost added by a {@link ProgressJournal} to each update of a
+ * {@link ManualProgress}, which should stay well under 50ns. It is not run
+ * with the tests, because it takes several seconds and its results depend
+ * on the machine: run its {@link #main(String[])} to get them.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressJournalBenchmark {
+
+	private static final int UPDATES = 5000000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length == 0 ? 4 : Integer.parseInt(args[0]);
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			double without = Double.MAX_VALUE;
+			double with = Double.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				without = Math.min(without, measure(threads, false));
+				with = Math.min(with, measure(threads, true));
+			}
+			System.out.println(String.format(
+					"%d thread(s): %.1fns per update without journal, "
+							+ "%.1fns with journal, so %.1fns per event",
+					threads, without, with, with - without));
+		}
+	}
+
+	/**
+	 *
+	 * @return the processor time of an update, in nanoseconds, such that the
+	 *         threads sharing a processor do not count each other
+	 */
+	private static double measure(int threads, boolean journaled)
+			throws IOException, InterruptedException {
+		File file = File.createTempFile("progress", ".journal");
+		file.deleteOnExit();
+		Path path = file.toPath();
+		try (ProgressJournal journal = new ProgressJournal(path)) {
+			final CountDownLatch start = new CountDownLatch(1);
+			final CountDownLatch end = new CountDownLatch(threads);
+			for (int thread = 0; thread < threads; thread++) {
+				final ManualProgress<Integer> progress = new ManualProgress<Integer>(
+						0, UPDATES);
+				if (journaled) {
+					journal.track("task " + thread, progress);
+				} else {
+					// Not recorded
+				}
+				new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+						for (int i = 1; i <= UPDATES; i++) {
+							progress.setCurrentValue(i);
+						}
+						end.countDown();
+					}
+				}).start();
+			}
+			long begin = System.nanoTime();
+			start.countDown();
+			end.await();
+			long time = System.nanoTime() - begin;
+
+			int processors = Math.min(threads, Runtime.getRuntime()
+					.availableProcessors());
+			return (double) time * processors / threads / UPDATES;
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ProgressJournalTest {
+
+	private Path createTempPath() throws IOException {
+		File file = File.createTempFile("progress", ".journal");
+		file.deleteOnExit();
+		return file.toPath();
+	}
+
+	@Test
+	public void testEventsReadInOrder() throws IOException {
+		Path path = createTempPath();
+		long before = System.currentTimeMillis();
+		try (ProgressJournal journal = new ProgressJournal(path)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					null);
+			assertEquals(0, journal.track("task", progress));
+			progress.setMaxValue(10);
+			progress.setCurrentValue(4);
+		}
+
+		try (ProgressJournal.Reader reader = new ProgressJournal.Reader(path)) {
+			assertTrue(reader.getStartTime() >= before);
+
+			assertTrue(reader.next());
+			assertEquals("task", reader.getProgressName());
+			assertFalse(reader.isMaxUpdate());
+			assertEquals(0L, reader.getValue());
+
+			assertTrue(reader.next());
+			assertTrue(reader.isMaxUpdate());
+			assertNull(reader.getValue());
+
+			assertTrue(reader.next());
+			assertTrue(reader.isMaxUpdate());
+			assertEquals(10L, reader.getValue());
+
+			long timestamp = reader.getTimestamp();
+			assertTrue(reader.next());
+			assertFalse(reader.isMaxUpdate());
+			assertEquals(4L, reader.getValue());
+			assertTrue(reader.getTimestamp() >= timestamp);
+
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void testDecimalValuesStoredAsDoubles() throws IOException {
+		Path path = createTempPath();
+		try (ProgressJournal journal = new ProgressJournal(path)) {
+			ManualProgress<Double> progress = new ManualProgress<Double>(0.5,
+					2.5);
+			journal.track("task", progress);
+		}
+
+		try (ProgressJournal.Reader reader = new ProgressJournal.Reader(path)) {
+			assertTrue(reader.next());
+			assertEquals(0.5, reader.getValue());
+			assertTrue(reader.next());
+			assertEquals(2.5, reader.getValue());
+		}
+	}
+
+	@Test
+	public void testSeveralProgressesDistinguished() throws IOException {
+		Path path = createTempPath();
+		try (ProgressJournal journal = new ProgressJournal(path)) {
+			ManualProgress<Long> p1 = new ManualProgress<Long>(0L, 5L);
+			ManualProgress<Long> p2 = new ManualProgress<Long>(0L, 5L);
+			int id1 = journal.track("first", p1);
+			int id2 = journal.track("second", p2);
+			assertNotEquals(id1, id2);
+			p2.setCurrentValue(3L);
+			p1.setCurrentValue(1L);
+		}
+
+		try (ProgressJournal.Reader reader = new ProgressJournal.Reader(path)) {
+			for (int i = 0; i < 4; i++) {
+				assertTrue(reader.next());
+			}
+			assertTrue(reader.next());
+			assertEquals("second", reader.getProgressName());
+			assertEquals(3L, reader.getValue());
+			assertTrue(reader.next());
+			assertEquals("first", reader.getProgressName());
+			assertEquals(1L, reader.getValue());
+			assertEquals(2, reader.getProgressNames().size());
+		}
+	}
+
+	@Test
+	public void testManyEventsThroughSmallBuffersStayCompact()
+			throws IOException {
+		Path path = createTempPath();
+		int count = 1000000;
+		try (ProgressJournal journal = new ProgressJournal(path, 4096, 1000)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					count);
+			journal.track("task", progress);
+			for (int i = 1; i <= count; i++) {
+				progress.setCurrentValue(i);
+			}
+		}
+		assertTrue(Files.size(path) < 8L * count);
+
+		try (ProgressJournal.Reader reader = new ProgressJournal.Reader(path)) {
+			reader.next();
+			reader.next();
+			for (int i = 1; i <= count; i++) {
+				assertTrue(reader.next());
+				assertEquals((long) i, reader.getValue());
+			}
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void testEventsWrittenPeriodicallyBeforeClose() throws IOException,
+			InterruptedException {
+		Path path = createTempPath();
+		try (ProgressJournal journal = new ProgressJournal(path, 1 << 16, 10)) {
+			journal.track("task", new ManualProgress<Integer>(0, 10));
+			Thread.sleep(200);
+
+			try (ProgressJournal.Reader reader = new ProgressJournal.Reader(
+					path)) {
+				assertTrue(reader.next());
+				assertTrue(reader.next());
+			}
+		}
+	}
+
+	@Test
+	public void testUpdatesAfterCloseIgnored() throws IOException {
+		Path path = createTempPath();
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		try (ProgressJournal journal = new ProgressJournal(path)) {
+			journal.track("task", progress);
+		}
+		long size = Files.size(path);
+		progress.setCurrentValue(5);
+		assertEquals(size, Files.size(path));
+	}
+
+	@Test
+	public void testIncompleteEventIgnored() throws IOException {
+		Path path = createTempPath();
+		try (ProgressJournal journal = new ProgressJournal(path)) {
+			ManualProgress<Double> progress = new ManualProgress<Double>(0.0,
+					10.0);
+			journal.track("task", progress);
+			progress.setCurrentValue(1.0);
+		}
+		try (FileChannel channel = FileChannel.open(path,
+				StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size() - 3);
+		}
+
+		try (ProgressJournal.Reader reader = new ProgressJournal.Reader(path)) {
+			assertTrue(reader.next());
+			assertTrue(reader.next());
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooLongNameRejected() throws IOException {
+		char[] name = new char[5000];
+		Arrays.fill(name, 'a');
+		try (ProgressJournal journal = new ProgressJournal(createTempPath())) {
+			journal.track(new String(name), new ManualProgress<Integer>(0, 10));
+		}
+	}
+
+	@Test(timeout = 5000)
+	public void testTooLongDefinitionFailsReading() throws IOException {
+		Path path = createTempPath();
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 18);
+		buffer.putInt(0x50524a4e);
+		buffer.putInt(2);
+		buffer.putLong(System.currentTimeMillis());
+		buffer.putLong(0);
+		int length = 100000;
+		buffer.put((byte) 0); // Lane of the definitions
+		buffer.put(new byte[] { (byte) 0xA6, (byte) 0x8D, 0x06 }); // 100006
+		buffer.put((byte) 0); // Definition
+		buffer.put((byte) 0); // Identifier
+		buffer.put(new byte[] { (byte) 0xA0, (byte) 0x8D, 0x06 }); // 100000
+		buffer.put(new byte[length]);
+		Files.write(path, Arrays.copyOf(buffer.array(), buffer.position()));
+
+		try (ProgressJournal.Reader reader = new ProgressJournal.Reader(path)) {
+			reader.next();
+			fail("No exception thrown");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testEventsOfSeveralThreadsRead() throws IOException,
+			InterruptedException {
+		Path path = createTempPath();
+		final int threads = 4;
+		final int count = 100000;
+		try (ProgressJournal journal = new ProgressJournal(path, 1024, 1000)) {
+			Thread[] updaters = new Thread[threads];
+			for (int thread = 0; thread < threads; thread++) {
+				final ManualProgress<Integer> progress = new ManualProgress<Integer>(
+						0, count);
+				journal.track("task " + thread, progress);
+				updaters[thread] = new Thread(new Runnable() {
+
+					@Override
+					public void run() {
+						for (int i = 1; i <= count; i++) {
+							progress.setCurrentValue(i);
+						}
+					}
+				});
+				updaters[thread].start();
+			}
+			for (Thread updater : updaters) {
+				updater.join();
+			}
+		}
+
+		Map<String, Long> lastValues = new HashMap<>();
+		Map<String, Long> lastTimestamps = new HashMap<>();
+		try (ProgressJournal.Reader reader = new ProgressJournal.Reader(path)) {
+			while (reader.next()) {
+				if (reader.isMaxUpdate()) {
+					// Only the initial max value
+				} else {
+					String name = reader.getProgressName();
+					Long last = lastValues.get(name);
+					long expected = last == null ? 0 : last + 1;
+					assertEquals(expected, reader.getValue());
+					lastValues.put(name, expected);
+					Long timestamp = lastTimestamps.get(name);
+					assertTrue(timestamp == null
+							|| reader.getTimestamp() >= timestamp);
+					lastTimestamps.put(name, reader.getTimestamp());
+				}
+			}
+		}
+		assertEquals(threads, lastValues.size());
+		for (Long last : lastValues.values()) {
+			assertEquals(count, (long) last);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress;
+
+public class ProgressMBeanExporterTest {
+
+	private final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+	private static class FailingProgress implements Progress<Integer> {
+		private volatile boolean failing = false;
+		private volatile Integer current;
+
+		public FailingProgress(Integer current) {
+			this.current = current;
+		}
+
+		@Override
+		public Integer getCurrentValue() {
+			if (failing) {
+				throw new IllegalStateException("Failing progress");
+			} else {
+				return current;
+			}
+		}
+
+		@Override
+		public Integer getMaxValue() {
+			return 10;
+		}
+
+		@Override
+		public void addProgressListener(
+				ProgressListener<? super Integer> listener) {
+			// Not notified
+		}
+
+		@Override
+		public void removeProgressListener(
+				ProgressListener<? super Integer> listener) {
+			// Not notified
+		}
+	}
+
+	@Test
+	public void testAttributesReadFromMBeanServer() throws JMException {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				0)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(5,
+					20);
+			ObjectName name = exporter.register("group", "task", progress);
+
+			assertEquals(ProgressMBeanExporter.DOMAIN, name.getDomain());
+			assertEquals("\"task\"", name.getKeyProperty("name"));
+			assertEquals("\"group\"", name.getKeyProperty("group"));
+			assertEquals("task", server.getAttribute(name, "Name"));
+			assertEquals(5.0, server.getAttribute(name, "CurrentValue"));
+			assertEquals(20.0, server.getAttribute(name, "MaxValue"));
+			assertEquals(0.25, server.getAttribute(name, "NormalizedValue"));
+			assertEquals(false, server.getAttribute(name, "Finished"));
+			assertEquals(-1L,
+					server.getAttribute(name, "EstimatedTerminationTime"));
+		}
+	}
+
+	@Test
+	public void testAttributesCachedUntilRefresh() throws JMException {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				0)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					null);
+			ObjectName name = exporter.register("task", progress);
+			assertNull(server.getAttribute(name, "MaxValue"));
+			assertNull(server.getAttribute(name, "NormalizedValue"));
+
+			progress.setMaxValue(10);
+			progress.setCurrentValue(10);
+			assertNull(server.getAttribute(name, "MaxValue"));
+			assertEquals(0.0, server.getAttribute(name, "CurrentValue"));
+
+			exporter.refresh();
+			assertEquals(10.0, server.getAttribute(name, "CurrentValue"));
+			assertEquals(true, server.getAttribute(name, "Finished"));
+		}
+	}
+
+	@Test
+	public void testRateAndTerminationEstimated() throws Exception {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				0)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					1000);
+			ObjectName name = exporter.register("task", progress);
+			Thread.sleep(50);
+			progress.setCurrentValue(100);
+			exporter.refresh();
+
+			double rate = (Double) server.getAttribute(name, "UpdateRate");
+			assertTrue(rate > 0);
+			long snapshotTime = (Long) server.getAttribute(name,
+					"SnapshotTime");
+			long eta = (Long) server.getAttribute(name,
+					"EstimatedTerminationTime");
+			assertEquals(snapshotTime + (long) (900 * 1000 / rate), eta);
+		}
+	}
+
+	@Test
+	public void testFailingProgressKeepsLastState() throws JMException {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				0)) {
+			FailingProgress failingProgress = new FailingProgress(3);
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					10);
+			ObjectName failingName = exporter.register("failing",
+					failingProgress);
+			ObjectName name = exporter.register("task", progress);
+
+			failingProgress.failing = true;
+			failingProgress.current = 5;
+			progress.setCurrentValue(5);
+			exporter.refresh();
+			assertEquals(3.0, server.getAttribute(failingName, "CurrentValue"));
+			assertEquals(5.0, server.getAttribute(name, "CurrentValue"));
+
+			failingProgress.failing = false;
+			exporter.refresh();
+			assertEquals(5.0, server.getAttribute(failingName, "CurrentValue"));
+		}
+	}
+
+	@Test
+	public void testPeriodicRefreshSurvivesFailingProgress() throws Exception {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				10)) {
+			FailingProgress failingProgress = new FailingProgress(0);
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					10);
+			exporter.register("failing", failingProgress);
+			ObjectName name = exporter.register("task", progress);
+
+			failingProgress.failing = true;
+			Thread.sleep(50);
+			progress.setCurrentValue(7);
+			long limit = System.currentTimeMillis() + 5000;
+			while (!Double.valueOf(7).equals(
+					server.getAttribute(name, "CurrentValue"))
+					&& System.currentTimeMillis() < limit) {
+				Thread.sleep(10);
+			}
+			assertEquals(7.0, server.getAttribute(name, "CurrentValue"));
+		}
+	}
+
+	@Test
+	public void testRecursiveProgressExported() throws Exception {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				0)) {
+			RecursiveProgress progress = new RecursiveProgress();
+			ManualProgress<Integer> sub = new ManualProgress<Integer>(0, 4);
+			progress.registerSubProgress(sub);
+			progress.setMaxSubProgresses(2);
+			sub.setCurrentValue(2);
+			ObjectName name = exporter.register("recursive", progress);
+
+			assertEquals(0.5, server.getAttribute(name, "CurrentValue"));
+			assertEquals(2.0, server.getAttribute(name, "MaxValue"));
+		}
+	}
+
+	@Test
+	public void testPeriodicRefresh() throws Exception {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				10)) {
+			ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+					10);
+			ObjectName name = exporter.register("task", progress);
+			progress.setCurrentValue(7);
+			long limit = System.currentTimeMillis() + 5000;
+			while (!Double.valueOf(7).equals(
+					server.getAttribute(name, "CurrentValue"))
+					&& System.currentTimeMillis() < limit) {
+				Thread.sleep(10);
+			}
+			assertEquals(7.0, server.getAttribute(name, "CurrentValue"));
+		}
+	}
+
+	@Test
+	public void testCloseUnregisters() throws JMException {
+		ObjectName name;
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				0)) {
+			name = exporter.register("task", new ManualProgress<Integer>(0, 1));
+			assertTrue(server.isRegistered(name));
+		}
+		assertFalse(server.isRegistered(name));
+	}
+
+	@Test(expected = InstanceAlreadyExistsException.class)
+	public void testSameNameRejected() throws JMException {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter(server,
+				0)) {
+			exporter.register("task", new ManualProgress<Integer>(0, 1));
+			exporter.register("task", new ManualProgress<Integer>(0, 1));
+		}
+	}
+
+	@Test
+	public void testPlatformServerByDefault() throws JMException {
+		try (ProgressMBeanExporter exporter = new ProgressMBeanExporter()) {
+			ObjectName name = exporter.register("platform test",
+					new ManualProgress<Integer>(0, 1));
+			assertTrue(ManagementFactory.getPlatformMBeanServer()
+					.isRegistered(name));
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+public class ProgressRegistryTest {
+
+	@Test
+	public void testRegisteredProgressesCorrectlyInitialized() {
+		ProgressRegistry registry = new ProgressRegistry(0);
+		int h1 = registry.register(5, 10);
+		int h2 = registry.register(0, ProgressRegistry.UNKNOWN_MAX);
+		int h3 = registry.registerAll(100, 3, 3);
+
+		assertEquals(102, registry.size());
+		assertEquals(5, registry.getCurrentValue(h1));
+		assertEquals(10, registry.getMaxValue(h1));
+		assertEquals(0, registry.getCurrentValue(h2));
+		assertEquals(ProgressRegistry.UNKNOWN_MAX, registry.getMaxValue(h2));
+		for (int h = h3; h < h3 + 100; h++) {
+			assertEquals(3, registry.getCurrentValue(h));
+			assertTrue(registry.isFinished(h));
+		}
+	}
+
+	@Test
+	public void testTotalsCorrectlyMaintained() {
+		ProgressRegistry registry = new ProgressRegistry();
+		int h1 = registry.register(0, 10);
+		int h2 = registry.register(0, 20);
+		assertEquals(0, registry.getTotalCurrentValue());
+		assertEquals(30, registry.getTotalMaxValue());
+		assertEquals(0, registry.getFinishedCount());
+
+		registry.add(h1, 4);
+		registry.setCurrentValue(h2, 20);
+		assertEquals(24, registry.getTotalCurrentValue());
+		assertEquals(1, registry.getFinishedCount());
+
+		registry.setMaxValue(h1, 4);
+		assertEquals(24, registry.getTotalMaxValue());
+		assertEquals(2, registry.getFinishedCount());
+
+		int h3 = registry.register(1, ProgressRegistry.UNKNOWN_MAX);
+		assertEquals(ProgressRegistry.UNKNOWN_MAX, registry.getTotalMaxValue());
+		registry.finish(h3);
+		assertEquals(25, registry.getTotalMaxValue());
+		assertEquals(3, registry.getFinishedCount());
+		assertEquals(25, registry.sumCurrentValues(0, registry.size()));
+		assertEquals(21, registry.sumCurrentValues(h2, h3 + 1));
+	}
+
+	@Test
+	public void testBulkUpdatesAndReads() {
+		ProgressRegistry registry = new ProgressRegistry();
+		int first = registry.registerAll(5, 0, 10);
+
+		registry.setCurrentValues(first, new long[] { -1, 1, 2, 3, 4, 5 }, 1,
+				5);
+		registry.addAll(new int[] { first, first + 4, first }, new long[] {
+				1, 1, 1 }, 3);
+
+		long[] values = new long[5];
+		registry.getCurrentValues(first, values, 0, 5);
+		assertArrayEquals(new long[] { 3, 2, 3, 4, 6 }, values);
+		long[] maxValues = new long[5];
+		registry.getMaxValues(first, maxValues, 0, 5);
+		assertArrayEquals(new long[] { 10, 10, 10, 10, 10 }, maxValues);
+		assertEquals(18, registry.getTotalCurrentValue());
+	}
+
+	@Test
+	public void testInvalidBulkUpdateAppliesNothing() {
+		ProgressRegistry registry = new ProgressRegistry();
+		int first = registry.registerAll(3, 0, 10);
+
+		try {
+			registry.setCurrentValues(first, new long[] { 1, 11, 1 }, 0, 3);
+			fail("No exception thrown");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals(0, registry.getTotalCurrentValue());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCurrentValueCannotExceedMax() {
+		ProgressRegistry registry = new ProgressRegistry();
+		int handle = registry.register(0, 10);
+		registry.add(handle, 11);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testUnknownHandleRejected() {
+		ProgressRegistry registry = new ProgressRegistry(10);
+		registry.getCurrentValue(0);
+	}
+
+	@Test
+	public void testProgressViewReflectsAndNotifiesUpdates() {
+		ProgressRegistry registry = new ProgressRegistry();
+		int handle = registry.register(0, ProgressRegistry.UNKNOWN_MAX);
+		Progress<Long> progress = registry.getProgress(handle);
+		final List<Long> currentValues = new ArrayList<Long>();
+		final List<Long> maxValues = new ArrayList<Long>();
+		ProgressListener<Long> listener = new ProgressListener<Long>() {
+
+			@Override
+			public void currentUpdate(Long value) {
+				currentValues.add(value);
+			}
+
+			@Override
+			public void maxUpdate(Long maxValue) {
+				maxValues.add(maxValue);
+			}
+		};
+		progress.addProgressListener(listener);
+
+		assertEquals((Long) 0L, progress.getCurrentValue());
+		assertNull(progress.getMaxValue());
+
+		registry.add(handle, 3);
+		registry.setMaxValue(handle, 5);
+		registry.getProgress(handle).removeProgressListener(listener);
+		registry.finish(handle);
+
+		assertEquals((Long) 5L, progress.getCurrentValue());
+		assertEquals((Long) 5L, progress.getMaxValue());
+		assertTrue(progress.isFinished());
+		assertEquals("[3]", currentValues.toString());
+		assertEquals("[5]", maxValues.toString());
+	}
+
+	@Test
+	public void testGlobalProgressSumsAllProgresses() {
+		ProgressRegistry registry = new ProgressRegistry();
+		Progress<Long> global = registry.getGlobalProgress();
+		final List<Long> currentValues = new ArrayList<Long>();
+		global.addProgressListener(new ProgressListener<Long>() {
+
+			@Override
+			public void currentUpdate(Long value) {
+				currentValues.add(value);
+			}
+
+			@Override
+			public void maxUpdate(Long maxValue) {
+				// Ignored
+			}
+		});
+
+		int first = registry.registerAll(1000, 0, 2);
+		registry.addAll(new int[] { first, first + 1 }, new long[] { 1, 2 },
+				2);
+
+		assertEquals((Long) 3L, global.getCurrentValue());
+		assertEquals((Long) 2000L, global.getMaxValue());
+		assertEquals("[0, 3]", currentValues.toString());
+	}
+}
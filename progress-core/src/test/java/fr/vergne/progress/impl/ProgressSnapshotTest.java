@@ -0,0 +1,279 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress;
+
+public class ProgressSnapshotTest {
+
+	@Test
+	public void testManualProgressSnapshotHasBothValues() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(3, 10);
+		ProgressSnapshot<Integer> snapshot = progress.getSnapshot();
+		assertEquals((Integer) 3, snapshot.getCurrentValue());
+		assertEquals((Integer) 10, snapshot.getMaxValue());
+		assertSame(progress, snapshot.getProgress());
+
+		progress.setCurrentValue(5);
+		assertEquals((Integer) 3, snapshot.getCurrentValue());
+		assertEquals((Integer) 5, progress.getSnapshot().getCurrentValue());
+	}
+
+	@Test
+	public void testSnapshotDoesNotChangeWithProgress() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		ProgressSnapshot<Integer> snapshot = ProgressSnapshot.capture(progress);
+		progress.setCurrentValue(5);
+		progress.setMaxValue(20);
+
+		assertEquals((Integer) 0, snapshot.getCurrentValue());
+		assertEquals((Integer) 10, snapshot.getMaxValue());
+		assertTrue(snapshot.isConsistent());
+		assertTrue(snapshot.getSubSnapshots().isEmpty());
+	}
+
+	@Test
+	public void testRecursiveProgressCapturedWithChildren() {
+		ManualProgress<Integer> child1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> child2 = new ManualProgress<Integer>(0, 4);
+		RecursiveProgress root = new RecursiveProgress();
+		root.registerSubProgress(child1);
+		root.registerSubProgress(child2);
+		root.setMaxSubProgresses(3);
+
+		ProgressSnapshot<Double> snapshot = ProgressSnapshot.capture(root);
+		assertEquals(0.5, snapshot.getCurrentValue(), 0);
+		assertEquals(3.0, snapshot.getMaxValue(), 0);
+		assertTrue(snapshot.isConsistent());
+
+		List<ProgressSnapshot<?>> children = snapshot.getSubSnapshots();
+		assertEquals(2, children.size());
+		double sum = 0;
+		for (ProgressSnapshot<?> child : children) {
+			sum += child.getCurrentNormalizedValue();
+		}
+		assertEquals(snapshot.getCurrentValue(), sum, 0);
+	}
+
+	@Test
+	public void testNestedRecursiveProgressCaptured() {
+		ManualProgress<Integer> leaf = new ManualProgress<Integer>(1, 2);
+		RecursiveProgress middle = new RecursiveProgress();
+		middle.registerSubProgress(leaf);
+		middle.setMaxSubProgresses(1);
+		RecursiveProgress root = new RecursiveProgress();
+		root.registerSubProgress(middle);
+		root.setMaxSubProgresses(2);
+
+		ProgressSnapshot<Double> snapshot = ProgressSnapshot.capture(root);
+		assertEquals(0.5, snapshot.getCurrentValue(), 0);
+		ProgressSnapshot<?> middleSnapshot = snapshot.getSubSnapshots().get(0);
+		assertSame(middle, middleSnapshot.getProgress());
+		assertSame(leaf, middleSnapshot.getSubSnapshots().get(0).getProgress());
+	}
+
+	@Test
+	public void testGlobalAdditiveProgressCapturedWithChildren() {
+		ProgressFactory factory = new ProgressFactory();
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(1, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(2, 5);
+		Progress<Integer> global = factory.createGlobalAdditiveProgress(Arrays
+				.asList(p1, p2));
+
+		ProgressSnapshot<Integer> snapshot = ProgressSnapshot.capture(global);
+		assertEquals((Integer) 3, snapshot.getCurrentValue());
+		assertEquals((Integer) 15, snapshot.getMaxValue());
+		assertEquals(2, snapshot.getSubSnapshots().size());
+	}
+
+	@Test
+	public void testGlobalCountingProgressCapturedWithChildren() {
+		ProgressFactory factory = new ProgressFactory();
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(5, 5);
+		Progress<Double> global = factory.createGlobalCountingProgress(Arrays
+				.asList(p1, p2));
+
+		ProgressSnapshot<Double> snapshot = ProgressSnapshot.capture(global);
+		assertEquals(1.5, snapshot.getCurrentValue(), 0);
+		assertEquals(2.0, snapshot.getMaxValue(), 0);
+	}
+
+	@Test
+	public void testOtherProgressCapturedThroughItsValues() {
+		Progress<Integer> progress = new Progress<Integer>() {
+
+			@Override
+			public Integer getCurrentValue() {
+				return 4;
+			}
+
+			@Override
+			public Integer getMaxValue() {
+				return 8;
+			}
+
+			@Override
+			public void addProgressListener(
+					ProgressListener<? super Integer> listener) {
+				// Constant
+			}
+
+			@Override
+			public void removeProgressListener(
+					ProgressListener<? super Integer> listener) {
+				// Constant
+			}
+		};
+
+		ProgressSnapshot<Integer> snapshot = ProgressSnapshot.capture(progress);
+		assertEquals((Integer) 4, snapshot.getCurrentValue());
+		assertEquals((Integer) 8, snapshot.getMaxValue());
+		assertTrue(snapshot.isConsistent());
+	}
+
+	@Test
+	public void testConsistentSnapshotsNeverTornByConcurrentUpdates()
+			throws InterruptedException {
+		final ManualProgress<Integer> first = new ManualProgress<Integer>(0,
+				null);
+		final ManualProgress<Integer> second = new ManualProgress<Integer>(0,
+				null);
+		RecursiveProgress root = new RecursiveProgress();
+		root.registerSubProgress(first);
+		root.registerSubProgress(second);
+
+		// The first is always updated before the second
+		Thread writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 1; i <= 200000; i++) {
+					first.setCurrentValue(i);
+					second.setCurrentValue(i);
+				}
+			}
+		});
+		writer.start();
+
+		int consistent = 0;
+		while (writer.isAlive()) {
+			ProgressSnapshot<Double> snapshot = ProgressSnapshot.capture(root);
+			if (snapshot.isConsistent()) {
+				consistent++;
+				int firstValue = (Integer) snapshot.getSubSnapshots().get(0)
+						.getCurrentValue();
+				int secondValue = (Integer) snapshot.getSubSnapshots().get(1)
+						.getCurrentValue();
+				int high = Math.max(firstValue, secondValue);
+				int low = Math.min(firstValue, secondValue);
+				assertTrue(firstValue + " vs " + secondValue, high - low <= 1);
+			} else {
+				// No guarantee
+			}
+		}
+		writer.join();
+		assertTrue(consistent > 0);
+	}
+
+	@Test
+	public void testInconsistentSnapshotFlaggedWhenAttemptsExhausted() {
+		final int[] reads = { 0 };
+		Progress<Integer> progress = new Progress<Integer>() {
+
+			@Override
+			public Integer getCurrentValue() {
+				// Changes at each read
+				return reads[0]++;
+			}
+
+			@Override
+			public Integer getMaxValue() {
+				return null;
+			}
+
+			@Override
+			public void addProgressListener(
+					ProgressListener<? super Integer> listener) {
+				// Not needed
+			}
+
+			@Override
+			public void removeProgressListener(
+					ProgressListener<? super Integer> listener) {
+				// Not needed
+			}
+		};
+
+		ProgressSnapshot<Integer> snapshot = ProgressSnapshot.capture(
+				progress, 3);
+		assertFalse(snapshot.isConsistent());
+	}
+
+	@Test
+	public void testCaptureFailsWhenCompositionAlwaysChanges() {
+		final int[] reads = { 0 };
+		Progress<Integer> progress = new ProgressSnapshot.Composite<Integer>() {
+
+			@Override
+			public long getCompositionVersion() {
+				return reads[0];
+			}
+
+			@Override
+			public Collection<? extends Progress<?>> getSubProgresses() {
+				reads[0]++;
+				throw new ConcurrentModificationException();
+			}
+
+			@Override
+			public Integer computeCurrentValue(
+					List<ProgressSnapshot<?>> subSnapshots) {
+				return 0;
+			}
+
+			@Override
+			public Integer computeMaxValue(
+					List<ProgressSnapshot<?>> subSnapshots) {
+				return 0;
+			}
+
+			@Override
+			public Integer getCurrentValue() {
+				return 0;
+			}
+
+			@Override
+			public Integer getMaxValue() {
+				return 0;
+			}
+
+			@Override
+			public void addProgressListener(
+					ProgressListener<? super Integer> listener) {
+				// Not needed
+			}
+
+			@Override
+			public void removeProgressListener(
+					ProgressListener<? super Integer> listener) {
+				// Not needed
+			}
+		};
+
+		try {
+			ProgressSnapshot.capture(progress, 3);
+			fail("No exception thrown");
+		} catch (ConcurrentModificationException e) {
+			// 4 reads to compare, then 3 inconsistent reads
+			assertEquals(7, reads[0]);
+		}
+	}
+}
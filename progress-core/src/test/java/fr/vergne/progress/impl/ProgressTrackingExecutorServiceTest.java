@@ -0,0 +1,197 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import fr.vergne.progress.impl.ProgressTrackingExecutorService.TaskProgress;
+import fr.vergne.progress.impl.ProgressTrackingExecutorService.TaskState;
+
+public class ProgressTrackingExecutorServiceTest {
+
+	@Test
+	public void testAllTasksCounted() throws InterruptedException {
+		ProgressTrackingExecutorService executor = new ProgressTrackingExecutorService(
+				Executors.newFixedThreadPool(4));
+		for (int i = 0; i < 10000; i++) {
+			executor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					// Nothing to do
+				}
+			});
+		}
+		assertEquals((Long) 10000L, executor.getMaxValue());
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertEquals((Long) 10000L, executor.getCurrentValue());
+		assertEquals(0, executor.getFailedCount());
+		assertEquals(0, executor.getQueuedCount());
+		assertEquals(0, executor.getRunningCount());
+		assertTrue(executor.getActiveTasks().isEmpty());
+		assertTrue(executor.isFinished());
+	}
+
+	@Test
+	public void testNotFinishedBeforeShutdown() throws Exception {
+		ProgressTrackingExecutorService executor = new ProgressTrackingExecutorService(
+				Executors.newSingleThreadExecutor());
+		executor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				// Nothing to do
+			}
+		}).get();
+		while (executor.getDoneCount() < 1) {
+			// The task is counted just after its future is completed
+			Thread.yield();
+		}
+		assertEquals((Long) 1L, executor.getCurrentValue());
+		assertFalse(executor.isFinished());
+		executor.shutdown();
+		assertTrue(executor.isFinished());
+	}
+
+	@Test
+	public void testFinishedFutureCompletedByShutdownAfterTasksDone()
+			throws Exception {
+		ProgressTrackingExecutorService executor = new ProgressTrackingExecutorService(
+				Executors.newSingleThreadExecutor());
+		executor.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				// Nothing to do
+			}
+		}).get();
+		CompletableFuture<Long> finished = ProgressUtil.onFinished(executor);
+		assertFalse(finished.isDone());
+
+		executor.shutdown();
+		assertEquals((Long) 1L, finished.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTaskStates() throws Exception {
+		ProgressTrackingExecutorService executor = new ProgressTrackingExecutorService(
+				Executors.newSingleThreadExecutor());
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocking = new Runnable() {
+
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		Future<?> first = executor.submit(blocking);
+		Future<?> second = executor.submit(blocking);
+		started.await();
+
+		assertEquals(1, executor.getRunningCount());
+		assertEquals(1, executor.getQueuedCount());
+		assertEquals(2, executor.getActiveTasks().size());
+		int running = 0;
+		int queued = 0;
+		for (TaskProgress task : executor.getActiveTasks()) {
+			assertEquals((Integer) 0, task.getCurrentValue());
+			if (task.getState() == TaskState.RUNNING) {
+				running++;
+			} else if (task.getState() == TaskState.QUEUED) {
+				queued++;
+			} else {
+				fail("Unexpected state: " + task.getState());
+			}
+		}
+		assertEquals(1, running);
+		assertEquals(1, queued);
+
+		release.countDown();
+		first.get();
+		second.get();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		assertEquals((Long) 2L, executor.getCurrentValue());
+	}
+
+	@Test
+	public void testFailuresTerminated() throws InterruptedException {
+		ProgressTrackingExecutorService executor = new ProgressTrackingExecutorService(
+				Executors.newFixedThreadPool(2));
+		Future<Integer> future = executor.submit(new Callable<Integer>() {
+
+			@Override
+			public Integer call() throws Exception {
+				throw new IllegalStateException("failure");
+			}
+		});
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				throw new IllegalStateException("failure");
+			}
+		});
+		try {
+			future.get();
+			fail("No exception thrown");
+		} catch (ExecutionException e) {
+			// Expected
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+		assertEquals(2, executor.getFailedCount());
+		assertEquals((Long) 2L, executor.getCurrentValue());
+		assertTrue(executor.isFinished());
+	}
+
+	@Test
+	public void testShutdownNowTerminatesQueuedTasks()
+			throws InterruptedException {
+		ProgressTrackingExecutorService executor = new ProgressTrackingExecutorService(
+				Executors.newSingleThreadExecutor());
+		final CountDownLatch started = new CountDownLatch(1);
+		Runnable blocking = new Runnable() {
+
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					// Stop
+				}
+			}
+		};
+		executor.execute(blocking);
+		executor.execute(blocking);
+		executor.execute(blocking);
+		started.await();
+
+		List<Runnable> remaining = executor.shutdownNow();
+		assertEquals(2, remaining.size());
+		assertSame(blocking, remaining.get(0));
+		assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+		assertEquals((Long) 3L, executor.getCurrentValue());
+		assertEquals(2, executor.getFailedCount());
+		assertTrue(executor.isFinished());
+	}
+}
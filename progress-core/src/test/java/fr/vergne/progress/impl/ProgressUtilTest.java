@@ -2,12 +2,33 @@ package fr.vergne.progress.impl;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.junit.Test;
 
 import fr.vergne.progress.Predictor;
+import fr.vergne.progress.Progress.ProgressListener;
 import fr.vergne.progress.impl.PredictorFactory.PredictedValue;
+import fr.vergne.progress.impl.PredictorFactory.RegressionPredictor;
+import fr.vergne.progress.impl.ProgressFlow.Subscriber;
+import fr.vergne.progress.impl.ProgressFlow.Subscription;
 
 public class ProgressUtilTest {
 
@@ -92,4 +113,713 @@ public class ProgressUtilTest {
 		}
 	}
 
+	@Test
+	public void testTerminationEstimateCorrectOnLinearEvolution() {
+		final long start = System.currentTimeMillis();
+		final long maxDelta = 1000L;
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, maxDelta);
+
+		PredictorFactory factory = new PredictorFactory();
+		RegressionPredictor<Long> currentPredictor = factory
+				.createLinearPredictor(progress, PredictedValue.CURRENT_VALUE);
+		Predictor<Long> maxPredictor = factory.createConstantPredictor(progress
+				.getMaxValue());
+
+		Random rand = new Random();
+		while (!progress.isFinished()) {
+			try {
+				Thread.sleep(rand.nextInt((int) (maxDelta / 100)));
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+
+			long value = System.currentTimeMillis() - start;
+			if (value > progress.getMaxValue()) {
+				progress.finish();
+			} else {
+				progress.setCurrentValue(value);
+			}
+
+			long tenPercentProgress = progress.getMaxValue() / 10;
+			if (progress.getCurrentValue() < tenPercentProgress) {
+				// Let it time to accumulate data
+			} else {
+				double acceptableError = 0.01;
+				long expected = start + maxDelta;
+				long min = (long) (expected * (1 - acceptableError));
+				long max = (long) (expected * (1 + acceptableError));
+				EtaEstimate estimate = ProgressUtil.estimateTerminationTime(
+						currentPredictor, maxPredictor, 0.95);
+				long actual = estimate.getExpectedTime();
+				assertTrue(actual + " not in [" + min + ";" + max + "]",
+						actual > min && actual < max);
+				assertTrue(estimate.toString(), estimate.getLowerTime() < max);
+				assertTrue(estimate.toString(), estimate.getUpperTime() > min);
+			}
+		}
+	}
+
+	@Test
+	public void testTerminationEstimateWidensWithConfidence() {
+		long now = System.currentTimeMillis();
+		RegressionPredictor<Double> predictor = createRegressionPredictor(1,
+				-now, 100, 0.1, now - 500);
+		Predictor<Double> maxPredictor = new PredictorFactory()
+				.createConstantPredictor(1000.0);
+
+		EtaEstimate estimate90 = ProgressUtil.estimateTerminationTime(
+				predictor, maxPredictor, 0.90);
+		EtaEstimate estimate99 = ProgressUtil.estimateTerminationTime(
+				predictor, maxPredictor, 0.99);
+
+		assertEquals(estimate90.getExpectedTime(),
+				estimate99.getExpectedTime());
+		assertTrue(estimate90.toString(),
+				estimate90.getLowerTime() < estimate90.getExpectedTime());
+		assertTrue(estimate90.toString(),
+				estimate90.getExpectedTime() < estimate90.getUpperTime());
+		assertTrue(estimate99 + " not wider than " + estimate90,
+				estimate99.getLowerTime() < estimate90.getLowerTime());
+		assertTrue(estimate99 + " not wider than " + estimate90,
+				estimate99.getUpperTime() > estimate90.getUpperTime());
+	}
+
+	@Test
+	public void testTerminationEstimateUnboundedWithoutEnoughSamples() {
+		long now = System.currentTimeMillis();
+		RegressionPredictor<Double> predictor = createRegressionPredictor(1,
+				-now, 2, Double.NaN, now - 500);
+		Predictor<Double> maxPredictor = new PredictorFactory()
+				.createConstantPredictor(1000.0);
+
+		EtaEstimate estimate = ProgressUtil.estimateTerminationTime(predictor,
+				maxPredictor, 0.95);
+
+		assertEquals(Long.MAX_VALUE, estimate.getUpperTime());
+		assertTrue(estimate.toString(),
+				estimate.getLowerTime() <= estimate.getExpectedTime());
+	}
+
+	@Test
+	public void testTerminationEstimateUnboundedWhenSlopeMayBeNull() {
+		long now = System.currentTimeMillis();
+		RegressionPredictor<Double> predictor = createRegressionPredictor(1,
+				-now, 100, 10, now - 500);
+		Predictor<Double> maxPredictor = new PredictorFactory()
+				.createConstantPredictor(1000.0);
+
+		EtaEstimate estimate = ProgressUtil.estimateTerminationTime(predictor,
+				maxPredictor, 0.95);
+
+		assertEquals(Long.MAX_VALUE, estimate.getUpperTime());
+	}
+
+	@Test
+	public void testTerminationEstimateFromGivenTime() {
+		long now = 1000000;
+		RegressionPredictor<Double> predictor = createRegressionPredictor(1,
+				-now, 100, 0.1, now - 500);
+		Predictor<Double> maxPredictor = new PredictorFactory()
+				.createConstantPredictor(1000.0);
+
+		EtaEstimate estimate = ProgressUtil.estimateTerminationTime(predictor,
+				maxPredictor, 0.95, now);
+
+		assertEquals(now + 1000, estimate.getExpectedTime());
+		assertTrue(estimate.toString(), estimate.getLowerTime() >= now);
+		assertTrue(estimate.toString(),
+				estimate.getLowerTime() < estimate.getExpectedTime());
+		assertTrue(estimate.toString(),
+				estimate.getExpectedTime() < estimate.getUpperTime());
+	}
+
+	private RegressionPredictor<Double> createRegressionPredictor(
+			final double slope, final double intercept, final long count,
+			final double slopeError, final double meanTime) {
+		return new RegressionPredictor<Double>() {
+
+			@Override
+			public Double predictValueAt(long timestamp) {
+				return slope * timestamp + intercept;
+			}
+
+			@Override
+			public double getSlope() {
+				return slope;
+			}
+
+			@Override
+			public double getIntercept() {
+				return intercept;
+			}
+
+			@Override
+			public long getSampleCount() {
+				return count;
+			}
+
+			@Override
+			public double getSlopeStdErr() {
+				return slopeError;
+			}
+
+			@Override
+			public double getMeanTimestamp() {
+				return meanTime;
+			}
+		};
+	}
+
+
+	private static final Executor DIRECT_EXECUTOR = new Executor() {
+
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	private static class RecordingSubscriber<T> implements Subscriber<T> {
+		private Subscription subscription;
+		private final List<T> items = new ArrayList<>();
+		private Throwable error = null;
+		private boolean completed = false;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(T item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+
+	@Test
+	public void testPublisherSendsNothingWithoutRequest() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingSubscriber<ProgressSnapshot<Integer>> subscriber = new RecordingSubscriber<>();
+		ProgressUtil.toPublisher(progress, DIRECT_EXECUTOR).subscribe(
+				subscriber);
+		progress.setCurrentValue(3);
+
+		assertNotNull(subscriber.subscription);
+		assertTrue(subscriber.items.isEmpty());
+	}
+
+	@Test
+	public void testPublisherConflatesStatesWithoutDemand() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingSubscriber<ProgressSnapshot<Integer>> subscriber = new RecordingSubscriber<>();
+		ProgressUtil.toPublisher(progress, DIRECT_EXECUTOR).subscribe(
+				subscriber);
+		progress.setCurrentValue(1);
+		progress.setCurrentValue(2);
+		progress.setCurrentValue(3);
+
+		subscriber.subscription.request(5);
+		assertEquals(1, subscriber.items.size());
+		assertEquals((Integer) 3, subscriber.items.get(0).getCurrentValue());
+
+		progress.setCurrentValue(4);
+		progress.setMaxValue(20);
+		assertEquals(3, subscriber.items.size());
+		assertEquals((Integer) 20, subscriber.items.get(2).getMaxValue());
+	}
+
+	@Test
+	public void testPublisherHonorsDemand() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingSubscriber<ProgressSnapshot<Integer>> subscriber = new RecordingSubscriber<>();
+		ProgressUtil.toPublisher(progress, DIRECT_EXECUTOR).subscribe(
+				subscriber);
+		subscriber.subscription.request(2);
+		progress.setCurrentValue(1);
+		progress.setCurrentValue(2);
+		progress.setCurrentValue(3);
+
+		assertEquals(2, subscriber.items.size());
+		assertEquals((Integer) 0, subscriber.items.get(0).getCurrentValue());
+		assertEquals((Integer) 1, subscriber.items.get(1).getCurrentValue());
+
+		subscriber.subscription.request(1);
+		assertEquals(3, subscriber.items.size());
+		assertEquals((Integer) 3, subscriber.items.get(2).getCurrentValue());
+	}
+
+	@Test
+	public void testPublisherCompletesWhenFinished() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingSubscriber<ProgressSnapshot<Integer>> subscriber = new RecordingSubscriber<>();
+		ProgressUtil.toPublisher(progress, DIRECT_EXECUTOR).subscribe(
+				subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		progress.finish();
+
+		assertTrue(subscriber.completed);
+		assertTrue(subscriber.items.get(subscriber.items.size() - 1)
+				.isFinished());
+
+		progress.setMaxValue(20);
+		assertEquals(2, subscriber.items.size());
+	}
+
+	@Test
+	public void testPublisherStopsAfterCancel() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingSubscriber<ProgressSnapshot<Integer>> subscriber = new RecordingSubscriber<>();
+		ProgressUtil.toPublisher(progress, DIRECT_EXECUTOR).subscribe(
+				subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		subscriber.subscription.cancel();
+		progress.setCurrentValue(5);
+
+		assertEquals(1, subscriber.items.size());
+		assertFalse(subscriber.completed);
+	}
+
+	@Test
+	public void testPublisherRejectsNonPositiveRequest() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		RecordingSubscriber<ProgressSnapshot<Integer>> subscriber = new RecordingSubscriber<>();
+		ProgressUtil.toPublisher(progress, DIRECT_EXECUTOR).subscribe(
+				subscriber);
+		subscriber.subscription.request(0);
+
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		progress.setCurrentValue(5);
+		assertTrue(subscriber.items.isEmpty());
+	}
+
+	@Test
+	public void testPublisherReportsFailingSubscriber() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		final RuntimeException failure = new RuntimeException("broken");
+		RecordingSubscriber<ProgressSnapshot<Integer>> subscriber = new RecordingSubscriber<ProgressSnapshot<Integer>>() {
+
+			@Override
+			public void onNext(ProgressSnapshot<Integer> item) {
+				super.onNext(item);
+				throw failure;
+			}
+		};
+		ProgressUtil.toPublisher(progress, DIRECT_EXECUTOR).subscribe(
+				subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+
+		assertSame(failure, subscriber.error);
+		progress.setCurrentValue(5);
+		progress.finish();
+		assertEquals(1, subscriber.items.size());
+		assertFalse(subscriber.completed);
+	}
+
+	@Test
+	public void testPublisherDoesNotBlockUpdatingThread()
+			throws InterruptedException {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+				1000);
+		final CountDownLatch completed = new CountDownLatch(1);
+		final List<Integer> values = new ArrayList<>();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		ProgressUtil.toPublisher(progress, executor).subscribe(
+				new Subscriber<ProgressSnapshot<Integer>>() {
+
+					@Override
+					public void onSubscribe(Subscription subscription) {
+						subscription.request(Long.MAX_VALUE);
+					}
+
+					@Override
+					public void onNext(ProgressSnapshot<Integer> item) {
+						values.add(item.getCurrentValue());
+						try {
+							Thread.sleep(50);
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					}
+
+					@Override
+					public void onError(Throwable throwable) {
+						// Not expected
+					}
+
+					@Override
+					public void onComplete() {
+						completed.countDown();
+					}
+				});
+
+		long start = System.currentTimeMillis();
+		for (int i = 1; i <= 1000; i++) {
+			progress.setCurrentValue(i);
+		}
+		assertTrue(System.currentTimeMillis() - start < 1000);
+
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertTrue(values.size() < 100);
+		assertEquals((Integer) 1000, values.get(values.size() - 1));
+		executor.shutdown();
+	}
+
+
+	@Test
+	public void testOnFinishedCompletesWithFinalValue() throws Exception {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		CompletableFuture<Integer> future = ProgressUtil.onFinished(progress);
+		progress.setCurrentValue(5);
+		assertFalse(future.isDone());
+
+		progress.setCurrentValue(10);
+		assertEquals((Integer) 10, future.get());
+	}
+
+	@Test
+	public void testOnFinishedCompletedWhenAlreadyFinished() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(10, 10);
+		assertTrue(ProgressUtil.onFinished(progress).isDone());
+	}
+
+	@Test
+	public void testOnFinishedWhenMaxReachesCurrent() throws Exception {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, null);
+		CompletableFuture<Integer> future = ProgressUtil.onFinished(progress);
+		progress.setCurrentValue(7);
+		assertFalse(future.isDone());
+
+		progress.finish();
+		assertEquals((Integer) 7, future.get());
+	}
+
+	@Test
+	public void testOnReachedCompletesInThresholdOrder() throws Exception {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 100);
+		final List<Integer> order = new ArrayList<>();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (final int threshold : new int[] { 50, 10, 30, 20 }) {
+			CompletableFuture<Integer> future = ProgressUtil.onReached(
+					progress, threshold);
+			future.thenRun(new Runnable() {
+
+				@Override
+				public void run() {
+					order.add(threshold);
+				}
+			});
+			futures.add(future);
+		}
+
+		progress.setCurrentValue(25);
+		assertEquals(Arrays.asList(10, 20), order);
+		assertEquals((Integer) 25, futures.get(1).get());
+		assertFalse(futures.get(2).isDone());
+
+		progress.setCurrentValue(60);
+		assertEquals(Arrays.asList(10, 20, 30, 50), order);
+		assertEquals((Integer) 60, futures.get(0).get());
+	}
+
+	@Test
+	public void testOnReachedCompletedWhenAlreadyReached() throws Exception {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(5, 10);
+		CompletableFuture<Integer> future = ProgressUtil.onReached(progress, 3);
+		assertEquals((Integer) 5, future.get());
+	}
+
+	@Test
+	public void testCancelledWaiterNotCompleted() {
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10);
+		CompletableFuture<Integer> cancelled = ProgressUtil.onReached(
+				progress, 5);
+		CompletableFuture<Integer> kept = ProgressUtil.onReached(progress, 5);
+		cancelled.cancel(false);
+		progress.setCurrentValue(5);
+
+		assertTrue(cancelled.isCancelled());
+		assertTrue(kept.isDone());
+		assertFalse(kept.isCancelled());
+	}
+
+	@Test
+	public void testWaiterListenerRemovedOnceAllCompleted() throws Exception {
+		final AtomicInteger listenerCount = new AtomicInteger();
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 10) {
+
+			@Override
+			public void addProgressListener(
+					ProgressListener<? super Integer> listener) {
+				listenerCount.incrementAndGet();
+				super.addProgressListener(listener);
+			}
+
+			@Override
+			public void removeProgressListener(
+					ProgressListener<? super Integer> listener) {
+				listenerCount.decrementAndGet();
+				super.removeProgressListener(listener);
+			}
+		};
+		CompletableFuture<Integer> reached = ProgressUtil.onReached(progress, 5);
+		CompletableFuture<Integer> finished = ProgressUtil.onFinished(progress);
+		assertEquals(1, listenerCount.get());
+
+		progress.setCurrentValue(10);
+		assertTrue(reached.isDone());
+		assertTrue(finished.isDone());
+		long deadline = System.currentTimeMillis() + 1000;
+		while (listenerCount.get() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, listenerCount.get());
+
+		progress.setMaxValue(20);
+		CompletableFuture<Integer> next = ProgressUtil.onReached(progress, 15);
+		assertEquals(1, listenerCount.get());
+		progress.setCurrentValue(15);
+		assertEquals((Integer) 15, next.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testWaiterNotDeadlockedByProgressLock() throws Exception {
+		final CountDownLatch notifying = new CountDownLatch(1);
+		final CountDownLatch adding = new CountDownLatch(1);
+		final AtomicBoolean armed = new AtomicBoolean(false);
+		final ManualProgress<Integer> progress = new ManualProgress<Integer>(0,
+				10) {
+
+			@Override
+			public void addProgressListener(
+					ProgressListener<? super Integer> listener) {
+				if (armed.get()) {
+					adding.countDown();
+				} else {
+					// Not the listener of the test
+				}
+				super.addProgressListener(listener);
+			}
+		};
+		final ManualProgress<Integer> other = new ManualProgress<Integer>(0, 10);
+		progress.addProgressListener(new ProgressListener<Integer>() {
+
+			@Override
+			public void currentUpdate(Integer value) {
+				// Called while holding the lock of the progress
+				notifying.countDown();
+				try {
+					adding.await(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				ProgressUtil.onFinished(other);
+			}
+
+			@Override
+			public void maxUpdate(Integer maxValue) {
+				// Not tested
+			}
+		});
+		armed.set(true);
+
+		Thread updater = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				progress.setCurrentValue(1);
+			}
+		});
+		Thread waiter = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				ProgressUtil.onReached(progress, 5);
+			}
+		});
+		updater.setDaemon(true);
+		waiter.setDaemon(true);
+		updater.start();
+		assertTrue(notifying.await(1, TimeUnit.SECONDS));
+		waiter.start();
+		updater.join(5000);
+		waiter.join(5000);
+		assertFalse(updater.isAlive());
+		assertFalse(waiter.isAlive());
+	}
+
+	@Test
+	public void testManyWaitersCompletedByConcurrentUpdates()
+			throws Exception {
+		final ManualProgress<Integer> progress = new ManualProgress<Integer>(
+				0, 10000);
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 1; i <= 10000; i++) {
+			futures.add(ProgressUtil.onReached(progress, i));
+		}
+		Thread updater = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				for (int i = 1; i <= 10000; i++) {
+					progress.setCurrentValue(i);
+				}
+			}
+		});
+		updater.start();
+		CompletableFuture<Integer> finished = ProgressUtil.onFinished(progress);
+		assertEquals((Integer) 10000, finished.get(5, TimeUnit.SECONDS));
+		updater.join();
+
+		for (int i = 0; i < futures.size(); i++) {
+			assertTrue(futures.get(i).get() >= i + 1);
+		}
+	}
+
+
+	@Test
+	public void testTrackedParallelStreamCountsAllElements() {
+		List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			list.add(i);
+		}
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		final AtomicInteger updates = new AtomicInteger();
+		progress.addProgressListener(new ProgressListener<Long>() {
+
+			@Override
+			public void currentUpdate(Long value) {
+				updates.incrementAndGet();
+			}
+
+			@Override
+			public void maxUpdate(Long maxValue) {
+				// Not counted
+			}
+		});
+
+		long sum = StreamSupport.stream(ProgressUtil.track(list.spliterator(), progress), true)
+				.mapToLong(Integer::longValue).sum();
+
+		assertEquals(99999L * 100000 / 2, sum);
+		assertEquals((Long) 100000L, progress.getMaxValue());
+		assertEquals((Long) 100000L, progress.getCurrentValue());
+		assertTrue(updates.get() <= 100000 / ProgressUtil.DEFAULT_TRACKING_BATCH + 64);
+	}
+
+	@Test
+	public void testTrackedSpliteratorReportsByBatch() {
+		List<Integer> list = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		Spliterator<Integer> spliterator = ProgressUtil.track(list.spliterator(), progress, 3);
+
+		Consumer<Integer> ignore = new Consumer<Integer>() {
+
+			@Override
+			public void accept(Integer t) {
+				// Ignore
+			}
+		};
+		spliterator.tryAdvance(ignore);
+		spliterator.tryAdvance(ignore);
+		assertEquals((Long) 0L, progress.getCurrentValue());
+		spliterator.tryAdvance(ignore);
+		assertEquals((Long) 3L, progress.getCurrentValue());
+		spliterator.forEachRemaining(ignore);
+		assertEquals((Long) 7L, progress.getCurrentValue());
+		assertTrue(progress.isFinished());
+	}
+
+	@Test
+	public void testTrackedUnsizedSpliteratorKeepsMax() {
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		Spliterator<Integer> source = Stream.iterate(0, new UnaryOperator<Integer>() {
+
+			@Override
+			public Integer apply(Integer t) {
+				return t + 1;
+			}
+		}).limit(10).spliterator();
+		long count = StreamSupport.stream(ProgressUtil.track(source, progress), false).count();
+
+		assertEquals(10, count);
+		assertNull(progress.getMaxValue());
+		assertEquals((Long) 10L, progress.getCurrentValue());
+	}
+
+	@Test
+	public void testTrackedStreamReportsShortCircuitedTraversalOnClose() {
+		List<Integer> list = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			list.add(i);
+		}
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+
+		try (Stream<Integer> stream = ProgressUtil.track(list.stream(), progress, 1000)) {
+			assertEquals((Integer) 10, stream.filter(new Predicate<Integer>() {
+
+				@Override
+				public boolean test(Integer t) {
+					return t == 10;
+				}
+			}).findFirst().get());
+			assertEquals((Long) 0L, progress.getCurrentValue());
+		}
+		assertEquals((Long) 11L, progress.getCurrentValue());
+		assertEquals((Long) 100L, progress.getMaxValue());
+	}
+
+	@Test
+	public void testTrackedSpliteratorReportsElementsBeforeFailure() {
+		List<Integer> list = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null);
+		Spliterator<Integer> spliterator = ProgressUtil.track(list.spliterator(), progress, 100);
+
+		Consumer<Integer> failing = new Consumer<Integer>() {
+
+			@Override
+			public void accept(Integer t) {
+				if (t == 5) {
+					throw new IllegalStateException("Failing element");
+				} else {
+					// Consumed
+				}
+			}
+		};
+		try {
+			spliterator.forEachRemaining(failing);
+			fail("No exception thrown");
+		} catch (IllegalStateException e) {
+			assertEquals((Long) 4L, progress.getCurrentValue());
+		}
+		try {
+			spliterator = ProgressUtil.track(list.spliterator(), progress, 100);
+			while (spliterator.tryAdvance(failing)) {
+				// Consume
+			}
+			fail("No exception thrown");
+		} catch (IllegalStateException e) {
+			assertEquals((Long) 8L, progress.getCurrentValue());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTrackedSpliteratorRejectsProgressWithoutCurrentValue() {
+		ManualProgress<Long> progress = new ManualProgress<Long>(0L, null) {
+			@Override
+			public Long getCurrentValue() {
+				return null;
+			}
+		};
+		ProgressUtil.track(Arrays.asList(1, 2, 3).spliterator(), progress);
+	}
 }
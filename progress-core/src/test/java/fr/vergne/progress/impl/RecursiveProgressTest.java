@@ -2,8 +2,11 @@ package fr.vergne.progress.impl;
 
 import static org.junit.Assert.*;
 
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.Vector;
 
 import org.junit.jupiter.api.Test;
 import org.junit.platform.runner.JUnitPlatform;
@@ -11,6 +14,7 @@ import org.junit.runner.RunWith;
 
 import fr.vergne.heterogeneousmap.HeterogeneousMap;
 import fr.vergne.heterogeneousmap.HeterogeneousMap.Key;
+import fr.vergne.progress.Progress.ProgressListener;
 import fr.vergne.progress.ProgressTest;
 import fr.vergne.progress.impl.RecursiveProgress.ID;
 import fr.vergne.progress.impl.RecursiveProgress.MaxSubProgressesReachedException;
@@ -301,4 +305,103 @@ public class RecursiveProgressTest implements ProgressTest<RecursiveProgress> {
 		assertEquals(3, progress.getCurrentValue(), 0);
 	}
 
+	@Test
+	public void testSubProgressesNotListenedOnceClosed() {
+		RecursiveProgress progress = new RecursiveProgress();
+		ManualProgress<Integer> subProgress = new ManualProgress<Integer>(0, 4);
+		progress.registerSubProgress(subProgress);
+		final List<Double> values = new LinkedList<>();
+		progress.addProgressListener(new ProgressListener<Double>() {
+
+			@Override
+			public void currentUpdate(Double value) {
+				values.add(value);
+			}
+
+			@Override
+			public void maxUpdate(Double maxValue) {
+				// Not tested
+			}
+		});
+
+		subProgress.setCurrentValue(1);
+		assertEquals(1, values.size());
+		progress.close();
+		subProgress.setCurrentValue(2);
+		assertEquals(1, values.size());
+	}
+
+	@Test
+	public void testRegistrationRejectedOnceClosed() {
+		RecursiveProgress progress = new RecursiveProgress();
+		progress.registerSubProgress(new ManualProgress<Integer>(0, 4));
+		progress.close();
+
+		ListenedProgress subProgress = new ListenedProgress();
+		try {
+			progress.registerSubProgress(subProgress);
+			fail("No exception thrown");
+		} catch (IllegalStateException e) {
+			// OK
+		}
+		assertEquals(1, progress.getSubProgressesCount());
+		assertEquals(0, subProgress.getListenersCount());
+	}
+
+	@Test
+	public void testConcurrentRegistrationsDetachedOnClose()
+			throws InterruptedException {
+		final RecursiveProgress progress = new RecursiveProgress();
+		final List<ListenedProgress> subProgresses = new Vector<>();
+		Thread registerer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				while (true) {
+					ListenedProgress subProgress = new ListenedProgress();
+					subProgresses.add(subProgress);
+					try {
+						progress.registerSubProgress(subProgress);
+					} catch (IllegalStateException e) {
+						return;
+					}
+				}
+			}
+		});
+		registerer.start();
+		Thread.sleep(50);
+		progress.close();
+		registerer.join();
+
+		for (ListenedProgress subProgress : subProgresses) {
+			assertEquals(0, subProgress.getListenersCount());
+		}
+	}
+
+	private static class ListenedProgress extends ManualProgress<Integer> {
+		private final Set<ProgressListener<? super Integer>> listeners = new HashSet<>();
+
+		public ListenedProgress() {
+			super(0, 4);
+		}
+
+		@Override
+		public synchronized void addProgressListener(
+				ProgressListener<? super Integer> listener) {
+			super.addProgressListener(listener);
+			listeners.add(listener);
+		}
+
+		@Override
+		public synchronized void removeProgressListener(
+				ProgressListener<? super Integer> listener) {
+			super.removeProgressListener(listener);
+			listeners.remove(listener);
+		}
+
+		public synchronized int getListenersCount() {
+			return listeners.size();
+		}
+	}
+
 }
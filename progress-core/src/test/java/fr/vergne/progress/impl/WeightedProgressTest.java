@@ -0,0 +1,197 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress;
+import fr.vergne.progress.Progress.ProgressListener;
+
+public class WeightedProgressTest {
+
+	private final ProgressFactory factory = new ProgressFactory();
+
+	@Test
+	public void testValuesWeighted() {
+		ManualProgress<Integer> small = new ManualProgress<Integer>(0, 10);
+		ManualProgress<Integer> big = new ManualProgress<Integer>(0, 4);
+		Map<Progress<Integer>, Double> weights = new LinkedHashMap<>();
+		weights.put(small, 1.0);
+		weights.put(big, 9.0);
+		WeightedProgress progress = factory.createGlobalWeightedProgress(weights);
+		assertEquals(0.0, progress.getCurrentValue(), 0);
+		assertEquals(10.0, progress.getMaxValue(), 0);
+
+		small.setCurrentValue(10);
+		assertEquals(1.0, progress.getCurrentValue(), 1e-10);
+		big.setCurrentValue(2);
+		assertEquals(5.5, progress.getCurrentValue(), 1e-10);
+		big.setMaxValue(8);
+		assertEquals(3.25, progress.getCurrentValue(), 1e-10);
+	}
+
+	@Test
+	public void testSubProgressWithoutMaxNotStarted() {
+		ManualProgress<Integer> subprogress = new ManualProgress<Integer>(5,
+				null);
+		WeightedProgress progress = new WeightedProgress();
+		progress.add(subprogress, 2.0);
+		assertEquals(0.0, progress.getCurrentValue(), 0);
+
+		subprogress.setMaxValue(10);
+		assertEquals(1.0, progress.getCurrentValue(), 1e-10);
+	}
+
+	@Test
+	public void testWeightChanged() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(0, 10);
+		WeightedProgress progress = new WeightedProgress();
+		progress.add(p1, 1.0);
+		progress.add(p2, 1.0);
+		assertEquals(0.5, progress.getCurrentValue(), 1e-10);
+
+		progress.setWeight(p1, 3.0);
+		assertEquals((Double) 3.0, progress.getWeight(p1));
+		assertEquals(1.5, progress.getCurrentValue(), 1e-10);
+		assertEquals(4.0, progress.getMaxValue(), 1e-10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeWeightRejected() {
+		new WeightedProgress().add(new ManualProgress<Integer>(0, 10), -1.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownSubProgressCannotBeReweighted() {
+		new WeightedProgress().setWeight(new ManualProgress<Integer>(0, 10),
+				1.0);
+	}
+
+	@Test
+	public void testSubProgressRemoved() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(0, 10);
+		WeightedProgress progress = new WeightedProgress();
+		progress.add(p1, 1.0);
+		progress.add(p2, 3.0);
+
+		assertTrue(progress.remove(p2));
+		assertFalse(progress.remove(p2));
+		assertNull(progress.getWeight(p2));
+		assertEquals(0.5, progress.getCurrentValue(), 1e-10);
+		assertEquals(1.0, progress.getMaxValue(), 1e-10);
+		p2.setCurrentValue(10);
+		assertEquals(0.5, progress.getCurrentValue(), 1e-10);
+
+		p1.finish();
+		progress.add(p2, 2.0);
+		p2.setCurrentValue(0);
+		assertTrue(progress.remove(p2));
+		assertTrue(progress.getCurrentValue() <= progress.getMaxValue());
+		assertTrue(progress.isFinished());
+
+		assertTrue(progress.remove(p1));
+		assertEquals(0.0, progress.getCurrentValue(), 0);
+		assertEquals(0.0, progress.getMaxValue(), 0);
+	}
+
+	@Test
+	public void testExactlyFinishedWhenAllSubProgressesFinished() {
+		List<ManualProgress<Double>> subprogresses = new ArrayList<>();
+		WeightedProgress progress = new WeightedProgress();
+		for (int i = 0; i < 1000; i++) {
+			ManualProgress<Double> subprogress = new ManualProgress<Double>(
+					0.0, 0.3);
+			subprogresses.add(subprogress);
+			progress.add(subprogress, 0.1 * (i % 7 + 1));
+		}
+		for (int step = 1; step <= 2; step++) {
+			for (ManualProgress<Double> subprogress : subprogresses) {
+				subprogress.setCurrentValue(0.1 * step);
+			}
+		}
+		for (ManualProgress<Double> subprogress : subprogresses) {
+			subprogress.finish();
+		}
+
+		assertTrue(progress.isFinished());
+		assertEquals(1.0, progress.getCurrentNormalizedValue(), 0);
+	}
+
+	@Test
+	public void testListenersNotified() {
+		ManualProgress<Integer> subprogress = new ManualProgress<Integer>(0,
+				10);
+		WeightedProgress progress = new WeightedProgress();
+		progress.add(subprogress, 2.0);
+		final List<Double> currents = new LinkedList<Double>();
+		progress.addProgressListener(new ProgressListener<Double>() {
+
+			@Override
+			public void currentUpdate(Double value) {
+				currents.add(value);
+			}
+
+			@Override
+			public void maxUpdate(Double maxValue) {
+				// Not tested
+			}
+		});
+
+		subprogress.setCurrentValue(5);
+		subprogress.setCurrentValue(5);
+		progress.setWeight(subprogress, 4.0);
+		assertEquals(Arrays.asList(1.0, 2.0), currents);
+	}
+
+	@Test
+	public void testSnapshotConsistentWithValues() {
+		ManualProgress<Integer> p1 = new ManualProgress<Integer>(5, 10);
+		ManualProgress<Integer> p2 = new ManualProgress<Integer>(10, 10);
+		WeightedProgress progress = new WeightedProgress();
+		progress.add(p1, 1.0);
+		progress.add(p2, 3.0);
+
+		ProgressSnapshot<Double> snapshot = ProgressSnapshot.capture(progress);
+		assertEquals(3.5, snapshot.getCurrentValue(), 1e-10);
+		assertEquals(4.0, snapshot.getMaxValue(), 1e-10);
+	}
+
+	@Test
+	public void testSubProgressesNotListenedOnceClosed() {
+		ManualProgress<Integer> subprogress = new ManualProgress<Integer>(0,
+				10);
+		WeightedProgress progress = new WeightedProgress();
+		progress.add(subprogress, 1.0);
+
+		progress.close();
+		subprogress.setCurrentValue(5);
+		assertEquals(0.0, progress.getCurrentValue(), 0);
+	}
+
+	@Test
+	public void testManySubProgressesSupported() {
+		List<ManualProgress<Integer>> subprogresses = new ArrayList<>();
+		WeightedProgress progress = new WeightedProgress();
+		for (int i = 0; i < 100000; i++) {
+			ManualProgress<Integer> subprogress = new ManualProgress<Integer>(
+					0, 10);
+			subprogresses.add(subprogress);
+			progress.add(subprogress, 1.0);
+		}
+
+		for (int i = 0; i < 100000; i++) {
+			subprogresses.get(i).setCurrentValue(5);
+		}
+		assertEquals(50000.0, progress.getCurrentValue(), 1e-6);
+		assertEquals(100000.0, progress.getMaxValue(), 0);
+	}
+}
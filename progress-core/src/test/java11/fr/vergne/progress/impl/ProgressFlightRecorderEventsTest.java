@@ -0,0 +1,151 @@
+package fr.vergne.progress.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import fr.vergne.progress.Progress.ProgressListener;
+
+public class ProgressFlightRecorderEventsTest {
+
+	private List<RecordedEvent> record(Runnable activity) throws IOException {
+		Path file = Files.createTempFile("progress", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("fr.vergne.progress.Started");
+			recording.enable("fr.vergne.progress.Finished");
+			recording.enable("fr.vergne.progress.MaxChanged");
+			recording.enable("fr.vergne.progress.ValueSample");
+			recording.enable("fr.vergne.progress.SlowListener");
+			recording.start();
+			activity.run();
+			recording.stop();
+			recording.dump(file);
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+		List<RecordedEvent> filtered = new LinkedList<RecordedEvent>();
+		for (RecordedEvent event : events) {
+			if (event.getEventType().getName().equals(name)) {
+				filtered.add(event);
+			} else {
+				// Other event
+			}
+		}
+		return filtered;
+	}
+
+	@Test
+	public void testAvailable() {
+		assertTrue(ProgressFlightRecorder.isAvailable());
+	}
+
+	@Test
+	public void testProgressEventsRecorded() throws IOException {
+		List<RecordedEvent> events = record(new Runnable() {
+
+			@Override
+			public void run() {
+				ManualProgress<Integer> progress = new ManualProgress<Integer>(
+						0, null);
+				ProgressFlightRecorder.record("task", progress, 0);
+				progress.setMaxValue(10);
+				progress.setCurrentValue(5);
+				progress.setCurrentValue(10);
+			}
+		});
+
+		List<RecordedEvent> started = filter(events,
+				"fr.vergne.progress.Started");
+		assertEquals(1, started.size());
+		assertEquals("task", started.get(0).getString("name"));
+		assertTrue(Double.isNaN(started.get(0).getDouble("maxValue")));
+
+		List<RecordedEvent> maxChanged = filter(events,
+				"fr.vergne.progress.MaxChanged");
+		assertEquals(1, maxChanged.size());
+		assertEquals(10.0, maxChanged.get(0).getDouble("maxValue"), 0);
+
+		List<RecordedEvent> samples = filter(events,
+				"fr.vergne.progress.ValueSample");
+		assertEquals(2, samples.size());
+		assertEquals(5.0, samples.get(0).getDouble("currentValue"), 0);
+
+		List<RecordedEvent> finished = filter(events,
+				"fr.vergne.progress.Finished");
+		assertEquals(1, finished.size());
+		assertEquals(10.0, finished.get(0).getDouble("finalValue"), 0);
+	}
+
+	@Test
+	public void testSamplesThrottled() throws IOException {
+		List<RecordedEvent> events = record(new Runnable() {
+
+			@Override
+			public void run() {
+				ManualProgress<Integer> progress = new ManualProgress<Integer>(
+						0, 1000);
+				ProgressFlightRecorder.record("task", progress, 60000);
+				for (int i = 1; i <= 1000; i++) {
+					progress.setCurrentValue(i);
+				}
+			}
+		});
+
+		assertEquals(1, filter(events, "fr.vergne.progress.ValueSample")
+				.size());
+		assertEquals(1, filter(events, "fr.vergne.progress.Finished").size());
+	}
+
+	@Test
+	public void testSlowListenerRecorded() throws IOException {
+		final long threshold = ProgressFlightRecorder.getSlowListenerThreshold();
+		List<RecordedEvent> events = record(new Runnable() {
+
+			@Override
+			public void run() {
+				ProgressFlightRecorder.setSlowListenerThreshold(0);
+				ProgressInstrumentation.setEnabled(true);
+				try {
+					ManualProgress<Integer> progress = new ManualProgress<Integer>(
+							0, 10);
+					progress.addProgressListener(new ProgressListener<Integer>() {
+
+						@Override
+						public void currentUpdate(Integer value) {
+							// Any duration is slow with a threshold of 0
+						}
+
+						@Override
+						public void maxUpdate(Integer maxValue) {
+							// Not tested
+						}
+					});
+					progress.setCurrentValue(1);
+				} finally {
+					ProgressInstrumentation.setEnabled(false);
+					ProgressFlightRecorder.setSlowListenerThreshold(threshold);
+				}
+			}
+		});
+
+		List<RecordedEvent> slow = filter(events,
+				"fr.vergne.progress.SlowListener");
+		assertFalse(slow.isEmpty());
+		assertEquals(ManualProgress.class.getName(), slow.get(0)
+				.getClass("progressClass").getName());
+	}
+}
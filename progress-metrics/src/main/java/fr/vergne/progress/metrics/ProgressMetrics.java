@@ -0,0 +1,351 @@
+package fr.vergne.progress.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * <p>
+ * A {@link ProgressMetrics} renders the {@link Progress}es registered to it in
+ * the <a href=
+ * "https://prometheus.io/docs/instrumenting/exposition_formats/">Prometheus
+ * text exposition format</a>. Each {@link Progress} provides 4 gauges, labeled
+ * by its name:
+ * </p>
+ * <ul>
+ * <li><code>progress_current</code>: its current value,</li>
+ * <li><code>progress_max</code>: its max value, <code>NaN</code> if
+ * unknown,</li>
+ * <li><code>progress_rate</code>: the units done per second, smoothed over the
+ * last renderings,</li>
+ * <li><code>progress_eta_seconds</code>: the time at which it should finish, in
+ * seconds since epoch, <code>NaN</code> if unknown.</li>
+ * </ul>
+ * <p>
+ * The rendering is made in a single byte buffer reused between renderings. The
+ * labels are encoded once at registration and the numbers are written digit by
+ * digit, such that rendering a {@link Progress} does not allocate anything
+ * besides what its getters do. The renderings are serialized, the rate of a
+ * {@link Progress} being computed since the previous one.
+ * </p>
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressMetrics {
+
+	/**
+	 * Weight of the last rendering in the smoothed rate.
+	 */
+	private static final double RATE_SMOOTHING = 0.3;
+	private static final Family CURRENT = new Family("progress_current",
+			"Current value of the progress.");
+	private static final Family MAX = new Family("progress_max",
+			"Max value of the progress, NaN if unknown.");
+	private static final Family RATE = new Family("progress_rate",
+			"Units done per second, smoothed over the last scrapes.");
+	private static final Family ETA = new Family("progress_eta_seconds",
+			"Estimated termination time in seconds since epoch,"
+					+ " NaN if unknown.");
+	private static final byte[] NAN = ascii("NaN");
+	private static final byte[] POSITIVE_INFINITY = ascii("+Inf");
+	private static final byte[] NEGATIVE_INFINITY = ascii("-Inf");
+
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	private byte[] buffer = new byte[4096];
+	private int size = 0;
+	private final byte[] digits = new byte[20];
+
+	private static byte[] ascii(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * The constant parts of the lines of a metric.
+	 */
+	private static class Family {
+		private final byte[] header;
+		private final byte[] prefix;
+
+		public Family(String name, String help) {
+			this.header = ascii("# HELP " + name + " " + help + "\n# TYPE "
+					+ name + " gauge\n");
+			this.prefix = ascii(name);
+		}
+	}
+
+	/**
+	 * A registered {@link Progress}, with the values of the current rendering
+	 * and what is needed to compute its rate.
+	 */
+	private static class Entry {
+		private final Progress<?> progress;
+		private final byte[] labels;
+		private double current;
+		private double max;
+		private double rate = 0;
+		private double eta;
+		private long lastTime = -1;
+		private double lastCurrent;
+
+		public Entry(String name, Progress<?> progress) {
+			this.progress = progress;
+			this.labels = ("{progress=\"" + escape(name) + "\"} ")
+					.getBytes(StandardCharsets.UTF_8);
+		}
+
+		private static String escape(String name) {
+			return name.replace("\\", "\\\\").replace("\"", "\\\"")
+					.replace("\n", "\\n");
+		}
+
+		public void sample(long now) {
+			Number current = progress.getCurrentValue();
+			Number max = progress.getMaxValue();
+			this.current = current == null ? Double.NaN : current
+					.doubleValue();
+			this.max = max == null ? Double.NaN : max.doubleValue();
+
+			if (lastTime >= 0 && now > lastTime
+					&& !Double.isNaN(this.current)) {
+				double instantRate = Math.max(0, this.current - lastCurrent)
+						* 1000 / (now - lastTime);
+				rate = rate == 0 ? instantRate : RATE_SMOOTHING * instantRate
+						+ (1 - RATE_SMOOTHING) * rate;
+			} else {
+				// Not enough data to compute the rate
+			}
+			lastTime = now;
+			lastCurrent = this.current;
+
+			if (Double.isNaN(this.current) || Double.isNaN(this.max)) {
+				eta = Double.NaN;
+			} else if (this.current >= this.max) {
+				eta = now / 1000.0;
+			} else if (rate <= 0) {
+				eta = Double.NaN;
+			} else {
+				eta = (now + (this.max - this.current) * 1000 / rate) / 1000;
+			}
+		}
+	}
+
+	/**
+	 * Register a {@link Progress} to render.
+	 *
+	 * @param name
+	 *            the name of the {@link Progress}, used as label
+	 * @param progress
+	 *            the {@link Progress} to render
+	 * @throws IllegalArgumentException
+	 *             if the name is already used
+	 */
+	public synchronized void register(String name, Progress<?> progress) {
+		if (name == null) {
+			throw new NullPointerException("No name provided");
+		} else if (progress == null) {
+			throw new NullPointerException("No progress provided");
+		} else if (entries.containsKey(name)) {
+			throw new IllegalArgumentException("Already registered: " + name);
+		} else {
+			entries.put(name, new Entry(name, progress));
+		}
+	}
+
+	/**
+	 * Remove a {@link Progress} previously registered.
+	 *
+	 * @param name
+	 *            the name of the {@link Progress}
+	 * @return <code>true</code> if it was registered, <code>false</code>
+	 *         otherwise
+	 */
+	public synchronized boolean unregister(String name) {
+		return entries.remove(name) != null;
+	}
+
+	/**
+	 *
+	 * @return the number of {@link Progress}es registered
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Render the metrics of all the {@link Progress}es and write them.
+	 *
+	 * @param output
+	 *            the {@link OutputStream} to write to
+	 * @throws IOException
+	 *             if the metrics cannot be written
+	 */
+	public synchronized void writeTo(OutputStream output) throws IOException {
+		render(System.currentTimeMillis());
+		output.write(buffer, 0, size);
+	}
+
+	/**
+	 * Render the metrics of all the {@link Progress}es in the internal buffer.
+	 * It should be called while synchronized on this {@link ProgressMetrics},
+	 * the buffer being valid until the next rendering.
+	 *
+	 * @param now
+	 *            the current time, in milliseconds since epoch
+	 * @return the number of bytes rendered
+	 */
+	int render(long now) {
+		size = 0;
+		for (Entry entry : entries.values()) {
+			entry.sample(now);
+		}
+
+		append(CURRENT.header);
+		for (Entry entry : entries.values()) {
+			appendLine(CURRENT, entry, entry.current);
+		}
+		append(MAX.header);
+		for (Entry entry : entries.values()) {
+			appendLine(MAX, entry, entry.max);
+		}
+		append(RATE.header);
+		for (Entry entry : entries.values()) {
+			appendLine(RATE, entry, entry.rate);
+		}
+		append(ETA.header);
+		for (Entry entry : entries.values()) {
+			appendLine(ETA, entry, entry.eta);
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the buffer filled by the last {@link #render(long)}
+	 */
+	byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Take the buffer filled by the last {@link #render(long)} and replace it
+	 * by another one for the next renderings, such that it can be written
+	 * without holding the lock of this {@link ProgressMetrics}. It should be
+	 * called while synchronized on this {@link ProgressMetrics}.
+	 *
+	 * @param spare
+	 *            the buffer to use for the next renderings, typically the one
+	 *            taken at the previous call
+	 * @return the buffer filled by the last {@link #render(long)}
+	 */
+	byte[] swapBuffer(byte[] spare) {
+		byte[] rendered = buffer;
+		buffer = spare;
+		return rendered;
+	}
+
+	@Override
+	public synchronized String toString() {
+		render(System.currentTimeMillis());
+		return new String(buffer, 0, size, StandardCharsets.UTF_8);
+	}
+
+	private void appendLine(Family family, Entry entry, double value) {
+		append(family.prefix);
+		append(entry.labels);
+		appendDouble(value);
+		appendByte('\n');
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > buffer.length) {
+			buffer = Arrays.copyOf(buffer,
+					Math.max(size + additional, 2 * buffer.length));
+		} else {
+			// Enough space
+		}
+	}
+
+	private void append(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, size, bytes.length);
+		size += bytes.length;
+	}
+
+	private void appendByte(char c) {
+		ensureCapacity(1);
+		buffer[size++] = (byte) c;
+	}
+
+	private void appendLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			append(ascii(Long.toString(value)));
+		} else {
+			if (value < 0) {
+				appendByte('-');
+				value = -value;
+			} else {
+				// Positive value
+			}
+			int index = digits.length;
+			do {
+				digits[--index] = (byte) ('0' + value % 10);
+				value /= 10;
+			} while (value > 0);
+			ensureCapacity(digits.length - index);
+			System.arraycopy(digits, index, buffer, size, digits.length
+					- index);
+			size += digits.length - index;
+		}
+	}
+
+	/**
+	 * Write a double with at most 6 decimals, which is enough for progress
+	 * values and rates.
+	 */
+	private void appendDouble(double value) {
+		if (Double.isNaN(value)) {
+			append(NAN);
+		} else if (value == Double.POSITIVE_INFINITY) {
+			append(POSITIVE_INFINITY);
+		} else if (value == Double.NEGATIVE_INFINITY) {
+			append(NEGATIVE_INFINITY);
+		} else if (Math.abs(value) >= 1e15) {
+			// Rare case which would overflow the decimal writing
+			append(ascii(Double.toString(value)));
+		} else {
+			if (value < 0) {
+				appendByte('-');
+				value = -value;
+			} else {
+				// Positive value
+			}
+			long integer = (long) value;
+			long decimals = Math.round((value - integer) * 1000000);
+			if (decimals == 1000000) {
+				integer++;
+				decimals = 0;
+			} else {
+				// Decimals in the range
+			}
+			appendLong(integer);
+			if (decimals > 0) {
+				appendByte('.');
+				for (long scale = 100000; decimals < scale; scale /= 10) {
+					appendByte('0');
+				}
+				while (decimals % 10 == 0) {
+					decimals /= 10;
+				}
+				appendLong(decimals);
+			} else {
+				// Integer value
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package fr.vergne.progress.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import fr.vergne.progress.Progress;
+
+/**
+ * A {@link ProgressMetricsServer} serves the {@link Progress}es of a
+ * {@link ProgressMetrics} on {@value #PATH}, through the
+ * {@link HttpServer} of the JDK, such that Prometheus can scrape them. Each
+ * request renders the metrics in the buffer of the {@link ProgressMetrics}
+ * and swaps it with a spare one before to send it, so the
+ * {@link ProgressMetrics} is locked only during the rendering, whatever the
+ * speed of the client. The two buffers are reused by all the requests, so
+ * concurrent scrapes are served one after the other.
+ *
+ * @author Matthieu Vergne <matthieu.vergne@gmail.com>
+ *
+ */
+public class ProgressMetricsServer implements Closeable {
+
+	/**
+	 * The path on which the metrics are served.
+	 */
+	public static final String PATH = "/metrics";
+	/**
+	 * The content type of the Prometheus text exposition format.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final HttpServer server;
+	/**
+	 * Guards {@link #spare} and the sending of the buffer taken from the
+	 * {@link ProgressMetrics}. It is always taken before the lock of the
+	 * {@link ProgressMetrics}.
+	 */
+	private final Object writeLock = new Object();
+	private byte[] spare = new byte[0];
+
+	/**
+	 * Create and start a {@link ProgressMetricsServer}.
+	 *
+	 * @param metrics
+	 *            the {@link ProgressMetrics} to serve
+	 * @param address
+	 *            the address to listen to, with a port 0 to use any free port
+	 * @throws IOException
+	 *             if the server cannot listen to the address
+	 */
+	public ProgressMetricsServer(final ProgressMetrics metrics,
+			InetSocketAddress address) throws IOException {
+		if (metrics == null) {
+			throw new NullPointerException("No metrics provided");
+		} else {
+			server = HttpServer.create(address, 0);
+			server.createContext(PATH, new HttpHandler() {
+
+				@Override
+				public void handle(HttpExchange exchange) throws IOException {
+					try {
+						if ("GET".equals(exchange.getRequestMethod())) {
+							exchange.getResponseHeaders().set("Content-Type",
+									CONTENT_TYPE);
+							synchronized (writeLock) {
+								int size;
+								byte[] rendered;
+								synchronized (metrics) {
+									size = metrics.render(System
+											.currentTimeMillis());
+									rendered = metrics.swapBuffer(spare);
+								}
+								// Written without locking the metrics
+								exchange.sendResponseHeaders(200, size);
+								OutputStream body = exchange.getResponseBody();
+								body.write(rendered, 0, size);
+								spare = rendered;
+							}
+						} else {
+							exchange.getResponseHeaders().set("Allow", "GET");
+							exchange.sendResponseHeaders(405, -1);
+						}
+					} finally {
+						exchange.close();
+					}
+				}
+			});
+			server.start();
+		}
+	}
+
+	/**
+	 *
+	 * @return the address on which the server listens
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Stop the server, without waiting for the current scrapes.
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+}
@@ -0,0 +1,170 @@
+package fr.vergne.progress.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import fr.vergne.progress.impl.ManualProgress;
+
+public class ProgressMetricsTest {
+
+	private static String render(ProgressMetrics metrics, long now) {
+		int size = metrics.render(now);
+		return new String(metrics.getBuffer(), 0, size, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testRenderingFormat() {
+		ProgressMetrics metrics = new ProgressMetrics();
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(0, 100);
+		metrics.register("task", progress);
+
+		render(metrics, 1000);
+		progress.setCurrentValue(10);
+		String text = render(metrics, 2000);
+
+		assertTrue(text, text.contains("# TYPE progress_current gauge\n"));
+		assertTrue(text, text.contains("progress_current{progress=\"task\"} 10\n"));
+		assertTrue(text, text.contains("progress_max{progress=\"task\"} 100\n"));
+		assertTrue(text, text.contains("progress_rate{progress=\"task\"} 10\n"));
+		assertTrue(text,
+				text.contains("progress_eta_seconds{progress=\"task\"} 11\n"));
+	}
+
+	@Test
+	public void testDecimalValues() {
+		ProgressMetrics metrics = new ProgressMetrics();
+		ManualProgress<Double> progress = new ManualProgress<Double>(0.0, 1.0);
+		metrics.register("task", progress);
+
+		progress.setCurrentValue(0.05);
+		assertTrue(render(metrics, 0).contains(
+				"progress_current{progress=\"task\"} 0.05\n"));
+		progress.setCurrentValue(0.9999999);
+		assertTrue(render(metrics, 0).contains(
+				"progress_current{progress=\"task\"} 1\n"));
+	}
+
+	@Test
+	public void testUnknownMaxRenderedAsNaN() {
+		ProgressMetrics metrics = new ProgressMetrics();
+		metrics.register("task", new ManualProgress<Integer>(0, null));
+
+		String text = render(metrics, 0);
+		assertTrue(text, text.contains("progress_max{progress=\"task\"} NaN\n"));
+		assertTrue(text,
+				text.contains("progress_eta_seconds{progress=\"task\"} NaN\n"));
+	}
+
+	@Test
+	public void testLabelEscaped() {
+		ProgressMetrics metrics = new ProgressMetrics();
+		metrics.register("a \"b\"\\c\nd", new ManualProgress<Integer>(0, 1));
+
+		assertTrue(render(metrics, 0).contains(
+				"progress_current{progress=\"a \\\"b\\\"\\\\c\\nd\"} 0\n"));
+	}
+
+	@Test
+	public void testRegistration() {
+		ProgressMetrics metrics = new ProgressMetrics();
+		metrics.register("task", new ManualProgress<Integer>(0, 1));
+		try {
+			metrics.register("task", new ManualProgress<Integer>(0, 1));
+			fail("No exception thrown");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals(1, metrics.size());
+
+		assertTrue(metrics.unregister("task"));
+		assertFalse(metrics.unregister("task"));
+		assertEquals(0, metrics.size());
+		assertFalse(render(metrics, 0).contains("task"));
+	}
+
+	@Test
+	public void testManyProgressesRendered() {
+		ProgressMetrics metrics = new ProgressMetrics();
+		int count = 100000;
+		for (int i = 0; i < count; i++) {
+			metrics.register("task" + i, new ManualProgress<Integer>(i, count));
+		}
+
+		int size = metrics.render(0);
+		byte[] buffer = metrics.getBuffer();
+		assertSame(buffer, metrics.getBuffer());
+		assertEquals(size, metrics.render(0));
+		assertSame(buffer, metrics.getBuffer());
+	}
+
+	@Test
+	public void testBufferSwapped() {
+		ProgressMetrics metrics = new ProgressMetrics();
+		metrics.register("task", new ManualProgress<Integer>(5, 10));
+		byte[] spare = new byte[0];
+
+		int size = metrics.render(0);
+		byte[] rendered = metrics.swapBuffer(spare);
+		assertSame(spare, metrics.getBuffer());
+		assertEquals(size, metrics.render(0));
+		assertEquals(new String(rendered, 0, size, StandardCharsets.UTF_8),
+				new String(metrics.getBuffer(), 0, size,
+						StandardCharsets.UTF_8));
+	}
+
+	private static String scrape(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url
+				.openConnection();
+		assertEquals(200, connection.getResponseCode());
+		assertEquals(ProgressMetricsServer.CONTENT_TYPE,
+				connection.getContentType());
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		InputStream input = connection.getInputStream();
+		byte[] bytes = new byte[1024];
+		for (int read; (read = input.read(bytes)) != -1;) {
+			output.write(bytes, 0, read);
+		}
+		input.close();
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testServerProvidesMetrics() throws IOException {
+		ProgressMetrics metrics = new ProgressMetrics();
+		ManualProgress<Integer> progress = new ManualProgress<Integer>(5, 10);
+		metrics.register("task", progress);
+		ProgressMetricsServer server = new ProgressMetricsServer(metrics,
+				new InetSocketAddress("localhost", 0));
+		try {
+			URL url = new URL("http://localhost:"
+					+ server.getAddress().getPort()
+					+ ProgressMetricsServer.PATH);
+			String text = scrape(url);
+			assertTrue(text,
+					text.contains("progress_current{progress=\"task\"} 5\n"));
+
+			// Served from the spare buffer
+			progress.setCurrentValue(7);
+			text = scrape(url);
+			assertTrue(text,
+					text.contains("progress_current{progress=\"task\"} 7\n"));
+
+			HttpURLConnection connection = (HttpURLConnection) url
+					.openConnection();
+			connection.setRequestMethod("POST");
+			assertEquals(405, connection.getResponseCode());
+		} finally {
+			server.close();
+		}
+	}
+}